@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss;
+
+import edu.iris.wss.framework.AppConfigurator;
+import edu.iris.wss.framework.BenchmarkFixtures;
+import edu.iris.wss.framework.FixtureHttpServletRequest;
+import edu.iris.wss.framework.FixtureUriInfo;
+import edu.iris.wss.framework.WssSingleton;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Framework overhead of the static endpoints in Wss, called the way
+ * Jersey calls them, a new Wss with its context set, with no HTTP.
+ *
+ * These are the cheapest requests WSS answers, so they are the upper
+ * bound for requests per second before the container is the limit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StaticEndpointBenchmark {
+
+    public static final String CONTEXT_PATH = "/fdsnws";
+    public static final String REMOTE_ADDR = "127.0.0.1";
+
+    @Param({Wss.WSSVERSION, Wss.VERSION, Wss.WHOAMI, Wss.WSSMETRICS})
+    public String endpoint;
+
+    private WssSingleton sw;
+    private FixtureHttpServletRequest request;
+    private FixtureUriInfo uriInfo;
+    private ContainerRequest containerRequest;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(
+              org.apache.log4j.Level.WARN);
+        AppConfigurator appConfig = BenchmarkFixtures.createAppConfig();
+        sw = BenchmarkFixtures.createWssSingleton(appConfig,
+              BenchmarkFixtures.createParamConfig(appConfig));
+        request = new FixtureHttpServletRequest("GET", CONTEXT_PATH, endpoint,
+              null, REMOTE_ADDR);
+        uriInfo = new FixtureUriInfo("");
+        containerRequest = BenchmarkFixtures.createContainerRequest(request);
+
+        // fail here rather than measure exceptions
+        Response response = get();
+        if (response.getStatus() != 200) {
+            throw new IllegalStateException("endpoint: " + endpoint
+                  + " failed, status: " + response.getStatus());
+        }
+    }
+
+    @Benchmark
+    public Response get() throws Exception {
+        Wss wss = new Wss();
+        wss.sw = sw;
+        wss.request = request;
+        wss.uriInfo = uriInfo;
+        wss.requestHeaders = containerRequest;
+        switch (endpoint) {
+            case Wss.WSSVERSION:
+                return wss.getWssVersion();
+            case Wss.VERSION:
+                return wss.getAppVersion();
+            case Wss.WHOAMI:
+                return wss.getwho();
+            case Wss.WSSMETRICS:
+                return wss.getMetrics();
+            default:
+                throw new IllegalArgumentException("endpoint: " + endpoint);
+        }
+    }
+}
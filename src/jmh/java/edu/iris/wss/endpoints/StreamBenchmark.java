@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.endpoints;
+
+import com.Ostermiller.util.CircularByteBuffer;
+import edu.iris.wss.framework.AppConfigurator;
+import edu.iris.wss.framework.BenchmarkFixtures;
+import edu.iris.wss.framework.ParamConfigurator;
+import edu.iris.wss.framework.RequestInfo;
+import edu.iris.wss.framework.WssSingleton;
+import edu.sc.seis.seisFile.mseed.SeedRecord;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JVM side of streaming a response, without a handler process or a
+ * network, data comes from memory and is written to a stream that
+ * discards it.
+ *
+ * The streaming benchmarks ship PAYLOAD_BYTES, i.e. 1 MB, per op, so
+ * the gc.alloc.rate.norm result of -prof gc is bytes allocated per MB
+ * shipped, and the shipped counter is bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+
+    public static final int PAYLOAD_BYTES = 1024 * 1024;
+    public static final String EP_NAME = "dataselect";
+
+    @State(Scope.Benchmark)
+    public static class Config {
+        AppConfigurator appConfig;
+        ParamConfigurator paramConfig;
+
+        @Setup
+        public void setup() throws Exception {
+            // usage messages are still made, but not written
+            LogManager.getLoggerRepository().setThreshold(Level.WARN);
+            appConfig = BenchmarkFixtures.createAppConfig();
+            paramConfig = BenchmarkFixtures.createParamConfig(appConfig);
+        }
+
+        RequestInfo createRequestInfo() {
+            return BenchmarkFixtures.createRequestInfo(appConfig, paramConfig);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Shipped {
+        public long bytes;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Headers {
+        @Param({"256", "4096", "16384"})
+        public int headerBytes;
+
+        byte[] block;
+        byte[] startId;
+        byte[] endId;
+
+        @Setup
+        public void setup() {
+            startId = WssSingleton.HEADER_START_IDENTIFIER
+                  .getBytes(StandardCharsets.UTF_8);
+            endId = WssSingleton.HEADER_END_IDENTIFIER
+                  .getBytes(StandardCharsets.UTF_8);
+            int size = Math.min(headerBytes,
+                  WssSingleton.HEADER_MAX_ACCEPTED_BYTE_COUNT);
+            // what is read after the start identifier must fit
+            int contentBytes = size - startId.length - endId.length - 1;
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(WssSingleton.HEADER_START_IDENTIFIER).append('\n');
+            int count = 0;
+            while (sb.length() - startId.length < contentBytes) {
+                String line = "X-Benchmark-Header-" + count++ + ": value "
+                      + count + "\n";
+                if (sb.length() - startId.length + line.length()
+                      > contentBytes) {
+                    break;
+                }
+                sb.append(line);
+            }
+            sb.append(WssSingleton.HEADER_END_IDENTIFIER);
+            // some data after the headers, as a handler would write
+            sb.append("data");
+            block = sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Normal {
+        byte[] data;
+
+        @Setup
+        public void setup() {
+            // text-like bytes, the content does not matter to writeNormal
+            data = new byte[PAYLOAD_BYTES];
+            Random random = new Random(SyntheticMiniseed.SEED);
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte)(' ' + random.nextInt(95));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Miniseed {
+        @Param({"1", "64", "1024"})
+        public int channels;
+
+        byte[] data;
+        List<SeedRecord> records;
+
+        @Setup
+        public void setup() throws Exception {
+            data = SyntheticMiniseed.create(
+                  PAYLOAD_BYTES / SyntheticMiniseed.RECORD_SIZE, channels);
+            records = new ArrayList<>();
+            DataInputStream dis = new DataInputStream(
+                  new ByteArrayInputStream(data));
+            while (dis.available() > 0) {
+                records.add(SeedRecord.read(dis,
+                      SyntheticMiniseed.RECORD_SIZE));
+            }
+        }
+    }
+
+    @Benchmark
+    public Map checkForHeaders(Headers headers) throws Exception {
+        InputStream is = new ByteArrayInputStream(headers.block);
+        return CmdProcessor.checkForHeaders(is, headers.startId,
+              headers.endId, WssSingleton.HEADER_MAX_ACCEPTED_BYTE_COUNT,
+              "\n", ":");
+    }
+
+    @Benchmark
+    public long writeNormal(Config config, Normal normal, Shipped shipped) {
+        DiscardOutputStream output = new DiscardOutputStream();
+        CmdProcessor cp = new CmdProcessor();
+        cp.prepareStreaming(config.createRequestInfo(), EP_NAME,
+              EXITED_PROCESS, new ByteArrayInputStream(normal.data));
+        cp.writeNormal(output);
+        shipped.bytes += output.count;
+        return output.count;
+    }
+
+    /**
+     * writeMiniSeed with usage logging enabled, i.e. miniSEED records
+     * are parsed while streaming and a wfstat message made per channel.
+     */
+    @Benchmark
+    public long writeMiniSeed(Config config, Miniseed miniseed,
+          Shipped shipped) {
+        DiscardOutputStream output = new DiscardOutputStream();
+        CmdProcessor cp = new CmdProcessor();
+        cp.prepareStreaming(config.createRequestInfo(), EP_NAME,
+              EXITED_PROCESS, new ByteArrayInputStream(miniseed.data));
+        cp.writeMiniSeed(output);
+        shipped.bytes += output.count;
+        return output.count;
+    }
+
+    @Benchmark
+    public HashMap<String, RecordMetaData> processRecord(Miniseed miniseed,
+          Shipped shipped) throws Exception {
+        CmdProcessor cp = new CmdProcessor();
+        HashMap<String, RecordMetaData> logHash = new HashMap<>();
+        for (SeedRecord sr : miniseed.records) {
+            cp.processRecord(sr, logHash);
+        }
+        shipped.bytes += miniseed.data.length;
+        return logHash;
+    }
+
+    /**
+     * Write then read back through a CircularByteBuffer in the chunk size
+     * writeMiniSeed uses.
+     */
+    @Benchmark
+    public long circularByteBuffer(Normal normal, Shipped shipped)
+          throws Exception {
+        CircularByteBuffer cbb = new CircularByteBuffer(
+              CircularByteBuffer.INFINITE_SIZE, false);
+        OutputStream out = cbb.getOutputStream();
+        InputStream in = cbb.getInputStream();
+        byte[] chunk = new byte[32768];
+        long total = 0;
+        for (int offset = 0; offset < normal.data.length;
+              offset += chunk.length) {
+            int count = Math.min(chunk.length, normal.data.length - offset);
+            out.write(normal.data, offset, count);
+            int read = 0;
+            while (read < count) {
+                read += in.read(chunk, read, count - read);
+            }
+            total += read;
+        }
+        shipped.bytes += total;
+        return total;
+    }
+
+    private static final Process EXITED_PROCESS = new Process() {
+        @Override
+        public OutputStream getOutputStream() {
+            return new DiscardOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    };
+
+    private static class DiscardOutputStream extends OutputStream {
+        long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+
+/**
+ * Loads the benchmark fixtures from src/jmh/resources/benchmark.
+ *
+ * Lists are shuffled with SEED so every run, and every commit, sees the
+ * same mix in the same order. Lines starting with # are comments.
+ */
+public class BenchmarkFixtures {
+
+    public static final long SEED = 20181019L;
+    public static final String RESOURCE_DIR = "benchmark/";
+    public static final String POST_BODY_SEPARATOR = "----";
+
+    private BenchmarkFixtures() {
+    }
+
+    public static List<String> readLines(String name) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = open(name)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return - POST bodies, comment lines are kept since they are part
+     *           of what is being parsed
+     */
+    public static List<String> readPostBodies(String name) throws IOException {
+        List<String> bodies = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean isFirstComment = true;
+        try (BufferedReader reader = open(name)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (isFirstComment && line.startsWith("#")) {
+                    // the file header
+                    isFirstComment = false;
+                    continue;
+                }
+                isFirstComment = false;
+                if (line.equals(POST_BODY_SEPARATOR)) {
+                    bodies.add(sb.toString());
+                    sb.setLength(0);
+                } else {
+                    sb.append(line).append('\n');
+                }
+            }
+        }
+        if (sb.length() > 0) {
+            bodies.add(sb.toString());
+        }
+        return bodies;
+    }
+
+    public static Properties readProperties(String name) throws IOException {
+        Properties props = new Properties();
+        try (BufferedReader reader = open(name)) {
+            props.load(reader);
+        }
+        return props;
+    }
+
+    /**
+     * @return - count items taken from source in a shuffled order which
+     *           only depends on SEED
+     */
+    public static <T> List<T> shuffled(List<T> source, int count) {
+        Random random = new Random(SEED);
+        List<T> work = new ArrayList<>(source);
+        List<T> result = new ArrayList<>(count);
+        while (result.size() < count) {
+            Collections.shuffle(work, random);
+            for (T item : work) {
+                if (result.size() == count) {
+                    break;
+                }
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * AppConfigurator for validation-service.cfg, every endpoint uses the
+     * java executable as its handler so the handler check passes anywhere.
+     */
+    public static AppConfigurator createAppConfig() throws Exception {
+        return createAppConfig(readProperties("validation-service.cfg"));
+    }
+
+    /**
+     * AppConfigurator for props, e.g. validation-service.cfg with some
+     * values changed by a benchmark.
+     */
+    public static AppConfigurator createAppConfig(Properties props)
+          throws Exception {
+        String handler = System.getProperty("java.home") + File.separator
+              + "bin" + File.separator + "java";
+        for (String epName : new String[] {"dataselect", "station"}) {
+            props.setProperty(AppConfigurator.createEPdotPropertyName(epName,
+                  AppConfigurator.EP_CFGS.handlerProgram), handler);
+        }
+        AppConfigurator appConfig = new AppConfigurator();
+        appConfig.loadConfigurationParameters(props);
+        return appConfig;
+    }
+
+    public static ParamConfigurator createParamConfig(AppConfigurator appConfig)
+          throws Exception {
+        ParamConfigurator paramConfig =
+              new ParamConfigurator(appConfig.getEndpoints());
+        paramConfig.loadConfigurationParameters(
+              readProperties("validation-param.cfg"));
+        return paramConfig;
+    }
+
+    /**
+     * A RequestInfo with what parseQueryParams needs, i.e. what
+     * RequestInfo.createInstance sets up for a request without a servlet
+     * request.
+     */
+    public static RequestInfo createRequestInfo(AppConfigurator appConfig,
+          ParamConfigurator paramConfig) {
+        RequestInfo ri = new RequestInfo(appConfig);
+        ri.paramConfig = paramConfig;
+        ri.statsKeeper = new StatsKeeper();
+        return ri;
+    }
+
+    /**
+     * A WssSingleton as MyApplication creates it, without usage logging
+     * or the optional sinks.
+     */
+    public static WssSingleton createWssSingleton(AppConfigurator appConfig,
+          ParamConfigurator paramConfig) {
+        WssSingleton sw = new WssSingleton();
+        sw.appConfig = appConfig;
+        sw.paramConfig = paramConfig;
+        return sw;
+    }
+
+    /**
+     * The Jersey request for request, it is also the HttpHeaders, and
+     * holds the properties IrisDynamicProvider sets for the event
+     * listener.
+     */
+    public static ContainerRequest createContainerRequest(
+          FixtureHttpServletRequest request) throws Exception {
+        URI base = new URI(request.getScheme() + "://"
+              + request.getServerName() + ":" + request.getServerPort()
+              + request.getContextPath() + "/");
+        String query = request.getQueryString();
+        URI uri = new URI(request.getRequestURL()
+              + (query == null ? "" : "?" + query));
+        ContainerRequest containerRequest = new ContainerRequest(base, uri,
+              request.getMethod(), null, new MapPropertiesDelegate());
+        Enumeration<String> names = request.getHeaderNames();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            containerRequest.header(name, request.getHeader(name));
+        }
+        return containerRequest;
+    }
+
+    private static BufferedReader open(String name) throws IOException {
+        InputStream is = BenchmarkFixtures.class.getClassLoader()
+              .getResourceAsStream(RESOURCE_DIR + name);
+        if (is == null) {
+            throw new IOException("benchmark fixture not found: "
+                  + RESOURCE_DIR + name);
+        }
+        return new BufferedReader(new InputStreamReader(is,
+              StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import java.net.URI;
+import java.util.List;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.PathSegment;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import org.glassfish.jersey.uri.UriComponent;
+
+/**
+ * A UriInfo for benchmarks, only query parameters are available, they
+ * are decoded the same way Jersey decodes them for a request.
+ */
+public class FixtureUriInfo implements UriInfo {
+
+    private final String query;
+    private final MultivaluedMap<String, String> decoded;
+
+    public FixtureUriInfo(String query) {
+        this.query = query;
+        this.decoded = UriComponent.decodeQuery(query, true);
+    }
+
+    /**
+     * @return - the query string this was created from
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getQueryParameters() {
+        return decoded;
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getQueryParameters(boolean decode) {
+        return decode ? decoded : UriComponent.decodeQuery(query, false);
+    }
+
+    @Override
+    public String getPath() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getPath(boolean decode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<PathSegment> getPathSegments() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<PathSegment> getPathSegments(boolean decode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public URI getRequestUri() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public UriBuilder getRequestUriBuilder() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public URI getAbsolutePath() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public UriBuilder getAbsolutePathBuilder() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public URI getBaseUri() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public UriBuilder getBaseUriBuilder() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getPathParameters() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getPathParameters(boolean decode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<String> getMatchedURIs() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<String> getMatchedURIs(boolean decode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Object> getMatchedResources() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public URI resolve(URI uri) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public URI relativize(URI uri) {
+        throw new UnsupportedOperationException();
+    }
+}
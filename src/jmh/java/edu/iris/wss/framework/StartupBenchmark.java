@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to ready, from starting the embedded Grizzly container until the
+ * first request to a dynamic endpoint succeeds. Jersey creates
+ * MyApplication on the first request, so this covers reading the cfg
+ * files, validating the endpoints and setting up usage logging.
+ *
+ * Each fork is a new JVM and measures one start, so class loading is
+ * included as it is for a restart in production.
+ *
+ * RABBIT_ASYNC uses a broker config URL on an address which is not
+ * routed, so connecting hangs as it does when the broker host is down,
+ * that time should not show in the result since the connection is made
+ * in the background.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+
+    public static final int PORT = 8097;
+    public static final String CONTEXT_PATH = "/startupbench";
+    public static final String UNREACHABLE_RABBIT_CONFIG =
+          "http://10.255.255.1/startup-rabbit.cfg";
+    public static final long READY_TIMEOUT_MSEC = 60000;
+
+    @Param({"4", "32"})
+    public int endpoints;
+
+    @Param({"LOG4J", "RABBIT_ASYNC"})
+    public String loggingMethod;
+
+    private File configDir;
+    private URI baseUri;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(
+              org.apache.log4j.Level.WARN);
+        configDir = Files.createTempDirectory("wss_startup_").toFile();
+
+        File handler = new File(configDir, "startup_handler.sh");
+        Files.write(handler.toPath(), "#!/bin/sh\necho ready\n"
+              .getBytes(StandardCharsets.UTF_8));
+        handler.setExecutable(true);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("appName=startupbench\n");
+        sb.append("version=0.1.0\n");
+        sb.append("loggingMethod=").append(loggingMethod).append('\n');
+        if (loggingMethod.equals("RABBIT_ASYNC")) {
+            sb.append("loggingConfig=").append(UNREACHABLE_RABBIT_CONFIG)
+                  .append('\n');
+        }
+        for (int i = 0; i < endpoints; i++) {
+            String ep = "ep" + i;
+            sb.append(ep).append(".endpointClassName=")
+                  .append("edu.iris.wss.endpoints.CmdProcessor\n");
+            sb.append(ep).append(".handlerProgram=")
+                  .append(handler.getAbsolutePath()).append('\n');
+            sb.append(ep).append(".handlerWorkingDirectory=/tmp\n");
+            sb.append(ep).append(".postEnabled=true\n");
+            sb.append(ep).append(".formatTypes = text: text/plain\n");
+        }
+
+        String fileBase = Util.getWssFileNameBase(CONTEXT_PATH);
+        Files.write(new File(configDir, fileBase + "-service.cfg").toPath(),
+              sb.toString().getBytes(StandardCharsets.UTF_8));
+        System.setProperty(Util.WSS_OS_CONFIG_DIR, configDir.getAbsolutePath());
+        baseUri = URI.create("http://localhost:" + PORT + CONTEXT_PATH);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        GrizzlyContainerHelper.tearDownServer(StartupBenchmark.class.getName());
+        for (File file : configDir.listFiles()) {
+            file.delete();
+        }
+        configDir.delete();
+    }
+
+    @Benchmark
+    public int timeToReady() throws Exception {
+        GrizzlyContainerHelper.setUpServer(baseUri,
+              StartupBenchmark.class.getName(), CONTEXT_PATH);
+        URL url = new URL(baseUri + "/ep" + (endpoints - 1));
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT_MSEC;
+        while (true) {
+            int status = -1;
+            try {
+                status = get(url);
+            } catch (IOException ex) {
+                // not listening yet
+            }
+            if (status == 200) {
+                return status;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("not ready after "
+                      + READY_TIMEOUT_MSEC + " msec, last status: " + status);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static int get(URL url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        int status = conn.getResponseCode();
+        InputStream is = status >= 400 ? conn.getErrorStream()
+              : conn.getInputStream();
+        if (is != null) {
+            byte[] buffer = new byte[1024];
+            while (is.read(buffer) >= 0) {
+                // drain
+            }
+            is.close();
+        }
+        return status;
+    }
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Request validation, i.e. the work done on every request before a
+ * handler is started.
+ *
+ * Each benchmark cycles through FIXTURE_SIZE inputs taken from the
+ * fixtures in a fixed order, so one op is one realistic query. Run
+ * with -prof gc for the allocation rate, the jmh profile does that by
+ * default.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    public static final int FIXTURE_SIZE = 1024;
+
+    private AppConfigurator appConfig;
+    private ParamConfigurator paramConfig;
+
+    private String[] endpoints;
+    private FixtureUriInfo[] uriInfos;
+    private String[] postEndpoints;
+    private String[] postBodies;
+    private String[] dates;
+    private String[] aliasValues;
+    private String[] aliasEndpoints;
+    private String[] aliasNames;
+
+    private int queryIndex = 0;
+    private int postIndex = 0;
+    private int dateIndex = 0;
+    private int aliasValueIndex = 0;
+    private int aliasNameIndex = 0;
+
+    private final FixtureUriInfo emptyUriInfo = new FixtureUriInfo("");
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(
+              org.apache.log4j.Level.WARN);
+        appConfig = BenchmarkFixtures.createAppConfig();
+        paramConfig = BenchmarkFixtures.createParamConfig(appConfig);
+
+        List<String> queries = BenchmarkFixtures.shuffled(
+              BenchmarkFixtures.readLines("queries.txt"), FIXTURE_SIZE);
+        endpoints = new String[FIXTURE_SIZE];
+        uriInfos = new FixtureUriInfo[FIXTURE_SIZE];
+        for (int i = 0; i < FIXTURE_SIZE; i++) {
+            String[] parts = queries.get(i).split(" ", 2);
+            endpoints[i] = parts[0];
+            uriInfos[i] = new FixtureUriInfo(parts[1]);
+        }
+
+        postBodies = BenchmarkFixtures.shuffled(
+              BenchmarkFixtures.readPostBodies("post_bodies.txt"), FIXTURE_SIZE)
+              .toArray(new String[0]);
+        postEndpoints = new String[FIXTURE_SIZE];
+        for (int i = 0; i < FIXTURE_SIZE; i++) {
+            postEndpoints[i] = postBodies[i].contains("level=")
+                  ? "station" : "dataselect";
+        }
+
+        dates = BenchmarkFixtures.shuffled(
+              BenchmarkFixtures.readLines("dates.txt"), FIXTURE_SIZE)
+              .toArray(new String[0]);
+        aliasValues = BenchmarkFixtures.shuffled(
+              BenchmarkFixtures.readLines("aliases.txt"), FIXTURE_SIZE)
+              .toArray(new String[0]);
+
+        // every query parameter name, aliases and not, as requested
+        List<String> names = new ArrayList<>();
+        List<String> nameEndpoints = new ArrayList<>();
+        for (int i = 0; i < FIXTURE_SIZE; i++) {
+            for (String key : uriInfos[i].getQueryParameters().keySet()) {
+                names.add(key);
+                nameEndpoints.add(endpoints[i]);
+            }
+        }
+        aliasNames = names.toArray(new String[0]);
+        aliasEndpoints = nameEndpoints.toArray(new String[0]);
+
+        // fail here rather than measure exceptions
+        for (int i = 0; i < FIXTURE_SIZE; i++) {
+            parseQuery();
+            parsePost();
+        }
+    }
+
+    @Benchmark
+    public ArrayList<String> parseQuery() throws Exception {
+        int i = queryIndex;
+        queryIndex = (i + 1) % FIXTURE_SIZE;
+        RequestInfo ri = BenchmarkFixtures.createRequestInfo(appConfig,
+              paramConfig);
+        ri.uriInfo = uriInfos[i];
+        ArrayList<String> cmd = new ArrayList<>();
+        ParameterTranslator.parseQueryParams(cmd, ri, endpoints[i]);
+        return cmd;
+    }
+
+    @Benchmark
+    public ArrayList<String> parsePost() throws Exception {
+        int i = postIndex;
+        postIndex = (i + 1) % FIXTURE_SIZE;
+        RequestInfo ri = BenchmarkFixtures.createRequestInfo(appConfig,
+              paramConfig);
+        ri.uriInfo = emptyUriInfo;
+        ri.postBody = postBodies[i];
+        ArrayList<String> cmd = new ArrayList<>();
+        ParameterTranslator.parseQueryParams(cmd, ri, postEndpoints[i]);
+        return cmd;
+    }
+
+    @Benchmark
+    public String extractValueByKey() throws Exception {
+        int i = postIndex;
+        postIndex = (i + 1) % FIXTURE_SIZE;
+        return ParameterTranslator.extractValueByKey(postBodies[i], "format");
+    }
+
+    @Benchmark
+    public Boolean isValidFdsnDate() {
+        int i = dateIndex;
+        dateIndex = (i + 1) % FIXTURE_SIZE;
+        return ParameterTranslator.isValidFdsnDate(dates[i]);
+    }
+
+    @Benchmark
+    public Map<String, String> createAliasesMap() throws Exception {
+        int i = aliasValueIndex;
+        aliasValueIndex = (i + 1) % FIXTURE_SIZE;
+        return ParamConfigurator.createAliasesMap(aliasValues[i]);
+    }
+
+    /**
+     * The alias lookups parseQueryParams does for one parameter name.
+     */
+    @Benchmark
+    public void resolveAlias(Blackhole bh) {
+        int i = aliasNameIndex;
+        aliasNameIndex = (i + 1) % aliasNames.length;
+        String epName = aliasEndpoints[i];
+        String name = aliasNames[i];
+        if (paramConfig.containsParamAlias(epName, name)) {
+            name = paramConfig.getParamFromAlias(epName, name);
+        }
+        bh.consume(paramConfig.getConfigParamValue(epName, name));
+    }
+}
@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.handlersim;
+
+import edu.iris.wss.endpoints.SyntheticMiniseed;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * A handler program for benchmarks and load tests, it reads WSS style
+ * --name value arguments and writes a stream with controlled timing,
+ * size and content, or exits with a given exit code.
+ *
+ * usage: java -cp [test classpath] edu.iris.wss.handlersim.HandlerSimulator
+ *            [--name value] ...
+ *
+ *   --startdelay seconds - wait before any output, default 0
+ *   --bytes count - total data bytes, default 1024, for miniseed this is
+ *                   rounded up to whole records
+ *   --rate bytes_per_second - throughput limit, default 0 is no limit
+ *   --format binary|text|miniseed - stream content, default binary
+ *   --channels count - miniseed channels, interleaved, default 1
+ *   --reclen bytes - miniseed record length, a power of 2, default 512
+ *   --headers name:value[|name:value] - write an HTTP_HEADERS_START block
+ *   --stallafter bytes - stop writing after this many bytes, default -1
+ *                        is no stall
+ *   --stall seconds - how long to stop writing, 0 stalls forever, e.g. to
+ *                     exceed handlerTimeout, default 0
+ *   --exitcode code - exit code after the data is written, with a
+ *                     message on stderr for the documented codes, use
+ *                     --bytes 0 to exit without writing data, default 0
+ *   --ignoreterm true - ignore SIGTERM, so WSS needs to kill -9
+ *   --seed value - seed for binary and miniseed content
+ *   --STDIN - added by WSS for POST, name=value lines on stdin are
+ *             read as the options above
+ *
+ * Other arguments, e.g. --format values from formatTypes or --username,
+ * are ignored.
+ *
+ * The documented exit codes, see docs/HandlerRequirements.md, are
+ *   0 - 200, 1 - 500, 2 - 204, 3 - 400, 4 - 413
+ */
+public class HandlerSimulator {
+
+    public static final int CHUNK_SIZE = 16 * 1024;
+
+    public int startDelayMsec = 0;
+    public long bytes = 1024;
+    public long rate = 0;
+    public String format = "binary";
+    public int channels = 1;
+    public int recordLength = SyntheticMiniseed.RECORD_SIZE;
+    public String headers = null;
+    public long stallAfter = -1;
+    public int stallMsec = 0;
+    public int exitCode = 0;
+    public boolean isIgnoreTerm = false;
+    public long seed = SyntheticMiniseed.SEED;
+    public boolean isStdin = false;
+
+    private long written = 0;
+    private long streamStartNanos = 0;
+
+    /**
+     * Set options from command line arguments, unknown names are ignored.
+     */
+    public void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                continue;
+            }
+            String name = arg.substring(2);
+            if (name.equals("STDIN")) {
+                isStdin = true;
+                continue;
+            }
+            String value = null;
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                value = args[i + 1];
+                i++;
+            }
+            setOption(name, value);
+        }
+    }
+
+    /**
+     * Set options from name=value lines, e.g. a POST body.
+     */
+    public void parseLines(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int index = line.indexOf('=');
+            if (index > 0) {
+                setOption(line.substring(0, index).trim(),
+                      line.substring(index + 1).trim());
+            }
+        }
+    }
+
+    public void setOption(String name, String value) {
+        if (value == null) {
+            return;
+        }
+        switch (name) {
+        case "startdelay":
+            startDelayMsec = toMsec(value);
+            break;
+        case "bytes":
+            bytes = Long.parseLong(value);
+            break;
+        case "rate":
+            rate = Long.parseLong(value);
+            break;
+        case "format":
+            if (value.equals("binary") || value.equals("text")
+                  || value.equals("miniseed")) {
+                format = value;
+            }
+            break;
+        case "channels":
+            channels = Math.max(1, Integer.parseInt(value));
+            break;
+        case "reclen":
+            recordLength = Integer.parseInt(value);
+            SyntheticMiniseed.checkRecordSize(recordLength);
+            break;
+        case "headers":
+            headers = value;
+            break;
+        case "stallafter":
+            stallAfter = Long.parseLong(value);
+            break;
+        case "stall":
+            stallMsec = toMsec(value);
+            break;
+        case "exitcode":
+            exitCode = Integer.parseInt(value);
+            break;
+        case "ignoreterm":
+            isIgnoreTerm = Boolean.parseBoolean(value);
+            break;
+        case "seed":
+            seed = Long.parseLong(value);
+            break;
+        default:
+            // not a simulator option
+            break;
+        }
+    }
+
+    /**
+     * Write the stream.
+     *
+     * @return - the exit code for the process
+     */
+    public int run(OutputStream out, PrintStream err) throws IOException,
+          InterruptedException {
+        if (startDelayMsec > 0) {
+            Thread.sleep(startDelayMsec);
+        }
+
+        if (bytes <= 0) {
+            out.flush();
+            return finish(err);
+        }
+
+        if (headers != null) {
+            writeHeaders(out);
+        }
+
+        streamStartNanos = System.nanoTime();
+        if (format.equals("miniseed")) {
+            writeMiniseed(out);
+        } else {
+            writeFill(out, format.equals("text"));
+        }
+        out.flush();
+        return finish(err);
+    }
+
+    private int finish(PrintStream err) {
+        String message = exitMessage(exitCode);
+        if (message != null) {
+            err.println("HandlerSimulator exit code " + exitCode + ": "
+                  + message);
+            err.flush();
+        }
+        return exitCode;
+    }
+
+    /**
+     * @return - a stderr message for the documented exit codes, null for 0
+     */
+    public static String exitMessage(int exitCode) {
+        switch (exitCode) {
+        case 0:
+            return null;
+        case 1:
+            return "general error";
+        case 2:
+            return "no data";
+        case 3:
+            return "invalid argument";
+        case 4:
+            return "too much data requested";
+        default:
+            return "undocumented exit code";
+        }
+    }
+
+    private void writeHeaders(OutputStream out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP_HEADERS_START");
+        for (String header : headers.split("\\|")) {
+            if (!header.trim().isEmpty()) {
+                sb.append(header.trim()).append('\n');
+            }
+        }
+        sb.append("HTTP_HEADERS_END");
+        out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void writeFill(OutputStream out, boolean isText)
+          throws IOException, InterruptedException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        if (isText) {
+            byte[] line = "HandlerSimulator synthetic text line\n"
+                  .getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = line[i % line.length];
+            }
+        } else {
+            new Random(seed).nextBytes(chunk);
+        }
+
+        while (written < bytes) {
+            int count = (int)Math.min(chunk.length, bytes - written);
+            write(out, chunk, count);
+        }
+    }
+
+    private void writeMiniseed(OutputStream out) throws IOException,
+          InterruptedException {
+        Random random = new Random(seed);
+        ByteBuffer bb = ByteBuffer.allocate(recordLength);
+        long recordCount = (bytes + recordLength - 1) / recordLength;
+        for (long i = 0; i < recordCount; i++) {
+            bb.clear();
+            SyntheticMiniseed.putRecord(bb, recordLength, (int)(i + 1),
+                  (int)(i % channels), (int)(i / channels), random);
+            write(out, bb.array(), recordLength);
+        }
+    }
+
+    /**
+     * Write count bytes from buffer, applying the stall and rate limits.
+     */
+    private void write(OutputStream out, byte[] buffer, int count)
+          throws IOException, InterruptedException {
+        int offset = 0;
+        if (stallAfter >= 0 && written <= stallAfter
+              && written + count > stallAfter) {
+            // write up to the stall point, so the client has the data
+            // before the stall
+            offset = (int)(stallAfter - written);
+            out.write(buffer, 0, offset);
+            out.flush();
+            written += offset;
+            stall();
+            // stall only once
+            stallAfter = -1;
+        }
+
+        out.write(buffer, offset, count - offset);
+        written += count - offset;
+
+        if (rate > 0) {
+            out.flush();
+            long dueNanos = streamStartNanos + written * 1000000000L / rate;
+            long waitNanos = dueNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                Thread.sleep(waitNanos / 1000000L, (int)(waitNanos % 1000000L));
+            }
+        }
+    }
+
+    private void stall() throws InterruptedException {
+        if (stallMsec > 0) {
+            Thread.sleep(stallMsec);
+        } else {
+            while (true) {
+                Thread.sleep(60000);
+            }
+        }
+    }
+
+    private static int toMsec(String seconds) {
+        return (int)Math.round(Double.parseDouble(seconds) * 1000.0);
+    }
+
+    @SuppressWarnings("restriction")
+    private static void ignoreSigterm() {
+        sun.misc.Signal.handle(new sun.misc.Signal("TERM"),
+              sun.misc.SignalHandler.SIG_IGN);
+    }
+
+    public static void main(String[] args) throws Exception {
+        HandlerSimulator sim = new HandlerSimulator();
+        int exitCode;
+        try {
+            sim.parseArgs(args);
+            if (sim.isStdin) {
+                sim.parseLines(new BufferedReader(new InputStreamReader(
+                      System.in, StandardCharsets.UTF_8)));
+            }
+        } catch (IllegalArgumentException ex) {
+            // includes NumberFormatException
+            System.err.println("HandlerSimulator bad argument: "
+                  + ex.getMessage());
+            System.exit(3);
+        }
+
+        if (sim.isIgnoreTerm) {
+            ignoreSigterm();
+        }
+
+        try {
+            exitCode = sim.run(System.out, System.err);
+        } catch (IOException ex) {
+            // WSS closed stdout, e.g. the client disconnected
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+}
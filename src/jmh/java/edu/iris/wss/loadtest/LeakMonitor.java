@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Samples resources which leak slowly, for soak tests. Each sample has
+ * live threads, open file descriptors, live and zombie child processes,
+ * i.e. handlers, and heap used after a full GC.
+ *
+ * findGrowth looks for a floor which keeps rising, after the first
+ * SETTLE_FRACTION of the samples the rest are split into WINDOWS windows
+ * and a metric is flagged when the minimum of each window is not less
+ * than the one before and the last is more than the metric's allowance
+ * above the first. Minimums are used so the load itself, which comes and
+ * goes, is not counted.
+ */
+public class LeakMonitor {
+
+    public static final double SETTLE_FRACTION = 0.2;
+    public static final int WINDOWS = 5;
+
+    public static enum Metric {
+        THREADS("threads", 5),
+        FDS("fds", 10),
+        CHILDREN("children", 2),
+        ZOMBIES("zombies", 1),
+        HEAP_MB("heapMb", 16);
+
+        public final String jsonName;
+        public final long allowance;
+
+        Metric(String jsonName, long allowance) {
+            this.jsonName = jsonName;
+            this.allowance = allowance;
+        }
+    }
+
+    public static class Sample {
+        public long elapsedSeconds;
+        public final long[] values = new long[Metric.values().length];
+
+        public long get(Metric metric) {
+            return values[metric.ordinal()];
+        }
+    }
+
+    private final long sampleMsec;
+    private final boolean isGcBeforeSample;
+    private final List<Sample> samples = new ArrayList<>();
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private final String pid;
+
+    private long startNanos;
+    private volatile boolean isRunning = false;
+    private Thread thread = null;
+
+    /**
+     * @param isGcBeforeSample - run System.gc before reading the heap, so
+     *                           the heap value is live data
+     */
+    public LeakMonitor(long sampleMsec, boolean isGcBeforeSample) {
+        this.sampleMsec = sampleMsec;
+        this.isGcBeforeSample = isGcBeforeSample;
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        pid = name.substring(0, Math.max(name.indexOf('@'), 0));
+    }
+
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        startNanos = System.nanoTime();
+        isRunning = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (isRunning) {
+                    Sample sample = sampleNow();
+                    System.out.println(toLine(sample));
+                    try {
+                        Thread.sleep(sampleMsec);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                }
+            }
+        }, "wss-soak-leak-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        Thread toJoin;
+        synchronized (this) {
+            if (!isRunning) {
+                return;
+            }
+            isRunning = false;
+            toJoin = thread;
+            thread = null;
+        }
+        toJoin.interrupt();
+        try {
+            toJoin.join(sampleMsec);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Sample sampleNow() {
+        if (isGcBeforeSample) {
+            System.gc();
+        }
+        Sample sample = new Sample();
+        sample.elapsedSeconds = (System.nanoTime() - startNanos) / 1000000000L;
+        sample.values[Metric.THREADS.ordinal()] = threadBean.getThreadCount();
+        sample.values[Metric.FDS.ordinal()] =
+              ServerSampler.getOpenFileDescriptorCount();
+        long[] children = countChildren(pid);
+        sample.values[Metric.CHILDREN.ordinal()] = children[0];
+        sample.values[Metric.ZOMBIES.ordinal()] = children[1];
+        sample.values[Metric.HEAP_MB.ordinal()] =
+              memoryBean.getHeapMemoryUsage().getUsed() / (1024L * 1024L);
+        synchronized (samples) {
+            samples.add(sample);
+        }
+        return sample;
+    }
+
+    /**
+     * Read /proc/[pid]/stat of every process to find the children of
+     * parentPid.
+     *
+     * @return - count of live children and count of zombie children, -1
+     *           for both when /proc is not available
+     */
+    static long[] countChildren(String parentPid) {
+        long[] counts = {0, 0};
+        File[] procs = new File("/proc").listFiles();
+        if (procs == null || parentPid.isEmpty()) {
+            counts[0] = -1;
+            counts[1] = -1;
+            return counts;
+        }
+        for (File proc : procs) {
+            String name = proc.getName();
+            if (name.isEmpty() || !Character.isDigit(name.charAt(0))) {
+                continue;
+            }
+            String stat;
+            try {
+                stat = new String(Files.readAllBytes(
+                      new File(proc, "stat").toPath()), StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                // process ended
+                continue;
+            }
+            // pid (comm) state ppid ..., comm may have spaces
+            int idx = stat.lastIndexOf(')');
+            if (idx < 0) {
+                continue;
+            }
+            String[] fields = stat.substring(idx + 1).trim().split(" ");
+            if (fields.length < 2 || !fields[1].equals(parentPid)) {
+                continue;
+            }
+            if (fields[0].equals("Z")) {
+                counts[1]++;
+            } else {
+                counts[0]++;
+            }
+        }
+        return counts;
+    }
+
+    public List<Sample> getSamples() {
+        synchronized (samples) {
+            return new ArrayList<>(samples);
+        }
+    }
+
+    /**
+     * @return - a description of each metric with a rising floor, empty
+     *           when nothing grew or there are too few samples
+     */
+    public List<String> findGrowth() {
+        List<Sample> all = getSamples();
+        List<String> found = new ArrayList<>();
+        int first = (int)(all.size() * SETTLE_FRACTION);
+        int perWindow = (all.size() - first) / WINDOWS;
+        if (perWindow < 1) {
+            return found;
+        }
+
+        for (Metric metric : Metric.values()) {
+            long[] mins = new long[WINDOWS];
+            for (int w = 0; w < WINDOWS; w++) {
+                long min = Long.MAX_VALUE;
+                for (int i = 0; i < perWindow; i++) {
+                    min = Math.min(min, all.get(first + w * perWindow + i)
+                          .get(metric));
+                }
+                mins[w] = min;
+            }
+
+            boolean isRising = true;
+            for (int w = 1; w < WINDOWS; w++) {
+                if (mins[w] < mins[w - 1]) {
+                    isRising = false;
+                    break;
+                }
+            }
+            if (isRising && mins[0] >= 0
+                  && mins[WINDOWS - 1] - mins[0] > metric.allowance) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(metric.jsonName).append(" floor rising:");
+                for (long min : mins) {
+                    sb.append(' ').append(min);
+                }
+                found.add(sb.toString());
+            }
+        }
+        return found;
+    }
+
+    static String toLine(Sample sample) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "soak %7d s", sample.elapsedSeconds));
+        for (Metric metric : Metric.values()) {
+            sb.append("  ").append(metric.jsonName).append(": ")
+                  .append(sample.get(metric));
+        }
+        return sb.toString();
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"sampleMsec\": ").append(sampleMsec).append(",\n");
+        sb.append("  \"growth\": [");
+        String separator = "";
+        for (String growth : findGrowth()) {
+            sb.append(separator).append('"').append(growth).append('"');
+            separator = ", ";
+        }
+        sb.append("],\n");
+        sb.append("  \"samples\": [");
+        separator = "\n";
+        for (Sample sample : getSamples()) {
+            sb.append(separator).append("    {\"seconds\": ")
+                  .append(sample.elapsedSeconds);
+            for (Metric metric : Metric.values()) {
+                sb.append(", \"").append(metric.jsonName).append("\": ")
+                      .append(sample.get(metric));
+            }
+            sb.append("}");
+            separator = ",\n";
+        }
+        sb.append("\n  ]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+}
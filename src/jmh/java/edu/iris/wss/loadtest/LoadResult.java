@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.loadtest;
+
+import edu.iris.wss.framework.LatencyHistogram;
+import edu.iris.wss.framework.Util;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and latency histograms of one load test run, recorded from all
+ * client threads. Latencies are kept in microseconds.
+ */
+public class LoadResult {
+
+    public static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    /**
+     * Counts for one entry of the request mix.
+     */
+    public static class EntryResult {
+        public final RequestMix.Entry entry;
+        public final AtomicLong requests = new AtomicLong(0);
+        public final AtomicLong errors = new AtomicLong(0);
+        public final LatencyHistogram total = new LatencyHistogram();
+
+        EntryResult(RequestMix.Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    public final LatencyHistogram ttfb = new LatencyHistogram();
+    public final LatencyHistogram total = new LatencyHistogram();
+    public final AtomicLong requests = new AtomicLong(0);
+    public final AtomicLong bytes = new AtomicLong(0);
+    // status 400 and above, or an IO error
+    public final AtomicLong errors = new AtomicLong(0);
+    // connect or read timeouts, also counted in errors
+    public final AtomicLong timeouts = new AtomicLong(0);
+    // responses ending with the stream interrupt indicator
+    public final AtomicLong interrupted = new AtomicLong(0);
+    // responses the client disconnected from, for !abort mix entries
+    public final AtomicLong aborted = new AtomicLong(0);
+    public final ConcurrentHashMap<Integer, AtomicLong> statuses =
+          new ConcurrentHashMap<>();
+    public final EntryResult[] entries;
+
+    public final ServerSampler sampler = new ServerSampler();
+
+    public String name = "loadtest";
+    public int clients;
+    public long startMillis;
+    public long elapsedNanos;
+
+    public LoadResult(RequestMix mix) {
+        List<RequestMix.Entry> mixEntries = mix.getEntries();
+        entries = new EntryResult[mixEntries.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new EntryResult(mixEntries.get(i));
+        }
+    }
+
+    /**
+     * @param status - HTTP status, or -1 when there was no response
+     * @param ttfbMicros - -1 when there was no response
+     * @param isAborted - the client disconnected before the end
+     */
+    public void record(RequestMix.Entry entry, int status, long ttfbMicros,
+          long totalMicros, long byteCount, boolean isTimeout,
+          boolean isInterrupted, boolean isAborted) {
+        requests.incrementAndGet();
+        bytes.addAndGet(byteCount);
+        if (ttfbMicros >= 0) {
+            ttfb.record(ttfbMicros);
+        }
+        total.record(totalMicros);
+        if (status >= 0) {
+            AtomicLong count = statuses.get(status);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong(0);
+                count = statuses.putIfAbsent(status, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        boolean isError = status < 0 || status >= 400 || isTimeout;
+        if (isError) {
+            errors.incrementAndGet();
+        }
+        if (isTimeout) {
+            timeouts.incrementAndGet();
+        }
+        if (isInterrupted) {
+            interrupted.incrementAndGet();
+        }
+        if (isAborted) {
+            aborted.incrementAndGet();
+        }
+
+        EntryResult er = entries[entry.index];
+        er.requests.incrementAndGet();
+        if (isError) {
+            er.errors.incrementAndGet();
+        }
+        er.total.record(totalMicros);
+    }
+
+    public double getSeconds() {
+        return elapsedNanos / 1.0e9;
+    }
+
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0.0 : requests.get() / getSeconds();
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"name\": \"").append(escape(name)).append("\",\n");
+        sb.append("  \"startTime\": \"")
+              .append(Util.getCurrentUTCTimeISO8601()).append("\",\n");
+        sb.append("  \"startMillis\": ").append(startMillis).append(",\n");
+        sb.append("  \"clients\": ").append(clients).append(",\n");
+        sb.append("  \"seconds\": ").append(format(getSeconds())).append(",\n");
+        sb.append("  \"requests\": ").append(requests.get()).append(",\n");
+        sb.append("  \"requestsPerSecond\": ").append(format(getThroughput()))
+              .append(",\n");
+        sb.append("  \"bytes\": ").append(bytes.get()).append(",\n");
+        sb.append("  \"bytesPerSecond\": ").append(format(elapsedNanos == 0
+              ? 0.0 : bytes.get() / getSeconds())).append(",\n");
+        sb.append("  \"errors\": ").append(errors.get()).append(",\n");
+        sb.append("  \"timeouts\": ").append(timeouts.get()).append(",\n");
+        sb.append("  \"interrupted\": ").append(interrupted.get()).append(",\n");
+        sb.append("  \"aborted\": ").append(aborted.get()).append(",\n");
+
+        sb.append("  \"statuses\": {");
+        String separator = "";
+        for (Map.Entry<Integer, AtomicLong> entry
+              : new TreeMap<>(statuses).entrySet()) {
+            sb.append(separator).append("\"").append(entry.getKey())
+                  .append("\": ").append(entry.getValue().get());
+            separator = ", ";
+        }
+        sb.append("},\n");
+
+        sb.append("  \"ttfbMsec\": ");
+        appendLatency(sb, ttfb);
+        sb.append(",\n");
+        sb.append("  \"totalMsec\": ");
+        appendLatency(sb, total);
+        sb.append(",\n");
+
+        sb.append("  \"server\": {\"threadsFirst\": ")
+              .append(sampler.first.threads)
+              .append(", \"threadsMax\": ").append(sampler.max.threads)
+              .append(", \"threadsLast\": ").append(sampler.last.threads)
+              .append(", \"fdsFirst\": ").append(sampler.first.fds)
+              .append(", \"fdsMax\": ").append(sampler.max.fds)
+              .append(", \"fdsLast\": ").append(sampler.last.fds)
+              .append("},\n");
+
+        sb.append("  \"entries\": [");
+        separator = "\n";
+        for (EntryResult er : entries) {
+            sb.append(separator);
+            sb.append("    {\"request\": \"").append(escape(er.entry.toString()))
+                  .append("\", \"weight\": ").append(er.entry.weight)
+                  .append(", \"requests\": ").append(er.requests.get())
+                  .append(", \"errors\": ").append(er.errors.get())
+                  .append(", \"totalMsec\": ");
+            appendLatency(sb, er.total);
+            sb.append("}");
+            separator = ",\n";
+        }
+        sb.append("\n  ]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static void appendLatency(StringBuilder sb, LatencyHistogram h) {
+        sb.append("{\"count\": ").append(h.getCount());
+        sb.append(", \"mean\": ").append(format(h.getMean() / 1000.0));
+        for (double percentile : PERCENTILES) {
+            sb.append(", \"p").append(percentileName(percentile)).append("\": ")
+                  .append(format(h.getValueAtPercentile(percentile) / 1000.0));
+        }
+        sb.append(", \"max\": ").append(format(h.getMax() / 1000.0));
+        sb.append("}");
+    }
+
+    static String percentileName(double percentile) {
+        // 50.0 is p50, 99.9 is p999
+        String text = Double.toString(percentile);
+        if (text.endsWith(".0")) {
+            text = text.substring(0, text.length() - 2);
+        }
+        return text.replace(".", "");
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"")
+              .replace("\n", "\\n");
+    }
+
+    /**
+     * A short summary for the console.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+              "requests: %d  req/s: %.1f  MB/s: %.2f  errors: %d  timeouts: %d"
+              + "  ttfb p50/p99 msec: %.2f/%.2f  total p50/p99 msec: %.2f/%.2f"
+              + "  threads max: %d  fds max: %d",
+              requests.get(), getThroughput(),
+              elapsedNanos == 0 ? 0.0 : bytes.get() / getSeconds() / 1.0e6,
+              errors.get(), timeouts.get(),
+              ttfb.getValueAtPercentile(50.0) / 1000.0,
+              ttfb.getValueAtPercentile(99.0) / 1000.0,
+              total.getValueAtPercentile(50.0) / 1000.0,
+              total.getValueAtPercentile(99.0) / 1000.0,
+              sampler.max.threads, sampler.max.fds);
+    }
+}
@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.loadtest;
+
+import edu.iris.wss.framework.AppConfigurator;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Load test for WSS running in the embedded Grizzly container, N client
+ * threads send requests from a request mix for a fixed time and a JSON
+ * report is written.
+ *
+ * usage: LoadTest [--clients 16] [--warmup 5] [--duration 30]
+ *          [--mix loadtest/default.mix] [--seed 1] [--report file.json]
+ *          [--port 8099] [--context /loadtest] [--config-dir dir]
+ *          [--service-cfg loadtest/loadtest-service.cfg]
+ *          [--param-cfg loadtest/loadtest-param.cfg]
+ *          [--read-timeout 60000] [--url http://host:port/context]
+ *
+ * With --url, requests go to an already running WSS and no server is
+ * started. Client i uses seed + i for its Random, so a run with the same
+ * arguments sends the same sequence of requests from each client.
+ */
+public class LoadTest {
+    public static final Logger logger = Logger.getLogger(LoadTest.class);
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Settings for one run, the defaults are for a short run on one box.
+     */
+    public static class Options {
+        public int clients = 16;
+        public int warmupSeconds = 5;
+        public int durationSeconds = 30;
+        public String mix = "loadtest/default.mix";
+        public long seed = 1L;
+        public String report = null;
+        public int port = 8099;
+        public String contextPath = "/loadtest";
+        public String configDir = "target/loadtest";
+        public String serviceCfg = "loadtest/loadtest-service.cfg";
+        public String paramCfg = "loadtest/loadtest-param.cfg";
+        public int connectTimeoutMsec = 10000;
+        public int readTimeoutMsec = 60000;
+        // an already running service, when set no server is started
+        public String url = null;
+
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException(
+                          "LoadTest missing value for: " + name);
+                }
+                String value = args[++i];
+                switch (name) {
+                case "--clients":
+                    options.clients = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    options.warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "--duration":
+                    options.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "--mix":
+                    options.mix = value;
+                    break;
+                case "--seed":
+                    options.seed = Long.parseLong(value);
+                    break;
+                case "--report":
+                    options.report = value;
+                    break;
+                case "--port":
+                    options.port = Integer.parseInt(value);
+                    break;
+                case "--context":
+                    options.contextPath = value;
+                    break;
+                case "--config-dir":
+                    options.configDir = value;
+                    break;
+                case "--service-cfg":
+                    options.serviceCfg = value;
+                    break;
+                case "--param-cfg":
+                    options.paramCfg = value;
+                    break;
+                case "--connect-timeout":
+                    options.connectTimeoutMsec = Integer.parseInt(value);
+                    break;
+                case "--read-timeout":
+                    options.readTimeoutMsec = Integer.parseInt(value);
+                    break;
+                case "--url":
+                    options.url = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                          "LoadTest unknown option: " + name);
+                }
+            }
+            return options;
+        }
+    }
+
+    private final Options options;
+    private final RequestMix mix;
+    private final String baseUrl;
+
+    private volatile boolean isRecording = false;
+    private volatile boolean isRunning = false;
+
+    public LoadTest(Options options, RequestMix mix, String baseUrl) {
+        this.options = options;
+        this.mix = mix;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+    }
+
+    /**
+     * Run the clients for warmup plus duration seconds, only requests
+     * started after the warmup are recorded.
+     */
+    public LoadResult run() throws InterruptedException {
+        final LoadResult result = new LoadResult(mix);
+        result.clients = options.clients;
+
+        isRunning = true;
+        Thread[] threads = new Thread[options.clients];
+        for (int i = 0; i < threads.length; i++) {
+            final Random random = new Random(options.seed + i);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    while (isRunning) {
+                        RequestMix.Entry entry = mix.next(random);
+                        boolean isRecorded = isRecording;
+                        issue(entry, buffer, isRecorded ? result : null);
+                    }
+                }
+            }, "wss-loadtest-client-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+
+        Thread.sleep(options.warmupSeconds * 1000L);
+        result.sampler.start();
+        result.startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        isRecording = true;
+        Thread.sleep(options.durationSeconds * 1000L);
+        isRecording = false;
+        result.elapsedNanos = System.nanoTime() - startNanos;
+        isRunning = false;
+
+        for (Thread thread : threads) {
+            thread.join(options.readTimeoutMsec);
+        }
+        result.sampler.stop();
+        return result;
+    }
+
+    /**
+     * Send one request and read the whole response.
+     *
+     * @param result - null to not record, i.e. during warmup
+     */
+    void issue(RequestMix.Entry entry, byte[] buffer, LoadResult result) {
+        long startNanos = System.nanoTime();
+        long ttfbNanos = -1;
+        int status = -1;
+        long byteCount = 0;
+        boolean isTimeout = false;
+        boolean isInterrupted = false;
+        boolean isAborted = false;
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection)new URL(baseUrl + entry.pathAndQuery)
+                  .openConnection();
+            conn.setConnectTimeout(options.connectTimeoutMsec);
+            conn.setReadTimeout(options.readTimeoutMsec);
+            conn.setRequestMethod(entry.method);
+            if (entry.isPost()) {
+                conn.setDoOutput(true);
+                conn.setRequestProperty("Content-Type", "text/plain");
+                conn.setFixedLengthStreamingMode(entry.postBody.length);
+                try (OutputStream os = conn.getOutputStream()) {
+                    os.write(entry.postBody);
+                }
+            }
+
+            status = conn.getResponseCode();
+            InputStream is = status >= 400 ? conn.getErrorStream()
+                  : conn.getInputStream();
+            if (is == null) {
+                ttfbNanos = System.nanoTime() - startNanos;
+            } else {
+                try {
+                    byte[] tail = new byte[INTERRUPT_INDICATOR.length];
+                    int count = is.read(buffer);
+                    ttfbNanos = System.nanoTime() - startNanos;
+                    while (count >= 0) {
+                        byteCount += count;
+                        keepTail(tail, buffer, count);
+                        if (entry.isAbort()
+                              && byteCount >= entry.abortAfterBytes) {
+                            // close the socket mid stream, as a client
+                            // which goes away does
+                            isAborted = true;
+                            conn.disconnect();
+                            break;
+                        }
+                        count = is.read(buffer);
+                    }
+                    isInterrupted = !isAborted && byteCount >= tail.length
+                          && Arrays.equals(tail, INTERRUPT_INDICATOR);
+                } finally {
+                    is.close();
+                }
+            }
+        } catch (SocketTimeoutException ex) {
+            isTimeout = true;
+        } catch (IOException ex) {
+            logger.debug("LoadTest request: " + entry + "  ex: " + ex);
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+
+        if (result != null) {
+            long totalNanos = System.nanoTime() - startNanos;
+            result.record(entry, status, ttfbNanos < 0 ? -1 : ttfbNanos / 1000L,
+                  totalNanos / 1000L, byteCount, isTimeout, isInterrupted,
+                  isAborted);
+        }
+    }
+
+    private static final byte[] INTERRUPT_INDICATOR =
+          AppConfigurator.STREAM_INTERRUPT_INDICATOR
+                .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Keep the last tail.length bytes of the response in tail, the
+     * indicator may be split over several reads.
+     */
+    static void keepTail(byte[] tail, byte[] buffer, int count) {
+        if (count >= tail.length) {
+            System.arraycopy(buffer, count - tail.length, tail, 0, tail.length);
+        } else if (count > 0) {
+            System.arraycopy(tail, count, tail, 0, tail.length - count);
+            System.arraycopy(buffer, 0, tail, tail.length - count, count);
+        }
+    }
+
+    /**
+     * Start the server unless options.url is set, run the test and write
+     * the report if options.report is set.
+     */
+    public static LoadResult run(Options options) throws Exception {
+        RequestMix mix = RequestMix.load(options.mix);
+        LoadTestServer server = null;
+        String baseUrl = options.url;
+        if (baseUrl == null) {
+            server = new LoadTestServer(options.port, options.contextPath,
+                  new File(options.configDir));
+            server.start(options.serviceCfg, options.paramCfg);
+            baseUrl = server.getBaseUri().toString();
+        }
+
+        LoadResult result;
+        try {
+            result = new LoadTest(options, mix, baseUrl).run();
+            result.name = new File(options.mix).getName();
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+
+        if (options.report != null) {
+            File reportFile = new File(options.report);
+            File parent = reportFile.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory()) {
+                parent.mkdirs();
+            }
+            Files.write(reportFile.toPath(),
+                  result.toJson().getBytes(StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("usage: " + LoadTest.class.getName()
+                  + " [--clients n] [--warmup sec] [--duration sec]"
+                  + " [--mix file] [--seed n] [--report file.json]"
+                  + " [--port n] [--context path] [--config-dir dir]"
+                  + " [--service-cfg file] [--param-cfg file]"
+                  + " [--connect-timeout msec] [--read-timeout msec]"
+                  + " [--url baseUrl]");
+            System.exit(1);
+            return;
+        }
+
+        // per request logging would dominate the run
+        LogManager.getLoggerRepository().setThreshold(Level.WARN);
+
+        LoadResult result = run(options);
+        System.out.println(result.toString());
+        if (options.report != null) {
+            System.out.println("report: " + options.report);
+        }
+        // Grizzly and handler timer threads may remain
+        System.exit(0);
+    }
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.loadtest;
+
+import edu.iris.wss.framework.GrizzlyContainerHelper;
+import edu.iris.wss.framework.Util;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Runs WSS in the embedded Grizzly container the tests use, with the
+ * service and param cfg files copied into a config directory.
+ *
+ * In the cfg files, ${loadtest.dir} is replaced with the directory the
+ * service cfg file was read from, so handlers can be found next to it,
+ * ${java} with the java command of this JVM and ${classpath} with this
+ * JVM's class path, so Java handlers such as HandlerSimulator can be run.
+ * The class path must not have spaces, handlerProgram is split on spaces.
+ */
+public class LoadTestServer {
+
+    public static final String LOADTEST_DIR_VARIABLE = "${loadtest.dir}";
+    public static final String JAVA_VARIABLE = "${java}";
+    public static final String CLASSPATH_VARIABLE = "${classpath}";
+
+    private final int port;
+    private final String contextPath;
+    private final File configDir;
+    private URI baseUri = null;
+
+    /**
+     * @param contextPath - e.g. /loadtest, the cfg files are named with
+     *                      the context, as for a deployed war file
+     */
+    public LoadTestServer(int port, String contextPath, File configDir) {
+        this.port = port;
+        this.contextPath = contextPath;
+        this.configDir = configDir;
+    }
+
+    /**
+     * @param serviceCfg - file or classpath resource name
+     * @param paramCfg - file or classpath resource name, may be null
+     */
+    public void start(String serviceCfg, String paramCfg) throws Exception {
+        if (!configDir.isDirectory() && !configDir.mkdirs()) {
+            throw new IOException("Unable to create config directory: "
+                  + configDir.getAbsolutePath());
+        }
+        File serviceFile = locate(serviceCfg);
+        String fileBase = Util.getWssFileNameBase(contextPath);
+        copyConfig(serviceFile, serviceFile.getParentFile(),
+              new File(configDir, fileBase + "-service.cfg"));
+        if (paramCfg != null) {
+            copyConfig(locate(paramCfg), serviceFile.getParentFile(),
+                  new File(configDir, fileBase + "-param.cfg"));
+        }
+
+        System.setProperty(Util.WSS_OS_CONFIG_DIR, configDir.getAbsolutePath());
+        baseUri = URI.create("http://localhost:" + port + contextPath);
+        GrizzlyContainerHelper.setUpServer(baseUri,
+              LoadTestServer.class.getName(), contextPath);
+    }
+
+    public void stop() throws Exception {
+        if (baseUri != null) {
+            GrizzlyContainerHelper.tearDownServer(LoadTestServer.class.getName());
+            baseUri = null;
+        }
+    }
+
+    /**
+     * @return - e.g. http://localhost:8099/loadtest
+     */
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    public File getConfigDir() {
+        return configDir;
+    }
+
+    static File locate(String name) throws IOException {
+        File file = new File(name);
+        if (file.isFile()) {
+            return file.getAbsoluteFile();
+        }
+        URL url = LoadTestServer.class.getClassLoader().getResource(name);
+        if (url == null) {
+            throw new IOException("load test config not found: " + name);
+        }
+        if (!url.getProtocol().equals("file")) {
+            throw new IOException("load test config must be a file, found: "
+                  + url);
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException ex) {
+            throw new IOException("load test config bad URL: " + url, ex);
+        }
+    }
+
+    /**
+     * @return - this JVM's class path, with absolute entries since the
+     *           handler is not run in the current directory
+     */
+    static String absoluteClassPath() {
+        StringBuilder sb = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path")
+              .split(File.pathSeparator)) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(File.pathSeparator);
+            }
+            sb.append(new File(entry).getAbsolutePath());
+        }
+        return sb.toString();
+    }
+
+    private static void copyConfig(File source, File sourceDir, File target)
+          throws IOException {
+        String text = new String(Files.readAllBytes(source.toPath()),
+              StandardCharsets.UTF_8);
+        text = text.replace(LOADTEST_DIR_VARIABLE, sourceDir.getAbsolutePath());
+        text = text.replace(JAVA_VARIABLE, new File(
+              System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        text = text.replace(CLASSPATH_VARIABLE, absoluteClassPath());
+        Files.write(target.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
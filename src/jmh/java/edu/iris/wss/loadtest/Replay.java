@@ -0,0 +1,395 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.loadtest;
+
+import edu.iris.wss.utils.CaptureFormat;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Sends requests captured with the captureFile parameter, see
+ * CaptureFileSink, to a test service and compares the latency and status
+ * of each with what was captured.
+ *
+ * usage: Replay [--speed 1.0] [--clients 16] [--limit n] [--report file.json]
+ *          [--url http://host:port/context] [--port 8099]
+ *          [--context /loadtest] [--config-dir dir]
+ *          [--service-cfg file] [--param-cfg file]
+ *          [--connect-timeout 10000] [--read-timeout 60000]
+ *          capture.bin ...
+ *
+ * Requests are sent in captured start order. With speed 1.0 they are sent
+ * at the captured times, 2.0 is twice as fast, 0 sends them as fast as
+ * the clients take them. At most clients requests are in flight, when
+ * they are all busy the next request waits, that wait is the lateness
+ * in the report. POSTs captured without captureBodies can not be sent
+ * and are counted as skipped.
+ *
+ * The captured latency is measured in the service, from the request
+ * arriving to Jersey finishing with it, the replayed latency is measured
+ * by the client and includes the network.
+ */
+public class Replay {
+    public static final Logger logger = Logger.getLogger(Replay.class);
+
+    public static final int BUFFER_SIZE = LoadTest.BUFFER_SIZE;
+
+    /**
+     * Settings for one run, without a url the embedded server is started
+     * as for LoadTest.
+     */
+    public static class Options {
+        public double speed = 1.0;
+        public int clients = 16;
+        // 0 for all
+        public long limit = 0;
+        public String report = null;
+        public int port = 8099;
+        public String contextPath = "/loadtest";
+        public String configDir = "target/loadtest";
+        public String serviceCfg = "loadtest/loadtest-service.cfg";
+        public String paramCfg = "loadtest/loadtest-param.cfg";
+        public int connectTimeoutMsec = 10000;
+        public int readTimeoutMsec = 60000;
+        public String url = null;
+        public final List<String> files = new ArrayList<>();
+
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String name = args[i];
+                if (!name.startsWith("--")) {
+                    options.files.add(name);
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException(
+                          "Replay missing value for: " + name);
+                }
+                String value = args[++i];
+                switch (name) {
+                case "--speed":
+                    options.speed = Double.parseDouble(value);
+                    break;
+                case "--clients":
+                    options.clients = Integer.parseInt(value);
+                    break;
+                case "--limit":
+                    options.limit = Long.parseLong(value);
+                    break;
+                case "--report":
+                    options.report = value;
+                    break;
+                case "--port":
+                    options.port = Integer.parseInt(value);
+                    break;
+                case "--context":
+                    options.contextPath = value;
+                    break;
+                case "--config-dir":
+                    options.configDir = value;
+                    break;
+                case "--service-cfg":
+                    options.serviceCfg = value;
+                    break;
+                case "--param-cfg":
+                    options.paramCfg = value;
+                    break;
+                case "--connect-timeout":
+                    options.connectTimeoutMsec = Integer.parseInt(value);
+                    break;
+                case "--read-timeout":
+                    options.readTimeoutMsec = Integer.parseInt(value);
+                    break;
+                case "--url":
+                    options.url = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                          "Replay unknown option: " + name);
+                }
+            }
+            if (options.files.isEmpty()) {
+                throw new IllegalArgumentException("Replay no capture files");
+            }
+            if (options.speed < 0.0 || options.clients < 1) {
+                throw new IllegalArgumentException(
+                      "Replay speed must be 0 or more and clients 1 or more");
+            }
+            return options;
+        }
+    }
+
+    // tells a client there are no more requests
+    private static final CaptureFormat.Request END = new CaptureFormat.Request();
+
+    private final Options options;
+    private final List<CaptureFormat.Request> requests;
+    private final String baseUrl;
+
+    public Replay(Options options, List<CaptureFormat.Request> requests,
+          String baseUrl) {
+        this.options = options;
+        this.requests = requests;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+    }
+
+    /**
+     * Read the requests of all files, in start order.
+     */
+    public static List<CaptureFormat.Request> load(List<String> files,
+          long limit) throws IOException {
+        List<CaptureFormat.Request> requests = new ArrayList<>();
+        for (String file : files) {
+            try (InputStream in = new BufferedInputStream(
+                  new FileInputStream(file), 64 * 1024)) {
+                CaptureFormat.Decoder decoder = new CaptureFormat.Decoder(in);
+                CaptureFormat.Request request;
+                while ((request = decoder.next()) != null) {
+                    requests.add(request);
+                }
+            }
+        }
+        // written as requests finish, so not quite in start order
+        Collections.sort(requests, new Comparator<CaptureFormat.Request>() {
+            @Override
+            public int compare(CaptureFormat.Request a, CaptureFormat.Request b) {
+                return Long.compare(a.startMillis, b.startMillis);
+            }
+        });
+        if (limit > 0 && requests.size() > limit) {
+            return new ArrayList<>(requests.subList(0, (int) limit));
+        }
+        return requests;
+    }
+
+    public ReplayResult run() throws InterruptedException {
+        final ReplayResult result = new ReplayResult();
+        result.speed = options.speed;
+        result.clients = options.clients;
+        for (CaptureFormat.Request request : requests) {
+            result.addEndpoint(request.endpoint);
+        }
+        if (!requests.isEmpty()) {
+            result.capturedMillis = requests.get(requests.size() - 1).startMillis
+                  - requests.get(0).startMillis;
+        }
+
+        // no more waiting than one request per client, so lateness shows
+        // when the clients can not keep up
+        final BlockingQueue<CaptureFormat.Request> queue =
+              new ArrayBlockingQueue<>(options.clients);
+        Thread[] threads = new Thread[options.clients];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    try {
+                        CaptureFormat.Request request;
+                        while ((request = queue.take()) != END) {
+                            issue(request, buffer, result);
+                        }
+                    } catch (InterruptedException ex) {
+                        // done
+                    }
+                }
+            }, "wss-replay-client-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+
+        result.startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        long firstMillis = requests.isEmpty() ? 0
+              : requests.get(0).startMillis;
+        for (CaptureFormat.Request request : requests) {
+            if (!request.isReplayable()) {
+                result.skipped.incrementAndGet();
+                continue;
+            }
+            if (options.speed > 0.0) {
+                long targetNanos = startNanos + (long) ((request.startMillis
+                      - firstMillis) * 1.0e6 / options.speed);
+                long waitNanos = targetNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    Thread.sleep(waitNanos / 1000000L,
+                          (int) (waitNanos % 1000000L));
+                }
+                queue.put(request);
+                result.lateness.record(Math.max(0L,
+                      (System.nanoTime() - targetNanos) / 1000L));
+            } else {
+                queue.put(request);
+            }
+        }
+        for (int i = 0; i < threads.length; i++) {
+            queue.put(END);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        result.elapsedNanos = System.nanoTime() - startNanos;
+        return result;
+    }
+
+    /**
+     * Send one request and read the whole response.
+     */
+    void issue(CaptureFormat.Request request, byte[] buffer,
+          ReplayResult result) {
+        long startNanos = System.nanoTime();
+        int status = -1;
+        long byteCount = 0;
+        boolean isTimeout = false;
+        HttpURLConnection conn = null;
+        try {
+            String url = baseUrl + request.endpoint;
+            if (request.query != null) {
+                url = url + "?" + request.query;
+            }
+            conn = (HttpURLConnection)new URL(url).openConnection();
+            conn.setConnectTimeout(options.connectTimeoutMsec);
+            conn.setReadTimeout(options.readTimeoutMsec);
+            conn.setRequestMethod(request.method);
+            if (request.body != null) {
+                conn.setDoOutput(true);
+                conn.setRequestProperty("Content-Type",
+                      request.contentType == null ? "text/plain"
+                      : request.contentType);
+                conn.setFixedLengthStreamingMode(request.body.length);
+                try (OutputStream os = conn.getOutputStream()) {
+                    os.write(request.body);
+                }
+            }
+
+            status = conn.getResponseCode();
+            InputStream is = status >= 400 ? conn.getErrorStream()
+                  : conn.getInputStream();
+            if (is != null) {
+                try {
+                    int count;
+                    while ((count = is.read(buffer)) >= 0) {
+                        byteCount += count;
+                    }
+                } finally {
+                    is.close();
+                }
+            }
+        } catch (SocketTimeoutException ex) {
+            isTimeout = true;
+        } catch (IOException ex) {
+            logger.debug("Replay request: " + request.endpoint + "?"
+                  + request.query + "  ex: " + ex);
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+
+        result.record(request, status, (System.nanoTime() - startNanos) / 1000L,
+              byteCount, isTimeout);
+    }
+
+    /**
+     * Start the server unless options.url is set, replay the capture files
+     * and write the report if options.report is set.
+     */
+    public static ReplayResult run(Options options) throws Exception {
+        List<CaptureFormat.Request> requests = load(options.files,
+              options.limit);
+        LoadTestServer server = null;
+        String baseUrl = options.url;
+        if (baseUrl == null) {
+            server = new LoadTestServer(options.port, options.contextPath,
+                  new File(options.configDir));
+            server.start(options.serviceCfg, options.paramCfg);
+            baseUrl = server.getBaseUri().toString();
+        }
+
+        ReplayResult result;
+        try {
+            result = new Replay(options, requests, baseUrl).run();
+            result.name = new File(options.files.get(0)).getName();
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+
+        if (options.report != null) {
+            File reportFile = new File(options.report);
+            File parent = reportFile.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory()) {
+                parent.mkdirs();
+            }
+            Files.write(reportFile.toPath(),
+                  result.toJson().getBytes(StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("usage: " + Replay.class.getName()
+                  + " [--speed x] [--clients n] [--limit n]"
+                  + " [--report file.json] [--url baseUrl]"
+                  + " [--port n] [--context path] [--config-dir dir]"
+                  + " [--service-cfg file] [--param-cfg file]"
+                  + " [--connect-timeout msec] [--read-timeout msec]"
+                  + " capture.bin ...");
+            System.exit(1);
+            return;
+        }
+
+        // per request logging would dominate the run
+        LogManager.getLoggerRepository().setThreshold(Level.WARN);
+
+        ReplayResult result = run(options);
+        System.out.print(result.toString());
+        if (options.report != null) {
+            System.out.println("report: " + options.report);
+        }
+        // Grizzly and handler timer threads may remain
+        System.exit(0);
+    }
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.loadtest;
+
+import edu.iris.wss.framework.LatencyHistogram;
+import edu.iris.wss.framework.Util;
+import edu.iris.wss.utils.CaptureFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of one Replay run, the replayed latency and errors of each
+ * endpoint next to what was captured. Latencies are kept in microseconds.
+ */
+public class ReplayResult {
+
+    public static final double[] PERCENTILES = LoadResult.PERCENTILES;
+
+    /**
+     * Captured and replayed counts, for one endpoint or for all.
+     */
+    public static class Counts {
+        public final AtomicLong requests = new AtomicLong(0);
+        public final AtomicLong bytes = new AtomicLong(0);
+        // status 400 and above, or no status
+        public final AtomicLong capturedErrors = new AtomicLong(0);
+        // status 400 and above, an IO error or a timeout
+        public final AtomicLong replayErrors = new AtomicLong(0);
+        public final AtomicLong timeouts = new AtomicLong(0);
+        // replayed status differs from the captured status
+        public final AtomicLong statusChanges = new AtomicLong(0);
+        public final LatencyHistogram captured = new LatencyHistogram();
+        public final LatencyHistogram replayed = new LatencyHistogram();
+
+        void record(CaptureFormat.Request request, int status,
+              long totalMicros, long byteCount, boolean isTimeout) {
+            requests.incrementAndGet();
+            bytes.addAndGet(byteCount);
+            if (isError(request.status)) {
+                capturedErrors.incrementAndGet();
+            }
+            if (isError(status) || isTimeout) {
+                replayErrors.incrementAndGet();
+            }
+            if (isTimeout) {
+                timeouts.incrementAndGet();
+            }
+            if (status != request.status) {
+                statusChanges.incrementAndGet();
+            }
+            if (request.durationMicros >= 0) {
+                captured.record(request.durationMicros);
+            }
+            replayed.record(totalMicros);
+        }
+    }
+
+    public final Counts all = new Counts();
+    // by endpoint, filled in before the run so it is only read by clients
+    public final Map<String, Counts> endpoints = new TreeMap<>();
+    // POSTs captured with only a body hash
+    public final AtomicLong skipped = new AtomicLong(0);
+    // how far behind the captured pacing each request was sent
+    public final LatencyHistogram lateness = new LatencyHistogram();
+
+    public String name = "replay";
+    public double speed;
+    public int clients;
+    public long capturedMillis;
+    public long startMillis;
+    public long elapsedNanos;
+
+    public void addEndpoint(String endpoint) {
+        if (!endpoints.containsKey(endpoint)) {
+            endpoints.put(endpoint, new Counts());
+        }
+    }
+
+    /**
+     * @param status - HTTP status, or -1 when there was no response
+     */
+    public void record(CaptureFormat.Request request, int status,
+          long totalMicros, long byteCount, boolean isTimeout) {
+        all.record(request, status, totalMicros, byteCount, isTimeout);
+        endpoints.get(request.endpoint).record(request, status, totalMicros,
+              byteCount, isTimeout);
+    }
+
+    static boolean isError(int status) {
+        return status < 0 || status >= 400;
+    }
+
+    public double getSeconds() {
+        return elapsedNanos / 1.0e9;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"name\": \"").append(escape(name)).append("\",\n");
+        sb.append("  \"startTime\": \"")
+              .append(Util.getCurrentUTCTimeISO8601()).append("\",\n");
+        sb.append("  \"startMillis\": ").append(startMillis).append(",\n");
+        sb.append("  \"speed\": ").append(format(speed)).append(",\n");
+        sb.append("  \"clients\": ").append(clients).append(",\n");
+        sb.append("  \"capturedSeconds\": ").append(format(capturedMillis
+              / 1000.0)).append(",\n");
+        sb.append("  \"seconds\": ").append(format(getSeconds())).append(",\n");
+        sb.append("  \"skipped\": ").append(skipped.get()).append(",\n");
+        sb.append("  \"latenessMsec\": ");
+        appendLatency(sb, lateness);
+        sb.append(",\n");
+        sb.append("  \"all\": ");
+        appendCounts(sb, all);
+        sb.append(",\n");
+
+        sb.append("  \"endpoints\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Counts> entry : endpoints.entrySet()) {
+            sb.append(separator);
+            sb.append("    \"").append(escape(entry.getKey())).append("\": ");
+            appendCounts(sb, entry.getValue());
+            separator = ",\n";
+        }
+        sb.append("\n  }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static void appendCounts(StringBuilder sb, Counts counts) {
+        sb.append("{\"requests\": ").append(counts.requests.get());
+        sb.append(", \"bytes\": ").append(counts.bytes.get());
+        sb.append(", \"capturedErrors\": ").append(counts.capturedErrors.get());
+        sb.append(", \"replayErrors\": ").append(counts.replayErrors.get());
+        sb.append(", \"timeouts\": ").append(counts.timeouts.get());
+        sb.append(", \"statusChanges\": ").append(counts.statusChanges.get());
+        sb.append(", \"capturedMsec\": ");
+        appendLatency(sb, counts.captured);
+        sb.append(", \"replayedMsec\": ");
+        appendLatency(sb, counts.replayed);
+        sb.append(", \"deltaMsec\": {");
+        String separator = "";
+        for (double percentile : PERCENTILES) {
+            sb.append(separator).append("\"p")
+                  .append(LoadResult.percentileName(percentile)).append("\": ")
+                  .append(format(delta(counts, percentile)));
+            separator = ", ";
+        }
+        sb.append("}}");
+    }
+
+    /**
+     * @return - replayed minus captured latency at percentile, msec
+     */
+    static double delta(Counts counts, double percentile) {
+        return (counts.replayed.getValueAtPercentile(percentile)
+              - counts.captured.getValueAtPercentile(percentile)) / 1000.0;
+    }
+
+    private static void appendLatency(StringBuilder sb, LatencyHistogram h) {
+        sb.append("{\"count\": ").append(h.getCount());
+        sb.append(", \"mean\": ").append(format(h.getMean() / 1000.0));
+        for (double percentile : PERCENTILES) {
+            sb.append(", \"p").append(LoadResult.percentileName(percentile))
+                  .append("\": ")
+                  .append(format(h.getValueAtPercentile(percentile) / 1000.0));
+        }
+        sb.append(", \"max\": ").append(format(h.getMax() / 1000.0));
+        sb.append("}");
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"")
+              .replace("\n", "\\n");
+    }
+
+    /**
+     * A summary for the console, one line for all then one per endpoint.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT,
+              "replayed %d requests in %.1f sec, captured in %.1f sec,"
+              + "  skipped: %d  lateness p99 msec: %.2f\n",
+              all.requests.get(), getSeconds(), capturedMillis / 1000.0,
+              skipped.get(), lateness.getValueAtPercentile(99.0) / 1000.0));
+        appendLine(sb, "all", all);
+        for (Map.Entry<String, Counts> entry : endpoints.entrySet()) {
+            appendLine(sb, entry.getKey(), entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static void appendLine(StringBuilder sb, String name,
+          Counts counts) {
+        sb.append(String.format(Locale.ROOT,
+              "%-12s requests: %d  errors captured/replayed: %d/%d"
+              + "  status changes: %d  p50 msec: %.2f/%.2f (%+.2f)"
+              + "  p99 msec: %.2f/%.2f (%+.2f)\n",
+              name, counts.requests.get(), counts.capturedErrors.get(),
+              counts.replayErrors.get(), counts.statusChanges.get(),
+              counts.captured.getValueAtPercentile(50.0) / 1000.0,
+              counts.replayed.getValueAtPercentile(50.0) / 1000.0,
+              delta(counts, 50.0),
+              counts.captured.getValueAtPercentile(99.0) / 1000.0,
+              counts.replayed.getValueAtPercentile(99.0) / 1000.0,
+              delta(counts, 99.0)));
+    }
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.loadtest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A weighted list of requests, read from a mix file with lines of
+ *   weight  method  path-and-query[|post body] [!abort=bytes]
+ *
+ * The path is relative to the webapp context, \n in a POST body is a
+ * newline, lines starting with # are comments. With !abort the client
+ * disconnects after reading that many bytes of the response.
+ */
+public class RequestMix {
+
+    public static class Entry {
+        public final int index;
+        public final int weight;
+        public final String method;
+        public final String pathAndQuery;
+        // null for GET
+        public final byte[] postBody;
+        // -1 to read the whole response
+        public final long abortAfterBytes;
+
+        public Entry(int index, int weight, String method,
+              String pathAndQuery, byte[] postBody, long abortAfterBytes) {
+            this.index = index;
+            this.weight = weight;
+            this.method = method;
+            this.pathAndQuery = pathAndQuery;
+            this.postBody = postBody;
+            this.abortAfterBytes = abortAfterBytes;
+        }
+
+        public boolean isPost() {
+            return postBody != null;
+        }
+
+        public boolean isAbort() {
+            return abortAfterBytes >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + pathAndQuery
+                  + (isAbort() ? " " + ABORT_OPTION + abortAfterBytes : "");
+        }
+    }
+
+    public static final String ABORT_OPTION = "!abort=";
+
+    private final List<Entry> entries;
+    private final int[] cumulativeWeights;
+    private final int totalWeight;
+
+    public RequestMix(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("RequestMix has no entries");
+        }
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        cumulativeWeights = new int[entries.size()];
+        int total = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            total += entries.get(i).weight;
+            cumulativeWeights[i] = total;
+        }
+        totalWeight = total;
+    }
+
+    /**
+     * @param name - a file name, or if there is no such file, a resource
+     *               name on the classpath
+     */
+    public static RequestMix load(String name) throws IOException {
+        File file = new File(name);
+        InputStream is;
+        if (file.isFile()) {
+            is = new FileInputStream(file);
+        } else {
+            is = RequestMix.class.getClassLoader().getResourceAsStream(name);
+            if (is == null) {
+                throw new IOException("request mix not found: " + name);
+            }
+        }
+        try (BufferedReader reader = new BufferedReader(
+              new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            return parse(reader);
+        }
+    }
+
+    public static RequestMix parse(BufferedReader reader) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+", 3);
+            if (parts.length != 3) {
+                throw new IOException("request mix line " + lineNumber
+                      + " expecting weight method path, found: " + line);
+            }
+            int weight;
+            try {
+                weight = Integer.parseInt(parts[0]);
+            } catch (NumberFormatException ex) {
+                throw new IOException("request mix line " + lineNumber
+                      + " bad weight: " + parts[0]);
+            }
+            String method = parts[1].toUpperCase();
+            String pathAndQuery = parts[2];
+            long abortAfterBytes = -1;
+            int abortIdx = pathAndQuery.lastIndexOf(" " + ABORT_OPTION);
+            if (abortIdx >= 0) {
+                String value = pathAndQuery.substring(abortIdx
+                      + ABORT_OPTION.length() + 1).trim();
+                try {
+                    abortAfterBytes = Long.parseLong(value);
+                } catch (NumberFormatException ex) {
+                    throw new IOException("request mix line " + lineNumber
+                          + " bad abort bytes: " + value);
+                }
+                pathAndQuery = pathAndQuery.substring(0, abortIdx);
+            }
+            byte[] postBody = null;
+            if (method.equals("POST")) {
+                int idx = pathAndQuery.indexOf('|');
+                String body = idx < 0 ? "" : pathAndQuery.substring(idx + 1);
+                pathAndQuery = idx < 0 ? pathAndQuery
+                      : pathAndQuery.substring(0, idx);
+                postBody = body.replace("\\n", "\n")
+                      .getBytes(StandardCharsets.UTF_8);
+            } else if (!method.equals("GET")) {
+                throw new IOException("request mix line " + lineNumber
+                      + " method must be GET or POST, found: " + parts[1]);
+            }
+            if (weight > 0) {
+                entries.add(new Entry(entries.size(), weight, method,
+                      pathAndQuery.trim(), postBody, abortAfterBytes));
+            }
+        }
+        return new RequestMix(entries);
+    }
+
+    public Entry next(Random random) {
+        int value = random.nextInt(totalWeight);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return entries.get(i);
+            }
+        }
+        return entries.get(entries.size() - 1);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+}
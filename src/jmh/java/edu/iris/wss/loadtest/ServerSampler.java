@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.loadtest;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Samples live threads and open file descriptors of this JVM once per
+ * SAMPLE_MSEC, keeping the first, largest and last values.
+ *
+ * The load test server and clients share the JVM, so the client threads
+ * and connections are included, their number is fixed by the client
+ * count, so changes come from the server.
+ */
+public class ServerSampler {
+
+    public static final long SAMPLE_MSEC = 1000;
+
+    public static class Sample {
+        public long threads;
+        public long fds;
+    }
+
+    public final Sample first = new Sample();
+    public final Sample max = new Sample();
+    public final Sample last = new Sample();
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private volatile boolean isRunning = false;
+    private Thread thread = null;
+
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        sample(first);
+        max.threads = first.threads;
+        max.fds = first.fds;
+        isRunning = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (isRunning) {
+                    sampleNow();
+                    try {
+                        Thread.sleep(SAMPLE_MSEC);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                }
+            }
+        }, "wss-loadtest-sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        Thread toJoin;
+        synchronized (this) {
+            if (!isRunning) {
+                return;
+            }
+            isRunning = false;
+            toJoin = thread;
+            thread = null;
+        }
+        toJoin.interrupt();
+        try {
+            toJoin.join(SAMPLE_MSEC);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        sampleNow();
+    }
+
+    public synchronized void sampleNow() {
+        sample(last);
+        max.threads = Math.max(max.threads, last.threads);
+        max.fds = Math.max(max.fds, last.fds);
+    }
+
+    private void sample(Sample sample) {
+        sample.threads = threadBean.getThreadCount();
+        sample.fds = getOpenFileDescriptorCount();
+    }
+
+    /**
+     * @return - open file descriptors of this process, -1 if unknown
+     */
+    public static long getOpenFileDescriptorCount() {
+        String[] fds = new File("/proc/self/fd").list();
+        if (fds != null) {
+            return fds.length;
+        }
+        OperatingSystemMXBean osBean =
+              ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean)osBean)
+                  .getOpenFileDescriptorCount();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.loadtest;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+
+/**
+ * Soak test, runs LoadTest for hours with loadtest/soak.mix, which has
+ * client disconnects mid stream, handler timeouts, handlers which ignore
+ * SIGTERM and POST bodies, while a LeakMonitor samples threads, open
+ * files, handler processes, zombies and heap after GC.
+ *
+ * usage: SoakTest [--hours 4] [--sample-seconds 60]
+ *          [--soak-report target/soak-report.json] [LoadTest options]
+ *
+ * LoadTest options given here override the soak defaults. Each sample is
+ * printed as it is taken, the report has the load test result, the
+ * samples and the metrics found growing. The exit status is 2 when any
+ * metric grew, so a scheduled run can alert on it.
+ */
+public class SoakTest {
+
+    public static final String[] DEFAULT_LOADTEST_ARGS = {
+        "--mix", "loadtest/soak.mix",
+        "--clients", "8",
+        "--warmup", "30",
+        "--duration", Integer.toString(4 * 3600),
+        "--read-timeout", "120000"
+    };
+
+    public static void main(String[] args) throws Exception {
+        long sampleSeconds = 60;
+        String reportName = "target/soak-report.json";
+        List<String> loadArgs = new ArrayList<>(Arrays.asList(
+              DEFAULT_LOADTEST_ARGS));
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException(
+                          "SoakTest missing value for: " + args[i]);
+                }
+                switch (args[i]) {
+                case "--hours":
+                    loadArgs.add("--duration");
+                    loadArgs.add(Long.toString(Math.round(
+                          Double.parseDouble(args[++i]) * 3600.0)));
+                    break;
+                case "--sample-seconds":
+                    sampleSeconds = Long.parseLong(args[++i]);
+                    break;
+                case "--soak-report":
+                    reportName = args[++i];
+                    break;
+                default:
+                    loadArgs.add(args[i]);
+                    loadArgs.add(args[++i]);
+                    break;
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("usage: " + SoakTest.class.getName()
+                  + " [--hours n] [--sample-seconds n] [--soak-report file]"
+                  + " [LoadTest options]");
+            System.exit(1);
+            return;
+        }
+
+        LoadTest.Options options = LoadTest.Options.parse(
+              loadArgs.toArray(new String[loadArgs.size()]));
+        // the soak report includes the load test report
+        options.report = null;
+
+        // per request logging would dominate the run
+        LogManager.getLoggerRepository().setThreshold(Level.WARN);
+
+        LeakMonitor monitor = new LeakMonitor(sampleSeconds * 1000L, true);
+        monitor.start();
+        LoadResult result;
+        try {
+            result = LoadTest.run(options);
+        } finally {
+            monitor.stop();
+        }
+        // after the server is stopped, handlers should be gone
+        System.out.println(LeakMonitor.toLine(monitor.sampleNow()));
+
+        List<String> growth = monitor.findGrowth();
+        File reportFile = new File(reportName);
+        File parent = reportFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory()) {
+            parent.mkdirs();
+        }
+        String json = "{\n\"load\": " + result.toJson()
+              + ",\n\"leaks\": " + monitor.toJson() + "}\n";
+        Files.write(reportFile.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+        System.out.println(result.toString());
+        System.out.println("report: " + reportName);
+        if (growth.isEmpty()) {
+            System.out.println("soak: no growth found");
+            System.exit(0);
+        } else {
+            for (String found : growth) {
+                System.out.println("soak: GROWTH " + found);
+            }
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.provider;
+
+import edu.iris.wss.framework.RequestInfo;
+import java.io.OutputStream;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * An endpoint for benchmarks which does no work, so what is measured is
+ * the framework around it. The entity writes nothing, it is only
+ * written by a container.
+ */
+public class FixtureProcessor extends IrisProcessor {
+
+    public static final StreamingOutput EMPTY_ENTITY = new StreamingOutput() {
+        @Override
+        public void write(OutputStream output) {
+            // noop
+        }
+    };
+
+    @Override
+    public IrisProcessingResult getProcessingResults(RequestInfo ri,
+          String wssMediaType) {
+        return IrisProcessingResult.processStream(EMPTY_ENTITY, wssMediaType);
+    }
+}
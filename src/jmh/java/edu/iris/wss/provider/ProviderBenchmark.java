@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.provider;
+
+import edu.iris.wss.framework.AppConfigurator;
+import edu.iris.wss.framework.BenchmarkFixtures;
+import edu.iris.wss.framework.FixtureHttpServletRequest;
+import edu.iris.wss.framework.FixtureUriInfo;
+import edu.iris.wss.framework.ParamConfigurator;
+import edu.iris.wss.framework.RequestInfo;
+import edu.iris.wss.framework.RequestRegistry;
+import edu.iris.wss.framework.WssSingleton;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Framework overhead of a dynamic endpoint request, i.e. everything
+ * IrisDynamicProvider.doIrisProcessing does when the endpoint itself
+ * is free. No HTTP and no handler process, the endpoints use
+ * FixtureProcessor.
+ *
+ * One op is one GET from queries.txt, station has allowedIPs and
+ * dataselect has addHeaders so both the IP check and header assembly
+ * are included. POST is not included since reading the entity needs a
+ * running Jersey application, ValidationBenchmark.parsePost covers the
+ * WSS part of it. Run with -prof gc, gc.alloc.rate.norm is the bytes
+ * allocated per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProviderBenchmark {
+
+    public static final int FIXTURE_SIZE = 1024;
+    public static final String CONTEXT_PATH = "/fdsnws";
+    public static final String REMOTE_ADDR = "127.0.0.1";
+    public static final String USER_AGENT = "ObsPy/1.1.0 (Linux, Python 3.6)";
+
+    private WssSingleton sw;
+
+    private FixtureHttpServletRequest[] requests;
+    private FixtureUriInfo[] uriInfos;
+    private ContainerRequest[] containerRequests;
+
+    private int index = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(
+              org.apache.log4j.Level.WARN);
+        Properties props = BenchmarkFixtures.readProperties(
+              "validation-service.cfg");
+        for (String epName : new String[] {"dataselect", "station"}) {
+            props.setProperty(AppConfigurator.createEPdotPropertyName(epName,
+                  AppConfigurator.EP_CFGS.endpointClassName),
+                  FixtureProcessor.class.getName());
+        }
+        // the client address matches the last one
+        props.setProperty(AppConfigurator.createEPdotPropertyName("station",
+              AppConfigurator.EP_CFGS.allowedIPs),
+              "10.0.0.0/8, 172.16.0.0/12, 192.168.0.0/16, 127.0.0.0/8");
+        props.setProperty(AppConfigurator.createEPdotPropertyName("dataselect",
+              AppConfigurator.EP_CFGS.addHeaders),
+              "Cache-Control: no-cache, X-Content-Type-Options: nosniff");
+        AppConfigurator appConfig = BenchmarkFixtures.createAppConfig(props);
+        ParamConfigurator paramConfig =
+              BenchmarkFixtures.createParamConfig(appConfig);
+        sw = BenchmarkFixtures.createWssSingleton(appConfig, paramConfig);
+
+        List<String> queries = BenchmarkFixtures.shuffled(
+              BenchmarkFixtures.readLines("queries.txt"), FIXTURE_SIZE);
+        requests = new FixtureHttpServletRequest[FIXTURE_SIZE];
+        uriInfos = new FixtureUriInfo[FIXTURE_SIZE];
+        containerRequests = new ContainerRequest[FIXTURE_SIZE];
+        for (int i = 0; i < FIXTURE_SIZE; i++) {
+            String[] parts = queries.get(i).split(" ", 2);
+            requests[i] = new FixtureHttpServletRequest("GET", CONTEXT_PATH,
+                  parts[0], parts[1], REMOTE_ADDR)
+                  .addHeader("User-Agent", USER_AGENT);
+            uriInfos[i] = new FixtureUriInfo(parts[1]);
+            containerRequests[i] = BenchmarkFixtures.createContainerRequest(
+                  requests[i]);
+        }
+
+        // fail here rather than measure exceptions
+        for (int i = 0; i < FIXTURE_SIZE; i++) {
+            Response response = doIrisProcessing();
+            if (response.getStatus() != 200) {
+                throw new IllegalStateException("fixture query failed, status: "
+                      + response.getStatus() + "  query: " + queries.get(i));
+            }
+        }
+    }
+
+    /**
+     * What Jersey does for a dynamic endpoint, a new provider with its
+     * context set, then the event listener releases the registry entry.
+     */
+    @Benchmark
+    public Response doIrisProcessing() throws Exception {
+        int i = index;
+        index = (i + 1) % FIXTURE_SIZE;
+        IrisDynamicProvider provider = new IrisDynamicProvider();
+        provider.sw = sw;
+        provider.request = requests[i];
+        provider.uriInfo = uriInfos[i];
+        provider.requestHeaders = containerRequests[i];
+        provider.containerRequestContext = containerRequests[i];
+        try {
+            return provider.doIrisProcessing();
+        } finally {
+            Object entry = containerRequests[i].getProperty(
+                  RequestRegistry.PROPERTY_NAME);
+            if (entry != null) {
+                ((RequestRegistry.Entry)entry).release();
+                containerRequests[i].removeProperty(
+                      RequestRegistry.PROPERTY_NAME);
+            }
+        }
+    }
+
+    /**
+     * Only the per request setup, the first step of doIrisProcessing.
+     */
+    @Benchmark
+    public RequestInfo createRequestInfo() {
+        int i = index;
+        index = (i + 1) % FIXTURE_SIZE;
+        return RequestInfo.createInstance(sw, uriInfos[i], requests[i],
+              containerRequests[i]);
+    }
+}
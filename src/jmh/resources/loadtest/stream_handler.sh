@@ -0,0 +1,39 @@
+#!/bin/sh
+
+# load test handler, writes --bytes zero bytes after --delay seconds, or
+# exits with --exitcode without writing data, for POST (--STDIN) the same
+# options are read from stdin as name=value lines
+
+bytes=1024
+delay=0
+exitcode=0
+
+while [ $# -gt 0 ]; do
+  case "$1" in
+    --bytes) bytes=$2; shift ;;
+    --delay) delay=$2; shift ;;
+    --exitcode) exitcode=$2; shift ;;
+    --STDIN) isstdin=1 ;;
+  esac
+  shift
+done
+
+if [ -n "${isstdin}" ]; then
+  while IFS='=' read -r name value; do
+    case "${name}" in
+      bytes) bytes=${value} ;;
+      delay) delay=${value} ;;
+      exitcode) exitcode=${value} ;;
+    esac
+  done
+fi
+
+if [ "${delay}" != "0" ]; then
+  sleep "${delay}"
+fi
+
+if [ "${exitcode}" != "0" ]; then
+  exit "${exitcode}"
+fi
+
+head -c "${bytes}" /dev/zero
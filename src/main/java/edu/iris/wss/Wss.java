@@ -30,7 +30,9 @@ import javax.ws.rs.core.*;
 import javax.ws.rs.core.Response.ResponseBuilder;
 
 import edu.iris.wss.framework.FdsnStatus.Status;
+import edu.iris.wss.framework.OpenMetricsWriter;
 import edu.iris.wss.framework.RequestInfo;
+import edu.iris.wss.framework.RequestRegistry;
 import edu.iris.wss.framework.WssSingleton;
 import edu.iris.wss.framework.Util;
 import org.apache.log4j.Logger;
@@ -51,6 +53,8 @@ public class Wss {
 
     public static final String WSSSTATUS = "wssstatus";
     public static final String WSSVERSION = "wssversion";
+    public static final String WSSMETRICS = "wssmetrics";
+    public static final String WSSREQUESTS = "wssrequests";
     public static final String VERSION = "version";
     public static final String WHOAMI = "whoami";
 
@@ -59,6 +63,8 @@ public class Wss {
     public static final List<String> STATIC_ENDPOINTS = new ArrayList() {{
         add(WSSSTATUS);
         add(WSSVERSION);
+        add(WSSMETRICS);
+        add(WSSREQUESTS);
         add(VERSION);
         add(WHOAMI);
     }};
@@ -95,6 +101,21 @@ public class Wss {
 		sb.append("<br/>");
         sb.append(ri.sw.statsKeeper.toHtmlString());
 
+        if (ri.sw.usagePublisher != null) {
+            sb.append("<br/>");
+            sb.append(ri.sw.usagePublisher.toHtmlString());
+        }
+
+        if (ri.sw.usageSpool != null) {
+            sb.append("<br/>");
+            sb.append(ri.sw.usageSpool.toHtmlString());
+        }
+
+        if (ri.sw.wfstatAggregator != null) {
+            sb.append("<br/>");
+            sb.append(ri.sw.wfstatAggregator.toHtmlString());
+        }
+
         sb.append("<br/>");
         sb.append(ri.appConfig.toHtmlString());
 
@@ -114,6 +135,95 @@ public class Wss {
 		return builder.build();
 	}
 
+	@Path(WSSMETRICS)
+	@GET
+	public Response getMetrics() {
+        RequestInfo ri = RequestInfo.createInstance(sw, uriInfo, request, requestHeaders);
+
+        ResponseBuilder builder = Response.status(Status.OK)
+              .entity(OpenMetricsWriter.write(ri.sw))
+              .type(OpenMetricsWriter.CONTENT_TYPE);
+
+        Map<String, String> headersMap = new HashMap<>();
+        Util.updateWithCORSHeadersIfConfigured(ri, headersMap);
+        Util.setResponseHeaders(builder, headersMap);
+
+		return builder.build();
+	}
+
+    /**
+     * List the requests being processed, one per line, oldest first.
+     *
+     * This endpoint is only available when wssrequests.allowedIPs is
+     * configured.
+     */
+	@Path(WSSREQUESTS)
+	@GET @Produces("text/plain")
+	public Response getRequests() {
+        RequestInfo ri = RequestInfo.createInstance(sw, uriInfo, request, requestHeaders);
+        checkAdminConfigured(ri, WSSREQUESTS);
+
+        StringBuilder sb = new StringBuilder();
+        for (RequestRegistry.Entry entry : ri.sw.requestRegistry.getRequests()) {
+            sb.append(entry.toString()).append("\n");
+        }
+
+        ResponseBuilder builder = Response.status(Status.OK)
+              .type(MediaType.TEXT_PLAIN)
+              .entity(sb.toString());
+
+		return builder.build();
+	}
+
+    /**
+     * Cancel one request, e.g. DELETE /wssrequests?id=12, the handler is
+     * stopped the same way as for a timeout, so a client which has
+     * started receiving data gets the stream interrupt indicator.
+     */
+	@Path(WSSREQUESTS)
+	@DELETE @Produces("text/plain")
+	public Response cancelRequest(@QueryParam("id") String id) {
+        RequestInfo ri = RequestInfo.createInstance(sw, uriInfo, request, requestHeaders);
+        checkAdminConfigured(ri, WSSREQUESTS);
+
+        long requestId = 0;
+        try {
+            requestId = Long.parseLong(id);
+        } catch (NumberFormatException ex) {
+            Util.logAndThrowException(ri, Status.BAD_REQUEST,
+                  "The id parameter must be a request id, value: " + id);
+        }
+
+        RequestRegistry.Entry entry = ri.sw.requestRegistry.get(requestId);
+        if (entry == null) {
+            Util.logAndThrowException(ri, Status.NOT_FOUND,
+                  "No request in progress with id: " + requestId);
+        }
+        if (!entry.cancel()) {
+            Util.logAndThrowException(ri, Status.CONFLICT,
+                  "Request id: " + requestId + " can not be cancelled"
+                        + " in phase: " + entry.getPhase());
+        }
+
+        logger.info("Cancelled request from: " + request.getRemoteAddr()
+              + "  " + entry);
+        ResponseBuilder builder = Response.status(Status.OK)
+              .type(MediaType.TEXT_PLAIN)
+              .entity("cancelling request id: " + requestId + "\n");
+
+		return builder.build();
+	}
+
+    // the allowedIPs check is in RequestInfo.createInstance, admin
+    // endpoints are not available unless allowedIPs is set
+    private static void checkAdminConfigured(RequestInfo ri, String epName) {
+        if (ri.appConfig.getAllowedIPs(epName).isEmpty()) {
+            Util.logAndThrowException(ri, Status.FORBIDDEN,
+                  "Endpoint: " + epName + " is not enabled",
+                  epName + ".allowedIPs must be configured");
+        }
+    }
+
 	private String defDoc(String htmlMarkupMsg) {
         RequestInfo ri = RequestInfo.createInstance(sw, uriInfo, request, requestHeaders);
 		return "<!DOCTYPE html>"
@@ -32,15 +32,24 @@ import java.util.HashMap;
 import org.apache.log4j.Logger;
 
 import com.Ostermiller.util.CircularByteBuffer;
+import edu.iris.wss.Wss;
 
 import edu.iris.wss.framework.AppConfigurator;
 import edu.iris.wss.framework.FdsnStatus.Status;
 import edu.iris.wss.framework.ParameterTranslator;
+import edu.iris.wss.framework.RequestContext;
 import edu.iris.wss.framework.RequestInfo;
+import edu.iris.wss.framework.RequestRegistry;
+import edu.iris.wss.framework.RequestRegistry.Phase;
+import edu.iris.wss.framework.RequestTrace;
+import edu.iris.wss.framework.RequestTrace.Span;
+import edu.iris.wss.framework.StatsKeeper.Latency;
+import edu.iris.wss.framework.StreamTiming;
 import edu.iris.wss.framework.WssSingleton;
 import edu.iris.wss.framework.Util;
 import edu.iris.wss.provider.IrisProcessingResult;
 import edu.iris.wss.provider.IrisProcessor;
+import edu.iris.wss.utils.SlowRequestLog;
 import edu.iris.wss.utils.WebUtils;
 import edu.sc.seis.seisFile.mseed.DataHeader;
 import edu.sc.seis.seisFile.mseed.DataRecord;
@@ -62,11 +71,21 @@ public class CmdProcessor extends IrisProcessor {
 
 	public static final String outputDirSignature = "outputdir";
 
+    public static final String CANCELLED_MSG = "request cancelled with "
+          + Wss.WSSREQUESTS;
+
+    // exit code counted when the request finished without the exit code
+    // being read, e.g. the response failed before the stream was written
+    public static final int HANDLER_EXIT_NOT_WRITTEN = -44444;
+
 	private static final int MONITOR_PROCESS_PAUSE_TIME_MSEC = 50;
 
 	private Date startTime;
 
 	private Process process;
+    private long processStartNanos = 0L;
+    // set when streaming starts
+    private StreamTiming streamTiming = null;
 
     private class ExitInformation {
         String detailedMsg = null;
@@ -77,6 +96,9 @@ public class CmdProcessor extends IrisProcessor {
 	private StreamEater se = null;
 
     private final AtomicBoolean isKillingProcess = new AtomicBoolean(false);
+    private final AtomicBoolean isHandlerExitLogged = new AtomicBoolean(false);
+    // set when killIt is run from the wssrequests cancel
+    private final AtomicBoolean isCancelled = new AtomicBoolean(false);
 
     private String epName = null;
 
@@ -114,20 +136,23 @@ public class CmdProcessor extends IrisProcessor {
 	    ProcessBuilder processBuilder = new ProcessBuilder(cmd);
             processBuilder.directory(new File(ri.appConfig.getWorkingDirectory(epName)));
 
-	    processBuilder.environment().put("REQUESTURL", WebUtils.getUrl(ri.request));
-	    processBuilder.environment().put("USERAGENT", WebUtils.getUserAgent(ri.request));
-	    processBuilder.environment().put("IPADDRESS", WebUtils.getClientIp(ri.request));
+	    RequestContext rc = ri.getRequestContext();
+	    processBuilder.environment().put("REQUESTURL", rc.getRequestUrl());
+	    processBuilder.environment().put("USERAGENT", rc.getUserAgent());
+	    processBuilder.environment().put("IPADDRESS", rc.getClientIp());
+	    processBuilder.environment().put("TRACEPARENT",
+                  rc.getTrace().getTraceparent());
 	    processBuilder.environment().put("APPNAME", ri.appConfig.getAppName());
 	    processBuilder.environment().put("VERSION", ri.appConfig.getAppVersion());
-            processBuilder.environment().put("CLIENTNAME", WebUtils.getClientName(ri.request));
+            processBuilder.environment().put("CLIENTNAME", rc.getClientName());
             processBuilder.environment().put("HOSTNAME", WebUtils.getHostname());
             //
             processBuilder.environment().put("PORT", WebUtils.getPort(ri.request));
             processBuilder.environment().put("TOMCATLOGDIR", WebUtils.getTomcatLogDir());
             //
-            String username = WebUtils.getAuthenticatedUsername(ri.requestHeaders);
-            if (AppConfigurator.isOkString(username)) {
-                processBuilder.environment().put("AUTHENTICATEDUSERNAME", username);
+            if (rc.isAuthenticated()) {
+                processBuilder.environment().put("AUTHENTICATEDUSERNAME",
+                      rc.getAuthenticatedUsername());
             }
 
 		if (processBuilder == null) {
@@ -137,8 +162,18 @@ public class CmdProcessor extends IrisProcessor {
 
 		logger.info("NEW CMD" + processBuilder.command());
 
+        setPhase(Phase.SPAWNING);
 		try {
+            processStartNanos = System.nanoTime();
+            ri.statsKeeper.logLatency(epName, Latency.QUEUE_WAIT,
+                  (processStartNanos - rc.getStartNanos()) / 1000L);
 			process = processBuilder.start();
+            long spawnedNanos = System.nanoTime();
+            ri.statsKeeper.logHandlerStart();
+            ri.statsKeeper.logLatency(epName, Latency.SPAWN,
+                  (spawnedNanos - processStartNanos) / 1000L);
+            rc.getTrace().record(Span.PROCESS_SPAWN, processStartNanos,
+                  spawnedNanos);
 		} catch (IOException ioe) {
             logger.error("getProcessingResults processBuilder.start ex: ", ioe);
 
@@ -152,10 +187,30 @@ public class CmdProcessor extends IrisProcessor {
 				ri.appConfig.getTimeoutSeconds(epName) * 1000);
 		rt.schedule(new killIt(null));
 
+        if (ri.registryEntry != null) {
+            try {
+                ri.registryEntry.setHandlerPid(getUnixPID(process));
+            } catch (Exception ex) {
+                // noop, pid is only informational here
+            }
+            ri.registryEntry.setCanceller(new killIt(null, true));
+            // the handler is counted as finished when the request is,
+            // in case the stream is never written, e.g. when the
+            // response fails before Jersey writes the body
+            ri.registryEntry.setReleaseAction(new Runnable() {
+                @Override
+                public void run() {
+                    logHandlerExit(HANDLER_EXIT_NOT_WRITTEN);
+                }
+            });
+        }
+        setPhase(Phase.WAITING_FOR_DATA);
+
 		try {
 			se = new StreamEater(process, process.getErrorStream());
 		} catch (Exception e) {
             logger.error("getProcessingResults StreamEater exception: ", e);
+            logHandlerExit(-66666);
 			Util.logAndThrowException(ri, Status.INTERNAL_SERVER_ERROR,
 					("Ex msg: " + e.getMessage()) );
 		}
@@ -196,6 +251,7 @@ public class CmdProcessor extends IrisProcessor {
 			} catch (IOException ioe) {
                 logger.error("getProcessingResults error writing post body ex: ",
                       ioe);
+                logHandlerExit(-55555);
 				Util.logAndThrowException(ri, Status.INTERNAL_SERVER_ERROR,
 						"Failure writing POST body\n" + ioe.getMessage());
 			}
@@ -224,6 +280,7 @@ public class CmdProcessor extends IrisProcessor {
             try {
 				if (is.available() > 0) {
                     if (! isHeadersChecked) {
+                        rc.getTrace().start(Span.HEADER_PARSING);
                         try {
                             hdrMap = checkForHeaders(is,
                                   ri.HEADER_START_IDENTIFIER_BYTES,
@@ -236,6 +293,7 @@ public class CmdProcessor extends IrisProcessor {
                             ex.printStackTrace();
                         }
                         isHeadersChecked = true;
+                        rc.getTrace().end(Span.HEADER_PARSING);
                     }
 
                     // Assumed state at this point
@@ -262,6 +320,11 @@ public class CmdProcessor extends IrisProcessor {
                         // to get headers
 
                         rt.cancel();
+                        long firstByteNanos = System.nanoTime();
+                        ri.statsKeeper.logLatency(epName, Latency.FIRST_BYTE,
+                              (firstByteNanos - processStartNanos) / 1000L);
+                        rc.getTrace().record(Span.FIRST_BYTE,
+                              processStartNanos, firstByteNanos);
 
                         StreamingOutput so = new StreamingOutput() {
                             @Override
@@ -301,12 +364,17 @@ public class CmdProcessor extends IrisProcessor {
 
 			// Exit here on getting an exit value
 			if (gotExitValue) {
+                rc.getTrace().start(Span.EXIT_CLEANUP);
+                setCanceller(null);
+                logHandlerExit(exitVal);
                 ExitInformation exitInfo = processExitVal(exitVal);
                 String briefMessage = getStderrMsg(exitVal);
 
                 IrisProcessingResult ipr =
                       IrisProcessingResult.processError(exitInfo.status,
                             briefMessage, exitInfo.detailedMsg);
+                rc.getTrace().end(Span.EXIT_CLEANUP);
+                logIfSlow(exitVal, 0L);
                 return ipr;
             }
 
@@ -519,6 +587,12 @@ public class CmdProcessor extends IrisProcessor {
 		ReschedulableTimer rt = new ReschedulableTimer(
 				ri.appConfig.getTimeoutSeconds(epName) * 1000);
 		rt.schedule(new killIt(output));
+        setCanceller(new killIt(output, true));
+        setPhase(Phase.STREAMING);
+        RequestRegistry.Entry registryEntry = ri.registryEntry;
+        RequestTrace trace = ri.getRequestContext().getTrace();
+        trace.start(Span.STREAMING);
+        streamTiming = new StreamTiming();
 
 		CircularByteBuffer cbb = new CircularByteBuffer(
 				CircularByteBuffer.INFINITE_SIZE, false);
@@ -526,10 +600,6 @@ public class CmdProcessor extends IrisProcessor {
 
 		SeedRecord sr = null;
 
-        // processing time, but excluding while read is blocking
-        long timeNonBlockingStart = 0L;
-        long timeNonBlockingTotal = 0L;
-
 		boolean badSeedParsingLogged = false;
 
 		try {
@@ -537,8 +607,10 @@ public class CmdProcessor extends IrisProcessor {
 
 				// Read bytes, keep a running total and write them to the
 				// output.
+                long readStartNanos = System.nanoTime();
 				bytesRead = is.read(buffer, 0, buffer.length);
-                timeNonBlockingStart = System.currentTimeMillis();
+                long readEndNanos = System.nanoTime();
+                streamTiming.addReadWait(readEndNanos - readStartNanos);
 				if (bytesRead < 0) {
 					break;
 				}
@@ -546,6 +618,10 @@ public class CmdProcessor extends IrisProcessor {
 				totalBytesTransmitted += bytesRead;
 				output.write(buffer, 0, bytesRead);
 				output.flush();
+                streamTiming.addWriteWait(System.nanoTime() - readEndNanos);
+                if (registryEntry != null) {
+                    registryEntry.addBytesShipped(bytesRead);
+                }
 
                 if (ri.appConfig.isUsageLogEnabled(epName)) {
                     // All the below is only for usage logging.
@@ -588,9 +664,6 @@ public class CmdProcessor extends IrisProcessor {
 
 				// Reset the timeout timer;
 				rt.reschedule();
-
-                timeNonBlockingTotal += System.currentTimeMillis()
-                        - timeNonBlockingStart;
 			}
 
             if (ri.appConfig.isUsageLogEnabled(epName)) {
@@ -627,9 +700,6 @@ public class CmdProcessor extends IrisProcessor {
                     }
                 }
             }
-
-            timeNonBlockingTotal += System.currentTimeMillis()
-                    - timeNonBlockingStart;
 		} catch (IOException ioe) {
 			logger.error("Got IOE (probable client disconnect): ", ioe);
 			stopProcess(process, ri.appConfig.getSigkillDelay(), output);
@@ -637,6 +707,12 @@ public class CmdProcessor extends IrisProcessor {
 			logger.error("Miniseed parse error or process record exception: ", e);
 			stopProcess(process, ri.appConfig.getSigkillDelay(), output);
 		} finally {
+            streamTiming.finish();
+            trace.setStreamTiming(streamTiming);
+            trace.end(Span.STREAMING);
+            trace.start(Span.EXIT_CLEANUP);
+            setCanceller(null);
+            setPhase(Phase.FINISHING);
             long processingTime = (new Date()).getTime() - startTime.getTime();
 
             // set some arbitrary exit values to help determine if the test
@@ -671,17 +747,22 @@ public class CmdProcessor extends IrisProcessor {
 
             logger.info("writeMiniSeed done:  Wrote " + totalBytesTransmitted + " bytes"
                     + "  processingTime: " + processingTime
-                    + "  timeNotBlocking: " + timeNonBlockingTotal
+                    + "  " + streamTiming
                     + "  handlerExitVal: " + handlerExitVal);
 
-            ri.statsKeeper.logShippedBytes(totalBytesTransmitted);
+            ri.statsKeeper.logShippedBytes(epName, totalBytesTransmitted);
+            ri.statsKeeper.logStreamTiming(epName, streamTiming);
+            logHandlerLatency(totalBytesTransmitted);
+            logHandlerExit(handlerExitVal);
+            logIfSlow(handlerExitVal, totalBytesTransmitted);
 
             if (ri.appConfig.isUsageLogEnabled(epName)) {
                 try {
                     if (isKillingProcess.get()) {
                         Util.logUsageMessage(ri, "_KillitInWriteMiniSeed",
                                 totalBytesTransmitted, processingTime,
-                                "killit was called, possible timeout waiting"
+                                isCancelled.get() ? CANCELLED_MSG
+                                : "killit was called, possible timeout waiting"
                                 + " for data after intial data flow started",
                                 Status.INTERNAL_SERVER_ERROR, epName);
                     } else {
@@ -718,6 +799,7 @@ public class CmdProcessor extends IrisProcessor {
 				// What can one do?
 				;
 			}
+            trace.end(Span.EXIT_CLEANUP);
 		}
 	}
 
@@ -755,7 +837,7 @@ public class CmdProcessor extends IrisProcessor {
 		}
 	}
 
-	private void processRecord(SeedRecord sr,
+	void processRecord(SeedRecord sr,
 			HashMap<String, RecordMetaData> logHash) throws ParseException {
 		if (sr instanceof DataRecord) {
 
@@ -797,24 +879,30 @@ public class CmdProcessor extends IrisProcessor {
 		ReschedulableTimer rt = new ReschedulableTimer(
 				ri.appConfig.getTimeoutSeconds(epName) * 1000);
 		rt.schedule(new killIt(output));
-
-        // processing time, but excluding while read is blocking
-        long timeNonBlockingStart = 0L;
-        long timeNonBlockingTotal = 0L;
+        setCanceller(new killIt(output, true));
+        setPhase(Phase.STREAMING);
+        RequestRegistry.Entry registryEntry = ri.registryEntry;
+        RequestTrace trace = ri.getRequestContext().getTrace();
+        trace.start(Span.STREAMING);
+        streamTiming = new StreamTiming();
 
 		try {
 			while (true) {
+                long readStartNanos = System.nanoTime();
 				bytesRead = is.read(buffer, 0, buffer.length);
-                timeNonBlockingStart = System.currentTimeMillis();
+                long readEndNanos = System.nanoTime();
+                streamTiming.addReadWait(readEndNanos - readStartNanos);
 				if (bytesRead < 0) {
 					break;
 				}
 				totalBytesTransmitted += bytesRead;
 				output.write(buffer, 0, bytesRead);
 				output.flush();
+                streamTiming.addWriteWait(System.nanoTime() - readEndNanos);
+                if (registryEntry != null) {
+                    registryEntry.addBytesShipped(bytesRead);
+                }
 				rt.reschedule();
-                timeNonBlockingTotal += System.currentTimeMillis()
-                        - timeNonBlockingStart;
 			}
 		}
 
@@ -825,6 +913,12 @@ public class CmdProcessor extends IrisProcessor {
 			logger.error("Read buffer in writeNormal exception: ", e);
 			stopProcess(process, ri.appConfig.getSigkillDelay(), output);
 		} finally {
+            streamTiming.finish();
+            trace.setStreamTiming(streamTiming);
+            trace.end(Span.STREAMING);
+            trace.start(Span.EXIT_CLEANUP);
+            setCanceller(null);
+            setPhase(Phase.FINISHING);
             long processingTime = (new Date()).getTime() - startTime.getTime();
 
             // set some arbitrary exit values to help determine if the test
@@ -862,17 +956,22 @@ public class CmdProcessor extends IrisProcessor {
 
             logger.info("writeNormal done:  Wrote " + totalBytesTransmitted + " bytes"
                     + "  processingTime: " + processingTime
-                    + "  timeNotBlocking: " + timeNonBlockingTotal
+                    + "  " + streamTiming
                     + "  handlerExitVal: " + handlerExitVal);
 
-            ri.statsKeeper.logShippedBytes(totalBytesTransmitted);
+            ri.statsKeeper.logShippedBytes(epName, totalBytesTransmitted);
+            ri.statsKeeper.logStreamTiming(epName, streamTiming);
+            logHandlerLatency(totalBytesTransmitted);
+            logHandlerExit(handlerExitVal);
+            logIfSlow(handlerExitVal, totalBytesTransmitted);
 
             if (ri.appConfig.isUsageLogEnabled(epName)) {
                 try {
                     if (isKillingProcess.get()) {
                         Util.logUsageMessage(ri, "_KillitInWriteNormal",
                               totalBytesTransmitted, processingTime,
-                              "killit was called, possible timeout waiting for"
+                              isCancelled.get() ? CANCELLED_MSG
+                              : "killit was called, possible timeout waiting for"
                               + " data after intial data flow started",
                               Status.INTERNAL_SERVER_ERROR, epName);
                     } else {
@@ -894,9 +993,96 @@ public class CmdProcessor extends IrisProcessor {
 				// What can one do?
 				;
 			}
+            trace.end(Span.EXIT_CLEANUP);
 		}
 	}
 
+    /**
+     * Set up this object to stream from is as if a handler had been
+     * started, i.e. what getProcessingResults does before returning, so
+     * writeNormal and writeMiniSeed can be driven from memory by
+     * benchmarks, process only needs to supply an exit value.
+     */
+    void prepareStreaming(RequestInfo ri, String epName, Process process,
+          InputStream is) {
+        startTime = new Date();
+        processStartNanos = System.nanoTime();
+        this.ri = ri;
+        this.epName = epName;
+        this.process = process;
+        this.is = is;
+    }
+
+    private void logHandlerExit(int exitVal) {
+        if (isHandlerExitLogged.compareAndSet(false, true)) {
+            ri.statsKeeper.logHandlerExit(exitVal);
+        }
+    }
+
+    /**
+     * Queue a slow request log record if this request has taken longer
+     * than slowRequestThreshold, the log is written on another thread.
+     */
+    private void logIfSlow(int handlerExitVal, long totalBytesTransmitted) {
+        long thresholdMsec = ri.appConfig.getSlowRequestThreshold(epName);
+        SlowRequestLog slowRequestLog = ri.sw == null ? null
+              : ri.sw.slowRequestLog;
+        if (thresholdMsec <= 0 || slowRequestLog == null) {
+            return;
+        }
+        RequestContext rc = ri.getRequestContext();
+        long totalNanos = System.nanoTime() - rc.getStartNanos();
+        if (totalNanos < thresholdMsec * 1000000L) {
+            return;
+        }
+
+        RequestTrace trace = rc.getTrace();
+        SlowRequestLog.Record record = new SlowRequestLog.Record();
+        record.endpointName = epName;
+        record.traceId = trace.getTraceId();
+        record.clientIp = rc.getClientIp();
+        record.requestUrl = rc.getRequestUrl();
+        record.thresholdMsec = thresholdMsec;
+        record.totalNanos = totalNanos;
+        record.spawnNanos = trace.getSpanNanos(Span.PROCESS_SPAWN);
+        record.firstByteNanos = trace.getSpanNanos(Span.FIRST_BYTE);
+        record.streamingNanos = trace.getSpanNanos(Span.STREAMING);
+        if (streamTiming != null) {
+            record.blockedOnHandlerNanos = streamTiming.getReadWaitNanos();
+            record.blockedOnClientNanos = streamTiming.getWriteWaitNanos();
+            record.processingNanos = streamTiming.getProcessingNanos();
+            record.bound = streamTiming.getBound();
+        }
+        record.handlerExitCode = handlerExitVal;
+        record.bytes = totalBytesTransmitted;
+        if (se != null) {
+            record.stderrTail =
+                  se.getOutputTail(SlowRequestLog.STDERR_TAIL_CHARS);
+        }
+        slowRequestLog.offer(record);
+    }
+
+    private void setPhase(Phase phase) {
+        if (ri.registryEntry != null) {
+            ri.registryEntry.setPhase(phase);
+        }
+    }
+
+    private void setCanceller(Runnable canceller) {
+        if (ri.registryEntry != null) {
+            ri.registryEntry.setCanceller(canceller);
+        }
+    }
+
+    private void logHandlerLatency(long totalBytesTransmitted) {
+        long handlerNanos = System.nanoTime() - processStartNanos;
+        ri.statsKeeper.logLatency(epName, Latency.HANDLER, handlerNanos / 1000L);
+        if (handlerNanos > 0) {
+            ri.statsKeeper.logLatency(epName, Latency.THROUGHPUT,
+                  (long)(totalBytesTransmitted * 1.0e9 / handlerNanos));
+        }
+    }
+
 	public static String getBaseFilename(String filename) {
 		int slashIndex = filename.lastIndexOf('/');
 		String baseFilename = filename.substring(slashIndex + 1);
@@ -905,12 +1091,24 @@ public class CmdProcessor extends IrisProcessor {
 
     private class killIt implements Runnable {
         OutputStream outputStream;
+        boolean isCancel;
         killIt(OutputStream output) {
+            this(output, false);
+        }
+        // isCancel true for a cancel from wssrequests rather than a timeout
+        killIt(OutputStream output, boolean isCancel) {
             outputStream = output;
+            this.isCancel = isCancel;
         }
         @Override
         public void run() {
-            logger.info("Killit ran");
+            if (isCancel) {
+                logger.info("Killit ran for cancel");
+                isCancelled.set(true);
+            } else {
+                logger.info("Killit ran");
+                ri.statsKeeper.logTimeoutKill();
+            }
             isKillingProcess.getAndSet(true);
             stopProcess(process, ri.appConfig.getSigkillDelay(),
                     outputStream);
@@ -83,6 +83,15 @@ public class StreamEater implements Runnable  {
 		return output.toString();
 	}
 
+    /**
+     * The end of stderr read so far, does not wait, unlike getOutputString.
+     *
+     * @return - at most maxChars, zero length if nothing has been read yet
+     */
+    public synchronized String getOutputTail(int maxChars) {
+        return output.substring(Math.max(0, output.length() - maxChars));
+    }
+
     @Override
 	public void run() {
 		byte [] buffer = new byte[1024];
@@ -111,7 +120,7 @@ public class StreamEater implements Runnable  {
                 // Set done and notify any waiting threads.
                 // Typically, somebody calling getOutputString()
                 done = true;
-                notify();
+                notifyAll();
             }
             try {
                 inputStream.close();
@@ -127,13 +136,17 @@ public class StreamEater implements Runnable  {
                   inputStream.read(byteBuffer, 0, byteBuffer.length)) != -1) {
                 // NOTE: output length is character count, read length is
                 //       byte count.
-                if ((output.length() + byteCount) <= OUTPUT_SIZE_LIMIT) {
-                    output.append(new String(byteBuffer, 0, byteCount));
-                } else {
-                    // let outside world know that not all the stderr content
-                    // was read
-                    output.append(" -- WARNING, error message length has");
-                    output.append(" exceeded this limit: ").append(OUTPUT_SIZE_LIMIT);
+                // synchronized for getOutputTail, which may be called
+                // while stderr is still being read
+                synchronized (this) {
+                    if ((output.length() + byteCount) <= OUTPUT_SIZE_LIMIT) {
+                        output.append(new String(byteBuffer, 0, byteCount));
+                    } else {
+                        // let outside world know that not all the stderr content
+                        // was read
+                        output.append(" -- WARNING, error message length has");
+                        output.append(" exceeded this limit: ").append(OUTPUT_SIZE_LIMIT);
+                    }
                 }
             }
         } catch(IOException ex) {
@@ -144,7 +157,7 @@ public class StreamEater implements Runnable  {
                 // Set done and notify any waiting threads.
                 // Typically, somebody calling getOutputString()
                 done = true;
-                notify();
+                notifyAll();
             }
             try { inputStream.close(); }
             catch( Exception ex) {;} // noop
@@ -36,6 +36,7 @@ import java.net.URL;
 import java.net.UnknownHostException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -46,6 +47,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.ws.rs.core.MediaType;
 
 
@@ -74,6 +84,13 @@ public class AppConfigurator {
     public static final Duration INTERRUPT_WRITE_TIMEOUT = Duration.ofSeconds(0,
           200 * 1000 * 1000);
 
+    // threads for loading endpoint classes and validating handlers and
+    // proxy URLs during startup, validation still running after
+    // STARTUP_VALIDATION_WAIT_MSEC is left to finish in the background,
+    // it only logs warnings
+    public static final int STARTUP_THREADS = 8;
+    public static final long STARTUP_VALIDATION_WAIT_MSEC = 2000;
+
 	private Boolean isLoaded = false;
 	private Boolean isValid = false;
 
@@ -93,6 +110,34 @@ public class AppConfigurator {
               "logging_config_not_specified");
         globals.put(GL_CFGS.sigkillDelay.toString(), 60); // kill delay in seconds
         globals.put(GL_CFGS.singletonClassName.toString(), null);
+        // number of usage messages which may be queued for publishing,
+        // 0 means publish on the request thread
+        globals.put(GL_CFGS.usageQueueSize.toString(), 8192);
+        globals.put(GL_CFGS.usageOverflowPolicy.toString(),
+              UsageOverflowPolicy.SPILL);
+        // window for merging wfstat messages in seconds, 0 means no merging
+        globals.put(GL_CFGS.wfstatAggregationSeconds.toString(), 0);
+        globals.put(GL_CFGS.wfstatKeepExactRecords.toString(), false);
+        // a directory for usage messages which fail to publish, null means
+        // no spool, sizes are in megabytes
+        globals.put(GL_CFGS.usageSpoolDirectory.toString(), null);
+        globals.put(GL_CFGS.usageSpoolSegmentMB.toString(), 16);
+        globals.put(GL_CFGS.usageSpoolMaxMB.toString(), 512);
+        // for loggingMethod FILE, loggingConfig is the directory
+        globals.put(GL_CFGS.usageFileFormat.toString(), UsageFileFormat.TEXT);
+        globals.put(GL_CFGS.usageFileMaxMB.toString(), 1024);
+        globals.put(GL_CFGS.usageFileSyncMsec.toString(), 1000);
+        // a file for request traces, null means traces are not written
+        globals.put(GL_CFGS.traceFile.toString(), null);
+        // a file for captured requests, for replay, null means requests
+        // are not captured, POST bodies may hold user data, so by default
+        // only their length and hash are kept
+        globals.put(GL_CFGS.captureFile.toString(), null);
+        globals.put(GL_CFGS.captureBodies.toString(), false);
+        // reverse lookup of client addresses for the usage clientName, off
+        // the request thread, when false the container's remote host is
+        // used, i.e. the IP unless the container does lookups
+        globals.put(GL_CFGS.clientNameLookup.toString(), false);
 
         // a slight dissonance, endpointClassName will appear as a
         // string externally, but an instatiated object internally
@@ -113,6 +158,11 @@ public class AppConfigurator {
         ep_defaults.cfgMap.put(EP_CFGS.allowedIPs, createAllowedIPsList(""));
         ep_defaults.cfgMap.put(EP_CFGS.mediaParameter, "format");
         ep_defaults.cfgMap.put(EP_CFGS.relaxedValidation, false);
+        // maximum concurrent requests, more get 503, 0 means no limit
+        ep_defaults.cfgMap.put(EP_CFGS.concurrencyLimit, 0);
+        // requests taking longer than this many milliseconds are written
+        // to the slow request log, 0 means none are
+        ep_defaults.cfgMap.put(EP_CFGS.slowRequestThreshold, 0);
     }
 
     // InternalTypes is an enum of the types supported internally.
@@ -134,13 +184,18 @@ public class AppConfigurator {
     // global configuration parameter names
     public static enum GL_CFGS { appName, version, corsEnabled,
         rootServiceDoc, loggingMethod, loggingConfig, sigkillDelay,
-        jndiUrl, singletonClassName};
+        jndiUrl, singletonClassName, usageQueueSize, usageOverflowPolicy,
+        wfstatAggregationSeconds, wfstatKeepExactRecords, usageSpoolDirectory,
+        usageSpoolSegmentMB, usageSpoolMaxMB, usageFileFormat, usageFileMaxMB,
+        usageFileSyncMsec, traceFile, captureFile, captureBodies,
+        clientNameLookup};
 
     // endpoint configuration parameter names
     public static enum EP_CFGS { formatTypes, handlerTimeout,
         handlerProgram, handlerWorkingDirectory, usageLog, postEnabled, use404For204,
         endpointClassName, proxyURL, logMiniseedExtents, formatDispositions,
-        addHeaders, allowedIPs, mediaParameter, relaxedValidation
+        addHeaders, allowedIPs, mediaParameter, relaxedValidation,
+        concurrencyLimit, slowRequestThreshold
     }
 
     /**
@@ -151,8 +206,9 @@ public class AppConfigurator {
         // false until some exception occurs
         boolean hasExcpetion = false;
 
-        // operator configuration parameters from the config file
-        final Map<EP_CFGS, Object> cfgMap = new HashMap();
+        // operator configuration parameters from the config file, some
+        // may be changed at runtime, see the set methods, e.g. via JMX
+        final Map<EP_CFGS, Object> cfgMap = new ConcurrentHashMap<>();
     }
     // container for parameters that apply to all endpoints
     private final Map<String, Object> globals = new HashMap();
@@ -165,7 +221,17 @@ public class AppConfigurator {
     private final Endpoint ep_defaults = new Endpoint();
 
 	public static enum LoggingMethod {
-		LOG4J, JMS, RABBIT_ASYNC
+		LOG4J, JMS, RABBIT_ASYNC, FILE
+	};
+
+    // record format for loggingMethod FILE
+	public static enum UsageFileFormat {
+		TEXT, BINARY
+	};
+
+    // what to do with a usage message when the usage queue is full
+	public static enum UsageOverflowPolicy {
+		BLOCK, DROP_OLDEST, SPILL
 	};
 
     /**
@@ -309,6 +375,65 @@ public class AppConfigurator {
         return (String) globals.get(GL_CFGS.singletonClassName.toString());
     }
 
+    public int getUsageQueueSize() {
+        return ((Integer) globals.get(GL_CFGS.usageQueueSize.toString()));
+    }
+
+    public UsageOverflowPolicy getUsageOverflowPolicy() {
+        return (UsageOverflowPolicy) globals.get(
+              GL_CFGS.usageOverflowPolicy.toString());
+    }
+
+    public int getWfstatAggregationSeconds() {
+        return ((Integer) globals.get(
+              GL_CFGS.wfstatAggregationSeconds.toString()));
+    }
+
+    public boolean isWfstatKeepExactRecords() {
+        return ((Boolean) globals.get(
+              GL_CFGS.wfstatKeepExactRecords.toString()));
+    }
+
+    public String getUsageSpoolDirectory() {
+        return (String) globals.get(GL_CFGS.usageSpoolDirectory.toString());
+    }
+
+    public int getUsageSpoolSegmentMB() {
+        return ((Integer) globals.get(GL_CFGS.usageSpoolSegmentMB.toString()));
+    }
+
+    public int getUsageSpoolMaxMB() {
+        return ((Integer) globals.get(GL_CFGS.usageSpoolMaxMB.toString()));
+    }
+
+    public UsageFileFormat getUsageFileFormat() {
+        return (UsageFileFormat) globals.get(GL_CFGS.usageFileFormat.toString());
+    }
+
+    public int getUsageFileMaxMB() {
+        return ((Integer) globals.get(GL_CFGS.usageFileMaxMB.toString()));
+    }
+
+    public int getUsageFileSyncMsec() {
+        return ((Integer) globals.get(GL_CFGS.usageFileSyncMsec.toString()));
+    }
+
+    public String getTraceFile() {
+        return (String) globals.get(GL_CFGS.traceFile.toString());
+    }
+
+    public String getCaptureFile() {
+        return (String) globals.get(GL_CFGS.captureFile.toString());
+    }
+
+    public boolean isCaptureBodies() {
+        return ((Boolean) globals.get(GL_CFGS.captureBodies.toString()));
+    }
+
+    public boolean isClientNameLookup() {
+        return ((Boolean) globals.get(GL_CFGS.clientNameLookup.toString()));
+    }
+
     public String getWssVersion() {
         return wssVersion;
     }
@@ -349,6 +474,61 @@ public class AppConfigurator {
 		return (int)endpoints.get(epName).cfgMap.get(EP_CFGS.handlerTimeout);
 	}
 
+    public int getConcurrencyLimit(String epName) {
+        return (int)endpoints.get(epName).cfgMap.get(EP_CFGS.concurrencyLimit);
+    }
+
+    public int getSlowRequestThreshold(String epName) {
+        return (int)endpoints.get(epName).cfgMap.get(EP_CFGS.slowRequestThreshold);
+    }
+
+    // The set methods are for changes while the service is running, the
+    // new value is used by requests which start after the change.
+
+    public void setTimeoutSeconds(String epName, int seconds) {
+        if (seconds < 1) {
+            throw new IllegalArgumentException(EP_CFGS.handlerTimeout
+                  + " must be greater than 0, value: " + seconds);
+        }
+        setEndpointValue(epName, EP_CFGS.handlerTimeout, seconds);
+    }
+
+    public void setConcurrencyLimit(String epName, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException(EP_CFGS.concurrencyLimit
+                  + " must be 0 or more, value: " + limit);
+        }
+        setEndpointValue(epName, EP_CFGS.concurrencyLimit, limit);
+    }
+
+    public void setSlowRequestThreshold(String epName, int msec) {
+        if (msec < 0) {
+            throw new IllegalArgumentException(EP_CFGS.slowRequestThreshold
+                  + " must be 0 or more, value: " + msec);
+        }
+        setEndpointValue(epName, EP_CFGS.slowRequestThreshold, msec);
+    }
+
+    public void setUsageLogEnabled(String epName, boolean isEnabled) {
+        setEndpointValue(epName, EP_CFGS.usageLog, isEnabled);
+    }
+
+    private void setEndpointValue(String epName, EP_CFGS cfgName, Object value) {
+        Endpoint endpoint = getEndpointOrThrow(epName);
+        Object previous = endpoint.cfgMap.put(cfgName, value);
+        logger.info("runtime change, " + createEPdotPropertyName(epName, cfgName)
+              + " changed from: " + previous + "  to: " + value);
+    }
+
+    private Endpoint getEndpointOrThrow(String epName) {
+        Endpoint endpoint = endpoints.get(epName);
+        if (endpoint == null) {
+            throw new IllegalArgumentException(
+                  "There is no endpoint configured for endpoint name: " + epName);
+        }
+        return endpoint;
+    }
+
     public String getWorkingDirectory(String epName) {
         return endpoints.get(epName).cfgMap.get(EP_CFGS.handlerWorkingDirectory).toString();
     }
@@ -716,6 +896,90 @@ public class AppConfigurator {
         loadGlobalParameter(inputProps, globals, GL_CFGS.loggingConfig);
         loadGlobalParameter(inputProps, globals, GL_CFGS.sigkillDelay);
         loadGlobalParameter(inputProps, globals, GL_CFGS.singletonClassName);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.usageQueueSize);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.usageOverflowPolicy);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.wfstatAggregationSeconds);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.wfstatKeepExactRecords);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.usageSpoolDirectory);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.usageSpoolSegmentMB);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.usageSpoolMaxMB);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.usageFileFormat);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.usageFileMaxMB);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.usageFileSyncMsec);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.traceFile);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.captureFile);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.captureBodies);
+        loadGlobalParameter(inputProps, globals, GL_CFGS.clientNameLookup);
+
+        ExecutorService startupPool = createStartupPool();
+        try {
+            loadEndpointParameters(inputProps, startupPool);
+        } finally {
+            startupPool.shutdown();
+        }
+
+		// Finished without problems.
+		this.isValid = true;
+		logger.info(this.toString());
+	}
+
+    private static ExecutorService createStartupPool() {
+        final AtomicInteger count = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(STARTUP_THREADS,
+              new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "wss-startup-"
+                      + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Load the endpoint classes named in inputProps on the startup pool,
+     * so reading and linking different classes overlaps, getClassInstance
+     * then finds them loaded.
+     *
+     * The classes are not initialized here, static initializers still run
+     * one at a time on the config thread when getClassInstance is called.
+     * Initializing operator classes in parallel could deadlock startup
+     * when their static initializers refer to each other.
+     */
+    private static void preloadEndpointClasses(Properties inputProps,
+          ExecutorService startupPool) {
+        Set<String> classNames = new HashSet<>();
+        String suffix = ENDPOINT_TO_PROPERTIES_DELIMITER
+              + EP_CFGS.endpointClassName.toString();
+        for (String propName : inputProps.stringPropertyNames()) {
+            if (propName.endsWith(suffix)
+                  || propName.equals(GL_CFGS.singletonClassName.toString())) {
+                String className = inputProps.getProperty(propName);
+                if (isOkString(className)) {
+                    classNames.add(className.trim());
+                }
+            }
+        }
+
+        final ClassLoader loader = AppConfigurator.class.getClassLoader();
+        for (final String className : classNames) {
+            startupPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Class.forName(className, false, loader);
+                    } catch (Throwable th) {
+                        // reported when the endpoint is loaded
+                    }
+                }
+            });
+        }
+    }
+
+    private void loadEndpointParameters(Properties inputProps,
+          ExecutorService startupPool) throws Exception {
+        preloadEndpointClasses(inputProps, startupPool);
 
         Enumeration keys = inputProps.propertyNames();
         while (keys.hasMoreElements()) {
@@ -761,50 +1025,78 @@ public class AppConfigurator {
         }
 
 		// ------------------------------------------------------------------;
-        // do additional validation
+        // do additional validation, the endpoints are independent so
+        // they are checked in parallel
+
+        List<Future<?>> checks = new ArrayList<>();
+        for (final String epName : endpoints.keySet()) {
+            checks.add(startupPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    validateEndpoint(epName);
+                }
+            }));
+        }
 
-        for (String epName : endpoints.keySet()) {
-            IrisProcessMarker iso = getIrisEndpointClass(epName);
-            if (iso instanceof edu.iris.wss.endpoints.CmdProcessor) {
-                String handlerName = getHandlerProgram(epName);
-                try {
-                    if (isOkString(handlerName)) {
-                        if (isExecutableAndExists(handlerName)) {
-                            continue;
-                        }
+        long deadline = System.nanoTime()
+              + TimeUnit.MILLISECONDS.toNanos(STARTUP_VALIDATION_WAIT_MSEC);
+        for (Future<?> check : checks) {
+            try {
+                check.get(Math.max(0, deadline - System.nanoTime()),
+                      TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                logger.info("endpoint validation is continuing in the"
+                      + " background after "
+                      + STARTUP_VALIDATION_WAIT_MSEC + " msec");
+                break;
+            } catch (ExecutionException ex) {
+                logger.warn("endpoint validation error, ex: " + ex.getCause());
+            }
+        }
+	}
+
+    /**
+     * Check that the handler program or proxy URL of an endpoint can be
+     * used, problems are logged as warnings and the endpoint is kept.
+     */
+    private void validateEndpoint(String epName) {
+        IrisProcessMarker iso = getIrisEndpointClass(epName);
+        if (iso instanceof edu.iris.wss.endpoints.CmdProcessor) {
+            String handlerName = getHandlerProgram(epName);
+            try {
+                if (isOkString(handlerName)) {
+                    if (isExecutableAndExists(handlerName)) {
+                        return;
                     }
-                } catch(Exception ex) {
-                    String msg = "Error getting handlerProgram for endpoint: "
-                          + epName + "  ex: " + ex.toString();
-                    logger.warn(msg);
+                }
+            } catch(Exception ex) {
+                String msg = "Error getting handlerProgram for endpoint: "
+                      + epName + "  ex: " + ex.toString();
+                logger.warn(msg);
 //                    accept when possible approach 11-Jan-2017
 //                    logger.error(msg);
 //                    throw new Exception(msg, ex);
+            }
+        } else if (iso instanceof edu.iris.wss.endpoints.ProxyResource) {
+            String resoureToProxyURL = getProxyUrl(epName);
+            try {
+                if (isOkString(resoureToProxyURL)) {
+                    URL url = new URL(resoureToProxyURL);
+                    InputStream is = url.openStream();
+                    is.close();
                 }
-            } else if (iso instanceof edu.iris.wss.endpoints.ProxyResource) {
-                String resoureToProxyURL = getProxyUrl(epName);
-                try {
-                    if (isOkString(resoureToProxyURL)) {
-                        URL url = new URL(resoureToProxyURL);
-                        InputStream is = url.openStream();
-                    }
-                } catch(Exception ex) {
-                    String msg = "unable to open URL for parameter: "
-                          + EP_CFGS.proxyURL.toString()
-                          + " on endpoint: " + epName
-                          + "  ex: " + ex.toString();
-                    logger.warn(msg);
+            } catch(Exception ex) {
+                String msg = "unable to open URL for parameter: "
+                      + EP_CFGS.proxyURL.toString()
+                      + " on endpoint: " + epName
+                      + "  ex: " + ex.toString();
+                logger.warn(msg);
 //                    accept when possible approach 11-Jan-2017
 //                    logger.error(msg);
 //                    throw new Exception(msg, ex);
-                }
             }
         }
-
-		// Finished without problems.
-		this.isValid = true;
-		logger.info(this.toString());
-	}
+    }
 
     public static boolean isExecutableAndExists(String filename) throws Exception {
         File f = new File(filename);
@@ -819,6 +1111,15 @@ public class AppConfigurator {
        return true;
     }
 
+    /**
+     * @return - the constant of enumClass named by value, ignoring case
+     * @throws IllegalArgumentException - if there is no such constant
+     */
+    private static <E extends Enum<E>> E parseEnum(Class<E> enumClass,
+          String value) {
+        return Enum.valueOf(enumClass, value.toUpperCase());
+    }
+
     public void loadGlobalParameter(Properties input, Map cfgs, GL_CFGS eKey)
           throws Exception {
 
@@ -843,15 +1144,18 @@ public class AppConfigurator {
                               + "  value found: " + newVal
                               + "  it should be an integer");
                     }
-                } else if(currentVal instanceof LoggingMethod) {
+                } else if(currentVal instanceof Enum) {
+                    // e.g. LoggingMethod, the default gives the enum type
+                    Enum<?> defaultVal = (Enum<?>) currentVal;
                     try {
-                        LoggingMethod trial = LoggingMethod.valueOf(newVal.toUpperCase());
-                        cfgs.put(key, trial);
-                    } catch (Exception ex) {
+                        cfgs.put(key, parseEnum(defaultVal.getDeclaringClass(),
+                              newVal));
+                    } catch (IllegalArgumentException ex) {
                         throw new Exception("Unrecognized value for paramater: " + key
                               + "  value found: " + newVal
-                              + "  should be one of " + LoggingMethod.LOG4J.toString()
-                              + " or " + LoggingMethod.JMS.toString(), ex);
+                              + "  should be one of "
+                              + Arrays.toString(
+                              defaultVal.getDeclaringClass().getEnumConstants()), ex);
                     }
                 } else if(currentVal instanceof URL) {
                     try {
@@ -1026,6 +1330,42 @@ public class AppConfigurator {
         }
 	}
 
+    private Object cfgValueForDisplay(String epName, EP_CFGS cfgName,
+          Object value) {
+        if (value == null) {
+            value = "null";
+        } else if(value instanceof IrisProcessMarker) {
+            value = value.getClass().getName();
+        } else if (value instanceof List &&
+              (cfgName.toString().equals(EP_CFGS.allowedIPs.toString())
+              )) {
+            List<CIDRUtils> cidrs = getAllowedIPs(epName);
+            value = toStringCIDRUtilList(cidrs);
+        } else if (value instanceof Map &&
+              (cfgName.toString().equals(EP_CFGS.formatTypes.toString())
+              || cfgName.toString().equals(EP_CFGS.formatDispositions.toString())
+              || cfgName.toString().equals(EP_CFGS.addHeaders.toString())
+              )) {
+            value = toStringMapStringTypes((Map<String, String>)value);
+        }
+        return value;
+    }
+
+    /**
+     * @return - name=value lines for the current configuration of one
+     *           endpoint, including values changed at runtime
+     */
+    public List<String> getEndpointConfigLines(String epName) {
+        Endpoint endpoint = getEndpointOrThrow(epName);
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<EP_CFGS, Object> entry : endpoint.cfgMap.entrySet()) {
+            lines.add(createEPdotPropertyName(epName, entry.getKey()) + "="
+                  + cfgValueForDisplay(epName, entry.getKey(), entry.getValue()));
+        }
+        java.util.Collections.sort(lines);
+        return lines;
+    }
+
     private static String toStringCIDRUtilList(List<CIDRUtils> cidrs) {
         StringBuilder s = new StringBuilder();
 
@@ -1226,6 +1566,20 @@ public class AppConfigurator {
         keyList.add(GL_CFGS.loggingConfig.toString());
         keyList.add(GL_CFGS.sigkillDelay.toString());
         keyList.add(GL_CFGS.singletonClassName.toString());
+        keyList.add(GL_CFGS.usageQueueSize.toString());
+        keyList.add(GL_CFGS.usageOverflowPolicy.toString());
+        keyList.add(GL_CFGS.wfstatAggregationSeconds.toString());
+        keyList.add(GL_CFGS.wfstatKeepExactRecords.toString());
+        keyList.add(GL_CFGS.usageSpoolDirectory.toString());
+        keyList.add(GL_CFGS.usageSpoolSegmentMB.toString());
+        keyList.add(GL_CFGS.usageSpoolMaxMB.toString());
+        keyList.add(GL_CFGS.usageFileFormat.toString());
+        keyList.add(GL_CFGS.usageFileMaxMB.toString());
+        keyList.add(GL_CFGS.usageFileSyncMsec.toString());
+        keyList.add(GL_CFGS.traceFile.toString());
+        keyList.add(GL_CFGS.captureFile.toString());
+        keyList.add(GL_CFGS.captureBodies.toString());
+        keyList.add(GL_CFGS.clientNameLookup.toString());
 
         for (String key: keyList) {
             Object value = globals.get(key) != null ? globals.get(key) : "null";
@@ -1246,22 +1600,7 @@ public class AppConfigurator {
             Endpoint endpoint = endpoints.get(epName);
             for (EP_CFGS cfgName: (Set<EP_CFGS>)endpoint.cfgMap.keySet()) {
                 Object value = endpoint.cfgMap.get(cfgName);
-                if (value == null) {
-                    value = "null";
-                } else if(value instanceof IrisProcessMarker) {
-                    value = value.getClass().getName();
-                } else if (value instanceof List &&
-                      (cfgName.toString().equals(EP_CFGS.allowedIPs.toString())
-                      )) {
-                    List<CIDRUtils> cidrs = getAllowedIPs(epName);
-                    value = toStringCIDRUtilList(cidrs);
-                } else if (value instanceof Map &&
-                      (cfgName.toString().equals(EP_CFGS.formatTypes.toString())
-                      || cfgName.toString().equals(EP_CFGS.formatDispositions.toString())
-                      || cfgName.toString().equals(EP_CFGS.addHeaders.toString())
-                      )) {
-                    value = toStringMapStringTypes((Map<String, String>)value);
-                }
+                value = cfgValueForDisplay(epName, cfgName, value);
 
                 sb.append(strAppend(createEPdotPropertyName(epName, cfgName)))
                       .append(value).append("\n");
@@ -1314,6 +1653,20 @@ public class AppConfigurator {
         keyList.add(GL_CFGS.loggingConfig.toString());
         keyList.add(GL_CFGS.sigkillDelay.toString());
         keyList.add(GL_CFGS.singletonClassName.toString());
+        keyList.add(GL_CFGS.usageQueueSize.toString());
+        keyList.add(GL_CFGS.usageOverflowPolicy.toString());
+        keyList.add(GL_CFGS.wfstatAggregationSeconds.toString());
+        keyList.add(GL_CFGS.wfstatKeepExactRecords.toString());
+        keyList.add(GL_CFGS.usageSpoolDirectory.toString());
+        keyList.add(GL_CFGS.usageSpoolSegmentMB.toString());
+        keyList.add(GL_CFGS.usageSpoolMaxMB.toString());
+        keyList.add(GL_CFGS.usageFileFormat.toString());
+        keyList.add(GL_CFGS.usageFileMaxMB.toString());
+        keyList.add(GL_CFGS.usageFileSyncMsec.toString());
+        keyList.add(GL_CFGS.traceFile.toString());
+        keyList.add(GL_CFGS.captureFile.toString());
+        keyList.add(GL_CFGS.captureBodies.toString());
+        keyList.add(GL_CFGS.clientNameLookup.toString());
 
         for (String key: keyList) {
             Object value = globals.get(key) != null ? globals.get(key) : "null";
@@ -1344,22 +1697,7 @@ public class AppConfigurator {
             Map cfgs = endpoints.get(epName).cfgMap;
             for (EP_CFGS cfgName: (Set<EP_CFGS>)cfgs.keySet()) {
                 Object value = cfgs.get(cfgName);
-                if (value == null) {
-                    value = "null";
-                } else if(value instanceof IrisProcessMarker) {
-                    value = value.getClass().getName();
-                } else if (value instanceof List &&
-                      (cfgName.toString().equals(EP_CFGS.allowedIPs.toString())
-                      )) {
-                    List<CIDRUtils> cidrs = getAllowedIPs(epName);
-                    value = toStringCIDRUtilList(cidrs);
-                } else if (value instanceof Map &&
-                      (cfgName.toString().equals(EP_CFGS.formatTypes.toString())
-                      || cfgName.toString().equals(EP_CFGS.formatDispositions.toString())
-                      || cfgName.toString().equals(EP_CFGS.addHeaders.toString())
-                      )) {
-                    value = toStringMapStringTypes((Map<String, String>)value);
-                }
+                value = cfgValueForDisplay(epName, cfgName, value);
 
                 sb.append("<TR><TD>")
                       .append(createEPdotPropertyName(epName, cfgName))
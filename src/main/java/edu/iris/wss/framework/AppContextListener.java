@@ -19,6 +19,8 @@
 
 package edu.iris.wss.framework;
 
+import edu.iris.dmc.jms.service.WebLogService;
+import edu.iris.wss.utils.NameResolver;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.servlet.ServletContext;
@@ -35,7 +37,8 @@ import org.apache.log4j.Logger;
 public class AppContextListener implements ServletContextListener {
     public static final Logger logger = Logger.getLogger(AppContextListener.class);
 
-    public static String globalConfigBase;
+    // set on the container thread, read when MyApplication is created
+    public static volatile String globalConfigBase;
     // overkill to allow observation of test code behavior, many test seem
     // to be run together and share this object, it does not seem to be the
     // case on tomcat or glassfish containters.
@@ -68,10 +71,11 @@ public class AppContextListener implements ServletContextListener {
     public void contextDestroyed(ServletContextEvent arg0) {
         logger.info("contextDestroyed called, context: "
               + arg0.getServletContext().getContextPath());
-        if (WssSingleton.webLogService != null) {
+        WebLogService jmsService = WssSingleton.webLogService;
+        if (jmsService != null) {
             try {
                 // for JMS
-                WssSingleton.webLogService.cleanUp();
+                jmsService.cleanUp();
                 logger.info("contextDestroyed called, JMS cleanUp finished");
             } catch (Exception ex) {
                 System.out.println("*** AppContextListener, webLogService"
@@ -81,5 +85,7 @@ public class AppContextListener implements ServletContextListener {
                         + " exception: ", ex);
             }
         }
+
+        NameResolver.shutdown();
     }
 }
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import java.util.List;
+
+public class EndpointManagement implements EndpointManagementMBean {
+
+    private final WssSingleton sw;
+    private final String epName;
+
+    public EndpointManagement(WssSingleton sw, String epName) {
+        this.sw = sw;
+        this.epName = epName;
+    }
+
+    @Override
+    public String getEndpointName() {
+        return epName;
+    }
+
+    @Override
+    public int getHandlerTimeout() {
+        return sw.appConfig.getTimeoutSeconds(epName);
+    }
+
+    @Override
+    public void setHandlerTimeout(int seconds) {
+        sw.appConfig.setTimeoutSeconds(epName, seconds);
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return sw.appConfig.getConcurrencyLimit(epName);
+    }
+
+    @Override
+    public void setConcurrencyLimit(int limit) {
+        sw.appConfig.setConcurrencyLimit(epName, limit);
+    }
+
+    @Override
+    public int getSlowRequestThreshold() {
+        return sw.appConfig.getSlowRequestThreshold(epName);
+    }
+
+    @Override
+    public void setSlowRequestThreshold(int msec) {
+        sw.appConfig.setSlowRequestThreshold(epName, msec);
+    }
+
+    @Override
+    public boolean isUsageLogEnabled() {
+        return sw.appConfig.isUsageLogEnabled(epName);
+    }
+
+    @Override
+    public void setUsageLogEnabled(boolean isEnabled) {
+        sw.appConfig.setUsageLogEnabled(epName, isEnabled);
+    }
+
+    @Override
+    public int getRequestsInFlight() {
+        return sw.requestRegistry.getInFlight(epName);
+    }
+
+    @Override
+    public long getRequests() {
+        StatsKeeper.EndpointStats eps = sw.statsKeeper.endpointMap().get(epName);
+        return eps == null ? 0 : eps.requests.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        StatsKeeper.EndpointStats eps = sw.statsKeeper.endpointMap().get(epName);
+        return eps == null ? 0 : eps.errors.sum();
+    }
+
+    @Override
+    public long getShippedBytes() {
+        StatsKeeper.EndpointStats eps = sw.statsKeeper.endpointMap().get(epName);
+        return eps == null ? 0 : eps.shippedBytes.sum();
+    }
+
+    @Override
+    public String[] getConfiguration() {
+        List<String> lines = sw.appConfig.getEndpointConfigLines(epName);
+        return lines.toArray(new String[lines.size()]);
+    }
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+/**
+ * JMX view of one endpoint, the handler timeout, concurrency limit, slow
+ * request threshold and usage log setting may be changed while the
+ * service is running.
+ */
+public interface EndpointManagementMBean {
+    String getEndpointName();
+
+    int getHandlerTimeout();
+    void setHandlerTimeout(int seconds);
+
+    int getConcurrencyLimit();
+    void setConcurrencyLimit(int limit);
+
+    int getSlowRequestThreshold();
+    void setSlowRequestThreshold(int msec);
+
+    boolean isUsageLogEnabled();
+    void setUsageLogEnabled(boolean isEnabled);
+
+    int getRequestsInFlight();
+    long getRequests();
+    long getErrors();
+    long getShippedBytes();
+
+    String[] getConfiguration();
+}
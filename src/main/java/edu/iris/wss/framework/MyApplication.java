@@ -60,6 +60,9 @@ public class MyApplication extends ResourceConfig {
     MyContainerLifecycleListener mCLL = new MyContainerLifecycleListener();
     this.registerInstances(mCLL);
 
+    // releases RequestRegistry entries when each request is finished
+    register(MyApplicationEventListener.class);
+
     // add in classes which have static endpoints defined with annotations
     register(edu.iris.wss.Wss.class);
 
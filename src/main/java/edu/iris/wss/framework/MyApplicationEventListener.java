@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import edu.iris.wss.framework.FdsnStatus.Status;
+import edu.iris.wss.utils.CaptureFileSink;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+/**
+ * Releases the RequestRegistry entry of a request when Jersey has
+ * finished with it, i.e. after a streamed response has been written or
+ * after an exception response, and writes the RequestTrace and the
+ * captured request if the request has them.
+ */
+public class MyApplicationEventListener implements ApplicationEventListener {
+
+    // stateless, so one object is used for every request
+    private static final RequestEventListener FINISHED_LISTENER =
+          new RequestEventListener() {
+        @Override
+        public void onEvent(RequestEvent event) {
+            if (event.getType() == RequestEvent.Type.FINISHED) {
+                ContainerRequest request = event.getContainerRequest();
+                Object entry = request == null ? null
+                      : request.getProperty(RequestRegistry.PROPERTY_NAME);
+                if (entry instanceof RequestRegistry.Entry) {
+                    ((RequestRegistry.Entry)entry).release();
+                }
+
+                Object trace = request == null ? null
+                      : request.getProperty(RequestTrace.PROPERTY_NAME);
+                if (trace instanceof RequestTrace) {
+                    ContainerResponse response = event.getContainerResponse();
+                    ((RequestTrace)trace).finish(response == null
+                          ? Status.INTERNAL_SERVER_ERROR.getStatusCode()
+                          : response.getStatus());
+                }
+
+                Object capture = request == null ? null
+                      : request.getProperty(CaptureFileSink.PROPERTY_NAME);
+                if (capture instanceof CaptureFileSink.Pending) {
+                    ContainerResponse response = event.getContainerResponse();
+                    ((CaptureFileSink.Pending)capture).finish(response == null
+                          ? Status.INTERNAL_SERVER_ERROR.getStatusCode()
+                          : response.getStatus());
+                }
+            }
+        }
+    };
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+        // noop
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return FINISHED_LISTENER;
+    }
+}
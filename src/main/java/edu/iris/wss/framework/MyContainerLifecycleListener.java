@@ -19,6 +19,8 @@
 
 package edu.iris.wss.framework;
 
+import edu.iris.dmc.logging.rabbitmq.IrisRabbitAsyncPublisher;
+import edu.iris.wss.utils.UsageFileWriter;
 import javax.servlet.ServletContext;
 import javax.ws.rs.core.Context;
 import org.apache.log4j.Logger;
@@ -98,12 +100,18 @@ public class MyContainerLifecycleListener implements ContainerLifecycleListener
     @Override
     public void onShutdown(Container cntnr) {
         LOGGER.info("my container shutdown for app: " + sw.appConfig.getAppName());
-        if (WssSingleton.rabbitAsyncPublisher != null) {
+        sw.unregisterManagement();
+        sw.stopUsagePublisher();
+        sw.stopAsyncWriters();
+
+        IrisRabbitAsyncPublisher rabbitPublisher =
+              WssSingleton.rabbitAsyncPublisher;
+        if (rabbitPublisher != null) {
             try {
                 // RabbitMQ shutdown just before container goes away
                 LOGGER.info("RABBIT_ASYNC shutdown(10000) started");
                 Thread.sleep(250); // help prevent loss of message
-                WssSingleton.rabbitAsyncPublisher.shutdown(10000);
+                rabbitPublisher.shutdown(10000);
                 LOGGER.info("RABBIT_ASYNC shutdown(10000) returned");
             } catch (Exception ex) {
                 String msg = "*** MyContainerLifecycleListener, rabbitAsyncPublisher"
@@ -115,6 +123,14 @@ public class MyContainerLifecycleListener implements ContainerLifecycleListener
             }
         }
 
+        // removed before it is closed, so request threads which still
+        // log usage see no writer rather than a closed one
+        UsageFileWriter fileWriter = WssSingleton.usageFileWriter;
+        WssSingleton.usageFileWriter = null;
+        if (fileWriter != null) {
+            fileWriter.close();
+        }
+
         sw.destroyIrisSingleton();
     }
 }
\ No newline at end of file
@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import edu.iris.wss.framework.StatsKeeper.EndpointStats;
+import edu.iris.wss.framework.StatsKeeper.Latency;
+import edu.iris.wss.utils.UsageFileWriter;
+import edu.iris.wss.utils.UsagePublisher;
+import edu.iris.wss.utils.UsageSpool;
+import edu.iris.wss.utils.WfstatAggregator;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Renders StatsKeeper and the usage logging objects in the OpenMetrics
+ * text format, for the wssmetrics endpoint.
+ *
+ * The text is built in a StringBuilder which is kept per thread, the
+ * counters are read directly from their maps, so a scrape does not copy
+ * or sort the stats.
+ *
+ * Latency quantiles are for the last complete histogram window, so they
+ * are gauges rather than an OpenMetrics summary, which needs cumulative
+ * counts.
+ */
+public class OpenMetricsWriter {
+
+    public static final String CONTENT_TYPE =
+          "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+
+    private static final ThreadLocal<StringBuilder> BUFFERS =
+          new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(16 * 1024);
+        }
+    };
+
+    private OpenMetricsWriter() {
+    }
+
+    public static String write(WssSingleton sw) {
+        StringBuilder sb = BUFFERS.get();
+        sb.setLength(0);
+        appendTo(sb, sw);
+        return sb.toString();
+    }
+
+    public static void appendTo(StringBuilder sb, WssSingleton sw) {
+        appendStats(sb, sw.statsKeeper);
+
+        UsagePublisher publisher = sw.usagePublisher;
+        if (publisher != null) {
+            family(sb, "wss_usage_queue_depth", "gauge",
+                  "Usage messages waiting to be published.");
+            sample(sb, "wss_usage_queue_depth", publisher.getQueueDepth());
+            family(sb, "wss_usage_queue_capacity", "gauge",
+                  "Size of the usage message queue.");
+            sample(sb, "wss_usage_queue_capacity", publisher.getCapacity());
+            family(sb, "wss_usage_queue_high_water_mark", "gauge",
+                  "Largest usage queue depth seen.");
+            sample(sb, "wss_usage_queue_high_water_mark",
+                  publisher.getHighWaterMark());
+            counter(sb, "wss_usage_published",
+                  "Usage messages published from the queue.",
+                  publisher.getPublishedCount());
+            counter(sb, "wss_usage_failed",
+                  "Usage messages which could not be published directly.",
+                  publisher.getFailedCount());
+            counter(sb, "wss_usage_dropped",
+                  "Usage messages dropped from a full queue.",
+                  publisher.getDroppedCount());
+            counter(sb, "wss_usage_spilled",
+                  "Usage messages not queued because the queue was full.",
+                  publisher.getSpilledCount());
+        }
+
+        UsageSpool spool = sw.usageSpool;
+        if (spool != null) {
+            family(sb, "wss_usage_spool_backlog", "gauge",
+                  "Usage messages in the spool waiting to be replayed.");
+            sample(sb, "wss_usage_spool_backlog", spool.getBacklog());
+            family(sb, "wss_usage_spool_segments", "gauge",
+                  "Usage spool segment files.");
+            sample(sb, "wss_usage_spool_segments", spool.getSegmentCount());
+            counter(sb, "wss_usage_spool_appended",
+                  "Usage messages written to the spool.",
+                  spool.getAppendedCount());
+            counter(sb, "wss_usage_spool_replayed",
+                  "Usage messages replayed from the spool.",
+                  spool.getReplayedCount());
+            counter(sb, "wss_usage_spool_dead_lettered",
+                  "Usage messages written to the usage log after failed replays.",
+                  spool.getDeadLetteredCount());
+            counter(sb, "wss_usage_spool_dropped",
+                  "Usage messages dropped because the spool was full.",
+                  spool.getDroppedCount());
+        }
+
+        WfstatAggregator aggregator = sw.wfstatAggregator;
+        if (aggregator != null) {
+            family(sb, "wss_wfstat_open_keys", "gauge",
+                  "Wfstat rollups waiting for the next flush.");
+            sample(sb, "wss_wfstat_open_keys", aggregator.getOpenKeyCount());
+            counter(sb, "wss_wfstat_merged",
+                  "Wfstat messages merged into rollups.",
+                  aggregator.getRecordsMerged());
+            counter(sb, "wss_wfstat_rollups_sent",
+                  "Wfstat rollup messages published.",
+                  aggregator.getRollupsSent());
+        }
+
+        UsageFileWriter fileWriter = WssSingleton.usageFileWriter;
+        if (fileWriter != null) {
+            counter(sb, "wss_usage_file_records",
+                  "Usage messages written to usage files.",
+                  fileWriter.getRecordCount());
+            counter(sb, "wss_usage_file_bytes",
+                  "Bytes written to usage files.",
+                  fileWriter.getBytesWritten());
+        }
+
+        sb.append("# EOF\n");
+    }
+
+    static void appendStats(StringBuilder sb, StatsKeeper stats) {
+        family(sb, "wss_start_time_seconds", "gauge",
+              "Time the service was started.");
+        sb.append("wss_start_time_seconds ")
+              .append(stats.startTime.getTime() / 1000.0).append('\n');
+
+        family(sb, "wss_requests", "counter", "Requests by HTTP method.");
+        for (Map.Entry<String, LongAdder> entry : stats.methodMap().entrySet()) {
+            sb.append("wss_requests_total{method=\"");
+            escape(sb, entry.getKey());
+            sb.append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+
+        family(sb, "wss_responses", "counter", "Responses by HTTP status.");
+        for (Map.Entry<Integer, LongAdder> entry : stats.statusMap().entrySet()) {
+            sb.append("wss_responses_total{status=\"").append(entry.getKey())
+                  .append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+
+        family(sb, "wss_format_type_responses", "counter",
+              "Successful responses by format type.");
+        for (Map.Entry<String, LongAdder> entry
+              : stats.formatTypeMap().entrySet()) {
+            sb.append("wss_format_type_responses_total{format_type=\"");
+            escape(sb, entry.getKey());
+            sb.append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+
+        counter(sb, "wss_errors", "Error responses.", stats.getErrors());
+        counter(sb, "wss_shipped_bytes", "Bytes written by handlers.",
+              stats.getShippedBytes());
+
+        family(sb, "wss_request_rate", "gauge",
+              "Requests per second, exponentially weighted.");
+        rates(sb, "wss_request_rate", stats.getRequestRate());
+        family(sb, "wss_error_rate", "gauge",
+              "Errors per second, exponentially weighted.");
+        rates(sb, "wss_error_rate", stats.getErrorRate());
+        family(sb, "wss_shipped_byte_rate", "gauge",
+              "Shipped bytes per second, exponentially weighted.");
+        rates(sb, "wss_shipped_byte_rate", stats.getByteRate());
+
+        family(sb, "wss_handlers_in_flight", "gauge",
+              "Handler processes running.");
+        sample(sb, "wss_handlers_in_flight", stats.getHandlersInFlight());
+        counter(sb, "wss_handlers_started", "Handler processes started.",
+              stats.getHandlersStarted());
+        counter(sb, "wss_handler_timeout_kills",
+              "Handler processes stopped after a timeout.",
+              stats.getTimeoutKills());
+
+        family(sb, "wss_handler_exits", "counter",
+              "Handler processes by exit code.");
+        for (Map.Entry<Integer, LongAdder> entry
+              : stats.handlerExitCodeMap().entrySet()) {
+            sb.append("wss_handler_exits_total{code=\"").append(entry.getKey())
+                  .append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+
+        Map<String, EndpointStats> endpoints = stats.endpointMap();
+        family(sb, "wss_endpoint_requests", "counter", "Requests by endpoint.");
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            endpointSample(sb, "wss_endpoint_requests_total", entry.getKey(),
+                  entry.getValue().requests.sum());
+        }
+        family(sb, "wss_endpoint_errors", "counter",
+              "Error responses by endpoint.");
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            endpointSample(sb, "wss_endpoint_errors_total", entry.getKey(),
+                  entry.getValue().errors.sum());
+        }
+        family(sb, "wss_endpoint_shipped_bytes", "counter",
+              "Bytes written by handlers by endpoint.");
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            endpointSample(sb, "wss_endpoint_shipped_bytes_total",
+                  entry.getKey(), entry.getValue().shippedBytes.sum());
+        }
+
+        family(sb, "wss_endpoint_stream_seconds", "counter",
+              "Streaming time by endpoint, blocked reading the handler,"
+              + " blocked writing to the client and processing.");
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            EndpointStats eps = entry.getValue();
+            streamSample(sb, entry.getKey(), "handler_wait",
+                  eps.readWaitNanos.sum());
+            streamSample(sb, entry.getKey(), "client_wait",
+                  eps.writeWaitNanos.sum());
+            streamSample(sb, entry.getKey(), "processing",
+                  eps.processingNanos.sum());
+        }
+        family(sb, "wss_endpoint_streams", "counter",
+              "Streamed responses by endpoint and the largest part of"
+              + " their streaming time.");
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            for (StreamTiming.Bound bound : StreamTiming.Bound.values()) {
+                sb.append("wss_endpoint_streams_total{endpoint=\"");
+                escape(sb, entry.getKey());
+                sb.append("\",bound=\"").append(bound.name().toLowerCase())
+                      .append("\"} ").append(entry.getValue().getBoundCount(bound))
+                      .append('\n');
+            }
+        }
+
+        family(sb, "wss_endpoint_latency_seconds", "gauge",
+              "Handler latency quantiles for the last histogram window.");
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            for (Latency which : Latency.values()) {
+                if (which != Latency.THROUGHPUT) {
+                    quantiles(sb, "wss_endpoint_latency_seconds",
+                          entry.getKey(), which,
+                          entry.getValue().getLatency(which).getPrevious(),
+                          1.0e-6);
+                }
+            }
+        }
+        family(sb, "wss_endpoint_throughput_bytes_per_second", "gauge",
+              "Handler throughput quantiles for the last histogram window.");
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            quantiles(sb, "wss_endpoint_throughput_bytes_per_second",
+                  entry.getKey(), null,
+                  entry.getValue().getLatency(Latency.THROUGHPUT).getPrevious(),
+                  1.0);
+        }
+    }
+
+    private static void family(StringBuilder sb, String name, String type,
+          String help) {
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, long value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help,
+          long value) {
+        family(sb, name, "counter", help);
+        sb.append(name).append("_total ").append(value).append('\n');
+    }
+
+    private static void rates(StringBuilder sb, String name, RollingRate rate) {
+        sb.append(name).append("{window=\"1m\"} ")
+              .append(rate.getOneMinuteRate()).append('\n');
+        sb.append(name).append("{window=\"5m\"} ")
+              .append(rate.getFiveMinuteRate()).append('\n');
+        sb.append(name).append("{window=\"15m\"} ")
+              .append(rate.getFifteenMinuteRate()).append('\n');
+    }
+
+    private static void endpointSample(StringBuilder sb, String name,
+          String epName, long value) {
+        sb.append(name).append("{endpoint=\"");
+        escape(sb, epName);
+        sb.append("\"} ").append(value).append('\n');
+    }
+
+    private static void streamSample(StringBuilder sb, String epName,
+          String part, long nanos) {
+        sb.append("wss_endpoint_stream_seconds_total{endpoint=\"");
+        escape(sb, epName);
+        sb.append("\",part=\"").append(part).append("\"} ")
+              .append(nanos / 1.0e9).append('\n');
+    }
+
+    private static void quantiles(StringBuilder sb, String name, String epName,
+          Latency which, LatencyHistogram hist, double scale) {
+        if (hist.getCount() == 0) {
+            return;
+        }
+        for (int i = 0; i < QUANTILES.length; i++) {
+            sb.append(name).append("{endpoint=\"");
+            escape(sb, epName);
+            if (which != null) {
+                sb.append("\",measure=\"").append(which.name().toLowerCase());
+            }
+            sb.append("\",quantile=\"").append(QUANTILE_LABELS[i])
+                  .append("\"} ")
+                  .append(hist.getValueAtPercentile(QUANTILES[i] * 100.0) * scale)
+                  .append('\n');
+        }
+    }
+
+    /**
+     * Label values escape backslash, double quote and line feed.
+     */
+    static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '\\') {
+                sb.append("\\\\");
+            } else if (ch == '"') {
+                sb.append("\\\"");
+            } else if (ch == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(ch);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import edu.iris.wss.utils.WebUtils;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.HttpHeaders;
+
+/**
+ * Client identity and request attributes which are needed several times
+ * while handling one request, e.g. for stats, parameter translation, the
+ * handler environment and every usage message.
+ *
+ * The values are resolved once when a RequestInfo is created, framework
+ * code should read them from here rather than calling WebUtils with the
+ * request object again.
+ *
+ * Client name is resolved on first use only, since it may require a
+ * reverse lookup which most requests never need, see clientNameLookup.
+ */
+public class RequestContext {
+
+    public static final String NO_ENDPOINT_NAME = "";
+
+    private final HttpServletRequest request;
+
+    private final String endpointName;
+    private final String remoteAddr;
+    private final String clientIp;
+    private final String userAgent;
+    private final String authenticatedUsername;
+    private final long startNanos = System.nanoTime();
+    private final RequestTrace trace;
+    private final boolean isClientNameLookup;
+
+    private volatile String clientName = null;
+    private volatile String requestUrl = null;
+
+    private RequestContext(HttpServletRequest request,
+          HttpHeaders requestHeaders, boolean isClientNameLookup) {
+        this.request = request;
+        this.isClientNameLookup = isClientNameLookup;
+
+        if (request == null) {
+            // only expected from unit test code
+            endpointName = NO_ENDPOINT_NAME;
+            remoteAddr = null;
+            clientIp = null;
+            userAgent = null;
+        } else {
+            endpointName = RequestInfo.getEndpointNameForThisRequest(request);
+            remoteAddr = request.getRemoteAddr();
+            clientIp = WebUtils.getClientIp(request);
+            userAgent = WebUtils.getUserAgent(request);
+        }
+
+        authenticatedUsername = WebUtils.getAuthenticatedUsername(requestHeaders);
+        trace = new RequestTrace(requestHeaders == null ? null
+              : requestHeaders.getHeaderString(RequestTrace.TRACEPARENT_HEADER),
+              startNanos);
+    }
+
+    public static RequestContext create(HttpServletRequest request,
+          HttpHeaders requestHeaders) {
+        return new RequestContext(request, requestHeaders, false);
+    }
+
+    /**
+     * @param isClientNameLookup - the clientNameLookup parameter
+     */
+    public static RequestContext create(HttpServletRequest request,
+          HttpHeaders requestHeaders, boolean isClientNameLookup) {
+        return new RequestContext(request, requestHeaders, isClientNameLookup);
+    }
+
+    /**
+     * @return - zero length string when the request is at root, same
+     *           rules as RequestInfo.getEndpointNameForThisRequest
+     */
+    public String getEndpointName() {
+        return endpointName;
+    }
+
+    /**
+     * @return - the address of the connected peer, i.e. without
+     *           consideration of x-forwarded-for, this is the address
+     *           used for allowedIPs checks
+     */
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    /**
+     * @return - the first x-forwarded-for address if present, otherwise
+     *           the remote address
+     */
+    public String getClientIp() {
+        return clientIp;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    /**
+     * @return - null if there is no authenticated user
+     */
+    public String getAuthenticatedUsername() {
+        return authenticatedUsername;
+    }
+
+    /**
+     * @return - System.nanoTime when this request context was created,
+     *           i.e. close to when the request was received
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public RequestTrace getTrace() {
+        return trace;
+    }
+
+    public boolean isAuthenticated() {
+        return AppConfigurator.isOkString(authenticatedUsername);
+    }
+
+    public String getClientName() {
+        if (clientName == null && request != null) {
+            clientName = WebUtils.getClientName(request, isClientNameLookup);
+        }
+        return clientName;
+    }
+
+    public String getRequestUrl() {
+        if (requestUrl == null && request != null) {
+            requestUrl = WebUtils.getUrl(request);
+        }
+        return requestUrl;
+    }
+}
@@ -41,6 +41,7 @@ public  class RequestInfo {
 	public UriInfo uriInfo;
 	public HttpServletRequest request;
 	public HttpHeaders requestHeaders;
+    public RequestContext requestContext = null;
 
 	public boolean perRequestUse404for204 = false;
 
@@ -53,6 +54,9 @@ public  class RequestInfo {
     public FormDataMultiPart postMultipart = null;
     public MediaType requestMediaType = null;
 
+    // null when the request is not registered, e.g. static endpoints
+    public RequestRegistry.Entry registryEntry = null;
+
 	public AppConfigurator appConfig;
 	public ParamConfigurator paramConfig;
 	public StatsKeeper statsKeeper;
@@ -114,11 +118,15 @@ public  class RequestInfo {
         ri.uriInfo = uriInfo;
         ri.request = request;
 		ri.requestHeaders = requestHeaders;
+        ri.requestContext = RequestContext.create(request, requestHeaders,
+              sw.appConfig.isClientNameLookup());
 		ri.appConfig = sw.appConfig;
 		ri.paramConfig = sw.paramConfig;
 		ri.statsKeeper = sw.statsKeeper;
 
-        String epName = getEndpointNameForThisRequest(ri.request);
+        RequestTrace trace = ri.requestContext.getTrace();
+        trace.start(RequestTrace.Span.CONFIG_LOOKUP);
+        String epName = ri.requestContext.getEndpointName();
         if (Wss.STATIC_ENDPOINTS.contains(epName) || epName.equals("")) {
             // static endpoints dont have an appconfig like dynamic endpoints
             // nor default base query
@@ -151,11 +159,16 @@ public  class RequestInfo {
             }
         }
 
+        trace.end(RequestTrace.Span.CONFIG_LOOKUP);
+
+        trace.start(RequestTrace.Span.IP_CHECK);
         List<CIDRUtils> allowedCidrs = ri.appConfig.getAllowedIPs(epName);
-        if (isIPAllowed(ri, allowedCidrs)) {
+        boolean isAllowed = isIPAllowed(ri, allowedCidrs);
+        trace.end(RequestTrace.Span.IP_CHECK);
+        if (isAllowed) {
             // is allowed means ok, so noop and continue
         } else {
-            String ipInQuestion = ri.request.getRemoteAddr();
+            String ipInQuestion = ri.requestContext.getRemoteAddr();
             Util.logAndThrowException(ri, Status.FORBIDDEN, "IP: " + ipInQuestion
                       + (" is not allowed for endpoint: " + epName),
                       "");
@@ -169,7 +182,7 @@ public  class RequestInfo {
         if (okCidrs == null || okCidrs.isEmpty()) {
             isAllowed = true;
         } else {
-            String ipInQuestion = ri.request.getRemoteAddr();
+            String ipInQuestion = ri.getRequestContext().getRemoteAddr();
             for (CIDRUtils cidr : okCidrs) {
                 try {
                     if (cidr.isInRange(ipInQuestion)) {
@@ -193,6 +206,22 @@ public  class RequestInfo {
     public boolean isWriteToMiniseed() {
         return isWriteToMiniseed;
     }
+
+    /**
+     * Values which are resolved once per request, normally set in
+     * createInstance, but created here when a RequestInfo is made
+     * some other way, e.g. for testing.
+     *
+     * @return
+     */
+    public RequestContext getRequestContext() {
+        if (requestContext == null) {
+            requestContext = RequestContext.create(request, requestHeaders,
+                  appConfig != null && appConfig.isClientNameLookup());
+        }
+        return requestContext;
+    }
+
     /**
      * This method returns zero length string when the request is at root
      * on the base URL or or base URL minus a trailing /
@@ -200,7 +229,7 @@ public  class RequestInfo {
      * @return
      */
     public String getEndpointNameForThisRequest() {
-        return getEndpointNameForThisRequest(request);
+        return getRequestContext().getEndpointName();
     }
 
     public static String getEndpointNameForThisRequest(HttpServletRequest req) {
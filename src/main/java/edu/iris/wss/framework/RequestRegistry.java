@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.log4j.Logger;
+
+/**
+ * Requests to dynamic endpoints which are being processed, including
+ * responses which are still streaming, one per WssSingleton.
+ *
+ * IrisDynamicProvider registers each request and keeps the Entry as a
+ * property of the Jersey request, MyApplicationEventListener releases it
+ * when Jersey has finished the request, i.e. after the response is
+ * written or the request fails.
+ *
+ * The number of registered requests per endpoint is also used to apply
+ * the endpoint concurrencyLimit parameter.
+ *
+ * CmdProcessor updates the phase, handler PID and bytes shipped of its
+ * entry and sets a canceller, which is used by the wssrequests endpoint
+ * to stop a request.
+ */
+public class RequestRegistry {
+    public static final Logger logger = Logger.getLogger(RequestRegistry.class);
+
+    // longer parameters, i.e. POST bodies, are truncated
+    public static final int MAX_PARAMETERS_LENGTH = 256;
+
+    public static final String PROPERTY_NAME =
+          RequestRegistry.class.getName() + ".entry";
+
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ConcurrentMap<Long, Entry> requests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> perEndpoint =
+          new ConcurrentHashMap<>();
+
+    public static enum Phase {
+        RECEIVED, PROCESSING, SPAWNING, WAITING_FOR_DATA, STREAMING,
+        FINISHING, CANCELLING
+    };
+
+    /**
+     * One in flight request.
+     */
+    public static class Entry {
+        public final long id;
+        public final String endpointName;
+        public final String method;
+        public final String clientIp;
+        // null if there is no authenticated user
+        public final String user;
+        public final long startMillis = System.currentTimeMillis();
+
+        private final RequestContext requestContext;
+        private final RequestRegistry registry;
+        private final AtomicBoolean isReleased = new AtomicBoolean(false);
+
+        private final AtomicReference<Phase> phase =
+              new AtomicReference<>(Phase.RECEIVED);
+        private final AtomicLong bytesShipped = new AtomicLong(0);
+        private volatile String parameters = null;
+        private volatile int handlerPid = -1;
+        private volatile Runnable canceller = null;
+        private volatile Runnable releaseAction = null;
+
+        private Entry(RequestRegistry registry, long id, String endpointName,
+              String method, RequestContext requestContext) {
+            this.registry = registry;
+            this.id = id;
+            this.endpointName = endpointName;
+            this.method = method;
+            this.requestContext = requestContext;
+            this.clientIp = requestContext.getClientIp();
+            this.user = requestContext.getAuthenticatedUsername();
+        }
+
+        public String getRequestUrl() {
+            return requestContext.getRequestUrl();
+        }
+
+        public long getAgeMsec() {
+            return System.currentTimeMillis() - startMillis;
+        }
+
+        public Phase getPhase() {
+            return phase.get();
+        }
+
+        /**
+         * Once an entry is CANCELLING, later phase changes are ignored.
+         */
+        public void setPhase(Phase newPhase) {
+            while (true) {
+                Phase current = phase.get();
+                if (current == Phase.CANCELLING
+                      || phase.compareAndSet(current, newPhase)) {
+                    return;
+                }
+            }
+        }
+
+        public String getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @param parameters - query string or POST body, it is truncated
+         *                     to MAX_PARAMETERS_LENGTH characters
+         */
+        public void setParameters(String parameters) {
+            if (parameters != null
+                  && parameters.length() > MAX_PARAMETERS_LENGTH) {
+                parameters = parameters.substring(0, MAX_PARAMETERS_LENGTH)
+                      + "...";
+            }
+            this.parameters = parameters;
+        }
+
+        /**
+         * @return - -1 when no handler has been started or the PID is
+         *           not known
+         */
+        public int getHandlerPid() {
+            return handlerPid;
+        }
+
+        public void setHandlerPid(int handlerPid) {
+            this.handlerPid = handlerPid;
+        }
+
+        public long getBytesShipped() {
+            return bytesShipped.get();
+        }
+
+        public void addBytesShipped(long bytes) {
+            bytesShipped.addAndGet(bytes);
+        }
+
+        /**
+         * @param canceller - stops this request, null when the request
+         *                    can not be cancelled
+         */
+        public void setCanceller(Runnable canceller) {
+            this.canceller = canceller;
+        }
+
+        /**
+         * @param releaseAction - run once when this entry is released,
+         *                        i.e. when Jersey has finished with the
+         *                        request however it ended
+         */
+        public void setReleaseAction(Runnable releaseAction) {
+            this.releaseAction = releaseAction;
+        }
+
+        /**
+         * Run the canceller on a new thread, since stopping a handler may
+         * take up to sigkillDelay seconds.
+         *
+         * @return - false if there is no canceller, or this entry is
+         *           already cancelling or released
+         */
+        public boolean cancel() {
+            final Runnable toRun = canceller;
+            if (toRun == null || isReleased.get()) {
+                return false;
+            }
+            while (true) {
+                Phase current = phase.get();
+                if (current == Phase.CANCELLING) {
+                    return false;
+                }
+                if (phase.compareAndSet(current, Phase.CANCELLING)) {
+                    break;
+                }
+            }
+
+            logger.info("Cancelling request, " + toString());
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        toRun.run();
+                    } catch (Throwable th) {
+                        logger.error("Error cancelling request id: " + id
+                              + "  ex: " + th, th);
+                    }
+                }
+            }, "wss-cancel-" + id);
+            thread.setDaemon(true);
+            thread.start();
+            return true;
+        }
+
+        /**
+         * Remove this entry from its registry, only the first call has any
+         * effect.
+         */
+        public void release() {
+            if (isReleased.compareAndSet(false, true)) {
+                registry.remove(this);
+                Runnable toRun = releaseAction;
+                if (toRun != null) {
+                    try {
+                        toRun.run();
+                    } catch (Throwable th) {
+                        logger.error("Error releasing request id: " + id
+                              + "  ex: " + th, th);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "id: " + id + "  endpoint: " + endpointName
+                  + "  method: " + method + "  clientIp: " + clientIp
+                  + "  user: " + user + "  phase: " + phase.get()
+                  + "  pid: " + handlerPid
+                  + "  bytesShipped: " + bytesShipped.get()
+                  + "  ageMsec: " + getAgeMsec() + "  url: " + getRequestUrl()
+                  + "  parameters: " + parameters;
+        }
+    }
+
+    /**
+     * @param concurrencyLimit - maximum registered requests for this
+     *                           endpoint, 0 or less means no limit
+     * @return - null if the endpoint already has concurrencyLimit
+     *           requests registered
+     */
+    public Entry tryRegister(String epName, String method,
+          RequestContext requestContext, int concurrencyLimit) {
+        AtomicInteger count = perEndpoint.get(epName);
+        if (count == null) {
+            AtomicInteger trial = new AtomicInteger(0);
+            count = perEndpoint.putIfAbsent(epName, trial);
+            count = count == null ? trial : count;
+        }
+
+        if (concurrencyLimit > 0) {
+            while (true) {
+                int current = count.get();
+                if (current >= concurrencyLimit) {
+                    return null;
+                }
+                if (count.compareAndSet(current, current + 1)) {
+                    break;
+                }
+            }
+        } else {
+            count.incrementAndGet();
+        }
+
+        Entry entry = new Entry(this, nextId.getAndIncrement(), epName, method,
+              requestContext);
+        requests.put(entry.id, entry);
+        return entry;
+    }
+
+    private void remove(Entry entry) {
+        requests.remove(entry.id);
+        AtomicInteger count = perEndpoint.get(entry.endpointName);
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    public Entry get(long id) {
+        return requests.get(id);
+    }
+
+    public int getInFlight() {
+        return requests.size();
+    }
+
+    public int getInFlight(String epName) {
+        AtomicInteger count = perEndpoint.get(epName);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return - a copy, oldest request first
+     */
+    public List<Entry> getRequests() {
+        List<Entry> list = new ArrayList<>(requests.values());
+        Collections.sort(list, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return Long.compare(e1.id, e2.id);
+            }
+        });
+        return list;
+    }
+}
@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import edu.iris.wss.utils.TraceFileSink;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+/**
+ * Trace id and timed spans for one request.
+ *
+ * The trace id is taken from a W3C trace context traceparent header when
+ * the client sends a valid one, otherwise a new one is made. Each request
+ * gets a new span id, the handler gets both in the TRACEPARENT environment
+ * variable so handler timings can be correlated with WSS timings.
+ *
+ * Span times are System.nanoTime values, they are reported in
+ * microseconds relative to the start of the request. A span which is
+ * started more than once keeps the first start and the last end.
+ *
+ * When traceFile is configured, the finished trace is written as one
+ * JSON line by TraceFileSink.
+ */
+public class RequestTrace {
+
+    public static final String TRACEPARENT_HEADER = "traceparent";
+    public static final String PROPERTY_NAME =
+          RequestTrace.class.getName() + ".trace";
+
+    private static final Pattern TRACEPARENT_PATTERN = Pattern.compile(
+          "[0-9a-f]{2}-[0-9a-f]{32}-[0-9a-f]{16}-[0-9a-f]{2}");
+    private static final String INVALID_TRACE_ID =
+          "00000000000000000000000000000000";
+    private static final String INVALID_SPAN_ID = "0000000000000000";
+
+    public static enum Span {
+        CONFIG_LOOKUP, IP_CHECK, PARAMETER_VALIDATION, ADMISSION_WAIT,
+        PROCESS_SPAWN, HEADER_PARSING, FIRST_BYTE, STREAMING, EXIT_CLEANUP
+    };
+
+    private static final Span[] SPANS = Span.values();
+
+    private final String traceId;
+    private final String spanId;
+    // null when there was no valid incoming traceparent
+    private final String parentSpanId;
+    private final String traceFlags;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos;
+
+    private final AtomicLongArray spanStarts = new AtomicLongArray(SPANS.length);
+    private final AtomicLongArray spanEnds = new AtomicLongArray(SPANS.length);
+    private final AtomicBoolean isFinished = new AtomicBoolean(false);
+
+    // set when the trace is to be written
+    private volatile TraceFileSink sink = null;
+    private String appName;
+    private String epName;
+    private String method;
+    private String clientIp;
+    // set when streaming is finished, null if nothing was streamed
+    private volatile StreamTiming streamTiming = null;
+
+    /**
+     * @param traceparent - traceparent header value, may be null
+     * @param startNanos - System.nanoTime at the start of the request
+     */
+    public RequestTrace(String traceparent, long startNanos) {
+        this.startNanos = startNanos;
+        this.spanId = randomHex(8);
+
+        if (isValidTraceparent(traceparent)) {
+            String value = traceparent.trim();
+            traceId = value.substring(3, 35);
+            parentSpanId = value.substring(36, 52);
+            traceFlags = value.substring(53, 55);
+        } else {
+            traceId = randomHex(16);
+            parentSpanId = null;
+            traceFlags = "01";
+        }
+    }
+
+    public static boolean isValidTraceparent(String traceparent) {
+        if (traceparent == null) {
+            return false;
+        }
+        String value = traceparent.trim();
+        // version ff is invalid, later versions may have more fields
+        if (value.length() < 55 || value.startsWith("ff")
+              || (value.startsWith("00") && value.length() != 55)
+              || !TRACEPARENT_PATTERN.matcher(value.substring(0, 55)).matches()) {
+            return false;
+        }
+        return !value.substring(3, 35).equals(INVALID_TRACE_ID)
+              && !value.substring(36, 52).equals(INVALID_SPAN_ID);
+    }
+
+    private static String randomHex(int byteCount) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder sb = new StringBuilder(byteCount * 2);
+        long value = 0;
+        do {
+            sb.setLength(0);
+            for (int i = 0; i < byteCount; i++) {
+                int oneByte = random.nextInt(256);
+                value |= oneByte;
+                sb.append(Character.forDigit(oneByte >> 4, 16))
+                      .append(Character.forDigit(oneByte & 0xf, 16));
+            }
+        } while (value == 0);
+        return sb.toString();
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    /**
+     * @return - traceparent for this request, i.e. with this request's
+     *           span id as the parent id for the handler
+     */
+    public String getTraceparent() {
+        return "00-" + traceId + "-" + spanId + "-" + traceFlags;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public void start(Span span) {
+        spanStarts.compareAndSet(span.ordinal(), 0L, System.nanoTime());
+    }
+
+    public void end(Span span) {
+        spanEnds.set(span.ordinal(), System.nanoTime());
+    }
+
+    public void record(Span span, long spanStartNanos, long spanEndNanos) {
+        spanStarts.compareAndSet(span.ordinal(), 0L, spanStartNanos);
+        spanEnds.set(span.ordinal(), spanEndNanos);
+    }
+
+    public boolean isRecorded(Span span) {
+        return spanStarts.get(span.ordinal()) != 0L
+              && spanEnds.get(span.ordinal()) != 0L;
+    }
+
+    /**
+     * @return - span duration in nanoseconds, -1 if the span was not
+     *           recorded
+     */
+    public long getSpanNanos(Span span) {
+        if (!isRecorded(span)) {
+            return -1L;
+        }
+        return spanEnds.get(span.ordinal()) - spanStarts.get(span.ordinal());
+    }
+
+    /**
+     * @param sink - where the trace is written when finish is called
+     */
+    public void setSink(TraceFileSink sink, String appName, String epName,
+          String method, String clientIp) {
+        this.appName = appName;
+        this.epName = epName;
+        this.method = method;
+        this.clientIp = clientIp;
+        this.sink = sink;
+    }
+
+    /**
+     * @param streamTiming - finished timing of the streamed response
+     */
+    public void setStreamTiming(StreamTiming streamTiming) {
+        this.streamTiming = streamTiming;
+    }
+
+    /**
+     * Write this trace to its sink, if any, only the first call has any
+     * effect.
+     */
+    public void finish(int httpStatus) {
+        TraceFileSink toSink = sink;
+        if (toSink == null || !isFinished.compareAndSet(false, true)) {
+            return;
+        }
+        long durationNanos = System.nanoTime() - startNanos;
+        StringBuilder sb = new StringBuilder(512);
+        appendJson(sb, appName, epName, method, clientIp, httpStatus,
+              durationNanos);
+        toSink.offer(sb.toString());
+    }
+
+    public StringBuilder appendJson(StringBuilder sb, String appName,
+          String epName, String method, String clientIp, int httpStatus,
+          long durationNanos) {
+        sb.append('{');
+        appendField(sb, "traceId", traceId).append(',');
+        appendField(sb, "spanId", spanId).append(',');
+        if (parentSpanId != null) {
+            appendField(sb, "parentSpanId", parentSpanId).append(',');
+        }
+        appendField(sb, "appName", appName).append(',');
+        appendField(sb, "endpoint", epName).append(',');
+        appendField(sb, "method", method).append(',');
+        appendField(sb, "clientIp", clientIp).append(',');
+        sb.append("\"status\":").append(httpStatus).append(',');
+        sb.append("\"startMillis\":").append(startMillis).append(',');
+        sb.append("\"durationUs\":").append(durationNanos / 1000L).append(',');
+        sb.append("\"spans\":[");
+        boolean isFirst = true;
+        for (Span span : SPANS) {
+            if (!isRecorded(span)) {
+                continue;
+            }
+            if (!isFirst) {
+                sb.append(',');
+            }
+            isFirst = false;
+            long spanStart = spanStarts.get(span.ordinal());
+            sb.append('{');
+            appendField(sb, "name", span.toString().toLowerCase()).append(',');
+            sb.append("\"startUs\":").append((spanStart - startNanos) / 1000L)
+                  .append(',');
+            sb.append("\"durationUs\":").append(getSpanNanos(span) / 1000L);
+            sb.append('}');
+        }
+        sb.append(']');
+        StreamTiming timing = streamTiming;
+        if (timing != null) {
+            sb.append(",\"stream\":{");
+            appendField(sb, "bound", timing.getBound().toString().toLowerCase())
+                  .append(',');
+            sb.append("\"readWaitUs\":").append(timing.getReadWaitNanos() / 1000L)
+                  .append(',');
+            sb.append("\"writeWaitUs\":")
+                  .append(timing.getWriteWaitNanos() / 1000L).append(',');
+            sb.append("\"processingUs\":")
+                  .append(timing.getProcessingNanos() / 1000L);
+            sb.append('}');
+        }
+        sb.append('}');
+        return sb;
+    }
+
+    private static StringBuilder appendField(StringBuilder sb, String name,
+          String value) {
+        sb.append('"').append(name).append("\":");
+        if (value == null) {
+            return sb.append("null");
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (ch < 0x20) {
+                    sb.append(String.format("\\u%04x", (int)ch));
+                } else {
+                    sb.append(ch);
+                }
+            }
+        }
+        return sb.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return getTraceparent();
+    }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exponentially weighted 1, 5 and 15 minute rates, in events per second,
+ * calculated the same way as the unix load average.
+ *
+ * mark only adds to a LongAdder, the averages are moved forward in
+ * TICK_SECONDS steps by whichever thread first notices that a tick is
+ * due, so there is no timer thread and no lock on the request path.
+ */
+public class RollingRate {
+    public static final int TICK_SECONDS = 5;
+
+    private static final long TICK_NANOS = TICK_SECONDS * 1000000000L;
+    // after this many idle ticks, over 2 hours, all of the rates are ~0
+    private static final long MAX_TICKS = 1600;
+    private static final double ALPHA_1 = alpha(1);
+    private static final double ALPHA_5 = alpha(5);
+    private static final double ALPHA_15 = alpha(15);
+
+    private final LongAdder uncounted = new LongAdder();
+    private final AtomicLong lastTick;
+
+    // only changed by the thread which advanced lastTick
+    private volatile boolean isInitialized = false;
+    private volatile double rate1 = 0.0;
+    private volatile double rate5 = 0.0;
+    private volatile double rate15 = 0.0;
+
+    public RollingRate() {
+        lastTick = new AtomicLong(System.nanoTime());
+    }
+
+    private static double alpha(int minutes) {
+        return 1.0 - Math.exp(-TICK_SECONDS / 60.0 / minutes);
+    }
+
+    public void mark() {
+        mark(1);
+    }
+
+    public void mark(long count) {
+        tickIfNecessary(System.nanoTime());
+        uncounted.add(count);
+    }
+
+    public double getOneMinuteRate() {
+        tickIfNecessary(System.nanoTime());
+        return rate1;
+    }
+
+    public double getFiveMinuteRate() {
+        tickIfNecessary(System.nanoTime());
+        return rate5;
+    }
+
+    public double getFifteenMinuteRate() {
+        tickIfNecessary(System.nanoTime());
+        return rate15;
+    }
+
+    // for testing, move the averages forward as if nanos had gone by
+    void tickIfNecessary(long now) {
+        long last = lastTick.get();
+        long age = now - last;
+        if (age < TICK_NANOS) {
+            return;
+        }
+        long next = last + age - age % TICK_NANOS;
+        if (lastTick.compareAndSet(last, next)) {
+            long ticks = Math.min(age / TICK_NANOS, MAX_TICKS);
+            for (long i = 0; i < ticks; i++) {
+                tick();
+            }
+        }
+    }
+
+    private void tick() {
+        double instantRate = uncounted.sumThenReset() / (double)TICK_SECONDS;
+        if (isInitialized) {
+            rate1 += ALPHA_1 * (instantRate - rate1);
+            rate5 += ALPHA_5 * (instantRate - rate5);
+            rate15 += ALPHA_15 * (instantRate - rate15);
+        } else {
+            rate1 = instantRate;
+            rate5 = instantRate;
+            rate15 = instantRate;
+            isInitialized = true;
+        }
+    }
+
+    long getLastTick() {
+        return lastTick.get();
+    }
+}
@@ -97,6 +97,8 @@ public class ServiceShellException extends WebApplicationException {
         }
 
         Status adjusted_status = Util.adjustByCfg(status, ri);
+        ri.statsKeeper.logResponse(ri.getEndpointNameForThisRequest(),
+              adjusted_status.getStatusCode(), null);
 
         String exceptionMsg = briefMsg + "  detailed: " + detailedMsg;
         if (adjusted_status.equals(Status.NO_CONTENT)
@@ -21,6 +21,11 @@ package edu.iris.wss.framework;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.log4j.Logger;
 
@@ -29,28 +34,319 @@ import org.apache.log4j.Logger;
  * This object created when the service starts, its contents are not
  * preserved when the service is removed. The contents is presented when
  * wssstatus endpoint is requested.
+ *
+ * Counters are LongAdders so request threads do not contend with each
+ * other. Counts are kept in total and per endpoint, HTTP method, response
+ * status and format type. The number of distinct names kept per category
+ * is limited to MAX_NAMES, beyond that counts go to OTHER_NAME, so
+ * requests for arbitrary paths can not grow the maps. Only adding a new
+ * name takes a lock, so the limit holds when threads race to add names.
+ *
+ * Latency histograms are kept per endpoint for each of Latency, they are
+ * replaced every HISTOGRAM_WINDOW_SECONDS, the percentiles shown are for
+ * the last complete window.
+ *
+ * Streamed responses add their StreamTiming to per endpoint totals of
+ * time blocked on the handler, blocked on the client and processing,
+ * and are counted by StreamTiming.Bound.
  */
 public class StatsKeeper {
 
 	public static final Logger logger = Logger.getLogger(StatsKeeper.class);
 
-	public Date startTime = new Date();
+    public static final int MAX_NAMES = 200;
+    public static final String OTHER_NAME = "_other";
+    public static final int HISTOGRAM_WINDOW_SECONDS = 60;
+
+    /**
+     * Times are in microseconds, THROUGHPUT is in bytes per second.
+     *
+     * QUEUE_WAIT - request received to handler process start
+     * SPAWN - time to start the handler process
+     * FIRST_BYTE - handler process start to first data from the handler
+     * HANDLER - handler process start to end of writing the response
+     * THROUGHPUT - bytes written divided by HANDLER time
+     */
+    public static enum Latency {
+        QUEUE_WAIT, SPAWN, FIRST_BYTE, HANDLER, THROUGHPUT
+    };
+
+	public final Date startTime = new Date();
+
+	private final LongAdder gets = new LongAdder();
+	private final LongAdder posts = new LongAdder();
+	private final LongAdder authGets = new LongAdder();
+	private final LongAdder authPosts = new LongAdder();
+
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder shippedBytes = new LongAdder();
+
+    private final LongAdder handlersStarted = new LongAdder();
+    private final LongAdder handlersFinished = new LongAdder();
+    private final LongAdder timeoutKills = new LongAdder();
+    private final ConcurrentMap<Integer, LongAdder> handlerExitCodes =
+          new ConcurrentHashMap<>();
+
+    private final RollingRate requestRate = new RollingRate();
+    private final RollingRate errorRate = new RollingRate();
+    private final RollingRate byteRate = new RollingRate();
+
+    private final ConcurrentMap<String, EndpointStats> endpoints =
+          new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> methods =
+          new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, LongAdder> statuses =
+          new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> formatTypes =
+          new ConcurrentHashMap<>();
+
+    /**
+     * Counters for one endpoint.
+     */
+    public static class EndpointStats {
+        public final LongAdder requests = new LongAdder();
+        public final LongAdder errors = new LongAdder();
+        public final LongAdder shippedBytes = new LongAdder();
+        public final RollingRate requestRate = new RollingRate();
+        public final ConcurrentMap<Integer, LongAdder> statuses =
+              new ConcurrentHashMap<>();
+        public final WindowedHistogram[] latencies =
+              new WindowedHistogram[Latency.values().length];
+        public final LongAdder readWaitNanos = new LongAdder();
+        public final LongAdder writeWaitNanos = new LongAdder();
+        public final LongAdder processingNanos = new LongAdder();
+        public final LongAdder[] bounds =
+              new LongAdder[StreamTiming.Bound.values().length];
+
+        public EndpointStats() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new WindowedHistogram(HISTOGRAM_WINDOW_SECONDS);
+            }
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = new LongAdder();
+            }
+        }
+
+        public long getBoundCount(StreamTiming.Bound bound) {
+            return bounds[bound.ordinal()].sum();
+        }
+
+        public WindowedHistogram getLatency(Latency which) {
+            return latencies[which.ordinal()];
+        }
+    }
+
+	public void logAuthGet() 		{ authGets.increment(); requestRate.mark(); }
+	public void logGet()			{ gets.increment(); requestRate.mark(); }
+	public void logPost()			{ posts.increment(); requestRate.mark(); }
+	public void logAuthPost() 		{ authPosts.increment(); requestRate.mark(); }
+
+	public void logShippedBytes(long bytes) { shippedBytes.add(bytes); byteRate.mark(bytes); }
+	public void logError()			{ errors.increment(); errorRate.mark(); }
+
+    /**
+     * Count one request, in total and for the endpoint and HTTP method.
+     */
+    public void logRequest(String epName, String method, boolean isAuthenticated) {
+        boolean isPost = "POST".equals(method);
+        if (isPost) {
+            if (isAuthenticated) {
+                logAuthPost();
+            } else {
+                logPost();
+            }
+        } else {
+            // NOTE: HEAD is counted here as well as GET (and PUT and DELETE, etc)
+            if (isAuthenticated) {
+                logAuthGet();
+            } else {
+                logGet();
+            }
+        }
+
+        EndpointStats eps = getOrCreateEndpoint(epName);
+        eps.requests.increment();
+        eps.requestRate.mark();
+        getOrCreateLimited(methods, method).increment();
+    }
+
+    /**
+     * Count the HTTP status and format type of one response.
+     *
+     * @param formatTypeKey - may be null, e.g. for errors found before the
+     *                        format type is determined
+     */
+    public void logResponse(String epName, int httpStatus, String formatTypeKey) {
+        getOrCreate(statuses, httpStatus).increment();
+        EndpointStats eps = getOrCreateEndpoint(epName);
+        getOrCreate(eps.statuses, httpStatus).increment();
+        if (httpStatus >= 400) {
+            eps.errors.increment();
+        }
+        if (formatTypeKey != null) {
+            getOrCreateLimited(formatTypes, formatTypeKey).increment();
+        }
+    }
+
+    public void logShippedBytes(String epName, long bytes) {
+        logShippedBytes(bytes);
+        getOrCreateEndpoint(epName).shippedBytes.add(bytes);
+    }
+
+    public void logHandlerStart() {
+        handlersStarted.increment();
+    }
+
+    /**
+     * Call once per started handler, exitCode may be one of the negative
+     * values CmdProcessor uses when the exit code could not be read.
+     */
+    public void logHandlerExit(int exitCode) {
+        handlersFinished.increment();
+        getOrCreate(handlerExitCodes, exitCode).increment();
+    }
+
+    public void logTimeoutKill() {
+        timeoutKills.increment();
+    }
+
+    /**
+     * @param value - microseconds, or bytes per second for THROUGHPUT
+     */
+    public void logLatency(String epName, Latency which, long value) {
+        getOrCreateEndpoint(epName).getLatency(which).record(value);
+    }
+
+    public void logStreamTiming(String epName, StreamTiming timing) {
+        EndpointStats eps = getOrCreateEndpoint(epName);
+        eps.readWaitNanos.add(timing.getReadWaitNanos());
+        eps.writeWaitNanos.add(timing.getWriteWaitNanos());
+        eps.processingNanos.add(timing.getProcessingNanos());
+        eps.bounds[timing.getBound().ordinal()].increment();
+    }
+
+    private EndpointStats getOrCreateEndpoint(String epName) {
+        EndpointStats eps = getLimited(endpoints, epName);
+        if (eps == null) {
+            // a new name, checked and added under the lock so threads
+            // adding different names can not take the map past MAX_NAMES
+            synchronized (endpoints) {
+                String key = limitName(endpoints, epName);
+                eps = endpoints.get(key);
+                if (eps == null) {
+                    eps = new EndpointStats();
+                    endpoints.put(key, eps);
+                }
+            }
+        }
+        return eps;
+    }
+
+    private static LongAdder getOrCreateLimited(
+          ConcurrentMap<String, LongAdder> map, String name) {
+        LongAdder adder = getLimited(map, name);
+        if (adder == null) {
+            synchronized (map) {
+                String key = limitName(map, name);
+                adder = map.get(key);
+                if (adder == null) {
+                    adder = new LongAdder();
+                    map.put(key, adder);
+                }
+            }
+        }
+        return adder;
+    }
+
+    /**
+     * Lookup without the lock, names are never removed so a name which
+     * is found, or a map which is full, stays that way.
+     *
+     * @return - null if name may need to be added
+     */
+    private static <V> V getLimited(ConcurrentMap<String, V> map, String name) {
+        V value = name == null ? null : map.get(name);
+        if (value == null && (name == null || map.size() >= MAX_NAMES)) {
+            value = map.get(OTHER_NAME);
+        }
+        return value;
+    }
+
+    private static String limitName(Map<String, ?> map, String name) {
+        if (name == null || (map.size() >= MAX_NAMES && !map.containsKey(name))) {
+            return OTHER_NAME;
+        }
+        return name;
+    }
 
-	public long gets = 0;
-	public long posts = 0;
-	public long authGets = 0;
-	public long authPosts = 0;
+    private static <K> LongAdder getOrCreate(ConcurrentMap<K, LongAdder> map,
+          K key) {
+        LongAdder adder = map.get(key);
+        if (adder == null) {
+            LongAdder trial = new LongAdder();
+            adder = map.putIfAbsent(key, trial);
+            adder = adder == null ? trial : adder;
+        }
+        return adder;
+    }
 
-	public long errors = 0;
-	public long shippedBytes = 0;
+    public long getGets() { return gets.sum(); }
+    public long getPosts() { return posts.sum(); }
+    public long getAuthGets() { return authGets.sum(); }
+    public long getAuthPosts() { return authPosts.sum(); }
+    public long getErrors() { return errors.sum(); }
+    public long getShippedBytes() { return shippedBytes.sum(); }
+    public long getHandlersStarted() { return handlersStarted.sum(); }
+    public long getTimeoutKills() { return timeoutKills.sum(); }
 
-	public void logAuthGet() 		{ authGets++; }
-	public void logGet()			{ gets++; }
-	public void logPost()			{ posts++; }
-	public void logAuthPost() 		{ authPosts++; }
+    public long getHandlersInFlight() {
+        // finished first, so a handler finishing during the read can not
+        // make the result negative
+        long finished = handlersFinished.sum();
+        return Math.max(handlersStarted.sum() - finished, 0);
+    }
 
-	public void logShippedBytes(long bytes) {shippedBytes += bytes;}
-	public void logError()			{ errors++; }
+    public Map<Integer, Long> getHandlerExitCodes() {
+        return sums(handlerExitCodes);
+    }
+
+    public RollingRate getRequestRate() { return requestRate; }
+    public RollingRate getErrorRate() { return errorRate; }
+    public RollingRate getByteRate() { return byteRate; }
+
+    /**
+     * @return - endpoint stats sorted by endpoint name, the values are live
+     */
+    public Map<String, EndpointStats> getEndpointStats() {
+        return new TreeMap<>(endpoints);
+    }
+
+    public Map<String, Long> getMethodCounts() {
+        return sums(methods);
+    }
+
+    public Map<Integer, Long> getStatusCounts() {
+        return sums(statuses);
+    }
+
+    public Map<String, Long> getFormatTypeCounts() {
+        return sums(formatTypes);
+    }
+
+    // live maps for OpenMetricsWriter, which avoids the sorted copies
+    Map<String, EndpointStats> endpointMap() { return endpoints; }
+    Map<String, LongAdder> methodMap() { return methods; }
+    Map<Integer, LongAdder> statusMap() { return statuses; }
+    Map<String, LongAdder> formatTypeMap() { return formatTypes; }
+    Map<Integer, LongAdder> handlerExitCodeMap() { return handlerExitCodes; }
+
+    public static <K> Map<K, Long> sums(Map<K, LongAdder> map) {
+        Map<K, Long> result = new TreeMap<>();
+        for (Map.Entry<K, LongAdder> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
 
 	public String toHtmlString() {
 		StringBuilder sb = new StringBuilder();
@@ -64,41 +360,124 @@ public class StatsKeeper {
               .append("Web Service Shell Usage")
               .append("</TH></TR>");
 
-		sb.append("<TR><TD>") .append("Service Start")
-              .append("</TD><TD>") .append(sdf.format(startTime))
-              .append("</TD></TR>");
+        appendRow(sb, "Service Start", sdf.format(startTime));
+        appendRow(sb, "Current Time", sdf.format(new Date()));
+        appendRow(sb, "Number of Gets", gets.sum());
+        appendRow(sb, "Number of Auth Gets", authGets.sum());
+        appendRow(sb, "Number of Posts", posts.sum());
+        appendRow(sb, "Number of Auth Posts", authPosts.sum());
+        appendRow(sb, "Shipped Bytes", shippedBytes.sum());
+        appendRow(sb, "Errors", errors.sum());
+        appendRow(sb, "Handlers In Flight", getHandlersInFlight());
+        appendRow(sb, "Handler Timeout Kills", timeoutKills.sum());
+        appendRow(sb, "Handler Exit Codes", getHandlerExitCodes());
+        appendRow(sb, "Requests/sec 1, 5, 15 min", formatRates(requestRate));
+        appendRow(sb, "Errors/sec 1, 5, 15 min", formatRates(errorRate));
+        appendRow(sb, "Bytes/sec 1, 5, 15 min", formatRates(byteRate));
+        appendRow(sb, "Methods", getMethodCounts());
+        appendRow(sb, "Status Codes", getStatusCounts());
+        appendRow(sb, "Format Types", getFormatTypeCounts());
 
-        sb.append("<TR><TD>") .append("Current Time")
-              .append("</TD><TD>") .append(sdf.format(new Date()))
-              .append("</TD></TR>");
+		sb.append("</TABLE>");
 
-		sb.append("<TR><TD>") .append("Number of Gets")
-              .append("</TD><TD>") .append(gets)
-              .append("</TD></TR>");
+        sb.append("<br/>");
+		sb.append("<TABLE border=2 style='width: 600px'>");
 
-		sb.append("<TR><TD>") .append("Number of Auth Gets")
-              .append("</TD><TD>") .append(authGets)
-              .append("</TD></TR>");
+		sb.append("<TR><TH colspan=\"6\" >")
+              .append("Endpoint Usage")
+              .append("</TH></TR>");
+		sb.append("<TR><TH>Endpoint</TH><TH>Requests</TH><TH>Errors</TH>")
+              .append("<TH>Shipped Bytes</TH><TH>Requests/sec 1, 5, 15 min</TH>")
+              .append("<TH>Status Codes</TH></TR>");
+        for (Map.Entry<String, EndpointStats> entry
+              : getEndpointStats().entrySet()) {
+            EndpointStats eps = entry.getValue();
+            sb.append("<TR><TD>").append(entry.getKey())
+                  .append("</TD><TD>").append(eps.requests.sum())
+                  .append("</TD><TD>").append(eps.errors.sum())
+                  .append("</TD><TD>").append(eps.shippedBytes.sum())
+                  .append("</TD><TD>").append(formatRates(eps.requestRate))
+                  .append("</TD><TD>").append(sums(eps.statuses))
+                  .append("</TD></TR>");
+        }
 
-		sb.append("<TR><TD>") .append("Number of Posts")
-              .append("</TD><TD>") .append(posts)
-              .append("</TD></TR>");
+		sb.append("</TABLE>");
 
-		sb.append("<TR><TD>") .append("Number of Auth Posts")
-              .append("</TD><TD>") .append(authPosts)
-              .append("</TD></TR>");
+        sb.append("<br/>");
+		sb.append("<TABLE border=2 style='width: 600px'>");
 
-		sb.append("<TR><TD>").append("Shipped Bytes")
-              .append("</TD><TD>").append(shippedBytes)
-              .append("</TD></TR>");
+		sb.append("<TR><TH colspan=\"7\" >")
+              .append("Endpoint Streaming, seconds blocked on handler, on")
+              .append(" client and processing, requests by largest")
+              .append("</TH></TR>");
+		sb.append("<TR><TH>Endpoint</TH><TH>Handler Wait</TH>")
+              .append("<TH>Client Wait</TH><TH>Processing</TH>")
+              .append("<TH>Handler Bound</TH><TH>Client Bound</TH>")
+              .append("<TH>Processing Bound</TH></TR>");
+        for (Map.Entry<String, EndpointStats> entry
+              : getEndpointStats().entrySet()) {
+            EndpointStats eps = entry.getValue();
+            sb.append("<TR><TD>").append(entry.getKey())
+                  .append("</TD><TD>").append(String.format("%.3f",
+                        eps.readWaitNanos.sum() / 1.0e9))
+                  .append("</TD><TD>").append(String.format("%.3f",
+                        eps.writeWaitNanos.sum() / 1.0e9))
+                  .append("</TD><TD>").append(String.format("%.3f",
+                        eps.processingNanos.sum() / 1.0e9));
+            for (StreamTiming.Bound bound : StreamTiming.Bound.values()) {
+                sb.append("</TD><TD>").append(eps.getBoundCount(bound));
+            }
+            sb.append("</TD></TR>");
+        }
 
-		sb.append("<TR><TD>") .append("Errors")
-              .append("</TD><TD>") .append(errors)
-              .append("</TD></TR>");
+		sb.append("</TABLE>");
+
+        sb.append("<br/>");
+		sb.append("<TABLE border=2 style='width: 600px'>");
+
+		sb.append("<TR><TH colspan=\"8\" >")
+              .append("Endpoint Latency, msec, last ")
+              .append(HISTOGRAM_WINDOW_SECONDS)
+              .append(" seconds, throughput in bytes/sec")
+              .append("</TH></TR>");
+		sb.append("<TR><TH>Endpoint</TH><TH>Measure</TH><TH>Count</TH>")
+              .append("<TH>p50</TH><TH>p90</TH><TH>p99</TH><TH>p999</TH>")
+              .append("<TH>Max</TH></TR>");
+        for (Map.Entry<String, EndpointStats> entry
+              : getEndpointStats().entrySet()) {
+            for (Latency which : Latency.values()) {
+                LatencyHistogram hist =
+                      entry.getValue().getLatency(which).getPrevious();
+                if (hist.getCount() == 0) {
+                    continue;
+                }
+                double scale = which == Latency.THROUGHPUT ? 1.0 : 1000.0;
+                sb.append("<TR><TD>").append(entry.getKey())
+                      .append("</TD><TD>").append(which)
+                      .append("</TD><TD>").append(hist.getCount());
+                for (double pct : new double[] {50.0, 90.0, 99.0, 99.9}) {
+                    sb.append("</TD><TD>").append(String.format("%.3f",
+                          hist.getValueAtPercentile(pct) / scale));
+                }
+                sb.append("</TD><TD>").append(String.format("%.3f",
+                      hist.getMax() / scale))
+                      .append("</TD></TR>");
+            }
+        }
 
 		sb.append("</TABLE>");
 
 		return sb.toString();
 	}
 
+    private static String formatRates(RollingRate rate) {
+        return String.format("%.3f, %.3f, %.3f", rate.getOneMinuteRate(),
+              rate.getFiveMinuteRate(), rate.getFifteenMinuteRate());
+    }
+
+    private static void appendRow(StringBuilder sb, String name, Object value) {
+        sb.append("<TR><TD>").append(name)
+              .append("</TD><TD>").append(value)
+              .append("</TD></TR>");
+    }
 }
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import java.util.Locale;
+
+/**
+ * Where the time went while streaming one response, in nanoseconds.
+ *
+ * read wait - blocked reading the handler's stdout, i.e. waiting on the
+ *             handler
+ * write wait - blocked writing and flushing to the client, i.e. waiting
+ *              on the client or the network
+ * processing - the rest, e.g. miniseed parsing for usage logging
+ *
+ * The request is classified by the largest of the three, a service
+ * with mostly HANDLER bound requests needs more or faster handlers,
+ * mostly CLIENT bound needs network capacity or is limited by clients.
+ *
+ * Only updated by the thread doing the streaming, other threads read it
+ * after finish, e.g. RequestTrace.
+ */
+public class StreamTiming {
+
+    public static enum Bound {
+        HANDLER, CLIENT, PROCESSING
+    };
+
+    private final long startNanos;
+    private long endNanos = 0L;
+    private long readWaitNanos = 0L;
+    private long writeWaitNanos = 0L;
+
+    public StreamTiming() {
+        this(System.nanoTime());
+    }
+
+    public StreamTiming(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    public void addReadWait(long nanos) {
+        readWaitNanos += nanos;
+    }
+
+    public void addWriteWait(long nanos) {
+        writeWaitNanos += nanos;
+    }
+
+    public void finish() {
+        finish(System.nanoTime());
+    }
+
+    public void finish(long endNanos) {
+        if (this.endNanos == 0L) {
+            this.endNanos = endNanos;
+        }
+    }
+
+    public long getTotalNanos() {
+        return (endNanos == 0L ? System.nanoTime() : endNanos) - startNanos;
+    }
+
+    public long getReadWaitNanos() {
+        return readWaitNanos;
+    }
+
+    public long getWriteWaitNanos() {
+        return writeWaitNanos;
+    }
+
+    public long getProcessingNanos() {
+        return Math.max(0L, getTotalNanos() - readWaitNanos - writeWaitNanos);
+    }
+
+    public Bound getBound() {
+        long processingNanos = getProcessingNanos();
+        if (readWaitNanos >= writeWaitNanos
+              && readWaitNanos >= processingNanos) {
+            return Bound.HANDLER;
+        } else if (writeWaitNanos >= processingNanos) {
+            return Bound.CLIENT;
+        }
+        return Bound.PROCESSING;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+              "bound=%s readWaitMsec=%.3f writeWaitMsec=%.3f processingMsec=%.3f",
+              getBound(), readWaitNanos / 1.0e6, writeWaitNanos / 1.0e6,
+              getProcessingNanos() / 1.0e6);
+    }
+}
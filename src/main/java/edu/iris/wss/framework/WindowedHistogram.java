@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A LatencyHistogram which is replaced with an empty one every window,
+ * the histogram for the most recent complete window is kept for
+ * reporting.
+ *
+ * As with RollingRate, the swap is done by whichever thread first
+ * notices the window has ended, there is no timer thread.
+ */
+public class WindowedHistogram {
+
+    private final long windowNanos;
+    private final AtomicLong windowStart;
+
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private volatile LatencyHistogram previous = new LatencyHistogram();
+
+    public WindowedHistogram(int windowSeconds) {
+        windowNanos = Math.max(windowSeconds, 1) * 1000000000L;
+        windowStart = new AtomicLong(System.nanoTime());
+    }
+
+    public void record(long value) {
+        rotateIfNecessary(System.nanoTime());
+        current.record(value);
+    }
+
+    /**
+     * @return - the histogram for the last complete window, empty during
+     *           the first window
+     */
+    public LatencyHistogram getPrevious() {
+        rotateIfNecessary(System.nanoTime());
+        return previous;
+    }
+
+    /**
+     * @return - the histogram for the window in progress
+     */
+    public LatencyHistogram getCurrent() {
+        rotateIfNecessary(System.nanoTime());
+        return current;
+    }
+
+    public int getWindowSeconds() {
+        return (int)(windowNanos / 1000000000L);
+    }
+
+    void rotateIfNecessary(long now) {
+        long start = windowStart.get();
+        long age = now - start;
+        if (age < windowNanos) {
+            return;
+        }
+        if (windowStart.compareAndSet(start, now - age % windowNanos)) {
+            // when more than one window went by, the last complete one
+            // was empty
+            previous = age < 2 * windowNanos ? current : new LatencyHistogram();
+            current = new LatencyHistogram();
+        }
+    }
+}
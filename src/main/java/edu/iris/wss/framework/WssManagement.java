@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import edu.iris.wss.Wss;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+
+/**
+ * Registers MBeans for one web application with the platform MBean
+ * server, named by configBase, i.e.
+ *   edu.iris.wss:type=WebServiceShell,configBase=[configBase]
+ *   edu.iris.wss:type=Endpoint,configBase=[configBase],endpoint=[name]
+ *
+ * MBeans left from an earlier deployment with the same configBase are
+ * replaced.
+ */
+public class WssManagement implements WssManagementMBean {
+	public static final Logger logger = Logger.getLogger(WssManagement.class);
+
+    public static final String DOMAIN = "edu.iris.wss";
+
+    private final WssSingleton sw;
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    public WssManagement(WssSingleton sw) {
+        this.sw = sw;
+    }
+
+    public synchronized void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String configBase = ObjectName.quote(sw.getConfigFileBase());
+        try {
+            registerOne(server, new ObjectName(DOMAIN
+                  + ":type=WebServiceShell,configBase=" + configBase), this);
+
+            for (String epName : getEndpointNames()) {
+                registerOne(server, new ObjectName(DOMAIN
+                      + ":type=Endpoint,configBase=" + configBase
+                      + ",endpoint=" + ObjectName.quote(epName)),
+                      new EndpointManagement(sw, epName));
+            }
+        } catch (Exception ex) {
+            String msg = "Error registering MBeans for configBase: "
+                  + sw.getConfigFileBase() + "  ex: ";
+            System.out.println(msg + ex);
+            logger.error(msg, ex);
+        }
+    }
+
+    private void registerOne(MBeanServer server, ObjectName name, Object mbean)
+          throws Exception {
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(mbean, name);
+        registered.add(name);
+    }
+
+    public synchronized void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (Exception ex) {
+                logger.warn("Error unregistering MBean: " + name + "  ex: " + ex);
+            }
+        }
+        registered.clear();
+    }
+
+    public synchronized List<ObjectName> getObjectNames() {
+        return new ArrayList<>(registered);
+    }
+
+    @Override
+    public String getAppName() {
+        return sw.appConfig.getAppName();
+    }
+
+    @Override
+    public String getAppVersion() {
+        return sw.appConfig.getAppVersion();
+    }
+
+    @Override
+    public String getConfigBase() {
+        return sw.getConfigFileBase();
+    }
+
+    @Override
+    public String getStartTime() {
+        SimpleDateFormat sdf = new SimpleDateFormat(Util.ISO_8601_ZULU_FORMAT);
+        sdf.setTimeZone(Util.UTZ_TZ);
+        return sdf.format(sw.statsKeeper.startTime);
+    }
+
+    @Override
+    public long getGets() {
+        return sw.statsKeeper.getGets();
+    }
+
+    @Override
+    public long getPosts() {
+        return sw.statsKeeper.getPosts();
+    }
+
+    @Override
+    public long getErrors() {
+        return sw.statsKeeper.getErrors();
+    }
+
+    @Override
+    public long getShippedBytes() {
+        return sw.statsKeeper.getShippedBytes();
+    }
+
+    @Override
+    public long getHandlersInFlight() {
+        return sw.statsKeeper.getHandlersInFlight();
+    }
+
+    @Override
+    public long getTimeoutKills() {
+        return sw.statsKeeper.getTimeoutKills();
+    }
+
+    @Override
+    public double getRequestRateOneMinute() {
+        return sw.statsKeeper.getRequestRate().getOneMinuteRate();
+    }
+
+    @Override
+    public double getRequestRateFiveMinute() {
+        return sw.statsKeeper.getRequestRate().getFiveMinuteRate();
+    }
+
+    @Override
+    public double getRequestRateFifteenMinute() {
+        return sw.statsKeeper.getRequestRate().getFifteenMinuteRate();
+    }
+
+    @Override
+    public int getUsageQueueDepth() {
+        return sw.usagePublisher == null ? -1
+              : sw.usagePublisher.getQueueDepth();
+    }
+
+    @Override
+    public String[] getEndpointNames() {
+        Set<String> names = new TreeSet<>(sw.appConfig.getEndpoints());
+        names.removeAll(Wss.STATIC_ENDPOINTS);
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public int getRequestsInFlight() {
+        return sw.requestRegistry.getInFlight();
+    }
+
+    @Override
+    public String[] getRequestsInFlightList() {
+        List<RequestRegistry.Entry> entries = sw.requestRegistry.getRequests();
+        String[] list = new String[entries.size()];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = entries.get(i).toString();
+        }
+        return list;
+    }
+}
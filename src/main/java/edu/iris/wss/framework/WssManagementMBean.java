@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+/**
+ * JMX view of one web application, see WssManagement.
+ */
+public interface WssManagementMBean {
+    String getAppName();
+    String getAppVersion();
+    String getConfigBase();
+    String getStartTime();
+
+    long getGets();
+    long getPosts();
+    long getErrors();
+    long getShippedBytes();
+    long getHandlersInFlight();
+    long getTimeoutKills();
+    double getRequestRateOneMinute();
+    double getRequestRateFiveMinute();
+    double getRequestRateFifteenMinute();
+
+    /**
+     * @return - -1 if usage messages are not queued
+     */
+    int getUsageQueueDepth();
+
+    String[] getEndpointNames();
+    int getRequestsInFlight();
+    String[] getRequestsInFlightList();
+}
@@ -27,6 +27,15 @@ import edu.iris.dmc.logging.rabbitmq.IrisRabbitPublisherFactory;
 import org.apache.log4j.Logger;
 
 import edu.iris.wss.provider.IrisSingleton;
+import edu.iris.wss.utils.BoundedAsyncWriter;
+import edu.iris.wss.utils.CaptureFileSink;
+import edu.iris.wss.utils.SlowRequestLog;
+import edu.iris.wss.utils.TraceFileSink;
+import edu.iris.wss.utils.UsageFileWriter;
+import edu.iris.wss.utils.UsagePublisher;
+import edu.iris.wss.utils.UsageSpool;
+import edu.iris.wss.utils.WfstatAggregator;
+import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.util.Properties;
 
@@ -39,7 +48,15 @@ import java.util.Properties;
  *
  *  WssSingleton is used to:
  *  - contain StatsKeeper
+ *  - contain RequestRegistry, the requests in flight
+ *  - register JMX MBeans, see WssManagement
  *  - contain JMS logging object if needed
+ *  - contain UsagePublisher if usage messages are queued
+ *  - contain UsageSpool if failed usage messages are kept for replay
+ *  - contain WfstatAggregator if wfstat messages are merged
+ *  - contain TraceFileSink if request traces are written
+ *  - contain CaptureFileSink if requests are captured for replay
+ *  - contain SlowRequestLog for requests over slowRequestThreshold
  *  - load and store service.cfg and param.cfg information
  *  - store an application IrisSingleton if specified in service.cfg
  *
@@ -52,9 +69,27 @@ public class WssSingleton {
 	public ParamConfigurator paramConfig = null;
 	public StatsKeeper statsKeeper = new StatsKeeper();
 	public IrisSingleton singleton = null;
-
-    public static WebLogService webLogService = null;
-    public static IrisRabbitAsyncPublisher rabbitAsyncPublisher = null;
+	public UsagePublisher usagePublisher = null;
+	public UsageSpool usageSpool = null;
+	public WfstatAggregator wfstatAggregator = null;
+	public RequestRegistry requestRegistry = new RequestRegistry();
+	public WssManagement management = null;
+	public TraceFileSink traceSink = null;
+	public CaptureFileSink captureSink = null;
+	private Thread usageConnectThread = null;
+	public SlowRequestLog slowRequestLog = null;
+
+    // set by stopUsagePublisher, a background connect which finishes
+    // after this shuts down what it made rather than publishing it, since
+    // shutdown may already have read the statics below
+    private final Object usageBackendLock = new Object();
+    private boolean isUsageStopped = false;
+
+    // set once set up, possibly on the usage connect thread, and read
+    // on request threads
+    public static volatile WebLogService webLogService = null;
+    public static volatile IrisRabbitAsyncPublisher rabbitAsyncPublisher = null;
+    public static volatile UsageFileWriter usageFileWriter = null;
 
     public static final String HEADER_START_IDENTIFIER = "HTTP_HEADERS_START";
     public static byte[] HEADER_START_IDENTIFIER_BYTES;
@@ -172,6 +207,122 @@ public class WssSingleton {
             }
         }
 
+        // a RabbitMQ or JMS connection may take seconds, when usage
+        // messages are queued it is made in the background and the
+        // publisher holds messages until it is finished
+        boolean isBackgroundConnect = appConfig.getUsageQueueSize() > 0
+              && (appConfig.getLoggingType().equals(
+                    AppConfigurator.LoggingMethod.RABBIT_ASYNC)
+              || appConfig.getLoggingType().equals(
+                    AppConfigurator.LoggingMethod.JMS));
+        if (!isBackgroundConnect) {
+            setupUsageBackend();
+        }
+
+        setupUsageSpool();
+        setupUsagePublisher(isBackgroundConnect);
+        if (isBackgroundConnect) {
+            startUsageBackendConnect();
+        }
+        setupWfstatAggregator();
+        setupTraceSink();
+        setupCaptureSink();
+        setupSlowRequestLog();
+        setupManagement();
+	}
+
+    // always started, since slowRequestThreshold may be changed with JMX
+    private void setupSlowRequestLog() {
+        if (slowRequestLog != null) {
+            return;
+        }
+        SlowRequestLog trial = new SlowRequestLog();
+        if (startAsyncWriter(trial, "Error starting slow request log,"
+              + " slow requests will not be logged")) {
+            slowRequestLog = trial;
+        }
+    }
+
+    private void setupTraceSink() {
+        if (traceSink != null) {
+            return;
+        }
+        String traceFile = appConfig.getTraceFile();
+        if (!AppConfigurator.isOkString(traceFile)) {
+            return;
+        }
+        TraceFileSink trial = new TraceFileSink(new File(traceFile));
+        if (startAsyncWriter(trial, "Error starting trace file, request traces"
+              + " will not be written, traceFile: " + traceFile)) {
+            traceSink = trial;
+        }
+    }
+
+    private void setupCaptureSink() {
+        if (captureSink != null) {
+            return;
+        }
+        String captureFile = appConfig.getCaptureFile();
+        if (!AppConfigurator.isOkString(captureFile)) {
+            return;
+        }
+        CaptureFileSink trial = new CaptureFileSink(new File(captureFile),
+              appConfig.isCaptureBodies());
+        if (startAsyncWriter(trial, "Error starting capture file, requests"
+              + " will not be captured, captureFile: " + captureFile)) {
+            captureSink = trial;
+        }
+    }
+
+    /**
+     * @return - true if started, otherwise the error is logged
+     */
+    private boolean startAsyncWriter(BoundedAsyncWriter<?> trial,
+          String errMsg) {
+        try {
+            trial.start(appConfig.getAppName());
+            return true;
+        } catch (Exception ex) {
+            String msg = errMsg + "  ex: ";
+            System.out.println(msg + ex);
+            logger.error(msg, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Stop the trace sink, capture sink and slow request log, each writes
+     * what is queued.
+     */
+    public void stopAsyncWriters() {
+        BoundedAsyncWriter<?>[] writers = {traceSink, captureSink,
+              slowRequestLog};
+        traceSink = null;
+        captureSink = null;
+        slowRequestLog = null;
+        for (BoundedAsyncWriter<?> writer : writers) {
+            if (writer != null) {
+                writer.stop();
+            }
+        }
+    }
+
+    private void setupManagement() {
+        if (management != null) {
+            return;
+        }
+        management = new WssManagement(this);
+        management.register();
+    }
+
+    public void unregisterManagement() {
+        if (management != null) {
+            management.unregister();
+            management = null;
+        }
+    }
+
+    private void setupUsageBackend() {
         if (appConfig.getLoggingType().equals(
               AppConfigurator.LoggingMethod.RABBIT_ASYNC)) {
             String fileName = appConfig.getLoggingConfig().toString();
@@ -179,8 +330,138 @@ public class WssSingleton {
         } else if (appConfig.getLoggingType().equals(
               AppConfigurator.LoggingMethod.JMS)) {
             setupJMSLogging();
+        } else if (appConfig.getLoggingType().equals(
+              AppConfigurator.LoggingMethod.FILE)) {
+            setupFileLogging(appConfig.getLoggingConfig());
         }
-	}
+    }
+
+    private void startUsageBackendConnect() {
+        if (usageConnectThread != null) {
+            return;
+        }
+        final UsagePublisher publisher = usagePublisher;
+        usageConnectThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    setupUsageBackend();
+                } finally {
+                    publisher.setBackendReady();
+                }
+                logger.info("usage backend " + appConfig.getLoggingType()
+                      + " setup finished in background, msec: "
+                      + (System.currentTimeMillis() - start));
+            }
+        }, "wss-usage-connect-" + appConfig.getAppName());
+        usageConnectThread.setDaemon(true);
+        usageConnectThread.start();
+    }
+
+    /**
+     * @return - false while the RabbitMQ or JMS connection is being made
+     *           in the background
+     */
+    public boolean isUsageBackendReady() {
+        return usagePublisher == null || usagePublisher.isBackendReady();
+    }
+
+    private void setupUsagePublisher(boolean isBackgroundConnect) {
+        if (usagePublisher != null) {
+            return;
+        }
+        int queueSize = appConfig.getUsageQueueSize();
+        if (queueSize > 0) {
+            usagePublisher = new UsagePublisher(appConfig.getLoggingType(),
+                  queueSize, appConfig.getUsageOverflowPolicy(), usageSpool);
+            if (isBackgroundConnect) {
+                usagePublisher.holdUntilBackendReady();
+            }
+            usagePublisher.start(appConfig.getAppName());
+        } else {
+            logger.info("usageQueueSize is " + queueSize
+                  + ", usage messages are published on the request thread");
+        }
+    }
+
+    private void setupUsageSpool() {
+        if (usageSpool != null) {
+            return;
+        }
+        String spoolDir = appConfig.getUsageSpoolDirectory();
+        if (!AppConfigurator.isOkString(spoolDir)) {
+            return;
+        }
+        if (appConfig.getLoggingType().equals(
+              AppConfigurator.LoggingMethod.LOG4J)) {
+            logger.info("usageSpoolDirectory is ignored for loggingMethod: "
+                  + appConfig.getLoggingType());
+            return;
+        }
+
+        // one subdirectory per application, the spool directory may be
+        // shared by several services
+        File directory = new File(spoolDir, configFileBase);
+        UsageSpool trial = new UsageSpool(directory,
+              appConfig.getUsageSpoolSegmentMB() * 1024 * 1024,
+              appConfig.getUsageSpoolMaxMB() * 1024L * 1024L,
+              appConfig.getLoggingType());
+        try {
+            trial.start(appConfig.getAppName());
+            usageSpool = trial;
+        } catch (Exception ex) {
+            String msg = "Error starting usage spool, usage messages which"
+                  + " fail to publish will be lost, directory: "
+                  + directory.getAbsolutePath() + "  ex: ";
+            System.out.println(msg + ex);
+            logger.error(msg, ex);
+        }
+    }
+
+    private void setupWfstatAggregator() {
+        if (wfstatAggregator != null) {
+            return;
+        }
+        int windowSeconds = appConfig.getWfstatAggregationSeconds();
+        if (windowSeconds > 0) {
+            wfstatAggregator = new WfstatAggregator(appConfig.getAppName(),
+                  appConfig.getLoggingType(), usagePublisher, usageSpool,
+                  windowSeconds,
+                  appConfig.isWfstatKeepExactRecords());
+            wfstatAggregator.start();
+        }
+    }
+
+    /**
+     * Send merged wfstat records and publish anything still queued, should
+     * be done before the logging backend is shutdown. A background connect
+     * which finishes after this shuts down its own connection.
+     */
+    public void stopUsagePublisher() {
+        synchronized (usageBackendLock) {
+            isUsageStopped = true;
+        }
+        if (wfstatAggregator != null) {
+            wfstatAggregator.stop();
+        }
+        if (usageConnectThread != null) {
+            // let a background connect finish, so queued messages can be
+            // sent and the publisher is there to be shut down
+            try {
+                usageConnectThread.join(UsagePublisher.STOP_WAIT_MSEC);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            usageConnectThread = null;
+        }
+        if (usagePublisher != null) {
+            usagePublisher.stop();
+        }
+        if (usageSpool != null) {
+            usageSpool.stop();
+        }
+    }
 
     private ParamConfigurator getParamConfig(AppConfigurator appCfg,
           String cfgFileBase) throws Exception {
@@ -211,10 +492,10 @@ public class WssSingleton {
             System.out.println(msg);
             logger.error(msg);
         }
+        IrisRabbitAsyncPublisher trial = null;
         try {
-            rabbitAsyncPublisher =
-                  IrisRabbitPublisherFactory.createAsyncPublisher(rabbitCfgFile,
-                        appConfig.getAppName());
+            trial = IrisRabbitPublisherFactory.createAsyncPublisher(rabbitCfgFile,
+                  appConfig.getAppName());
 
             isCreated = true;
         } catch (Exception ex) {
@@ -224,9 +505,8 @@ public class WssSingleton {
             logger.warn(msg, ex);
             try {
                 int secondsToTry = 5;
-                rabbitAsyncPublisher =
-                      IrisRabbitPublisherFactory.createAsyncPublisherFromUrl(
-                            rabbitCfgFile, appConfig.getAppName(), secondsToTry);
+                trial = IrisRabbitPublisherFactory.createAsyncPublisherFromUrl(
+                      rabbitCfgFile, appConfig.getAppName(), secondsToTry);
                 isCreated = true;
             } catch (Exception exUURL) {
                 msg = "Error creating rabbitAsyncPublisher with URL API  ex: ";
@@ -237,7 +517,7 @@ public class WssSingleton {
 
         if (isCreated) {
             try {
-                rabbitAsyncPublisher.activate();
+                trial.activate();
                 logger.info("Rabbit Async activate finished");
 
             } catch (Exception ex) {
@@ -245,6 +525,47 @@ public class WssSingleton {
                 System.out.println(msg + ex);
                 logger.error(msg, ex);
             }
+            // published after activate, so request threads never see a
+            // publisher which is not set up
+            synchronized (usageBackendLock) {
+                if (!isUsageStopped) {
+                    rabbitAsyncPublisher = trial;
+                    return;
+                }
+            }
+            logger.warn("usage stopped before rabbitAsyncPublisher was"
+                  + " set up, shutting it down");
+            try {
+                trial.shutdown(10000);
+            } catch (Exception ex) {
+                logger.error("Error shutting down rabbitAsyncPublisher ex: ", ex);
+            }
+        }
+    }
+
+    private void setupFileLogging(String directoryName) {
+        if (usageFileWriter != null) {
+            // same concern as for rabbitAsyncPublisher and webLogService
+            String msg = "POSSIBLE ERROR, usageFileWriter object already"
+                  + " exists, null was expected for usageFileWriter,"
+                  + " usageFileWriter: " + usageFileWriter;
+            System.out.println(msg);
+            logger.error(msg);
+        }
+
+        UsageFileWriter trial = new UsageFileWriter(new File(directoryName),
+              appConfig.getAppName(), appConfig.getUsageFileFormat(),
+              appConfig.getUsageFileMaxMB() * 1024L * 1024L,
+              appConfig.getUsageFileSyncMsec());
+        try {
+            trial.start();
+            usageFileWriter = trial;
+            logger.info("usageFileWriter start finished");
+        } catch (Exception ex) {
+            String msg = "Error starting usageFileWriter, loggingConfig: "
+                  + directoryName + "  ex: ";
+            System.out.println(msg + ex);
+            logger.error(msg, ex);
         }
     }
 
@@ -261,14 +582,27 @@ public class WssSingleton {
             logger.error(msg);
         }
 
-        webLogService = new WebLogService();
+        WebLogService trial = new WebLogService();
         try {
-            webLogService.init();
+            trial.init();
             logger.info("JMS webLogService init finished");
         } catch (Exception ex) {
             String msg = "JMS webLogService init ex: ";
             System.out.println(msg + ex);
             logger.error(msg, ex);
         }
+        synchronized (usageBackendLock) {
+            if (!isUsageStopped) {
+                webLogService = trial;
+                return;
+            }
+        }
+        logger.warn("usage stopped before JMS webLogService was set up,"
+              + " cleaning it up");
+        try {
+            trial.cleanUp();
+        } catch (Exception ex) {
+            logger.error("Error cleaning up JMS webLogService ex: ", ex);
+        }
     }
 }
@@ -22,11 +22,15 @@ package edu.iris.wss.provider;
 import edu.iris.wss.framework.AppConfigurator;
 import edu.iris.wss.framework.FdsnStatus.Status;
 import edu.iris.wss.framework.ParameterTranslator;
+import edu.iris.wss.framework.RequestRegistry;
+import edu.iris.wss.framework.RequestTrace;
 import edu.iris.wss.framework.RequestInfo;
 import edu.iris.wss.framework.ServiceShellException;
 import edu.iris.wss.framework.WssSingleton;
 import edu.iris.wss.framework.Util;
-import edu.iris.wss.utils.WebUtils;
+import edu.iris.wss.utils.CaptureFileSink;
+import edu.iris.wss.utils.CaptureFormat;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Map;
 import javax.servlet.ServletContext;
@@ -88,6 +92,46 @@ public class IrisDynamicProvider {
                         + ri.request.getRequestURI());
         }
 
+        RequestTrace trace = ri.getRequestContext().getTrace();
+        if (sw.traceSink != null) {
+            // written by MyApplicationEventListener when Jersey is finished
+            trace.setSink(sw.traceSink, sw.appConfig.getAppName(),
+                  requestedEpName, containerRequestContext.getMethod(),
+                  ri.getRequestContext().getClientIp());
+            containerRequestContext.setProperty(RequestTrace.PROPERTY_NAME,
+                  trace);
+        }
+
+        CaptureFormat.Request capture = null;
+        if (sw.captureSink != null) {
+            // written by MyApplicationEventListener when Jersey is finished
+            CaptureFileSink.Pending pending = sw.captureSink.begin(
+                  ri.getRequestContext().getStartNanos());
+            containerRequestContext.setProperty(CaptureFileSink.PROPERTY_NAME,
+                  pending);
+            capture = pending.request;
+            capture.endpoint = requestedEpName;
+            capture.method = containerRequestContext.getMethod();
+            capture.query = ri.request.getQueryString();
+        }
+
+        trace.start(RequestTrace.Span.ADMISSION_WAIT);
+        int concurrencyLimit = sw.appConfig.getConcurrencyLimit(requestedEpName);
+        RequestRegistry.Entry registryEntry = sw.requestRegistry.tryRegister(
+              requestedEpName, containerRequestContext.getMethod(),
+              ri.getRequestContext(), concurrencyLimit);
+        trace.end(RequestTrace.Span.ADMISSION_WAIT);
+        if (registryEntry == null) {
+            Util.logAndThrowException(ri, Status.SERVICE_UNAVAILABLE,
+                  "Too many concurrent requests for endpoint: "
+                        + requestedEpName + ", please try again later",
+                  "concurrencyLimit: " + concurrencyLimit);
+        }
+        // released by MyApplicationEventListener when Jersey is finished
+        containerRequestContext.setProperty(RequestRegistry.PROPERTY_NAME,
+              registryEntry);
+        ri.registryEntry = registryEntry;
+
         ri.requestMediaType = containerRequestContext.getMediaType();
         if (containerRequestContext.getMethod().equals("POST")) {
             if (containerRequestContext != null) {
@@ -100,22 +144,23 @@ public class IrisDynamicProvider {
                           .readEntity(String.class);
                 }
             }
-
-            String username = WebUtils.getAuthenticatedUsername(ri.requestHeaders);
-		    if (AppConfigurator.isOkString(username)) {
-                ri.statsKeeper.logAuthPost();
-            } else {
-                ri.statsKeeper.logPost();
+        }
+        if (capture != null) {
+            if (ri.requestMediaType != null) {
+                capture.contentType = ri.requestMediaType.toString();
             }
-        } else {
-            // NOTE: HEAD is counted here as well as GET (and PUT and DELETE, etc)
-            String username = WebUtils.getAuthenticatedUsername(ri.requestHeaders);
-		    if (AppConfigurator.isOkString(username)) {
-                ri.statsKeeper.logAuthGet();
-            } else {
-                ri.statsKeeper.logGet();
+            // a multipart body is not kept, it can not be replayed
+            if (ri.postBody != null) {
+                capture.body = ri.postBody.getBytes(StandardCharsets.UTF_8);
             }
         }
+        registryEntry.setParameters(ri.postBody != null ? ri.postBody
+              : ri.request.getQueryString());
+        registryEntry.setPhase(RequestRegistry.Phase.PROCESSING);
+
+        ri.statsKeeper.logRequest(requestedEpName,
+              containerRequestContext.getMethod(),
+              ri.getRequestContext().isAuthenticated());
 
         IrisProcessor isdo = null;
         if (sw.appConfig.getIrisEndpointClass(requestedEpName) instanceof
@@ -149,12 +194,15 @@ public class IrisDynamicProvider {
         // processing, endpoints may/will do this again, but tranlator
         // errors should be determined here first.
         ArrayList<String> cmd = new ArrayList<>();
+        trace.start(RequestTrace.Span.PARAMETER_VALIDATION);
 		try {
 			ParameterTranslator.parseQueryParams(cmd, ri, requestedEpName);
 		} catch (Exception e) {
 			Util.logAndThrowException(ri, Status.BAD_REQUEST,
                   "doIrisProcessing - " + e.getMessage());
-		}
+		} finally {
+            trace.end(RequestTrace.Span.PARAMETER_VALIDATION);
+        }
 
         // The value for media type, i.e. the value for parameters "format"
         // or "output" must have been specified in the configuration file
@@ -202,6 +250,8 @@ public class IrisDynamicProvider {
                   formatTypeKey);
             Util.setResponseHeaders(builder, headersMap);
 
+            ri.statsKeeper.logResponse(requestedEpName,
+                  Status.OK.getStatusCode(), formatTypeKey);
             return builder.build();
         }
 
@@ -282,6 +332,8 @@ public class IrisDynamicProvider {
         Util.setResponseHeaders(builder, headersMap);
 
         Response response = builder.build();
+        ri.statsKeeper.logResponse(requestedEpName, status.getStatusCode(),
+              formatTypeKey);
 
         // last chance to see response before return to Jersey
 ////        MultivaluedMap<String, Object> mm = response.getHeaders();
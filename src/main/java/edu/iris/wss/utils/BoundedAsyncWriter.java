@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes items queued by request threads on one background writer thread,
+ * e.g. request traces, captured requests and slow request log records.
+ *
+ * offer does not wait, when the queue is full the item is dropped and
+ * counted, writing should never slow a request. The writer thread takes
+ * up to batchSize items at a time and flushes when the queue is empty.
+ *
+ * The writer thread closes the output when it has written what was
+ * queued, so a writer still running after stop has timed out is never
+ * left writing to a closed stream. open is called by start, write, flush
+ * and close only by the writer thread.
+ */
+public abstract class BoundedAsyncWriter<T> {
+    public static final Logger logger = Logger.getLogger(BoundedAsyncWriter.class);
+
+    private final String name;
+    private final String threadName;
+    private final int batchSize;
+    private final BlockingQueue<T> queue;
+    private final List<T> batch;
+
+    private final AtomicLong written = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    private volatile boolean isRunning = false;
+    private Thread writerThread = null;
+
+    /**
+     * @param name - for log messages, e.g. TraceFileSink
+     * @param threadName - the app name is appended
+     */
+    protected BoundedAsyncWriter(String name, String threadName,
+          int queueSize, int batchSize) {
+        this.name = name;
+        this.threadName = threadName;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    protected void open() throws IOException {
+    }
+
+    protected abstract void write(T item) throws IOException;
+
+    protected void flush() throws IOException {
+    }
+
+    protected void close() throws IOException {
+    }
+
+    public synchronized void start(String appName) throws IOException {
+        if (isRunning) {
+            return;
+        }
+        open();
+
+        isRunning = true;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, threadName + "-" + appName);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queue one item, this does not wait.
+     *
+     * @return - true if the item was queued
+     */
+    public boolean offer(T item) {
+        if (isRunning && queue.offer(item)) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stop taking items and wait up to STOP_WAIT_MSEC for what is queued
+     * to be written and the output closed.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!isRunning) {
+                return;
+            }
+            isRunning = false;
+            thread = writerThread;
+            writerThread = null;
+        }
+        try {
+            thread.join(UsagePublisher.STOP_WAIT_MSEC);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.warn(name + " still writing after "
+                  + UsagePublisher.STOP_WAIT_MSEC + " msec, the writer"
+                  + " thread closes the output when done, " + toString());
+        } else {
+            logger.info(name + " stopped, " + toString());
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (isRunning || !queue.isEmpty()) {
+                try {
+                    T item = queue.poll(1, TimeUnit.SECONDS);
+                    if (item == null) {
+                        continue;
+                    }
+                    batch.add(item);
+                    queue.drainTo(batch, batchSize - 1);
+                    for (T one : batch) {
+                        write(one);
+                    }
+                    written.addAndGet(batch.size());
+                    batch.clear();
+                    if (queue.isEmpty()) {
+                        flush();
+                    }
+                } catch (InterruptedException ex) {
+                    break;
+                } catch (Exception ex) {
+                    // keep the writer thread alive
+                    dropped.addAndGet(batch.size());
+                    batch.clear();
+                    logger.error(name + " write error, " + toString()
+                          + "  ex: " + ex);
+                }
+            }
+        } finally {
+            try {
+                close();
+            } catch (IOException ex) {
+                logger.error(name + " error closing, " + toString()
+                      + "  ex: " + ex);
+            }
+        }
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "written: " + written.get() + "  dropped: " + dropped.get();
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lists request capture files, as written by CaptureFileSink, one line
+ * per request with tab separated fields, see HEADER.
+ *
+ * usage: java -cp webserviceshell.jar edu.iris.wss.utils.CaptureFileReader
+ *            [-noheader] file.bin ...
+ *
+ * POST bodies are not listed, only their length and SHA-256.
+ */
+public class CaptureFileReader {
+
+    public static final String HEADER = "# Start Time\tDuration Msec\tStatus"
+          + "\tMethod\tEndpoint\tQuery\tContent Type\tBody Length\tBody SHA-256";
+
+    private CaptureFileReader() {
+    }
+
+    /**
+     * @return - number of requests written
+     */
+    public static long convert(InputStream in, Writer out) throws IOException {
+        CaptureFormat.Decoder decoder = new CaptureFormat.Decoder(in);
+        char[] iso = new char[20];
+        long count = 0;
+        CaptureFormat.Request request;
+        while ((request = decoder.next()) != null) {
+            StringBuilder sb = new StringBuilder(256);
+            UsageLogFormatter.writeIsoDate(
+                  Math.floorDiv(request.startMillis, 1000L), iso);
+            sb.append(iso);
+            sb.append('\t').append(request.durationMicros < 0 ? -1.0
+                  : request.durationMicros / 1000.0);
+            sb.append('\t').append(request.status);
+            sb.append('\t').append(request.method);
+            sb.append('\t').append(request.endpoint);
+            sb.append('\t').append(nullToEmpty(request.query));
+            sb.append('\t').append(nullToEmpty(request.contentType));
+            sb.append('\t').append(request.bodyLength);
+            sb.append('\t').append(nullToEmpty(request.getBodyHashHex()));
+            sb.append('\n');
+            out.append(sb);
+            count++;
+        }
+        return count;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean isHeader = true;
+        int first = 0;
+        if (args.length > 0 && args[0].equals("-noheader")) {
+            isHeader = false;
+            first = 1;
+        }
+        if (args.length <= first) {
+            System.err.println("usage: " + CaptureFileReader.class.getName()
+                  + " [-noheader] file.bin ...");
+            System.exit(1);
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out,
+              StandardCharsets.UTF_8), 64 * 1024);
+        if (isHeader) {
+            out.append(HEADER).append('\n');
+        }
+        for (int i = first; i < args.length; i++) {
+            try (InputStream in = new BufferedInputStream(
+                  new FileInputStream(args[i]), 64 * 1024)) {
+                convert(in, out);
+            } catch (IOException ex) {
+                out.flush();
+                System.err.println("Error reading: " + args[i] + "  ex: " + ex);
+                System.exit(2);
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes captured requests to the file named by the captureFile
+ * parameter, in CaptureFormat, for replay against a test service.
+ *
+ * As with TraceFileSink, request threads only queue the request and a
+ * writer thread encodes and writes it, when the queue is full the request
+ * is dropped and counted. A binary file can not be continued, its
+ * dictionary is not known, so when the file exists a sequence number is
+ * added to the name, e.g. capture.bin, then capture_001.bin.
+ */
+public class CaptureFileSink extends BoundedAsyncWriter<CaptureFormat.Request> {
+    public static final Logger logger = Logger.getLogger(CaptureFileSink.class);
+
+    // container request property holding the Pending capture
+    public static final String PROPERTY_NAME = "edu.iris.wss.capture";
+
+    public static final int QUEUE_SIZE = 8192;
+    public static final int BATCH_SIZE = 256;
+
+    private final File requestedFile;
+    private final boolean isBodyKept;
+
+    /**
+     * A request being captured, it is queued for writing when finish is
+     * called.
+     */
+    public static class Pending {
+        public final CaptureFormat.Request request =
+              new CaptureFormat.Request();
+        private final CaptureFileSink sink;
+        private final long startNanos;
+        private final AtomicBoolean isFinished = new AtomicBoolean(false);
+
+        Pending(CaptureFileSink sink, long startNanos) {
+            this.sink = sink;
+            this.startNanos = startNanos;
+            request.startMillis = System.currentTimeMillis()
+                  - (System.nanoTime() - startNanos) / 1000000L;
+        }
+
+        /**
+         * Queue the request for writing, only the first call has any
+         * effect.
+         */
+        public void finish(int httpStatus) {
+            if (!isFinished.compareAndSet(false, true)) {
+                return;
+            }
+            request.status = httpStatus;
+            request.durationMicros = (System.nanoTime() - startNanos) / 1000L;
+            sink.offer(request);
+        }
+    }
+
+    private File file = null;
+    private OutputStream out = null;
+    private CaptureFormat.Encoder encoder = null;
+
+    /**
+     * @param isBodyKept - write POST bodies, otherwise only their length
+     *                     and SHA-256, such requests can not be replayed
+     */
+    public CaptureFileSink(File file, boolean isBodyKept) {
+        super("CaptureFileSink", "wss-capture-writer", QUEUE_SIZE, BATCH_SIZE);
+        this.requestedFile = file;
+        this.isBodyKept = isBodyKept;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        File parent = requestedFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create capture file directory: "
+                  + parent.getAbsolutePath());
+        }
+        file = nextFile(requestedFile);
+        out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        encoder = new CaptureFormat.Encoder(isBodyKept);
+        encoder.writeFileHeader(out);
+        logger.info("CaptureFileSink started, file: " + file.getAbsolutePath()
+              + "  bodies kept: " + isBodyKept);
+    }
+
+    static File nextFile(File file) {
+        if (!file.exists()) {
+            return file;
+        }
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String suffix = dot > 0 ? name.substring(dot) : "";
+        File next;
+        int sequence = 0;
+        do {
+            sequence++;
+            next = new File(file.getAbsoluteFile().getParentFile(),
+                  String.format("%s_%03d%s", base, sequence, suffix));
+        } while (next.exists());
+        return next;
+    }
+
+    /**
+     * @param startNanos - System.nanoTime when the request arrived
+     */
+    public Pending begin(long startNanos) {
+        return new Pending(this, startNanos);
+    }
+
+    @Override
+    protected void write(CaptureFormat.Request request) throws IOException {
+        encoder.write(request, out);
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    protected void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * @return - the file being written, which may differ from the
+     *           captureFile parameter, null before start
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "file: " + file + "  " + super.toString();
+    }
+}
@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of request capture files written by CaptureFileSink, see
+ * UsageBinaryFormat, which this follows and whose varint and string
+ * encodings are used.
+ *
+ * A file starts with MAGIC and FORMAT_VERSION, then a sequence of
+ * records, each one a varint length followed by that many bytes. The
+ * first byte of a record is its type,
+ *   DICTIONARY_RECORD - varint id, then a string, defines the value of
+ *                       id for the rest of the file
+ *   REQUEST_RECORD    - one Request
+ *
+ * In a request record the start time is a zigzag varint of milliseconds
+ * from the start of the previous record in the file, records are written
+ * when requests finish so they are not quite in start order. Endpoint,
+ * method and content type are dictionary strings, the query is a string
+ * as it was sent, i.e. still URL encoded. The body is a varint kind,
+ * BODY_NONE, BODY_FULL followed by a string of the bytes, or BODY_HASH
+ * followed by a varint length and the SHA-256 of the body.
+ */
+public class CaptureFormat {
+
+    public static final byte[] MAGIC = {'W', 'S', 'S', 'C'};
+    public static final byte FORMAT_VERSION = 1;
+
+    public static final byte DICTIONARY_RECORD = 1;
+    public static final byte REQUEST_RECORD = 2;
+
+    public static final int BODY_NONE = 0;
+    public static final int BODY_FULL = 1;
+    public static final int BODY_HASH = 2;
+
+    public static final int MAX_DICTIONARY_SIZE = 4096;
+    public static final int MAX_DICTIONARY_STRING = 256;
+    public static final String HASH_ALGORITHM = "SHA-256";
+    public static final int HASH_BYTES = 32;
+
+    private static final int INLINE = 1;
+    private static final int FIRST_ID = 2;
+
+    private CaptureFormat() {
+    }
+
+    /**
+     * One captured request.
+     */
+    public static class Request {
+        public long startMillis;
+        public long durationMicros = -1;
+        // HTTP status, -1 if the request did not finish
+        public int status = -1;
+        public String endpoint;
+        public String method;
+        public String query;
+        public String contentType;
+        // the POST body, or null, a decoded body is null when only its
+        // hash was captured
+        public byte[] body;
+        public long bodyLength = -1;
+        public byte[] bodyHash;
+
+        public boolean isPost() {
+            return "POST".equals(method);
+        }
+
+        /**
+         * @return - true when the request can be sent again, i.e. it is
+         *           not a POST with only the hash of its body
+         */
+        public boolean isReplayable() {
+            return !isPost() || body != null;
+        }
+
+        public String getBodyHashHex() {
+            if (bodyHash == null) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder(bodyHash.length * 2);
+            for (byte b : bodyHash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+    }
+
+    public static byte[] hash(byte[] body) {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM).digest(body);
+        } catch (NoSuchAlgorithmException ex) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Encodes the records of one file, not thread safe.
+     */
+    public static class Encoder {
+        private final boolean isBodyKept;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> added = new ArrayList<>();
+        private ByteBuffer record = ByteBuffer.allocate(1024);
+        private long previousStartMillis = 0;
+
+        /**
+         * @param isBodyKept - write POST bodies, otherwise only their
+         *                     length and hash
+         */
+        public Encoder(boolean isBodyKept) {
+            this.isBodyKept = isBodyKept;
+        }
+
+        public void writeFileHeader(OutputStream out) throws IOException {
+            out.write(MAGIC);
+            out.write(FORMAT_VERSION);
+            dictionary.clear();
+            previousStartMillis = 0;
+        }
+
+        public void write(Request request, OutputStream out)
+              throws IOException {
+            while (true) {
+                record.clear();
+                added.clear();
+                try {
+                    putRequest(request);
+                    break;
+                } catch (BufferOverflowException ex) {
+                    for (String key : added) {
+                        dictionary.remove(key);
+                    }
+                    record = ByteBuffer.allocate(record.capacity() * 2);
+                }
+            }
+
+            // dictionary records go first, the decoder needs them
+            int firstId = FIRST_ID + dictionary.size() - added.size();
+            for (int i = 0; i < added.size(); i++) {
+                byte[] bytes = added.get(i).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer dict = ByteBuffer.allocate(bytes.length + 16);
+                dict.put(DICTIONARY_RECORD);
+                UsageBinaryFormat.putVarint(dict, firstId + i);
+                UsageBinaryFormat.putVarint(dict, bytes.length + 1);
+                dict.put(bytes);
+                writeRecord(dict, out);
+            }
+            writeRecord(record, out);
+            previousStartMillis = request.startMillis;
+        }
+
+        private void putRequest(Request request) {
+            record.put(REQUEST_RECORD);
+            UsageBinaryFormat.putNullableLong(record,
+                  request.startMillis - previousStartMillis);
+            UsageBinaryFormat.putVarlong(record, request.durationMicros + 1);
+            UsageBinaryFormat.putVarint(record, request.status + 1);
+            putDictString(request.endpoint);
+            putDictString(request.method);
+            UsageBinaryFormat.putString(record, request.query);
+            putDictString(request.contentType);
+
+            if (request.body == null) {
+                UsageBinaryFormat.putVarint(record, BODY_NONE);
+            } else if (isBodyKept) {
+                UsageBinaryFormat.putVarint(record, BODY_FULL);
+                UsageBinaryFormat.putVarint(record, request.body.length + 1);
+                record.put(request.body);
+            } else {
+                UsageBinaryFormat.putVarint(record, BODY_HASH);
+                UsageBinaryFormat.putVarlong(record, request.body.length);
+                record.put(hash(request.body));
+            }
+        }
+
+        private void putDictString(String s) {
+            if (s == null) {
+                UsageBinaryFormat.putVarint(record, 0);
+                return;
+            }
+            Integer id = dictionary.get(s);
+            if (id == null && dictionary.size() < MAX_DICTIONARY_SIZE
+                  && s.length() <= MAX_DICTIONARY_STRING) {
+                id = FIRST_ID + dictionary.size();
+                dictionary.put(s, id);
+                added.add(s);
+            }
+            if (id == null) {
+                UsageBinaryFormat.putVarint(record, INLINE);
+                UsageBinaryFormat.putString(record, s);
+            } else {
+                UsageBinaryFormat.putVarint(record, id);
+            }
+        }
+
+        private static void writeRecord(ByteBuffer buf, OutputStream out)
+              throws IOException {
+            buf.flip();
+            ByteBuffer length = ByteBuffer.allocate(5);
+            UsageBinaryFormat.putVarint(length, buf.remaining());
+            out.write(length.array(), 0, length.position());
+            out.write(buf.array(), buf.arrayOffset(), buf.remaining());
+        }
+    }
+
+    /**
+     * Reads one file, not thread safe.
+     */
+    public static class Decoder {
+        private final InputStream in;
+        private final List<String> dictionary = new ArrayList<>();
+        private byte[] recordBytes = new byte[1024];
+        private long previousStartMillis = 0;
+
+        public Decoder(InputStream in) throws IOException {
+            this.in = in;
+            byte[] header = new byte[MAGIC.length + 1];
+            readFully(header, header.length);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header[i] != MAGIC[i]) {
+                    throw new IOException("Not a request capture file");
+                }
+            }
+            if (header[MAGIC.length] != FORMAT_VERSION) {
+                throw new IOException("Unsupported request capture version: "
+                      + header[MAGIC.length]);
+            }
+        }
+
+        /**
+         * @return - the next request, or null at the end of the file
+         */
+        public Request next() throws IOException {
+            while (true) {
+                int length = UsageBinaryFormat.readVarint(in);
+                if (length < 0) {
+                    return null;
+                }
+                if (length > recordBytes.length) {
+                    recordBytes = new byte[Math.max(length, recordBytes.length * 2)];
+                }
+                readFully(recordBytes, length);
+                ByteBuffer buf = ByteBuffer.wrap(recordBytes, 0, length);
+                byte type = buf.get();
+                if (type == DICTIONARY_RECORD) {
+                    int id = UsageBinaryFormat.getVarint(buf);
+                    String value = UsageBinaryFormat.getString(buf);
+                    if (id != FIRST_ID + dictionary.size()) {
+                        throw new IOException("Unexpected dictionary id: " + id
+                              + "  expected: " + (FIRST_ID + dictionary.size()));
+                    }
+                    dictionary.add(value);
+                } else if (type == REQUEST_RECORD) {
+                    return readRequest(buf);
+                } else {
+                    throw new IOException("Unknown record type: " + type);
+                }
+            }
+        }
+
+        private Request readRequest(ByteBuffer buf) throws IOException {
+            Request request = new Request();
+            request.startMillis = previousStartMillis
+                  + UsageBinaryFormat.getNullableLong(buf);
+            previousStartMillis = request.startMillis;
+            request.durationMicros = UsageBinaryFormat.getVarlong(buf) - 1;
+            request.status = UsageBinaryFormat.getVarint(buf) - 1;
+            request.endpoint = getDictString(buf);
+            request.method = getDictString(buf);
+            request.query = UsageBinaryFormat.getString(buf);
+            request.contentType = getDictString(buf);
+
+            int kind = UsageBinaryFormat.getVarint(buf);
+            if (kind == BODY_FULL) {
+                int length = UsageBinaryFormat.getVarint(buf) - 1;
+                request.body = new byte[length];
+                buf.get(request.body);
+                request.bodyLength = length;
+                request.bodyHash = hash(request.body);
+            } else if (kind == BODY_HASH) {
+                request.bodyLength = UsageBinaryFormat.getVarlong(buf);
+                request.bodyHash = new byte[HASH_BYTES];
+                buf.get(request.bodyHash);
+            } else if (kind != BODY_NONE) {
+                throw new IOException("Unknown body kind: " + kind);
+            }
+            return request;
+        }
+
+        private String getDictString(ByteBuffer buf) throws IOException {
+            int id = UsageBinaryFormat.getVarint(buf);
+            if (id == 0) {
+                return null;
+            } else if (id == INLINE) {
+                return UsageBinaryFormat.getString(buf);
+            }
+            int index = id - FIRST_ID;
+            if (index >= dictionary.size()) {
+                throw new IOException("Undefined dictionary id: " + id);
+            }
+            return dictionary.get(index);
+        }
+
+        private void readFully(byte[] bytes, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                int count = in.read(bytes, offset, length - offset);
+                if (count < 0) {
+                    throw new EOFException("Truncated request capture file");
+                }
+                offset += count;
+            }
+        }
+    }
+}
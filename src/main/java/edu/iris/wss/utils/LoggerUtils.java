@@ -20,17 +20,18 @@
 package edu.iris.wss.utils;
 
 import edu.iris.dmc.jms.WebUsageItem;
+import edu.iris.dmc.jms.service.WebLogService;
+import edu.iris.dmc.logging.rabbitmq.IrisRabbitAsyncPublisher;
 import edu.iris.dmc.logging.usage.WSUsageItem;
 import edu.iris.wss.framework.AppConfigurator;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+import edu.iris.wss.framework.RequestContext;
 import edu.iris.wss.framework.RequestInfo;
 import edu.iris.wss.framework.AppConfigurator.LoggingMethod;
-import edu.iris.wss.framework.Util;
 import edu.iris.wss.framework.WssSingleton;
 
 public class LoggerUtils {
@@ -66,10 +67,11 @@ public class LoggerUtils {
         // name available (for JMS)
         String olderJMSApplciationName = makeFullAppName(ri, appSuffix);
 
+        RequestContext rc = ri.getRequestContext();
         wsuRabbit.setHost(           WebUtils.getHostname());
         wsuRabbit.setAccessDate(     new Date());
-        wsuRabbit.setClientName(     WebUtils.getClientName(ri.request));
-        wsuRabbit.setClientIp(       WebUtils.getClientIp(ri.request));
+        wsuRabbit.setClientName(     rc.getClientName());
+        wsuRabbit.setClientIp(       rc.getClientIp());
         wsuRabbit.setDataSize(       dataSize);
         wsuRabbit.setProcessTimeMsec(processTime);
         wsuRabbit.setNetwork(        null);
@@ -80,9 +82,9 @@ public class LoggerUtils {
         wsuRabbit.setStartTime(      null);
         wsuRabbit.setEndTime(        null);
         wsuRabbit.setErrorType(      errorType);
-        wsuRabbit.setUserAgent(      WebUtils.getUserAgent(ri.request));
+        wsuRabbit.setUserAgent(      rc.getUserAgent());
         wsuRabbit.setHttpCode(       httpStatusCode);
-        wsuRabbit.setUserName(       WebUtils.getAuthenticatedUsername(ri.requestHeaders));
+        wsuRabbit.setUserName(       rc.getAuthenticatedUsername());
         wsuRabbit.setExtra(          extraText);
 
 		logWssUsageMessage(level, wsuRabbit, ri, olderJMSApplciationName);
@@ -115,10 +117,11 @@ public class LoggerUtils {
         // name available (for JMS)
         String olderJMSApplciationName = makeFullAppName(ri, appSuffix);
 
+        RequestContext rc = ri.getRequestContext();
         wsuRabbit.setHost(           WebUtils.getHostname());
         wsuRabbit.setAccessDate(     new Date());
-        wsuRabbit.setClientName(     WebUtils.getClientName(ri.request));
-        wsuRabbit.setClientIp(       WebUtils.getClientIp(ri.request));
+        wsuRabbit.setClientName(     rc.getClientName());
+        wsuRabbit.setClientIp(       rc.getClientIp());
         wsuRabbit.setDataSize(       dataSize);
         wsuRabbit.setProcessTimeMsec(processTime);
         wsuRabbit.setNetwork(        network);
@@ -129,17 +132,70 @@ public class LoggerUtils {
         wsuRabbit.setStartTime(      startTime);
         wsuRabbit.setEndTime(        endTime);
         wsuRabbit.setErrorType(      errorType);
-        wsuRabbit.setUserAgent(      WebUtils.getUserAgent(ri.request));
+        wsuRabbit.setUserAgent(      rc.getUserAgent());
         wsuRabbit.setHttpCode(       httpStatusCode);
-        wsuRabbit.setUserName(       WebUtils.getAuthenticatedUsername(ri.requestHeaders));
+        wsuRabbit.setUserName(       rc.getAuthenticatedUsername());
         wsuRabbit.setExtra(          extraText);
 
+        WfstatAggregator wfstatAggregator = ri.sw == null ? null
+              : ri.sw.wfstatAggregator;
+        if (wfstatAggregator != null) {
+            wfstatAggregator.add(wsuRabbit);
+            if (!wfstatAggregator.isKeepExactRecords()) {
+                return;
+            }
+        }
+
 		logWssUsageMessage(Level.INFO, wsuRabbit, ri, olderJMSApplciationName);
 	}
 
 	private static void logWssUsageMessage(Level level, WSUsageItem wsuRabbit,
           RequestInfo ri, String olderJMSApplciationName) {
-		AppConfigurator.LoggingMethod loggingType = ri.appConfig.getLoggingType();
+        UsagePublisher usagePublisher = ri.sw == null ? null
+              : ri.sw.usagePublisher;
+
+        if (usagePublisher != null) {
+            usagePublisher.offer(level, wsuRabbit, olderJMSApplciationName);
+        } else {
+            publishOrSpool(ri.appConfig.getLoggingType(),
+                  ri.sw == null ? null : ri.sw.usageSpool,
+                  level, wsuRabbit, olderJMSApplciationName);
+        }
+    }
+
+    /**
+     * Publish one item, or append it to the spool if the backend fails.
+     * While the spool has a backlog, items go to the spool so they are
+     * published in order.
+     *
+     * @param usageSpool - may be null
+     * @return - true if the item was published now
+     */
+    public static boolean publishOrSpool(LoggingMethod loggingType,
+          UsageSpool usageSpool, Level level, WSUsageItem wsu,
+          String olderJMSApplciationName) {
+        if (usageSpool != null && usageSpool.hasBacklog()) {
+            usageSpool.append(level, wsu, olderJMSApplciationName);
+            return false;
+        }
+
+        if (publishUsageItem(loggingType, level, wsu, olderJMSApplciationName)) {
+            return true;
+        }
+
+        if (usageSpool != null) {
+            usageSpool.append(level, wsu, olderJMSApplciationName);
+        }
+        return false;
+    }
+
+    /**
+     * Send one item to the logging backend on the calling thread.
+     *
+     * @return - false if the backend reported an error, the error is logged
+     */
+	public static boolean publishUsageItem(LoggingMethod loggingType,
+          Level level, WSUsageItem wsuRabbit, String olderJMSApplciationName) {
 
 		if (loggingType == LoggingMethod.LOG4J) {
             String msg = makeUsageLogString(wsuRabbit);
@@ -180,11 +236,13 @@ public class LoggerUtils {
             wui.setUserName(     wsuRabbit.getUserName());
             wui.setExtra(        wsuRabbit.getExtra());
 
+            // read once, it may be replaced or removed by another thread
+            WebLogService jmsService = WssSingleton.webLogService;
             try {
-                WssSingleton.webLogService.send(wui);
+                jmsService.send(wui);
 			} catch (Exception ex) {
 				logger.error("Error while publishing via JMS ex: " + ex
-                      + "  webLogService: " + WssSingleton.webLogService
+                      + "  webLogService: " + jmsService
                       + "  ex msg: " + ex.getMessage()
                       + "  application: " + wui.getApplication()
                       + "  host: " + wui.getHost()
@@ -192,14 +250,17 @@ public class LoggerUtils {
                       + "  ErrorType: " + wui.getErrorType());
 
 //                logger.error("Error while publishing via JMS stack:", ex);
+                return false;
 			}
 
 		} else if (loggingType == LoggingMethod.RABBIT_ASYNC) {
+            IrisRabbitAsyncPublisher rabbitPublisher =
+                  WssSingleton.rabbitAsyncPublisher;
             try {
-                WssSingleton.rabbitAsyncPublisher.publish(wsuRabbit);
+                rabbitPublisher.publish(wsuRabbit);
             } catch (Exception ex) {
                 logger.error("Error while publishing via RABBIT_ASYNC ex: " + ex
-                      + "  rabbitAsyncPublisher: " + WssSingleton.rabbitAsyncPublisher
+                      + "  rabbitAsyncPublisher: " + rabbitPublisher
                       + "  msg: " + ex.getMessage()
                       + "  application: " + wsuRabbit.getApplication()
                       + "  host: " + wsuRabbit.getHost()
@@ -207,12 +268,28 @@ public class LoggerUtils {
                       + "  ErrorType: " + wsuRabbit.getErrorType());
 
 //                logger.error("Error while publishing via RABBIT_ASYNC stack:", ex);
+                return false;
+            }
+
+		} else if (loggingType == LoggingMethod.FILE) {
+            UsageFileWriter fileWriter = WssSingleton.usageFileWriter;
+            try {
+                fileWriter.write(wsuRabbit);
+            } catch (Exception ex) {
+                logger.error("Error while writing via FILE ex: " + ex
+                      + "  usageFileWriter: " + fileWriter
+                      + "  application: " + wsuRabbit.getApplication()
+                      + "  client IP: " + wsuRabbit.getClientIp());
+                return false;
             }
 
 		} else {
             logger.error("Error, unexpected loggingMethod configuration value: "
                     + loggingType + "  msg: " + makeUsageLogString(wsuRabbit));
+            return false;
         }
+
+        return true;
 	}
 
     public static String makeFullAppName(RequestInfo ri, String appSuffix) {
@@ -225,52 +302,7 @@ public class LoggerUtils {
     }
 
 	public static String makeUsageLogString(WSUsageItem wsu) {
-
-		SimpleDateFormat sdf = new SimpleDateFormat(Util.ISO_8601_ZULU_FORMAT);
-        sdf.setTimeZone(Util.UTZ_TZ);
-
-		StringBuffer sb = new StringBuffer();
-
-        // note, keep in the same order as getUsageLogHeader
-		append(sb, wsu.getApplication());
-		append(sb, wsu.getHost());
-        if (wsu.getAccessDate() != null) {
-            append(sb, sdf.format(wsu.getAccessDate()));
-        } else {
-            sb.append("|");
-        }
-		append(sb, wsu.getClientName());
-		append(sb, wsu.getClientIp());
-		append(sb, wsu.getDataSize().toString());
-		append(sb, wsu.getProcessTimeMsec().toString());
-
-		append(sb, wsu.getErrorType());
-		append(sb, wsu.getUserAgent());
-		append(sb, Integer.toString(wsu.getHttpCode()));
-		append(sb, wsu.getUserName());
-
-		append(sb, wsu.getNetwork());
-		append(sb, wsu.getStation());
-		append(sb, wsu.getLocation());
-		append(sb, wsu.getChannel());
-		append(sb, wsu.getQuality());
-		if (wsu.getStartTime() != null) {
-			append(sb, sdf.format(wsu.getStartTime()));
-        } else {
-            sb.append("|");
-        }
-		if (wsu.getEndTime() != null) {
-			append(sb, sdf.format(wsu.getEndTime()));
-        } else {
-            sb.append("|");
-        }
-		append(sb, wsu.getExtra());
-        //append(sb, wsu.getMessagetype());
-        // on last one, leave off the delimiter
-		if (AppConfigurator.isOkString(wsu.getMessagetype()))
-			sb.append(wsu.getMessagetype());
-
-		return sb.toString();
+        return UsageLogFormatter.get().formatToString(wsu);
 	}
 
 	public static String getUsageLogHeader() {
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ * Host name and client name resolution which never blocks a request
+ * thread on DNS, other than the very first local hostname lookup.
+ *
+ * The local hostname is looked up once, then refreshed in the background
+ * when it is older than HOSTNAME_REFRESH_MSEC.
+ *
+ * Client names are reverse lookups of the client IP address, they are
+ * kept in a bounded cache for CLIENT_NAME_TTL_MSEC. On a cache miss the
+ * lookup is queued and the IP address is returned until the name is
+ * available. Expired entries continue to be returned while the refresh
+ * is pending. When the cache is over CLIENT_NAME_CACHE_SIZE it is trimmed
+ * to CLIENT_NAME_TRIM_SIZE, so a full scan happens once per many new
+ * addresses rather than for each one.
+ */
+public class NameResolver {
+    public static final Logger LOGGER = Logger.getLogger(NameResolver.class);
+
+    public static final String UNKNOWN_HOSTNAME = "unknown";
+    public static final String LOOPBACK_NAME = "localhost";
+
+    public static final long HOSTNAME_REFRESH_MSEC = 10L * 60L * 1000L;
+    public static final long CLIENT_NAME_TTL_MSEC = 10L * 60L * 1000L;
+    // time to wait before retrying a lookup which was dropped or failed
+    public static final long PENDING_RETRY_MSEC = 30L * 1000L;
+    public static final int CLIENT_NAME_CACHE_SIZE = 10000;
+    public static final int CLIENT_NAME_TRIM_SIZE =
+          CLIENT_NAME_CACHE_SIZE * 9 / 10;
+
+    private static final int LOOKUP_THREADS = 2;
+    private static final int LOOKUP_QUEUE_SIZE = 1000;
+
+    private static final Map<String, CachedName> clientNames =
+          new ConcurrentHashMap<>();
+
+    private static volatile String hostname = null;
+    private static volatile long hostnameTime = 0;
+    private static final AtomicInteger hostnameRefreshPending =
+          new AtomicInteger(0);
+
+    private static ThreadPoolExecutor lookupExecutor = null;
+    private static final AtomicBoolean isTrimming = new AtomicBoolean(false);
+
+    /**
+     * The reverse lookup of a client address, replaceable for testing.
+     */
+    interface ReverseLookup {
+        /**
+         * @return - null if there is no name
+         */
+        String getName(String ip) throws Exception;
+    }
+
+    private static final ReverseLookup DNS_LOOKUP = new ReverseLookup() {
+        @Override
+        public String getName(String ip) throws Exception {
+            return InetAddress.getByName(ip).getCanonicalHostName();
+        }
+    };
+
+    private static volatile ReverseLookup reverseLookup = DNS_LOOKUP;
+    private static volatile long clientNameTtlMsec = CLIENT_NAME_TTL_MSEC;
+    private static volatile int cacheSize = CLIENT_NAME_CACHE_SIZE;
+    private static volatile int trimSize = CLIENT_NAME_TRIM_SIZE;
+
+    private static class CachedName {
+        // null while the first lookup is pending
+        final String name;
+        final long expireTime;
+        volatile boolean isRefreshing = false;
+
+        CachedName(String name, long expireTime) {
+            this.name = name;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private NameResolver() {
+    }
+
+    public static String getHostname() {
+        String name = hostname;
+        if (name == null) {
+            synchronized (NameResolver.class) {
+                if (hostname == null) {
+                    refreshHostname();
+                }
+                name = hostname;
+            }
+        } else if (System.currentTimeMillis() - hostnameTime
+              > HOSTNAME_REFRESH_MSEC) {
+            if (hostnameRefreshPending.compareAndSet(0, 1)) {
+                boolean isSubmitted = submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            refreshHostname();
+                        } finally {
+                            hostnameRefreshPending.set(0);
+                        }
+                    }
+                });
+                if (!isSubmitted) {
+                    hostnameRefreshPending.set(0);
+                }
+            }
+        }
+        return name;
+    }
+
+    /**
+     * @param ip - client IP address, normally request.getRemoteAddr()
+     * @return - the cached client name, or the ip when the name is
+     *           not resolved yet
+     */
+    public static String getClientName(String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return ip;
+        }
+        if (isLoopback(ip)) {
+            return LOOPBACK_NAME;
+        }
+
+        long now = System.currentTimeMillis();
+        CachedName cached = clientNames.get(ip);
+        if (cached == null) {
+            CachedName pending = new CachedName(null, now + PENDING_RETRY_MSEC);
+            cached = clientNames.putIfAbsent(ip, pending);
+            if (cached == null) {
+                pending.isRefreshing = true;
+                trimCache(now, ip);
+                queueLookup(ip, pending);
+                return ip;
+            }
+        }
+
+        if (cached.expireTime < now && !cached.isRefreshing) {
+            cached.isRefreshing = true;
+            queueLookup(ip, cached);
+        }
+
+        return cached.name == null ? ip : cached.name;
+    }
+
+    /**
+     * Stop lookup threads, a later lookup starts them again.
+     */
+    public static synchronized void shutdown() {
+        if (lookupExecutor != null) {
+            lookupExecutor.shutdownNow();
+            lookupExecutor = null;
+        }
+    }
+
+    /**
+     * For testing, drop all cached names.
+     */
+    public static void clearCache() {
+        clientNames.clear();
+    }
+
+    /**
+     * For testing, a null lookup and zero sizes restore the defaults.
+     */
+    static void setClientLookup(ReverseLookup lookup, long ttlMsec,
+          int maxCached) {
+        reverseLookup = lookup == null ? DNS_LOOKUP : lookup;
+        clientNameTtlMsec = ttlMsec > 0 ? ttlMsec : CLIENT_NAME_TTL_MSEC;
+        cacheSize = maxCached > 0 ? maxCached : CLIENT_NAME_CACHE_SIZE;
+        trimSize = maxCached > 0 ? maxCached * 9 / 10 : CLIENT_NAME_TRIM_SIZE;
+    }
+
+    static int getCachedCount() {
+        return clientNames.size();
+    }
+
+    static boolean isCached(String ip) {
+        return clientNames.containsKey(ip);
+    }
+
+    public static boolean isLoopback(String ip) {
+        return ip.startsWith("127.")
+              || ip.equals("::1")
+              || ip.equals("0:0:0:0:0:0:0:1");
+    }
+
+    private static void refreshHostname() {
+        String name;
+        try {
+            name = InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException ex) {
+            name = UNKNOWN_HOSTNAME;
+        }
+        // keep a previously resolved name if the local lookup now fails
+        if (hostname == null || !UNKNOWN_HOSTNAME.equals(name)) {
+            hostname = name;
+        }
+        hostnameTime = System.currentTimeMillis();
+    }
+
+    private static void queueLookup(final String ip, final CachedName current) {
+        boolean isSubmitted = submit(new Runnable() {
+            @Override
+            public void run() {
+                String name = null;
+                try {
+                    name = reverseLookup.getName(ip);
+                } catch (Exception ex) {
+                    LOGGER.debug("reverse lookup failed for: " + ip
+                          + "  ex: " + ex);
+                }
+
+                if (name == null) {
+                    clientNames.replace(ip, current, new CachedName(current.name,
+                          System.currentTimeMillis() + PENDING_RETRY_MSEC));
+                } else {
+                    clientNames.replace(ip, current, new CachedName(name,
+                          System.currentTimeMillis() + clientNameTtlMsec));
+                }
+            }
+        });
+
+        if (!isSubmitted) {
+            // lookups are backed up, try again on a later request
+            current.isRefreshing = false;
+        }
+    }
+
+    private static synchronized boolean submit(Runnable task) {
+        if (lookupExecutor == null) {
+            lookupExecutor = new ThreadPoolExecutor(LOOKUP_THREADS,
+                  LOOKUP_THREADS, 60L, TimeUnit.SECONDS,
+                  new LinkedBlockingQueue<Runnable>(LOOKUP_QUEUE_SIZE),
+                  new DaemonThreadFactory());
+            lookupExecutor.allowCoreThreadTimeOut(true);
+        }
+        try {
+            lookupExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Keep the cache bounded, when it is over cacheSize remove expired
+     * entries, then arbitrary entries until it is down to trimSize. Only
+     * one thread trims at a time, others go on without waiting.
+     *
+     * @param addedIp - just added, it is not removed
+     */
+    private static void trimCache(long now, String addedIp) {
+        if (clientNames.size() <= cacheSize
+              || !isTrimming.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int target = trimSize;
+            Iterator<Map.Entry<String, CachedName>> iter =
+                  clientNames.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, CachedName> entry = iter.next();
+                if (entry.getValue().expireTime < now
+                      && !entry.getValue().isRefreshing
+                      && !entry.getKey().equals(addedIp)) {
+                    iter.remove();
+                }
+            }
+            iter = clientNames.entrySet().iterator();
+            while (clientNames.size() > target && iter.hasNext()) {
+                if (!iter.next().getKey().equals(addedIp)) {
+                    iter.remove();
+                }
+            }
+        } finally {
+            isTrimming.set(false);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "wss-name-resolver-"
+                  + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
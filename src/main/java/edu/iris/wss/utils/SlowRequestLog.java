@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.utils;
+
+import edu.iris.wss.framework.StreamTiming;
+import java.util.Locale;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes requests which take longer than their endpoint's
+ * slowRequestThreshold to the SlowRequestLogger log4j logger.
+ *
+ * Request threads only check the threshold and queue a Record, the
+ * message is formatted and logged on a background thread. The handler
+ * stderr tail is whatever has been read when the record is made, so
+ * neither thread waits on the handler. When the queue is full the
+ * record is dropped and counted.
+ */
+public class SlowRequestLog extends BoundedAsyncWriter<SlowRequestLog.Record> {
+    public static final Logger slowLogger = Logger.getLogger("SlowRequestLogger");
+
+    public static final int QUEUE_SIZE = 1024;
+    public static final int BATCH_SIZE = 64;
+    public static final int STDERR_TAIL_CHARS = 512;
+
+    public SlowRequestLog() {
+        super("SlowRequestLog", "wss-slow-request-log", QUEUE_SIZE, BATCH_SIZE);
+    }
+
+    /**
+     * One slow request, times are in nanoseconds, -1 when not known.
+     */
+    public static class Record {
+        public String endpointName;
+        public String traceId;
+        public String clientIp;
+        public String requestUrl;
+        public long thresholdMsec;
+        public long totalNanos;
+        public long spawnNanos = -1;
+        public long firstByteNanos = -1;
+        public long streamingNanos = -1;
+        // waiting on the handler's stdout
+        public long blockedOnHandlerNanos = -1;
+        // waiting on writes to the client
+        public long blockedOnClientNanos = -1;
+        // neither of the above
+        public long processingNanos = -1;
+        // null when not streamed
+        public StreamTiming.Bound bound;
+        public int handlerExitCode;
+        public long bytes;
+        // at most STDERR_TAIL_CHARS, may be null
+        public String stderrTail;
+    }
+
+    @Override
+    protected void write(Record record) {
+        slowLogger.info(format(record));
+    }
+
+    public static String format(Record record) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("slow request  endpoint: ").append(record.endpointName);
+        sb.append("  totalMsec: ").append(toMsec(record.totalNanos));
+        sb.append("  thresholdMsec: ").append(record.thresholdMsec);
+        sb.append("  spawnMsec: ").append(toMsec(record.spawnNanos));
+        sb.append("  firstByteMsec: ").append(toMsec(record.firstByteNanos));
+        sb.append("  streamingMsec: ").append(toMsec(record.streamingNanos));
+        sb.append("  blockedOnHandlerMsec: ")
+              .append(toMsec(record.blockedOnHandlerNanos));
+        sb.append("  blockedOnClientMsec: ")
+              .append(toMsec(record.blockedOnClientNanos));
+        sb.append("  processingMsec: ").append(toMsec(record.processingNanos));
+        sb.append("  bound: ").append(record.bound == null ? "-" : record.bound);
+        sb.append("  handlerExitCode: ").append(record.handlerExitCode);
+        sb.append("  bytes: ").append(record.bytes);
+        sb.append("  clientIp: ").append(record.clientIp);
+        sb.append("  traceId: ").append(record.traceId);
+        sb.append("  url: ").append(record.requestUrl);
+
+        String tail = record.stderrTail == null ? "" : record.stderrTail;
+        sb.append("  stderrTail: ")
+              .append(tail.trim().replace("\r", "").replace("\n", " | "));
+        return sb.toString();
+    }
+
+    private static String toMsec(long nanos) {
+        if (nanos < 0) {
+            return "-";
+        }
+        return String.format(Locale.ROOT, "%.3f", nanos / 1.0e6);
+    }
+}
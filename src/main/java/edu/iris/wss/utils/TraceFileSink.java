@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import org.apache.log4j.Logger;
+
+/**
+ * Appends request traces, one JSON object per line, to the file named by
+ * the traceFile parameter.
+ *
+ * Request threads only queue the line, a writer thread appends it to the
+ * file. When the queue is full the line is dropped and counted, tracing
+ * should never slow a request. The file is opened in append mode, so it
+ * may be rotated with copytruncate.
+ */
+public class TraceFileSink extends BoundedAsyncWriter<String> {
+    public static final Logger logger = Logger.getLogger(TraceFileSink.class);
+
+    public static final int QUEUE_SIZE = 8192;
+    public static final int BATCH_SIZE = 256;
+
+    private final File file;
+    private Writer writer = null;
+
+    public TraceFileSink(File file) {
+        super("TraceFileSink", "wss-trace-writer", QUEUE_SIZE, BATCH_SIZE);
+        this.file = file;
+    }
+
+    @Override
+    protected void open() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create trace file directory: "
+                  + parent.getAbsolutePath());
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(
+              new FileOutputStream(file, true), StandardCharsets.UTF_8),
+              64 * 1024);
+        logger.info("TraceFileSink started, file: " + file.getAbsolutePath());
+    }
+
+    @Override
+    protected void write(String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    protected void close() throws IOException {
+        writer.close();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "file: " + file + "  " + super.toString();
+    }
+}
@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of usage log files written by UsageFileWriter.
+ *
+ * A file starts with MAGIC and FORMAT_VERSION, then a sequence of
+ * records, each one a varint length followed by that many bytes. The
+ * first byte of a record is its type,
+ *   DICTIONARY_RECORD - varint id, then a string, defines the value of
+ *                       id for the rest of the file
+ *   USAGE_RECORD      - one WSUsageItem
+ *
+ * In a usage record, the fields are in the order of
+ * LoggerUtils.getUsageLogHeader. Application, host, client name,
+ * user agent, user, error type, extra and message type are dictionary
+ * encoded, a varint of 0 is null, 1 is followed by an inline string and
+ * other values are dictionary ids. Other strings are a varint of length
+ * plus one, 0 for null, then UTF-8 bytes. Numbers and dates (milliseconds)
+ * are zigzag varints plus one, 0 for null.
+ *
+ * The dictionary starts empty in each file and holds at most
+ * MAX_DICTIONARY_SIZE strings, later values are written inline.
+ */
+public class UsageBinaryFormat {
+
+    public static final byte[] MAGIC = {'W', 'S', 'S', 'U'};
+    public static final byte FORMAT_VERSION = 1;
+
+    public static final byte DICTIONARY_RECORD = 1;
+    public static final byte USAGE_RECORD = 2;
+
+    public static final int MAX_DICTIONARY_SIZE = 65536;
+    // longer strings are not put in the dictionary
+    public static final int MAX_DICTIONARY_STRING = 512;
+
+    private static final int INLINE = 1;
+    private static final int FIRST_ID = 2;
+
+    private UsageBinaryFormat() {
+    }
+
+    /**
+     * Encodes records for one file, not thread safe.
+     */
+    public static class Encoder {
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private ByteBuffer record = ByteBuffer.allocate(1024);
+        private ByteBuffer dictRecord = ByteBuffer.allocate(1024);
+        private ByteBuffer out = ByteBuffer.allocate(2048);
+
+        public static void writeFileHeader(ByteBuffer out) {
+            out.put(MAGIC);
+            out.put(FORMAT_VERSION);
+        }
+
+        public static int fileHeaderLength() {
+            return MAGIC.length + 1;
+        }
+
+        /**
+         * Forget the dictionary, must be done when a new file is started.
+         */
+        public void reset() {
+            dictionary.clear();
+        }
+
+        /**
+         * Encode one item, including any new dictionary records, into
+         * the returned buffer, which is flipped and ready to be read. The
+         * buffer is reused by the next call.
+         */
+        public ByteBuffer encode(WSUsageItem wsu) {
+            while (true) {
+                record.clear();
+                dictRecord.clear();
+                int dictionarySize = dictionary.size();
+                try {
+                    record.put(USAGE_RECORD);
+                    putDictString(wsu.getApplication());
+                    putDictString(wsu.getHost());
+                    putNullableLong(record, dateToLong(wsu.getAccessDate()));
+                    putDictString(wsu.getClientName());
+                    putString(record, wsu.getClientIp());
+                    putNullableLong(record, wsu.getDataSize());
+                    putNullableLong(record, wsu.getProcessTimeMsec());
+
+                    putDictString(wsu.getErrorType());
+                    putDictString(wsu.getUserAgent());
+                    putNullableLong(record, wsu.getHttpCode() == null ? null
+                          : Long.valueOf(wsu.getHttpCode()));
+                    putDictString(wsu.getUserName());
+
+                    putString(record, wsu.getNetwork());
+                    putString(record, wsu.getStation());
+                    putString(record, wsu.getLocation());
+                    putString(record, wsu.getChannel());
+                    putString(record, wsu.getQuality());
+                    putNullableLong(record, dateToLong(wsu.getStartTime()));
+                    putNullableLong(record, dateToLong(wsu.getEndTime()));
+                    putDictString(wsu.getExtra());
+                    putDictString(wsu.getMessagetype());
+                } catch (java.nio.BufferOverflowException ex) {
+                    // undo dictionary entries from this attempt and retry
+                    // with larger buffers
+                    if (dictionary.size() > dictionarySize) {
+                        List<String> added = new ArrayList<>();
+                        for (Map.Entry<String, Integer> entry
+                              : dictionary.entrySet()) {
+                            if (entry.getValue() >= FIRST_ID + dictionarySize) {
+                                added.add(entry.getKey());
+                            }
+                        }
+                        for (String key : added) {
+                            dictionary.remove(key);
+                        }
+                    }
+                    record = ByteBuffer.allocate(record.capacity() * 2);
+                    dictRecord = ByteBuffer.allocate(dictRecord.capacity() * 2);
+                    continue;
+                }
+                break;
+            }
+
+            record.flip();
+            int needed = dictRecord.position() + 5 + record.remaining();
+            if (out.capacity() < needed) {
+                out = ByteBuffer.allocate(Math.max(needed, out.capacity() * 2));
+            }
+            out.clear();
+            dictRecord.flip();
+            out.put(dictRecord);
+            putVarint(out, record.remaining());
+            out.put(record);
+            out.flip();
+            return out;
+        }
+
+        private void putDictString(String s) {
+            if (s == null) {
+                putVarint(record, 0);
+                return;
+            }
+            Integer id = dictionary.get(s);
+            if (id == null && dictionary.size() < MAX_DICTIONARY_SIZE
+                  && s.length() <= MAX_DICTIONARY_STRING) {
+                id = FIRST_ID + dictionary.size();
+                dictionary.put(s, id);
+
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                int length = 1 + varintSize(id) + varintSize(bytes.length + 1)
+                      + bytes.length;
+                putVarint(dictRecord, length);
+                dictRecord.put(DICTIONARY_RECORD);
+                putVarint(dictRecord, id);
+                putVarint(dictRecord, bytes.length + 1);
+                dictRecord.put(bytes);
+            }
+            if (id == null) {
+                putVarint(record, INLINE);
+                putString(record, s);
+            } else {
+                putVarint(record, id);
+            }
+        }
+    }
+
+    /**
+     * Reads one file, not thread safe.
+     */
+    public static class Decoder {
+        private final InputStream in;
+        private final List<String> dictionary = new ArrayList<>();
+        private byte[] recordBytes = new byte[1024];
+
+        public Decoder(InputStream in) throws IOException {
+            this.in = in;
+            byte[] header = new byte[MAGIC.length + 1];
+            readFully(header, header.length);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header[i] != MAGIC[i]) {
+                    throw new IOException("Not a binary usage log file");
+                }
+            }
+            if (header[MAGIC.length] != FORMAT_VERSION) {
+                throw new IOException("Unsupported binary usage log version: "
+                      + header[MAGIC.length]);
+            }
+        }
+
+        /**
+         * @return - the next usage item, or null at the end of the file
+         */
+        public WSUsageItem next() throws IOException {
+            while (true) {
+                int length = readVarint(in);
+                if (length < 0) {
+                    return null;
+                }
+                if (length > recordBytes.length) {
+                    recordBytes = new byte[Math.max(length, recordBytes.length * 2)];
+                }
+                readFully(recordBytes, length);
+                ByteBuffer buf = ByteBuffer.wrap(recordBytes, 0, length);
+                byte type = buf.get();
+                if (type == DICTIONARY_RECORD) {
+                    int id = getVarint(buf);
+                    String value = getString(buf);
+                    if (id != FIRST_ID + dictionary.size()) {
+                        throw new IOException("Unexpected dictionary id: " + id
+                              + "  expected: " + (FIRST_ID + dictionary.size()));
+                    }
+                    dictionary.add(value);
+                } else if (type == USAGE_RECORD) {
+                    return readUsage(buf);
+                } else {
+                    throw new IOException("Unknown record type: " + type);
+                }
+            }
+        }
+
+        private WSUsageItem readUsage(ByteBuffer buf) throws IOException {
+            WSUsageItem wsu = new WSUsageItem();
+            wsu.setApplication(     getDictString(buf));
+            wsu.setHost(            getDictString(buf));
+            wsu.setAccessDate(      longToDate(getNullableLong(buf)));
+            wsu.setClientName(      getDictString(buf));
+            wsu.setClientIp(        getString(buf));
+            wsu.setDataSize(        getNullableLong(buf));
+            wsu.setProcessTimeMsec( getNullableLong(buf));
+
+            wsu.setErrorType(       getDictString(buf));
+            wsu.setUserAgent(       getDictString(buf));
+            Long httpCode = getNullableLong(buf);
+            wsu.setHttpCode(        httpCode == null ? null : httpCode.intValue());
+            wsu.setUserName(        getDictString(buf));
+
+            wsu.setNetwork(         getString(buf));
+            wsu.setStation(         getString(buf));
+            wsu.setLocation(        getString(buf));
+            wsu.setChannel(         getString(buf));
+            wsu.setQuality(         getString(buf));
+            wsu.setStartTime(       longToDate(getNullableLong(buf)));
+            wsu.setEndTime(         longToDate(getNullableLong(buf)));
+            wsu.setExtra(           getDictString(buf));
+            wsu.setMessagetype(     getDictString(buf));
+            return wsu;
+        }
+
+        private String getDictString(ByteBuffer buf) throws IOException {
+            int id = getVarint(buf);
+            if (id == 0) {
+                return null;
+            } else if (id == INLINE) {
+                return getString(buf);
+            }
+            int index = id - FIRST_ID;
+            if (index >= dictionary.size()) {
+                throw new IOException("Undefined dictionary id: " + id);
+            }
+            return dictionary.get(index);
+        }
+
+        private void readFully(byte[] bytes, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                int count = in.read(bytes, offset, length - offset);
+                if (count < 0) {
+                    throw new EOFException("Truncated binary usage log");
+                }
+                offset += count;
+            }
+        }
+    }
+
+    static Long dateToLong(Date date) {
+        return date == null ? null : date.getTime();
+    }
+
+    static Date longToDate(Long value) {
+        return value == null ? null : new Date(value);
+    }
+
+    static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            putVarint(out, 0);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putVarint(out, bytes.length + 1);
+            out.put(bytes);
+        }
+    }
+
+    static String getString(ByteBuffer buf) {
+        int length = getVarint(buf);
+        if (length == 0) {
+            return null;
+        }
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(),
+              length - 1, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length - 1);
+        return s;
+    }
+
+    static void putNullableLong(ByteBuffer out, Long value) {
+        if (value == null) {
+            putVarlong(out, 0);
+        } else {
+            long v = value;
+            putVarlong(out, ((v << 1) ^ (v >> 63)) + 1);
+        }
+    }
+
+    static Long getNullableLong(ByteBuffer buf) {
+        long v = getVarlong(buf);
+        if (v == 0) {
+            return null;
+        }
+        v = v - 1;
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        putVarlong(out, value & 0xFFFFFFFFL);
+    }
+
+    static void putVarlong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buf) {
+        return (int) getVarlong(buf);
+    }
+
+    static long getVarlong(ByteBuffer buf) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * @return - -1 at end of stream before the first byte
+     */
+    static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("Truncated binary usage log");
+            }
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
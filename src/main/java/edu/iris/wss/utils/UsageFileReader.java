@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts binary usage log files, as written by UsageFileWriter, to the
+ * text usage log format, i.e. LoggerUtils.makeUsageLogString lines.
+ *
+ * usage: java -cp webserviceshell.jar edu.iris.wss.utils.UsageFileReader
+ *            [-noheader] file.bin ...
+ *
+ * The header line is written once, followed by the records of each
+ * file in the order given.
+ */
+public class UsageFileReader {
+
+    private UsageFileReader() {
+    }
+
+    /**
+     * @return - number of records written
+     */
+    public static long convert(InputStream in, Writer out) throws IOException {
+        UsageBinaryFormat.Decoder decoder = new UsageBinaryFormat.Decoder(in);
+        UsageLogFormatter formatter = new UsageLogFormatter();
+        long count = 0;
+        WSUsageItem wsu;
+        while ((wsu = decoder.next()) != null) {
+            StringBuilder sb = formatter.format(wsu);
+            sb.append('\n');
+            out.append(sb);
+            count++;
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean isHeader = true;
+        int first = 0;
+        if (args.length > 0 && args[0].equals("-noheader")) {
+            isHeader = false;
+            first = 1;
+        }
+        if (args.length <= first) {
+            System.err.println("usage: " + UsageFileReader.class.getName()
+                  + " [-noheader] file.bin ...");
+            System.exit(1);
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out,
+              StandardCharsets.UTF_8), 64 * 1024);
+        if (isHeader) {
+            out.append(LoggerUtils.getUsageLogHeader()).append('\n');
+        }
+        for (int i = first; i < args.length; i++) {
+            try (InputStream in = new BufferedInputStream(
+                  new FileInputStream(args[i]), 64 * 1024)) {
+                convert(in, out);
+            } catch (IOException ex) {
+                out.flush();
+                System.err.println("Error reading: " + args[i] + "  ex: " + ex);
+                System.exit(2);
+            }
+        }
+        out.flush();
+    }
+}
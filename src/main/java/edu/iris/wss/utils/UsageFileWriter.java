@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import edu.iris.wss.framework.AppConfigurator.UsageFileFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes usage messages to local files, for loggingMethod FILE, the
+ * directory is the value of loggingConfig.
+ *
+ * Records are encoded into an in memory buffer, which is written with a
+ * FileChannel when it is full or when the sync thread runs. The sync
+ * thread runs every syncMsec, writes the buffer and does one fsync for
+ * all records written since the last one, i.e. a record may be lost if
+ * the host fails within syncMsec of the record being written.
+ *
+ * A new file is started each UTC day and when a file is larger than
+ * maxFileBytes, files are named
+ *   [appName]_usage_[yyyyMMdd]_[nnn].log for TEXT
+ *   [appName]_usage_[yyyyMMdd]_[nnn].bin for BINARY
+ *
+ * TEXT files have the same lines as the log4j usage logger, with
+ * LoggerUtils.getUsageLogHeader as the first line. BINARY files use
+ * UsageBinaryFormat, UsageFileReader converts them to text.
+ */
+public class UsageFileWriter {
+    public static final Logger logger = Logger.getLogger(UsageFileWriter.class);
+
+    public static final String TEXT_SUFFIX = ".log";
+    public static final String BINARY_SUFFIX = ".bin";
+    public static final int BUFFER_BYTES = 1024 * 1024;
+
+    private static final long MSEC_PER_DAY = 86400L * 1000L;
+
+    private final File directory;
+    private final String baseName;
+    private final UsageFileFormat format;
+    private final long maxFileBytes;
+    private final long syncMsec;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final UsageLogFormatter formatter = new UsageLogFormatter();
+    private final CharsetEncoder textEncoder = StandardCharsets.UTF_8.newEncoder();
+    private final UsageBinaryFormat.Encoder binaryEncoder =
+          new UsageBinaryFormat.Encoder();
+
+    private FileChannel channel = null;
+    private File currentFile = null;
+    private long currentFileBytes = 0;
+    private long currentDay = Long.MIN_VALUE;
+    private boolean isUnsynced = false;
+
+    private final AtomicLong records = new AtomicLong(0);
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+    private final AtomicLong syncs = new AtomicLong(0);
+    private final AtomicLong filesStarted = new AtomicLong(0);
+
+    private volatile boolean isRunning = false;
+    private Thread syncThread = null;
+
+    public UsageFileWriter(File directory, String baseName,
+          UsageFileFormat format, long maxFileBytes, long syncMsec) {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.format = format;
+        this.maxFileBytes = maxFileBytes;
+        this.syncMsec = Math.max(syncMsec, 1);
+    }
+
+    public synchronized void start() throws IOException {
+        if (isRunning) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create usage file directory: "
+                  + directory.getAbsolutePath());
+        }
+
+        lock.lock();
+        try {
+            startFile(System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+
+        isRunning = true;
+        syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                syncLoop();
+            }
+        }, "wss-usage-file-sync-" + baseName);
+        syncThread.setDaemon(true);
+        syncThread.start();
+
+        logger.info("UsageFileWriter started, file: " + currentFile
+              + "  format: " + format + "  syncMsec: " + syncMsec);
+    }
+
+    /**
+     * Write and fsync anything buffered and close the current file.
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (!isRunning) {
+                return;
+            }
+            isRunning = false;
+            thread = syncThread;
+            syncThread = null;
+            // not interrupt, that would close the channel during a force
+            notifyAll();
+        }
+        try {
+            thread.join(UsagePublisher.STOP_WAIT_MSEC);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        lock.lock();
+        try {
+            closeFile();
+        } catch (IOException ex) {
+            logger.error("UsageFileWriter error closing: " + currentFile
+                  + "  ex: " + ex);
+        } finally {
+            lock.unlock();
+        }
+        logger.info("UsageFileWriter closed, " + toString());
+    }
+
+    /**
+     * Add one record to the buffer, file IO only happens here when the
+     * buffer is full or a new file is started.
+     */
+    public void write(WSUsageItem wsu) throws IOException {
+        lock.lock();
+        try {
+            if (channel == null) {
+                throw new IOException("UsageFileWriter is not open");
+            }
+
+            long now = System.currentTimeMillis();
+            if (Math.floorDiv(now, MSEC_PER_DAY) != currentDay
+                  || currentFileBytes + buffer.position() >= maxFileBytes) {
+                closeFile();
+                startFile(now);
+            }
+
+            if (format == UsageFileFormat.BINARY) {
+                put(binaryEncoder.encode(wsu));
+            } else {
+                StringBuilder sb = formatter.format(wsu);
+                sb.append('\n');
+                putText(sb);
+            }
+            records.incrementAndGet();
+            isUnsynced = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the buffer and fsync, the fsync is done without holding the
+     * lock so writers are not held up by the disk.
+     */
+    public void sync() throws IOException {
+        FileChannel toSync;
+        lock.lock();
+        try {
+            if (!isUnsynced || channel == null) {
+                return;
+            }
+            writeBuffer();
+            isUnsynced = false;
+            toSync = channel;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            toSync.force(false);
+            syncs.incrementAndGet();
+        } catch (java.nio.channels.ClosedChannelException ex) {
+            // file was rotated or closed, which includes a force
+        }
+    }
+
+    private void syncLoop() {
+        while (isRunning) {
+            try {
+                synchronized (this) {
+                    if (isRunning) {
+                        wait(syncMsec);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                break;
+            }
+            try {
+                sync();
+            } catch (Throwable th) {
+                logger.error("UsageFileWriter sync error, file: " + currentFile
+                      + "  ex: " + th);
+            }
+        }
+    }
+
+    private void put(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+            }
+            int count = Math.min(src.remaining(), buffer.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + count);
+            buffer.put(src);
+            src.limit(limit);
+        }
+    }
+
+    private void putText(CharSequence text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        textEncoder.reset();
+        while (true) {
+            CoderResult result = textEncoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                writeBuffer();
+            } else {
+                break;
+            }
+        }
+        while (textEncoder.flush(buffer).isOverflow()) {
+            writeBuffer();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            int count = channel.write(buffer);
+            currentFileBytes += count;
+            bytesWritten.addAndGet(count);
+        }
+        buffer.clear();
+    }
+
+    private void closeFile() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            writeBuffer();
+            channel.force(false);
+            syncs.incrementAndGet();
+            isUnsynced = false;
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void startFile(long now) throws IOException {
+        long day = Math.floorDiv(now, MSEC_PER_DAY);
+        char[] iso = new char[20];
+        UsageLogFormatter.writeIsoDate(day * 86400L, iso);
+        String yyyyMMdd = new String(iso, 0, 4) + new String(iso, 5, 2)
+              + new String(iso, 8, 2);
+        String suffix = format == UsageFileFormat.BINARY ? BINARY_SUFFIX
+              : TEXT_SUFFIX;
+
+        // always a new file, a binary file can not be continued since its
+        // dictionary is not known
+        File file;
+        int sequence = 0;
+        do {
+            sequence++;
+            file = new File(directory, String.format("%s_usage_%s_%03d%s",
+                  baseName, yyyyMMdd, sequence, suffix));
+        } while (file.exists());
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.WRITE);
+        currentFile = file;
+        currentFileBytes = 0;
+        currentDay = day;
+        buffer.clear();
+
+        if (format == UsageFileFormat.BINARY) {
+            binaryEncoder.reset();
+            UsageBinaryFormat.Encoder.writeFileHeader(buffer);
+        } else {
+            putText(LoggerUtils.getUsageLogHeader() + "\n");
+        }
+        filesStarted.incrementAndGet();
+    }
+
+    public File getCurrentFile() {
+        lock.lock();
+        try {
+            return currentFile;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRecordCount() {
+        return records.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    public long getFilesStarted() {
+        return filesStarted.get();
+    }
+
+    @Override
+    public String toString() {
+        return "file: " + currentFile
+              + "  records: " + records.get()
+              + "  bytes written: " + bytesWritten.get()
+              + "  syncs: " + syncs.get()
+              + "  files: " + filesStarted.get();
+    }
+}
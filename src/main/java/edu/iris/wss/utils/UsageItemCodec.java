@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import org.apache.log4j.Level;
+
+/**
+ * Binary form of one usage message, i.e. a WSUsageItem plus the log level
+ * and the older JMS application name, as needed to publish it later.
+ *
+ * Layout, all values are written with DataOutput,
+ *   byte   - FORMAT_VERSION
+ *   int    - log4j level
+ *   then, in the order of LoggerUtils.getUsageLogHeader, each String
+ *   as a presence byte and writeUTF, each Long, Integer and Date as a
+ *   presence byte and long or int value, Dates as milliseconds
+ *   then message type and JMS application name as Strings
+ *
+ * Strings longer than MAX_STRING_CHARS are truncated.
+ */
+public class UsageItemCodec {
+
+    public static final byte FORMAT_VERSION = 1;
+
+    // longer Strings are truncated, writeUTF is limited to 64K bytes
+    public static final int MAX_STRING_CHARS = 8192;
+
+    /**
+     * A decoded usage message.
+     */
+    public static class UsageRecord {
+        public final Level level;
+        public final WSUsageItem item;
+        public final String jmsAppName;
+
+        public UsageRecord(Level level, WSUsageItem item, String jmsAppName) {
+            this.level = level;
+            this.item = item;
+            this.jmsAppName = jmsAppName;
+        }
+    }
+
+    // reused per thread to avoid a stream allocation per message
+    private static final ThreadLocal<ByteArrayOutputStream> perThreadBytes =
+          new ThreadLocal<ByteArrayOutputStream>() {
+        @Override
+        protected ByteArrayOutputStream initialValue() {
+            return new ByteArrayOutputStream(512);
+        }
+    };
+
+    private UsageItemCodec() {
+    }
+
+    public static byte[] encode(Level level, WSUsageItem wsu,
+          String jmsAppName) throws IOException {
+        ByteArrayOutputStream baos = perThreadBytes.get();
+        baos.reset();
+        write(new DataOutputStream(baos), level, wsu, jmsAppName);
+        return baos.toByteArray();
+    }
+
+    public static UsageRecord decode(byte[] bytes) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    public static void write(DataOutput out, Level level, WSUsageItem wsu,
+          String jmsAppName) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(level == null ? Level.INFO.toInt() : level.toInt());
+
+        writeString(out, wsu.getApplication());
+        writeString(out, wsu.getHost());
+        writeDate(out, wsu.getAccessDate());
+        writeString(out, wsu.getClientName());
+        writeString(out, wsu.getClientIp());
+        writeLong(out, wsu.getDataSize());
+        writeLong(out, wsu.getProcessTimeMsec());
+
+        writeString(out, wsu.getErrorType());
+        writeString(out, wsu.getUserAgent());
+        writeInteger(out, wsu.getHttpCode());
+        writeString(out, wsu.getUserName());
+
+        writeString(out, wsu.getNetwork());
+        writeString(out, wsu.getStation());
+        writeString(out, wsu.getLocation());
+        writeString(out, wsu.getChannel());
+        writeString(out, wsu.getQuality());
+        writeDate(out, wsu.getStartTime());
+        writeDate(out, wsu.getEndTime());
+        writeString(out, wsu.getExtra());
+
+        writeString(out, wsu.getMessagetype());
+        writeString(out, jmsAppName);
+    }
+
+    public static UsageRecord read(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported usage item format version: "
+                  + version + "  expected: " + FORMAT_VERSION);
+        }
+        Level level = Level.toLevel(in.readInt(), Level.INFO);
+
+        WSUsageItem wsu = new WSUsageItem();
+        wsu.setApplication(     readString(in));
+        wsu.setHost(            readString(in));
+        wsu.setAccessDate(      readDate(in));
+        wsu.setClientName(      readString(in));
+        wsu.setClientIp(        readString(in));
+        wsu.setDataSize(        readLong(in));
+        wsu.setProcessTimeMsec( readLong(in));
+
+        wsu.setErrorType(       readString(in));
+        wsu.setUserAgent(       readString(in));
+        wsu.setHttpCode(        readInteger(in));
+        wsu.setUserName(        readString(in));
+
+        wsu.setNetwork(         readString(in));
+        wsu.setStation(         readString(in));
+        wsu.setLocation(        readString(in));
+        wsu.setChannel(         readString(in));
+        wsu.setQuality(         readString(in));
+        wsu.setStartTime(       readDate(in));
+        wsu.setEndTime(         readDate(in));
+        wsu.setExtra(           readString(in));
+
+        wsu.setMessagetype(     readString(in));
+        String jmsAppName = readString(in);
+
+        return new UsageRecord(level, wsu, jmsAppName);
+    }
+
+    private static void writeString(DataOutput out, String s)
+          throws IOException {
+        if (s == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeUTF(s.length() > MAX_STRING_CHARS
+                  ? s.substring(0, MAX_STRING_CHARS) : s);
+        }
+    }
+
+    private static void writeLong(DataOutput out, Long value)
+          throws IOException {
+        if (value == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeLong(value);
+        }
+    }
+
+    private static void writeInteger(DataOutput out, Integer value)
+          throws IOException {
+        if (value == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeDate(DataOutput out, Date date)
+          throws IOException {
+        if (date == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeLong(date.getTime());
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static Long readLong(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static Integer readInteger(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static Date readDate(DataInput in) throws IOException {
+        return in.readBoolean() ? new Date(in.readLong()) : null;
+    }
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import java.util.Date;
+
+/**
+ * Writes the pipe delimited usage log format, see
+ * LoggerUtils.getUsageLogHeader for the field order.
+ *
+ * Use one object per thread, e.g. from get(), the line is written into a
+ * reused StringBuilder, numbers are appended without boxing and dates
+ * are written as yyyy-MM-dd'T'HH:mm:ss'Z' without a date formatter.
+ * The last rendered second is cached for each date field, since
+ * wfstat messages from one request repeat the same access date.
+ *
+ * Not thread safe.
+ */
+public class UsageLogFormatter {
+
+    public static final int INITIAL_CAPACITY = 512;
+    private static final int ISO_DATE_LENGTH = 20;
+    private static final char DELIMITER = '|';
+
+    private static final ThreadLocal<UsageLogFormatter> perThread =
+          new ThreadLocal<UsageLogFormatter>() {
+        @Override
+        protected UsageLogFormatter initialValue() {
+            return new UsageLogFormatter();
+        }
+    };
+
+    private final StringBuilder sb = new StringBuilder(INITIAL_CAPACITY);
+
+    private final DateCache accessDateCache = new DateCache();
+    private final DateCache startTimeCache = new DateCache();
+    private final DateCache endTimeCache = new DateCache();
+
+    private static class DateCache {
+        long epochSecond = Long.MIN_VALUE;
+        final char[] chars = new char[ISO_DATE_LENGTH];
+    }
+
+    public UsageLogFormatter() {
+    }
+
+    /**
+     * @return - the formatter for the current thread
+     */
+    public static UsageLogFormatter get() {
+        return perThread.get();
+    }
+
+    /**
+     * Format into this object's buffer, the returned builder is reused
+     * by the next call to format.
+     */
+    public StringBuilder format(WSUsageItem wsu) {
+        sb.setLength(0);
+        appendTo(sb, wsu);
+        return sb;
+    }
+
+    public String formatToString(WSUsageItem wsu) {
+        return format(wsu).toString();
+    }
+
+    /**
+     * Append one usage line to the given builder, without a line ending.
+     */
+    public void appendTo(StringBuilder out, WSUsageItem wsu) {
+        // note, keep in the same order as LoggerUtils.getUsageLogHeader
+        append(out, wsu.getApplication());
+        append(out, wsu.getHost());
+        appendDate(out, wsu.getAccessDate(), accessDateCache);
+        append(out, wsu.getClientName());
+        append(out, wsu.getClientIp());
+        append(out, wsu.getDataSize());
+        append(out, wsu.getProcessTimeMsec());
+
+        append(out, wsu.getErrorType());
+        append(out, wsu.getUserAgent());
+        append(out, wsu.getHttpCode());
+        append(out, wsu.getUserName());
+
+        append(out, wsu.getNetwork());
+        append(out, wsu.getStation());
+        append(out, wsu.getLocation());
+        append(out, wsu.getChannel());
+        append(out, wsu.getQuality());
+        appendDate(out, wsu.getStartTime(), startTimeCache);
+        appendDate(out, wsu.getEndTime(), endTimeCache);
+        append(out, wsu.getExtra());
+
+        // on last one, leave off the delimiter
+        String messageType = wsu.getMessagetype();
+        if (messageType != null) {
+            out.append(messageType);
+        }
+    }
+
+    private static void append(StringBuilder out, String s) {
+        if (s != null) {
+            out.append(s);
+        }
+        out.append(DELIMITER);
+    }
+
+    private static void append(StringBuilder out, Long value) {
+        if (value != null) {
+            out.append(value.longValue());
+        }
+        out.append(DELIMITER);
+    }
+
+    private static void append(StringBuilder out, Integer value) {
+        if (value != null) {
+            out.append(value.intValue());
+        }
+        out.append(DELIMITER);
+    }
+
+    private static void appendDate(StringBuilder out, Date date,
+          DateCache cache) {
+        if (date != null) {
+            long epochSecond = Math.floorDiv(date.getTime(), 1000L);
+            if (epochSecond != cache.epochSecond) {
+                writeIsoDate(epochSecond, cache.chars);
+                cache.epochSecond = epochSecond;
+            }
+            out.append(cache.chars, 0, ISO_DATE_LENGTH);
+        }
+        out.append(DELIMITER);
+    }
+
+    /**
+     * Write yyyy-MM-ddTHH:mm:ssZ for UTC, the civil date conversion is
+     * the days from epoch algorithm used by java.time.LocalDate.
+     */
+    static void writeIsoDate(long epochSecond, char[] chars) {
+        long epochDay = Math.floorDiv(epochSecond, 86400L);
+        int secondOfDay = (int) Math.floorMod(epochSecond, 86400L);
+
+        long zeroDay = epochDay + 719528L - 60L;
+        long adjust = 0;
+        if (zeroDay < 0) {
+            long adjustCycles = (zeroDay + 1) / 146097L - 1;
+            adjust = adjustCycles * 400;
+            zeroDay += -adjustCycles * 146097L;
+        }
+        long yearEst = (400 * zeroDay + 591) / 146097L;
+        long doyEst = zeroDay - (365 * yearEst + yearEst / 4
+              - yearEst / 100 + yearEst / 400);
+        if (doyEst < 0) {
+            yearEst--;
+            doyEst = zeroDay - (365 * yearEst + yearEst / 4
+                  - yearEst / 100 + yearEst / 400);
+        }
+        yearEst += adjust;
+        int marchDoy0 = (int) doyEst;
+        int marchMonth0 = (marchDoy0 * 5 + 2) / 153;
+        int month = (marchMonth0 + 2) % 12 + 1;
+        int day = marchDoy0 - (marchMonth0 * 306 + 5) / 10 + 1;
+        int year = (int) (yearEst + marchMonth0 / 10);
+
+        int hour = secondOfDay / 3600;
+        int minute = (secondOfDay / 60) % 60;
+        int second = secondOfDay % 60;
+
+        chars[0] = (char) ('0' + (year / 1000) % 10);
+        chars[1] = (char) ('0' + (year / 100) % 10);
+        chars[2] = (char) ('0' + (year / 10) % 10);
+        chars[3] = (char) ('0' + year % 10);
+        chars[4] = '-';
+        writeTwoDigits(chars, 5, month);
+        chars[7] = '-';
+        writeTwoDigits(chars, 8, day);
+        chars[10] = 'T';
+        writeTwoDigits(chars, 11, hour);
+        chars[13] = ':';
+        writeTwoDigits(chars, 14, minute);
+        chars[16] = ':';
+        writeTwoDigits(chars, 17, second);
+        chars[19] = 'Z';
+    }
+
+    private static void writeTwoDigits(char[] chars, int offset, int value) {
+        chars[offset] = (char) ('0' + value / 10);
+        chars[offset + 1] = (char) ('0' + value % 10);
+    }
+}
@@ -0,0 +1,501 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import edu.iris.wss.framework.AppConfigurator.LoggingMethod;
+import edu.iris.wss.framework.AppConfigurator.UsageOverflowPolicy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Moves publishing of usage and wfstat messages off of the request thread.
+ *
+ * Request threads put items into a fixed size ring buffer, the slots are
+ * allocated once when this object is created. One publisher thread
+ * drains the ring in batches of up to BATCH_SIZE items, taking the lock
+ * once per batch, and sends each item to the configured logging method.
+ *
+ * When the ring is full, the overflow policy decides what happens,
+ *   BLOCK - the request thread waits for a free slot
+ *   DROP_OLDEST - the oldest queued item is discarded
+ *   SPILL - the item is written to the usage spool if there is one,
+ *           otherwise to the log4j usage logger, on the request thread
+ *
+ * Items which fail to publish are written to the usage spool, if there
+ * is one.
+ *
+ * With holdUntilBackendReady, items are queued but not published until
+ * setBackendReady is called, so startup need not wait for a RabbitMQ or
+ * JMS connection.
+ *
+ * One object is created per WssSingleton, i.e. per web application.
+ */
+public class UsagePublisher {
+    public static final Logger logger = Logger.getLogger(UsagePublisher.class);
+
+    public static final int BATCH_SIZE = 256;
+    public static final long STOP_WAIT_MSEC = 10000;
+
+    private final LoggingMethod loggingMethod;
+    private final UsageOverflowPolicy overflowPolicy;
+    private final UsageSpool usageSpool;
+
+    // preallocated ring buffer, head is the next slot to take, count is
+    // the number of queued items
+    private final Slot[] ring;
+    private int head = 0;
+    private int count = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // only used by the publisher thread
+    private final Level[] batchLevels = new Level[BATCH_SIZE];
+    private final WSUsageItem[] batchItems = new WSUsageItem[BATCH_SIZE];
+    private final String[] batchAppNames = new String[BATCH_SIZE];
+
+    private final AtomicLong queued = new AtomicLong(0);
+    private final AtomicLong published = new AtomicLong(0);
+    // not published directly, i.e. sent to the spool when there is one
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong spilled = new AtomicLong(0);
+    private volatile int highWaterMark = 0;
+
+    private volatile boolean isRunning = false;
+    private Thread publisherThread = null;
+    // false while the logging backend is connecting
+    private volatile boolean isBackendReady = true;
+
+    private static class Slot {
+        Level level;
+        WSUsageItem item;
+        String jmsAppName;
+    }
+
+    public UsagePublisher(LoggingMethod loggingMethod, int capacity,
+          UsageOverflowPolicy overflowPolicy) {
+        this(loggingMethod, capacity, overflowPolicy, null);
+    }
+
+    /**
+     * @param usageSpool - may be null
+     */
+    public UsagePublisher(LoggingMethod loggingMethod, int capacity,
+          UsageOverflowPolicy overflowPolicy, UsageSpool usageSpool) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                  "UsagePublisher capacity must be greater than 0, value: "
+                  + capacity);
+        }
+        this.loggingMethod = loggingMethod;
+        this.overflowPolicy = overflowPolicy;
+        this.usageSpool = usageSpool;
+
+        ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+    }
+
+    public synchronized void start(String appName) {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        publisherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "wss-usage-publisher-" + appName);
+        publisherThread.setDaemon(true);
+        publisherThread.start();
+        logger.info("UsagePublisher started, capacity: " + ring.length
+              + "  overflowPolicy: " + overflowPolicy
+              + "  loggingMethod: " + loggingMethod);
+    }
+
+    /**
+     * Stop the publisher thread after it has sent queued items. If it has
+     * not finished after STOP_WAIT_MSEC it is interrupted and what is still
+     * queued is spilled, i.e. written to the spool when there is one.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!isRunning) {
+                return;
+            }
+            thread = publisherThread;
+            publisherThread = null;
+        }
+
+        lock.lock();
+        try {
+            // under the lock, so an offer either sees it and publishes
+            // directly or has queued its item before the final drain
+            isRunning = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            thread.join(STOP_WAIT_MSEC);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (thread.isAlive()) {
+            logger.warn("UsagePublisher thread did not stop within "
+                  + STOP_WAIT_MSEC + " msec, queued count: " + getQueueDepth());
+            thread.interrupt();
+            int spilledCount = spillQueued();
+            if (spilledCount > 0) {
+                logger.warn("UsagePublisher spilled queued items at stop,"
+                      + " count: " + spilledCount);
+            }
+        } else {
+            // catch items offered while the thread was finishing
+            while (publishBatch() > 0) {
+                // noop
+            }
+        }
+
+        logger.info("UsagePublisher stopped, " + toString());
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * Queue items without publishing them until setBackendReady is
+     * called, call before start.
+     */
+    public void holdUntilBackendReady() {
+        isBackendReady = false;
+    }
+
+    /**
+     * Start publishing, the backend is connected, or connecting failed and
+     * items should go to the spool.
+     */
+    public void setBackendReady() {
+        lock.lock();
+        try {
+            isBackendReady = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isBackendReady() {
+        return isBackendReady;
+    }
+
+    /**
+     * Queue one item for publishing, this does not wait on the logging
+     * backend. It may wait for a free slot when the policy is BLOCK.
+     */
+    public void offer(Level level, WSUsageItem item, String jmsAppName) {
+        if (!isRunning) {
+            publishOne(level, item, jmsAppName);
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (!isRunning) {
+                // stopped since the check above
+                lock.unlock();
+                try {
+                    publishOne(level, item, jmsAppName);
+                } finally {
+                    lock.lock();
+                }
+                return;
+            }
+            if (count == ring.length) {
+                switch (overflowPolicy) {
+                case BLOCK:
+                    while (count == ring.length && isRunning) {
+                        notFull.await();
+                    }
+                    if (!isRunning) {
+                        // stopped while waiting
+                        lock.unlock();
+                        try {
+                            publishOne(level, item, jmsAppName);
+                        } finally {
+                            lock.lock();
+                        }
+                        return;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    Slot oldest = ring[head];
+                    oldest.level = null;
+                    oldest.item = null;
+                    oldest.jmsAppName = null;
+                    head = (head + 1) % ring.length;
+                    count--;
+                    dropped.incrementAndGet();
+                    break;
+                default:
+                    // SPILL
+                    lock.unlock();
+                    try {
+                        spill(level, item, jmsAppName);
+                    } finally {
+                        lock.lock();
+                    }
+                    return;
+                }
+            }
+
+            Slot slot = ring[(head + count) % ring.length];
+            slot.level = level;
+            slot.item = item;
+            slot.jmsAppName = jmsAppName;
+            count++;
+            if (count > highWaterMark) {
+                highWaterMark = count;
+            }
+            queued.incrementAndGet();
+            notEmpty.signal();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainLoop() {
+        while (isRunning) {
+            try {
+                lock.lock();
+                try {
+                    while ((count == 0 || !isBackendReady) && isRunning) {
+                        notEmpty.await(1, TimeUnit.SECONDS);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                publishBatch();
+            } catch (InterruptedException ex) {
+                break;
+            } catch (Throwable th) {
+                // keep the publisher alive
+                logger.error("UsagePublisher unexpected exception: ", th);
+            }
+        }
+
+        // send what is left
+        while (publishBatch() > 0) {
+            // noop
+        }
+    }
+
+    /**
+     * Take up to BATCH_SIZE items from the ring and publish them without
+     * holding the lock.
+     *
+     * @return - number of items taken
+     */
+    private int publishBatch() {
+        int batchCount = 0;
+        lock.lock();
+        try {
+            while (count > 0 && batchCount < BATCH_SIZE) {
+                Slot slot = ring[head];
+                batchLevels[batchCount] = slot.level;
+                batchItems[batchCount] = slot.item;
+                batchAppNames[batchCount] = slot.jmsAppName;
+                slot.level = null;
+                slot.item = null;
+                slot.jmsAppName = null;
+                head = (head + 1) % ring.length;
+                count--;
+                batchCount++;
+            }
+            if (batchCount > 0) {
+                notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (int i = 0; i < batchCount; i++) {
+            publishOne(batchLevels[i], batchItems[i], batchAppNames[i]);
+            batchLevels[i] = null;
+            batchItems[i] = null;
+            batchAppNames[i] = null;
+        }
+
+        return batchCount;
+    }
+
+    /**
+     * Take what is queued and spill it, for when the publisher thread did
+     * not stop.
+     *
+     * @return - number of items spilled
+     */
+    private int spillQueued() {
+        int total = 0;
+        while (true) {
+            Level level;
+            WSUsageItem item;
+            String jmsAppName;
+            lock.lock();
+            try {
+                if (count == 0) {
+                    break;
+                }
+                Slot slot = ring[head];
+                level = slot.level;
+                item = slot.item;
+                jmsAppName = slot.jmsAppName;
+                slot.level = null;
+                slot.item = null;
+                slot.jmsAppName = null;
+                head = (head + 1) % ring.length;
+                count--;
+            } finally {
+                lock.unlock();
+            }
+            spill(level, item, jmsAppName);
+            total++;
+        }
+        return total;
+    }
+
+    private void publishOne(Level level, WSUsageItem item, String jmsAppName) {
+        if (LoggerUtils.publishOrSpool(loggingMethod, usageSpool, level, item,
+              jmsAppName)) {
+            published.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+    }
+
+    private void spill(Level level, WSUsageItem item, String jmsAppName) {
+        if (usageSpool == null
+              || !usageSpool.append(level, item, jmsAppName)) {
+            LoggerUtils.publishUsageItem(LoggingMethod.LOG4J, level, item, null);
+        }
+        spilled.incrementAndGet();
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public UsageOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public long getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    public String toHtmlString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("<TABLE border=2 style='width: 600px'>");
+        sb.append("<col style='width: 30%' />");
+
+        sb.append("<TR><TH colspan=\"2\" >")
+              .append("Usage Publisher")
+              .append("</TH></TR>");
+
+        appendRow(sb, "Logging Method", loggingMethod);
+        appendRow(sb, "Overflow Policy", overflowPolicy);
+        appendRow(sb, "Capacity", ring.length);
+        appendRow(sb, "Queue Depth", getQueueDepth());
+        appendRow(sb, "High Water Mark", highWaterMark);
+        appendRow(sb, "Queued", queued.get());
+        appendRow(sb, "Published", published.get());
+        appendRow(sb, "Failed", failed.get());
+        appendRow(sb, "Dropped", dropped.get());
+        appendRow(sb, "Spilled", spilled.get());
+
+        sb.append("</TABLE>");
+
+        return sb.toString();
+    }
+
+    private static void appendRow(StringBuilder sb, String name, Object value) {
+        sb.append("<TR><TD>").append(name)
+              .append("</TD><TD>").append(value)
+              .append("</TD></TR>");
+    }
+
+    @Override
+    public String toString() {
+        return "capacity: " + ring.length
+              + "  depth: " + getQueueDepth()
+              + "  queued: " + queued.get()
+              + "  published: " + published.get()
+              + "  failed: " + failed.get()
+              + "  dropped: " + dropped.get()
+              + "  spilled: " + spilled.get();
+    }
+}
@@ -0,0 +1,573 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import edu.iris.wss.framework.AppConfigurator.LoggingMethod;
+import edu.iris.wss.utils.UsageItemCodec.UsageRecord;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Local write ahead spool for usage messages which could not be published.
+ *
+ * Messages are appended to memory mapped segment files in a directory,
+ * named usage-spool-NNNNNNNNNNNNNNNN.seg, oldest first. A record is a
+ * four byte length followed by the UsageItemCodec bytes, a length of 0
+ * marks the end of the written part of a segment. When a record has been
+ * published, its length is negated, so replayed records are skipped
+ * after a restart. A segment is deleted when all of its records have
+ * been replayed and it is no longer being written. A segment which is
+ * full is forced to disk by the replayer thread, not by the appender.
+ *
+ * One replayer thread publishes spooled records in order, when publishing
+ * fails it waits, starting at RETRY_MIN_MSEC and doubling to
+ * RETRY_MAX_MSEC, and tries the same record again. After
+ * MAX_REPLAY_ATTEMPTS failures the record is written to the log4j usage
+ * logger instead, counted as dead lettered, and replay moves on.
+ *
+ * New records are refused, and counted as dropped, when the spool would
+ * need more than maxBytes on disk.
+ */
+public class UsageSpool {
+    public static final Logger logger = Logger.getLogger(UsageSpool.class);
+
+    public static final String SEGMENT_PREFIX = "usage-spool-";
+    public static final String SEGMENT_SUFFIX = ".seg";
+    public static final int RECORD_HEADER_BYTES = 4;
+
+    public static final long RETRY_MIN_MSEC = 1000;
+    public static final long RETRY_MAX_MSEC = 30000;
+    public static final int MAX_REPLAY_ATTEMPTS = 8;
+
+    private final File directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final LoggingMethod loggingMethod;
+
+    private volatile long retryMinMsec = RETRY_MIN_MSEC;
+    private volatile long retryMaxMsec = RETRY_MAX_MSEC;
+    private volatile int maxReplayAttempts = MAX_REPLAY_ATTEMPTS;
+
+    // oldest first, the last one is being written
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    // next record to replay in the first segment
+    private int readPosition = 0;
+    private volatile long backlog = 0;
+    // full segments the replayer thread has yet to force to disk
+    private final List<Segment> unforced = new ArrayList<>();
+
+    private final AtomicLong appended = new AtomicLong(0);
+    private final AtomicLong replayed = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong corrupt = new AtomicLong(0);
+    private final AtomicLong replayFailures = new AtomicLong(0);
+    private final AtomicLong deadLettered = new AtomicLong(0);
+
+    private volatile boolean isRunning = false;
+    private Thread replayerThread = null;
+
+    private static class Segment {
+        final long sequence;
+        final File file;
+        final MappedByteBuffer buffer;
+        int writePosition = 0;
+
+        Segment(long sequence, File file, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Pending {
+        final Segment segment;
+        final int position;
+        final int length;
+        final byte[] bytes;
+
+        Pending(Segment segment, int position, int length, byte[] bytes) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.bytes = bytes;
+        }
+    }
+
+    public UsageSpool(File directory, int segmentBytes, long maxBytes,
+          LoggingMethod loggingMethod) {
+        if (segmentBytes < 1024) {
+            throw new IllegalArgumentException(
+                  "UsageSpool segment size must be at least 1024 bytes, value: "
+                  + segmentBytes);
+        }
+        if (maxBytes < segmentBytes) {
+            throw new IllegalArgumentException(
+                  "UsageSpool maximum size: " + maxBytes
+                  + " must be at least the segment size: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.loggingMethod = loggingMethod;
+    }
+
+    /**
+     * For tests, replace the retry wait and attempt limits.
+     */
+    void setReplayRetry(long minMsec, long maxMsec, int maxAttempts) {
+        retryMinMsec = minMsec;
+        retryMaxMsec = maxMsec;
+        maxReplayAttempts = maxAttempts;
+    }
+
+    /**
+     * Open existing segments, or create the first one, and start the
+     * replayer thread.
+     */
+    public synchronized void start(String appName) throws IOException {
+        if (isRunning) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create usage spool directory: "
+                  + directory.getAbsolutePath());
+        }
+
+        recover();
+
+        isRunning = true;
+        replayerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replayLoop();
+            }
+        }, "wss-usage-spool-" + appName);
+        replayerThread.setDaemon(true);
+        replayerThread.start();
+
+        logger.info("UsageSpool started, directory: "
+              + directory.getAbsolutePath() + "  " + toString());
+    }
+
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!isRunning) {
+                return;
+            }
+            isRunning = false;
+            thread = replayerThread;
+            replayerThread = null;
+            notifyAll();
+        }
+
+        try {
+            thread.join(UsagePublisher.STOP_WAIT_MSEC);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            unforced.clear();
+            for (Segment segment : segments) {
+                segment.buffer.force();
+            }
+        }
+        logger.info("UsageSpool stopped, " + toString());
+    }
+
+    public boolean hasBacklog() {
+        return backlog > 0;
+    }
+
+    /**
+     * @return - false if the record could not be written, i.e. it is lost
+     */
+    public boolean append(Level level, WSUsageItem wsu, String jmsAppName) {
+        byte[] bytes;
+        try {
+            bytes = UsageItemCodec.encode(level, wsu, jmsAppName);
+        } catch (IOException ex) {
+            logger.error("UsageSpool unable to encode usage item, ex: " + ex);
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        int needed = RECORD_HEADER_BYTES + bytes.length;
+        Segment toForce = null;
+        synchronized (this) {
+            if (segments.isEmpty() || needed > segmentBytes) {
+                dropped.incrementAndGet();
+                return false;
+            }
+
+            Segment segment = segments.getLast();
+            if (segment.writePosition + needed > segmentBytes) {
+                if ((long) (segments.size() + 1) * segmentBytes > maxBytes) {
+                    if (dropped.incrementAndGet() % 1000 == 1) {
+                        logger.warn("UsageSpool is full, dropping usage"
+                              + " messages, " + toString());
+                    }
+                    return false;
+                }
+                try {
+                    Segment full = segment;
+                    segment = openSegment(segment.sequence + 1);
+                    segments.addLast(segment);
+                    if (isRunning) {
+                        unforced.add(full);
+                    } else {
+                        toForce = full;
+                    }
+                } catch (IOException ex) {
+                    logger.error("UsageSpool unable to create segment, ex: "
+                          + ex);
+                    dropped.incrementAndGet();
+                    return false;
+                }
+            }
+
+            ByteBuffer buf = segment.buffer.duplicate();
+            buf.position(segment.writePosition + RECORD_HEADER_BYTES);
+            buf.put(bytes);
+            // length last, so a partly written record is not visible
+            segment.buffer.putInt(segment.writePosition, bytes.length);
+            segment.writePosition += needed;
+
+            backlog++;
+            appended.incrementAndGet();
+            notifyAll();
+        }
+        if (toForce != null) {
+            // no replayer thread, force outside the lock
+            toForce.buffer.force();
+        }
+        return true;
+    }
+
+    private void replayLoop() {
+        long retryMsec = retryMinMsec;
+        int attempts = 0;
+        while (isRunning) {
+            Pending pending;
+            try {
+                forceFullSegments();
+                synchronized (this) {
+                    while (isRunning && backlog == 0 && unforced.isEmpty()) {
+                        wait(1000);
+                    }
+                    if (!isRunning) {
+                        break;
+                    }
+                    pending = backlog == 0 ? null : nextRecord();
+                }
+                if (pending == null) {
+                    continue;
+                }
+
+                UsageRecord record;
+                try {
+                    record = UsageItemCodec.decode(pending.bytes);
+                } catch (IOException ex) {
+                    logger.error("UsageSpool skipping unreadable record in: "
+                          + pending.segment.file + "  ex: " + ex);
+                    corrupt.incrementAndGet();
+                    markReplayed(pending);
+                    continue;
+                }
+
+                if (LoggerUtils.publishUsageItem(loggingMethod, record.level,
+                      record.item, record.jmsAppName)) {
+                    markReplayed(pending);
+                    replayed.incrementAndGet();
+                    retryMsec = retryMinMsec;
+                    attempts = 0;
+                } else {
+                    replayFailures.incrementAndGet();
+                    if (++attempts >= maxReplayAttempts) {
+                        deadLetter(pending, record, attempts);
+                        retryMsec = retryMinMsec;
+                        attempts = 0;
+                        continue;
+                    }
+                    // appends notify, so wait out the whole retry time
+                    long until = System.currentTimeMillis() + retryMsec;
+                    long remaining = retryMsec;
+                    while (isRunning && remaining > 0) {
+                        forceFullSegments();
+                        synchronized (this) {
+                            if (isRunning && unforced.isEmpty()) {
+                                wait(remaining);
+                            }
+                        }
+                        remaining = until - System.currentTimeMillis();
+                    }
+                    retryMsec = Math.min(retryMsec * 2, retryMaxMsec);
+                }
+            } catch (InterruptedException ex) {
+                break;
+            } catch (Throwable th) {
+                logger.error("UsageSpool replay unexpected exception: ", th);
+            }
+        }
+    }
+
+    /**
+     * Flush full segments to disk, without holding the lock, so appending
+     * threads do not wait on the disk.
+     */
+    private void forceFullSegments() {
+        List<Segment> full;
+        synchronized (this) {
+            if (unforced.isEmpty()) {
+                return;
+            }
+            full = new ArrayList<>(unforced);
+            unforced.clear();
+        }
+        for (Segment segment : full) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Give up on a record the backend keeps refusing, so it does not hold
+     * back the records behind it.
+     */
+    private void deadLetter(Pending pending, UsageRecord record, int attempts) {
+        if (deadLettered.incrementAndGet() % 100 == 1) {
+            logger.warn("UsageSpool writing record to the usage log after "
+                  + attempts + " failed replays, in: " + pending.segment.file
+                  + "  " + toString());
+        }
+        LoggerUtils.publishUsageItem(LoggingMethod.LOG4J, record.level,
+              record.item, record.jmsAppName);
+        markReplayed(pending);
+    }
+
+    /**
+     * Find the oldest record not yet replayed, delete segments which have
+     * been replayed completely. Must hold the lock.
+     */
+    private Pending nextRecord() {
+        while (!segments.isEmpty()) {
+            Segment first = segments.getFirst();
+            if (readPosition >= first.writePosition) {
+                if (first == segments.getLast()) {
+                    return null;
+                }
+                segments.removeFirst();
+                readPosition = 0;
+                if (!first.file.delete()) {
+                    logger.warn("UsageSpool unable to delete: " + first.file);
+                }
+                continue;
+            }
+
+            int length = first.buffer.getInt(readPosition);
+            if (length < 0) {
+                readPosition += RECORD_HEADER_BYTES - length;
+                continue;
+            }
+
+            byte[] bytes = new byte[length];
+            ByteBuffer buf = first.buffer.duplicate();
+            buf.position(readPosition + RECORD_HEADER_BYTES);
+            buf.get(bytes);
+            return new Pending(first, readPosition, length, bytes);
+        }
+        return null;
+    }
+
+    private synchronized void markReplayed(Pending pending) {
+        pending.segment.buffer.putInt(pending.position, -pending.length);
+        if (!segments.isEmpty() && segments.getFirst() == pending.segment
+              && readPosition == pending.position) {
+            readPosition += RECORD_HEADER_BYTES + pending.length;
+        }
+        backlog--;
+    }
+
+    /**
+     * Map existing segments and find the end of the written part of each
+     * one, count records not yet replayed. Must hold the lock.
+     */
+    private void recover() throws IOException {
+        segments.clear();
+        readPosition = 0;
+        backlog = 0;
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX)
+                      && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+
+        List<Long> sequences = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    sequences.add(Long.valueOf(name.substring(
+                          SEGMENT_PREFIX.length(),
+                          name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    logger.warn("UsageSpool ignoring file: " + file);
+                }
+            }
+        }
+        Collections.sort(sequences);
+
+        long pendingCount = 0;
+        for (Long sequence : sequences) {
+            Segment segment = openSegment(sequence);
+            int pos = 0;
+            while (pos + RECORD_HEADER_BYTES <= segmentBytes) {
+                int length = segment.buffer.getInt(pos);
+                if (length == 0) {
+                    break;
+                }
+                int size = Math.abs(length);
+                if (pos + RECORD_HEADER_BYTES + size > segmentBytes) {
+                    logger.warn("UsageSpool truncated record at: " + pos
+                          + "  in: " + segment.file);
+                    break;
+                }
+                if (length > 0) {
+                    pendingCount++;
+                }
+                pos += RECORD_HEADER_BYTES + size;
+            }
+            segment.writePosition = pos;
+            segments.addLast(segment);
+        }
+
+        if (segments.isEmpty()) {
+            segments.addLast(openSegment(1));
+        }
+        backlog = pendingCount;
+    }
+
+    private Segment openSegment(long sequence) throws IOException {
+        File file = new File(directory,
+              String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+              FileChannel channel = raf.getChannel()) {
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                  0, segmentBytes);
+            return new Segment(sequence, file, buffer);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getBacklog() {
+        return backlog;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public long getAppendedCount() {
+        return appended.get();
+    }
+
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getCorruptCount() {
+        return corrupt.get();
+    }
+
+    public long getReplayFailureCount() {
+        return replayFailures.get();
+    }
+
+    public long getDeadLetteredCount() {
+        return deadLettered.get();
+    }
+
+    public String toHtmlString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("<TABLE border=2 style='width: 600px'>");
+        sb.append("<col style='width: 30%' />");
+
+        sb.append("<TR><TH colspan=\"2\" >")
+              .append("Usage Spool")
+              .append("</TH></TR>");
+
+        appendRow(sb, "Directory", directory.getAbsolutePath());
+        appendRow(sb, "Segment Bytes", segmentBytes);
+        appendRow(sb, "Maximum Bytes", maxBytes);
+        appendRow(sb, "Segments", getSegmentCount());
+        appendRow(sb, "Backlog", backlog);
+        appendRow(sb, "Appended", appended.get());
+        appendRow(sb, "Replayed", replayed.get());
+        appendRow(sb, "Replay Failures", replayFailures.get());
+        appendRow(sb, "Dead Lettered", deadLettered.get());
+        appendRow(sb, "Dropped", dropped.get());
+        appendRow(sb, "Unreadable", corrupt.get());
+
+        sb.append("</TABLE>");
+
+        return sb.toString();
+    }
+
+    private static void appendRow(StringBuilder sb, String name, Object value) {
+        sb.append("<TR><TD>").append(name)
+              .append("</TD><TD>").append(value)
+              .append("</TD></TR>");
+    }
+
+    @Override
+    public String toString() {
+        return "segments: " + getSegmentCount()
+              + "  backlog: " + backlog
+              + "  appended: " + appended.get()
+              + "  replayed: " + replayed.get()
+              + "  dead lettered: " + deadLettered.get()
+              + "  dropped: " + dropped.get();
+    }
+}
@@ -35,15 +35,11 @@ public class WebUtils {
 
     public static final Logger LOGGER = Logger.getLogger(WebUtils.class);
 
+    /**
+     * Cached, see NameResolver
+     */
     public static String getHostname() {
-        String hostname;
-        try {
-            hostname = java.net.InetAddress.getLocalHost().getCanonicalHostName();//.getHostName();
-
-        } catch (UnknownHostException e) {
-            hostname = "unknown";
-        }
-        return hostname;
+        return NameResolver.getHostname();
     }
 
     public static String getUserAgent(HttpServletRequest request) {
@@ -54,10 +50,29 @@ public class WebUtils {
         return userAgent;
     }
 
+    /**
+     * @return - the container's remote host, which is the client IP
+     *           unless the container does reverse lookups, e.g. Tomcat
+     *           enableLookups
+     */
     public static String getClientName(HttpServletRequest request) {
         return request.getRemoteHost();
     }
 
+    /**
+     * @param isLookup - the clientNameLookup parameter, when true
+     *                   NameResolver does the reverse lookup off the
+     *                   request thread, the client IP is returned until
+     *                   it has a name
+     */
+    public static String getClientName(HttpServletRequest request,
+          boolean isLookup) {
+        if (isLookup) {
+            return NameResolver.getClientName(request.getRemoteAddr());
+        }
+        return getClientName(request);
+    }
+
     public static String getClientIp(HttpServletRequest request) {
         String xfIp = getXForwardIp(request);
         if (xfIp == null) {
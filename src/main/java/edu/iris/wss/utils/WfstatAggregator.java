@@ -0,0 +1,440 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import edu.iris.wss.framework.AppConfigurator.LoggingMethod;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Merges wfstat records across requests over a time window, one roll-up
+ * record is sent per (endpoint, client IP, user, NSLC, quality) when the
+ * window closes.
+ *
+ * In a roll-up record,
+ *   dataSize and processTimeMsec are the sums of the merged records
+ *   startTime is the earliest start and endTime the latest end
+ *   accessDate is the start of the window
+ *   clientName, userAgent and httpCode are from the first merged record
+ *
+ * Request threads update a concurrent table. The flush thread swaps in an
+ * empty table under a write lock, so no update is in progress on the
+ * table being flushed. After stop, records are sent as they are added.
+ */
+public class WfstatAggregator {
+    public static final Logger logger = Logger.getLogger(WfstatAggregator.class);
+
+    public static final String WFSTAT_MESSAGE_TYPE = "wfstat";
+
+    private final String appName;
+    private final LoggingMethod loggingMethod;
+    private final UsagePublisher usagePublisher;
+    private final UsageSpool usageSpool;
+    private final long windowMsec;
+    private final boolean isKeepExactRecords;
+
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private ConcurrentHashMap<WfstatKey, Rollup> table = new ConcurrentHashMap<>();
+    private long windowStart = System.currentTimeMillis();
+    // set under the write lock, read under the read lock
+    private boolean isStopped = false;
+
+    private final LongAdder recordsMerged = new LongAdder();
+    private final AtomicLong rollupsSent = new AtomicLong(0);
+    private final AtomicLong flushCount = new AtomicLong(0);
+    private final AtomicLong sentAfterStop = new AtomicLong(0);
+
+    private ScheduledExecutorService flushExecutor = null;
+
+    public WfstatAggregator(String appName, LoggingMethod loggingMethod,
+          UsagePublisher usagePublisher, int windowSeconds,
+          boolean isKeepExactRecords) {
+        this(appName, loggingMethod, usagePublisher, null, windowSeconds,
+              isKeepExactRecords);
+    }
+
+    /**
+     * @param usagePublisher - may be null, in which case roll-ups are
+     *                         published on the flush thread
+     * @param usageSpool - may be null, for roll-ups which fail to publish
+     *                     when there is no usagePublisher
+     */
+    public WfstatAggregator(String appName, LoggingMethod loggingMethod,
+          UsagePublisher usagePublisher, UsageSpool usageSpool,
+          int windowSeconds, boolean isKeepExactRecords) {
+        if (windowSeconds < 1) {
+            throw new IllegalArgumentException(
+                  "wfstat aggregation window must be greater than 0 seconds,"
+                  + " value: " + windowSeconds);
+        }
+        this.appName = appName;
+        this.loggingMethod = loggingMethod;
+        this.usagePublisher = usagePublisher;
+        this.usageSpool = usageSpool;
+        this.windowMsec = windowSeconds * 1000L;
+        this.isKeepExactRecords = isKeepExactRecords;
+    }
+
+    public synchronized void start() {
+        if (flushExecutor != null) {
+            return;
+        }
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "wss-wfstat-aggregator-" + appName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flushExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable th) {
+                    logger.error("WfstatAggregator flush exception: ", th);
+                }
+            }
+        }, windowMsec, windowMsec, TimeUnit.MILLISECONDS);
+
+        logger.info("WfstatAggregator started, window msec: " + windowMsec
+              + "  keep exact records: " + isKeepExactRecords);
+    }
+
+    /**
+     * Stop the window timer and send what has been merged so far, records
+     * added after this are sent without merging.
+     */
+    public void stop() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = flushExecutor;
+            flushExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(UsagePublisher.STOP_WAIT_MSEC,
+                      TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        swapLock.writeLock().lock();
+        try {
+            isStopped = true;
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        flush();
+        logger.info("WfstatAggregator stopped, " + toString());
+    }
+
+    public boolean isKeepExactRecords() {
+        return isKeepExactRecords;
+    }
+
+    /**
+     * Merge one wfstat record into the current window, or send it when
+     * stopped.
+     */
+    public void add(WSUsageItem wsu) {
+        WfstatKey key = new WfstatKey(wsu);
+
+        swapLock.readLock().lock();
+        try {
+            if (isStopped) {
+                // the last window has been flushed
+                send(wsu);
+                sentAfterStop.incrementAndGet();
+                return;
+            }
+            Rollup rollup = table.get(key);
+            if (rollup == null) {
+                Rollup newRollup = new Rollup(wsu);
+                rollup = table.putIfAbsent(key, newRollup);
+                if (rollup == null) {
+                    rollup = newRollup;
+                }
+            }
+            rollup.merge(wsu);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        recordsMerged.increment();
+    }
+
+    /**
+     * Close the current window and send one record per key.
+     *
+     * @return - number of roll-up records sent
+     */
+    public int flush() {
+        Map<WfstatKey, Rollup> closed;
+        long closedWindowStart;
+
+        swapLock.writeLock().lock();
+        try {
+            closed = table;
+            closedWindowStart = windowStart;
+            table = new ConcurrentHashMap<>();
+            windowStart = System.currentTimeMillis();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+
+        Date accessDate = new Date(closedWindowStart);
+        int sent = 0;
+        for (Map.Entry<WfstatKey, Rollup> entry : closed.entrySet()) {
+            WSUsageItem wsu = entry.getValue().toUsageItem(entry.getKey(),
+                  accessDate);
+            send(wsu);
+            sent++;
+        }
+
+        rollupsSent.addAndGet(sent);
+        flushCount.incrementAndGet();
+        return sent;
+    }
+
+    private void send(WSUsageItem wsu) {
+        if (usagePublisher != null) {
+            usagePublisher.offer(Level.INFO, wsu, appName);
+        } else {
+            LoggerUtils.publishOrSpool(loggingMethod, usageSpool, Level.INFO,
+                  wsu, appName);
+        }
+    }
+
+    public int getOpenKeyCount() {
+        swapLock.readLock().lock();
+        try {
+            return table.size();
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    public long getRecordsMerged() {
+        return recordsMerged.sum();
+    }
+
+    public long getRollupsSent() {
+        return rollupsSent.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getSentAfterStop() {
+        return sentAfterStop.get();
+    }
+
+    public String toHtmlString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("<TABLE border=2 style='width: 600px'>");
+        sb.append("<col style='width: 30%' />");
+
+        sb.append("<TR><TH colspan=\"2\" >")
+              .append("Wfstat Aggregation")
+              .append("</TH></TR>");
+
+        appendRow(sb, "Window Seconds", windowMsec / 1000L);
+        appendRow(sb, "Keep Exact Records", isKeepExactRecords);
+        appendRow(sb, "Open Keys", getOpenKeyCount());
+        appendRow(sb, "Records Merged", getRecordsMerged());
+        appendRow(sb, "Roll-ups Sent", getRollupsSent());
+        appendRow(sb, "Windows Flushed", getFlushCount());
+        appendRow(sb, "Sent After Stop", getSentAfterStop());
+
+        sb.append("</TABLE>");
+
+        return sb.toString();
+    }
+
+    private static void appendRow(StringBuilder sb, String name, Object value) {
+        sb.append("<TR><TD>").append(name)
+              .append("</TD><TD>").append(value)
+              .append("</TD></TR>");
+    }
+
+    @Override
+    public String toString() {
+        return "records merged: " + getRecordsMerged()
+              + "  roll-ups sent: " + getRollupsSent()
+              + "  windows flushed: " + getFlushCount()
+              + "  sent after stop: " + getSentAfterStop();
+    }
+
+    static class WfstatKey {
+        final String extra;
+        final String clientIp;
+        final String userName;
+        final String network;
+        final String station;
+        final String location;
+        final String channel;
+        final String quality;
+        private final int hash;
+
+        WfstatKey(WSUsageItem wsu) {
+            extra = wsu.getExtra();
+            clientIp = wsu.getClientIp();
+            userName = wsu.getUserName();
+            network = wsu.getNetwork();
+            station = wsu.getStation();
+            location = wsu.getLocation();
+            channel = wsu.getChannel();
+            quality = wsu.getQuality();
+
+            int h = 17;
+            h = 31 * h + hashOf(extra);
+            h = 31 * h + hashOf(clientIp);
+            h = 31 * h + hashOf(userName);
+            h = 31 * h + hashOf(network);
+            h = 31 * h + hashOf(station);
+            h = 31 * h + hashOf(location);
+            h = 31 * h + hashOf(channel);
+            h = 31 * h + hashOf(quality);
+            hash = h;
+        }
+
+        private static int hashOf(String s) {
+            return s == null ? 0 : s.hashCode();
+        }
+
+        private static boolean same(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof WfstatKey)) {
+                return false;
+            }
+            WfstatKey other = (WfstatKey) obj;
+            return hash == other.hash
+                  && same(channel, other.channel)
+                  && same(station, other.station)
+                  && same(network, other.network)
+                  && same(location, other.location)
+                  && same(quality, other.quality)
+                  && same(clientIp, other.clientIp)
+                  && same(userName, other.userName)
+                  && same(extra, other.extra);
+        }
+    }
+
+    static class Rollup {
+        final String application;
+        final String host;
+        final String clientName;
+        final String userAgent;
+        final Integer httpCode;
+
+        final LongAdder dataSize = new LongAdder();
+        final LongAdder processTime = new LongAdder();
+        final LongAdder count = new LongAdder();
+        final AtomicLong minStart = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong maxEnd = new AtomicLong(Long.MIN_VALUE);
+
+        Rollup(WSUsageItem first) {
+            application = first.getApplication();
+            host = first.getHost();
+            clientName = first.getClientName();
+            userAgent = first.getUserAgent();
+            httpCode = first.getHttpCode();
+        }
+
+        void merge(WSUsageItem wsu) {
+            if (wsu.getDataSize() != null) {
+                dataSize.add(wsu.getDataSize());
+            }
+            if (wsu.getProcessTimeMsec() != null) {
+                processTime.add(wsu.getProcessTimeMsec());
+            }
+            if (wsu.getStartTime() != null) {
+                long start = wsu.getStartTime().getTime();
+                long current = minStart.get();
+                while (start < current && !minStart.compareAndSet(current, start)) {
+                    current = minStart.get();
+                }
+            }
+            if (wsu.getEndTime() != null) {
+                long end = wsu.getEndTime().getTime();
+                long current = maxEnd.get();
+                while (end > current && !maxEnd.compareAndSet(current, end)) {
+                    current = maxEnd.get();
+                }
+            }
+            count.increment();
+        }
+
+        WSUsageItem toUsageItem(WfstatKey key, Date accessDate) {
+            WSUsageItem wsu = new WSUsageItem();
+            wsu.setMessagetype(     WFSTAT_MESSAGE_TYPE);
+            wsu.setApplication(     application);
+            wsu.setHost(            host);
+            wsu.setAccessDate(      accessDate);
+            wsu.setClientName(      clientName);
+            wsu.setClientIp(        key.clientIp);
+            wsu.setDataSize(        dataSize.sum());
+            wsu.setProcessTimeMsec( processTime.sum());
+            wsu.setNetwork(         key.network);
+            wsu.setStation(         key.station);
+            wsu.setChannel(         key.channel);
+            wsu.setLocation(        key.location);
+            wsu.setQuality(         key.quality);
+            wsu.setStartTime(       minStart.get() == Long.MAX_VALUE ? null
+                  : new Date(minStart.get()));
+            wsu.setEndTime(         maxEnd.get() == Long.MIN_VALUE ? null
+                  : new Date(maxEnd.get()));
+            wsu.setErrorType(       null);
+            wsu.setUserAgent(       userAgent);
+            wsu.setHttpCode(        httpCode);
+            wsu.setUserName(        key.userName);
+            wsu.setExtra(           key.extra);
+            return wsu;
+        }
+    }
+}
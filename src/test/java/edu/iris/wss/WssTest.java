@@ -113,6 +113,33 @@ public class WssTest  {
              + "</TD>") > -1);
     }
 
+    @Test
+    public void testGet_metrics() throws Exception {
+
+        Client c = ClientBuilder.newClient();
+        WebTarget webTarget = c.target(BASE_URI);
+        webTarget.path("wssversion").request().get().close();
+        Response response = webTarget.path("wssmetrics").request().get();
+        String responseMsg = response.readEntity(String.class);
+
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getMediaType().toString().startsWith(
+              "application/openmetrics-text"));
+        assertTrue(responseMsg.contains("# TYPE wss_requests counter\n"));
+        assertTrue(responseMsg.contains("wss_handlers_in_flight 0\n"));
+        assertTrue(responseMsg.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void testGet_requests_notConfigured() throws Exception {
+        // wssrequests is not available without wssrequests.allowedIPs
+        Client c = ClientBuilder.newClient();
+        WebTarget webTarget = c.target(BASE_URI);
+        Response response = webTarget.path("wssrequests").request().get();
+
+        assertEquals(403, response.getStatus());
+    }
+
     @Test
     public void testGet_nopath() throws Exception {
 
@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.endpoints;
+
+import edu.iris.wss.framework.AppConfigurator;
+import edu.iris.wss.framework.FileCreaterHelper;
+import edu.iris.wss.framework.GrizzlyContainerHelper;
+import edu.iris.wss.framework.ParamConfigurator;
+import edu.iris.wss.framework.Util;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocation and thread budgets per request type, run against WSS in
+ * Grizzly with a shell handler.
+ *
+ * Each request type is run a few times to warm up, then COUNT times while
+ * a sampler thread polls ThreadMXBean.getThreadAllocatedBytes for every
+ * thread except the client and the sampler. Threads which start and end
+ * between samples are missed, so allocation is a lower bound. Thread
+ * counts come from getTotalStartedThreadCount and getPeakThreadCount,
+ * i.e. they include every thread the JVM started for the requests.
+ *
+ * The budgets are about twice what was measured when they were set, a
+ * failure means a change added threads or garbage per request, if that
+ * is intended, update the budget in the same commit.
+ */
+public class RequestBudgetTest {
+    public static final String THIS_CLASS_NAME =
+          RequestBudgetTest.class.getSimpleName();
+    public static final Logger LOGGER = Logger.getLogger(THIS_CLASS_NAME);
+
+    private static final String SERVICE_CONTEXT = "/budgettest";
+    private static final String ENDPOINT_NAME = "budget";
+
+    private static final String BASE_HOST = "http://localhost";
+    private static final Integer BASE_PORT = 8093;
+
+    private static final URI BASE_URI = URI.create(BASE_HOST + ":"
+        + BASE_PORT + SERVICE_CONTEXT);
+
+    private static final int WARMUP_COUNT = 3;
+    private static final int SAMPLE_MSEC = 1;
+    private static final long MAX_SAMPLE_DELTA = 1L << 30;
+    private static final long MAX_NEW_THREAD_DELTA = 16L << 20;
+
+    private static final long BINARY_BYTES = 100L * 1024L * 1024L;
+    private static final int MINISEED_RECORDS = 2048;
+    private static final int MINISEED_CHANNELS = 64;
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX =
+          (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    /**
+     * Measured per request, peakThreads is the most live threads above
+     * the count before the requests.
+     */
+    private static class Usage {
+        int count;
+        long allocatedBytes;
+        double threadsStarted;
+        int peakThreads;
+
+        @Override
+        public String toString() {
+            return "count: " + count
+                  + "  allocated bytes/request: " + allocatedBytes
+                  + "  threads started/request: "
+                  + String.format("%.2f", threadsStarted)
+                  + "  peak extra threads: " + peakThreads;
+        }
+    }
+
+    /**
+     * Polls the allocated bytes of all threads and adds up the increase
+     * of each thread between samples, threads started after the sampler
+     * start from 0.
+     */
+    private static class AllocationSampler extends Thread {
+        private final long excludedId;
+        private final Map<Long, Long> lastBytes = new HashMap<>();
+        private long total = 0;
+        private volatile boolean isRunning = true;
+
+        AllocationSampler(long excludedId) {
+            super("budget-allocation-sampler");
+            setDaemon(true);
+            this.excludedId = excludedId;
+            sample(true);
+        }
+
+        private void sample(boolean isFirst) {
+            long[] ids = THREAD_MX.getAllThreadIds();
+            long[] bytes = THREAD_MX.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                // a thread which is ending reports -1
+                if (ids[i] == excludedId || ids[i] == getId() || bytes[i] < 0) {
+                    continue;
+                }
+                Long last = lastBytes.get(ids[i]);
+                long maxDelta = MAX_SAMPLE_DELTA;
+                if (last == null) {
+                    last = isFirst ? bytes[i] : 0L;
+                    maxDelta = MAX_NEW_THREAD_DELTA;
+                }
+                long delta = bytes[i] - last;
+                // a thread which is starting or ending may report a
+                // nonsense value, skip it and use a later sample
+                if (delta >= 0 && delta <= maxDelta) {
+                    total += delta;
+                    lastBytes.put(ids[i], bytes[i]);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (isRunning) {
+                sample(false);
+                try {
+                    Thread.sleep(SAMPLE_MSEC);
+                } catch (InterruptedException ex) {
+                    break;
+                }
+            }
+        }
+
+        long finish() throws InterruptedException {
+            isRunning = false;
+            join();
+            sample(false);
+            return total;
+        }
+    }
+
+    public RequestBudgetTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        // define WSS config dir for this test
+        System.setProperty(Util.WSS_OS_CONFIG_DIR,
+            "target"
+              + File.separator + "test-classes"
+              + File.separator + THIS_CLASS_NAME);
+
+        File configDir = new File(System.getProperty(Util.WSS_OS_CONFIG_DIR));
+        configDir.mkdirs();
+        try (OutputStream os = new FileOutputStream(
+              new File(configDir, "budget.mseed"))) {
+            os.write(SyntheticMiniseed.create(MINISEED_RECORDS,
+                  MINISEED_CHANNELS));
+        }
+        File handler = new File(configDir, "budget_handler.sh");
+        handler.setExecutable(true);
+
+        FileCreaterHelper.createFileInWssFolder(SERVICE_CONTEXT,
+              AppConfigurator.SERVICE_CFG_NAME_SUFFIX,
+              createServiceCfgStr(handler.getAbsolutePath()), false);
+        FileCreaterHelper.createFileInWssFolder(SERVICE_CONTEXT,
+              ParamConfigurator.PARAM_CFG_NAME_SUFFIX,
+              createParamCfgStr(), false);
+
+        GrizzlyContainerHelper.setUpServer(BASE_URI,
+              RequestBudgetTest.class.getName(), SERVICE_CONTEXT);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        GrizzlyContainerHelper.tearDownServer(
+              RequestBudgetTest.class.getName());
+    }
+
+    @Test
+    public void testNoData204() throws Exception {
+        Usage usage = measure("exitcode=2", 204, 20);
+        assertBudget("204", usage, 400 * 1024, 5.0, 5);
+    }
+
+    @Test
+    public void testSmallText() throws Exception {
+        Usage usage = measure("format=text&bytes=2048", 200, 20);
+        assertBudget("small text", usage, 400 * 1024, 6.0, 6);
+    }
+
+    @Test
+    public void testLargeBinary() throws Exception {
+        Usage usage = measure("format=binary&bytes=" + BINARY_BYTES, 200, 2);
+        // writeNormal flushes every 1 KB read from the handler, which
+        // costs about 8 bytes of garbage per byte shipped
+        assertBudget("100 MB binary", usage, 16L * BINARY_BYTES, 6.0, 6);
+    }
+
+    @Test
+    public void testMiniseedExtents() throws Exception {
+        Usage usage = measure("format=miniseed", 200, 5);
+        // record parsing for the extents allocates about 2 KB per record
+        assertBudget("miniseed extents", usage,
+              MINISEED_RECORDS * 4096L, 6.0, 6);
+    }
+
+    private static void assertBudget(String name, Usage usage,
+          long maxAllocatedBytes, double maxThreadsStarted,
+          int maxPeakThreads) {
+        String msg = THIS_CLASS_NAME + " " + name + "  " + usage;
+        System.out.println(msg);
+        LOGGER.info(msg);
+
+        assertTrue(name + " allocated bytes per request over budget: "
+              + maxAllocatedBytes + "  " + usage,
+              usage.allocatedBytes <= maxAllocatedBytes);
+        assertTrue(name + " threads started per request over budget: "
+              + maxThreadsStarted + "  " + usage,
+              usage.threadsStarted <= maxThreadsStarted);
+        assertTrue(name + " peak extra threads over budget: "
+              + maxPeakThreads + "  " + usage,
+              usage.peakThreads <= maxPeakThreads);
+    }
+
+    private static Usage measure(String query, int expectedStatus, int count)
+          throws Exception {
+        byte[] buffer = new byte[64 * 1024];
+        for (int i = 0; i < WARMUP_COUNT; i++) {
+            request(query, expectedStatus, buffer);
+        }
+
+        int baseThreads = THREAD_MX.getThreadCount();
+        THREAD_MX.resetPeakThreadCount();
+        long baseStarted = THREAD_MX.getTotalStartedThreadCount();
+        AllocationSampler sampler = new AllocationSampler(
+              Thread.currentThread().getId());
+        sampler.start();
+
+        for (int i = 0; i < count; i++) {
+            request(query, expectedStatus, buffer);
+        }
+
+        long allocated = sampler.finish();
+        Usage usage = new Usage();
+        usage.count = count;
+        usage.allocatedBytes = allocated / count;
+        // less the sampler thread
+        usage.threadsStarted = (THREAD_MX.getTotalStartedThreadCount()
+              - baseStarted - 1) / (double)count;
+        // less the sampler thread
+        usage.peakThreads = THREAD_MX.getPeakThreadCount() - baseThreads - 1;
+        return usage;
+    }
+
+    /**
+     * One request read to the end, without keep alive so the client does
+     * not start a keep alive timer thread.
+     */
+    private static void request(String query, int expectedStatus,
+          byte[] buffer) throws IOException {
+        URL url = new URL(BASE_URI + "/" + ENDPOINT_NAME + "?" + query);
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        conn.setRequestProperty("Connection", "close");
+        try {
+            assertEquals(query, expectedStatus, conn.getResponseCode());
+            if (expectedStatus < 300) {
+                try (InputStream is = conn.getInputStream()) {
+                    while (is.read(buffer) >= 0) {
+                        // noop
+                    }
+                }
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static String createServiceCfgStr(String handlerPath) {
+        String s = String.join("\n",
+              "# ---------------- globals",
+              "",
+              "appName=" + THIS_CLASS_NAME,
+              "version=0.1",
+              "",
+              "# LOG4J or JMS",
+              "loggingMethod=LOG4J",
+              "",
+              "# ----------------  endpoints",
+              "",
+              ENDPOINT_NAME + ".endpointClassName=edu.iris.wss.endpoints.CmdProcessor",
+              ENDPOINT_NAME + ".handlerProgram=" + handlerPath,
+              ENDPOINT_NAME + ".handlerTimeout=30",
+              ENDPOINT_NAME + ".logMiniseedExtents = true",
+              ENDPOINT_NAME + ".formatTypes = \\",
+              "    binary: application/octet-stream,\\",
+              "    text: text/plain,\\",
+              "    miniseed: application/vnd.fdsn.mseed",
+              ""
+        );
+
+        return s;
+    }
+
+    private static String createParamCfgStr() {
+        String s = String.join("\n",
+              "# ----------------  endpoints",
+              "",
+              ENDPOINT_NAME + ".format=TEXT",
+              ENDPOINT_NAME + ".bytes=NUMBER",
+              ENDPOINT_NAME + ".exitcode=NUMBER",
+              ""
+        );
+
+        return s;
+    }
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.endpoints;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Makes miniSEED for tests and benchmarks, 512 byte records by default,
+ * with a blockette 1000 and INT32 samples, channels are interleaved the
+ * way a handler merging several channels writes them.
+ *
+ * Content only depends on the arguments and SEED.
+ */
+public class SyntheticMiniseed {
+
+    public static final long SEED = 20181019L;
+    public static final int RECORD_SIZE = 512;
+    public static final int DATA_OFFSET = 64;
+    public static final int SAMPLES_PER_RECORD = samplesPerRecord(RECORD_SIZE);
+    public static final int MIN_RECORD_SIZE = 128;
+    public static final int MAX_RECORD_SIZE = 65536;
+    public static final int SAMPLE_RATE = 20;
+
+    private static final String[] NETWORKS = {"IU", "II", "TA", "CI"};
+    private static final String[] CHANNELS = {"BHZ", "BHN", "BHE"};
+
+    private SyntheticMiniseed() {
+    }
+
+    /**
+     * @param recordCount - total records, RECORD_SIZE bytes each
+     * @param channelCount - distinct network, station, location, channel
+     *                       and quality keys, records are assigned round
+     *                       robin
+     */
+    public static byte[] create(int recordCount, int channelCount) {
+        return create(recordCount, channelCount, RECORD_SIZE);
+    }
+
+    /**
+     * @param recordSize - a power of 2, MIN_RECORD_SIZE to MAX_RECORD_SIZE
+     */
+    public static byte[] create(int recordCount, int channelCount,
+          int recordSize) {
+        checkRecordSize(recordSize);
+        Random random = new Random(SEED);
+        ByteBuffer bb = ByteBuffer.allocate(recordCount * recordSize);
+        for (int i = 0; i < recordCount; i++) {
+            int channel = i % channelCount;
+            int recordInChannel = i / channelCount;
+            putRecord(bb, recordSize, i + 1, channel, recordInChannel, random);
+        }
+        return bb.array();
+    }
+
+    public static int samplesPerRecord(int recordSize) {
+        return (recordSize - DATA_OFFSET) / 4;
+    }
+
+    public static void checkRecordSize(int recordSize) {
+        if (recordSize < MIN_RECORD_SIZE || recordSize > MAX_RECORD_SIZE
+              || Integer.bitCount(recordSize) != 1) {
+            throw new IllegalArgumentException("record size must be a power"
+                  + " of 2 from " + MIN_RECORD_SIZE + " to " + MAX_RECORD_SIZE
+                  + ", value: " + recordSize);
+        }
+    }
+
+    /**
+     * Put one record at the buffer position, for writing a stream one
+     * record at a time. Use one Random, seeded with SEED, per stream.
+     *
+     * @param sequence - record sequence number, starting at 1
+     * @param recordInChannel - count of earlier records for this channel,
+     *                          which sets the record start time
+     */
+    public static void putRecord(ByteBuffer bb, int recordSize, int sequence,
+          int channel, int recordInChannel, Random random) {
+        int start = bb.position();
+        int samples = samplesPerRecord(recordSize);
+
+        // start time, records follow each other without gaps
+        long tenthMsec = (long)recordInChannel * samples
+              * 10000L / SAMPLE_RATE;
+        long seconds = tenthMsec / 10000L;
+        int fraction = (int)(tenthMsec % 10000L);
+        int dayOfYear = 1 + (int)(seconds / 86400L);
+        int secondOfDay = (int)(seconds % 86400L);
+
+        putAscii(bb, String.format("%06d", sequence % 1000000), 6);
+        putAscii(bb, "D ", 2);
+        putAscii(bb, String.format("S%04d", channel / CHANNELS.length), 5);
+        putAscii(bb, "00", 2);
+        putAscii(bb, CHANNELS[channel % CHANNELS.length], 3);
+        putAscii(bb, NETWORKS[(channel / CHANNELS.length) % NETWORKS.length], 2);
+
+        // BTIME
+        bb.putShort((short)2018);
+        bb.putShort((short)dayOfYear);
+        bb.put((byte)(secondOfDay / 3600));
+        bb.put((byte)((secondOfDay / 60) % 60));
+        bb.put((byte)(secondOfDay % 60));
+        bb.put((byte)0);
+        bb.putShort((short)fraction);
+
+        bb.putShort((short)samples);
+        bb.putShort((short)SAMPLE_RATE);
+        bb.putShort((short)1);
+        bb.put((byte)0);
+        bb.put((byte)0);
+        bb.put((byte)0);
+        // one blockette follows
+        bb.put((byte)1);
+        bb.putInt(0);
+        bb.putShort((short)DATA_OFFSET);
+        bb.putShort((short)48);
+
+        // blockette 1000, INT32, big endian, 2^n byte records
+        bb.putShort((short)1000);
+        bb.putShort((short)0);
+        bb.put((byte)3);
+        bb.put((byte)1);
+        bb.put((byte)Integer.numberOfTrailingZeros(recordSize));
+        bb.put((byte)0);
+
+        while (bb.position() < start + DATA_OFFSET) {
+            bb.put((byte)0);
+        }
+        for (int i = 0; i < samples; i++) {
+            bb.putInt(random.nextInt(1 << 20) - (1 << 19));
+        }
+    }
+
+    private static void putAscii(ByteBuffer bb, String value, int length) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < length; i++) {
+            bb.put(i < bytes.length ? bytes[i] : (byte)' ');
+        }
+    }
+}
@@ -27,8 +27,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.util.Map;
+import javax.management.ObjectName;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
@@ -142,6 +144,54 @@ public class CmdWithHeaderTest  {
         assertEquals(response.getMediaType().toString(), "text/plain");
     }
 
+    @Test
+    public void test_getCmd_releasesRegistryEntry() throws Exception {
+        Client c = ClientBuilder.newClient();
+        WebTarget webTarget = c.target(BASE_URI);
+        Response response = webTarget.path("/queryEP").request().get();
+        assertEquals(200, response.getStatus());
+        response.readEntity(String.class);
+
+        // the request registry entry is released when Jersey finishes
+        ObjectName name = new ObjectName(WssManagement.DOMAIN
+              + ":type=WebServiceShell,configBase="
+              + ObjectName.quote(Util.getWssFileNameBase(SOME_CONTEXT)));
+        int inFlight = -1;
+        for (int i = 0; i < 100 && inFlight != 0; i++) {
+            inFlight = (Integer)ManagementFactory.getPlatformMBeanServer()
+                  .getAttribute(name, "RequestsInFlight");
+            if (inFlight != 0) {
+                Thread.sleep(20);
+            }
+        }
+        assertEquals(0, inFlight);
+    }
+
+    @Test
+    public void test_getCmd_traceparent() throws Exception {
+        String traceId = "4bf92f3577b34da6a3ce929d0e0e4736";
+        Client c = ClientBuilder.newClient();
+        WebTarget webTarget = c.target(BASE_URI);
+        Response response = webTarget.path("/queryEP").request()
+              .header(RequestTrace.TRACEPARENT_HEADER,
+                    "00-" + traceId + "-00f067aa0ba902b7-01")
+              .get();
+
+        assertEquals(200, response.getStatus());
+
+        // the incoming trace id is continued with a new parent id
+        String testMsg = response.readEntity(String.class);
+        assertTrue(testMsg.contains("TRACEPARENT=00-" + traceId + "-"));
+        assertTrue(!testMsg.contains("00f067aa0ba902b7"));
+
+        // without an incoming traceparent the handler still gets one
+        response = webTarget.path("/queryEP").request().get();
+        assertEquals(200, response.getStatus());
+        testMsg = response.readEntity(String.class);
+        assertTrue(testMsg.contains("TRACEPARENT=00-"));
+        assertTrue(!testMsg.contains("TRACEPARENT=00-" + traceId));
+    }
+
     @Test
     public void test_getCmd2() throws Exception {
         // simple test with no header identifiers, input should pass through
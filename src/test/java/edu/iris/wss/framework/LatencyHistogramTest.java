@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    public LatencyHistogramTest() {
+    }
+
+    @Test
+    public void testBucketsCoverRange() throws Exception {
+        long previousHigh = -1;
+        for (int i = 0; i <= LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE); i++) {
+            long low = LatencyHistogram.bucketLowValue(i);
+            long high = LatencyHistogram.bucketHighValue(i);
+            assertEquals("bucket: " + i, previousHigh + 1, low);
+            assertEquals(i, LatencyHistogram.bucketIndex(low));
+            assertEquals(i, LatencyHistogram.bucketIndex(high));
+            previousHigh = high;
+        }
+        assertEquals(LatencyHistogram.MAX_VALUE, previousHigh);
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram hist = new LatencyHistogram();
+        assertEquals(0, hist.getValueAtPercentile(50.0));
+        for (long i = 1; i <= 100000; i++) {
+            hist.record(i);
+        }
+        assertEquals(100000, hist.getCount());
+        assertEquals(100000, hist.getMax());
+        assertEquals(50000.5, hist.getMean(), 0.001);
+
+        double[] pcts = {50.0, 90.0, 99.0, 99.9};
+        for (double pct : pcts) {
+            double expected = pct * 1000.0;
+            double actual = hist.getValueAtPercentile(pct);
+            assertEquals("pct: " + pct, expected, actual,
+                  expected / LatencyHistogram.SUB_BUCKETS);
+        }
+        assertEquals(100000, hist.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void testOutOfRangeValues() throws Exception {
+        LatencyHistogram hist = new LatencyHistogram();
+        hist.record(-5);
+        hist.record(Long.MAX_VALUE);
+        assertEquals(0, hist.getValueAtPercentile(50.0));
+        assertEquals(LatencyHistogram.MAX_VALUE, hist.getMax());
+    }
+
+    @Test
+    public void testWindowRotation() throws Exception {
+        WindowedHistogram windowed = new WindowedHistogram(60);
+        long start = System.nanoTime();
+        windowed.record(100);
+        windowed.record(200);
+        assertEquals(0, windowed.getPrevious().getCount());
+
+        windowed.rotateIfNecessary(start + 61 * 1000000000L);
+        assertEquals(2, windowed.getPrevious().getCount());
+        assertEquals(0, windowed.getCurrent().getCount());
+
+        // a window with nothing recorded
+        windowed.rotateIfNecessary(start + 181 * 1000000000L);
+        assertEquals(0, windowed.getPrevious().getCount());
+    }
+}
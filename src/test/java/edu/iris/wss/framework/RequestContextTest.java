@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.HttpHeaders;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RequestContextTest {
+    private static final String TRACEPARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736"
+          + "-00f067aa0ba902b7-01";
+
+    public RequestContextTest() {
+    }
+
+    /**
+     * Answers the request methods RequestContext uses and counts calls,
+     * keyed by method name and first argument, e.g. getHeader:user-agent
+     */
+    private static class CountingHandler implements InvocationHandler {
+        final Map<String, Integer> counts = new HashMap<>();
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method,
+              Object[] args) {
+            String key = method.getName()
+                  + (args == null || args.length == 0 ? "" : ":" + args[0]);
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+
+            switch (key) {
+            case "getContextPath":
+                return "/fdsnws/dataselect/1";
+            case "getRequestURI":
+                return "/fdsnws/dataselect/1/query";
+            case "getRemoteAddr":
+            case "getRemoteHost":
+                return "127.0.0.1";
+            case "getRequestURL":
+                return new StringBuffer(
+                      "http://localhost/fdsnws/dataselect/1/query");
+            case "getQueryString":
+                return "net=IU&sta=ANMO";
+            case "getHeader:user-agent":
+                return "ObsPy";
+            case "getHeaders:x-forwarded-for":
+                return Collections.enumeration(
+                      Arrays.asList("10.0.0.1, 10.0.0.2"));
+            case "getRequestHeader:authorization":
+                return Arrays.asList("Digest username=\"nobody\", realm=\"FDSN\"");
+            case "getHeaderString:traceparent":
+                return TRACEPARENT;
+            default:
+                return null;
+            }
+        }
+
+        synchronized int count(String key) {
+            Integer count = counts.get(key);
+            return count == null ? 0 : count;
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, CountingHandler handler) {
+        return type.cast(Proxy.newProxyInstance(
+              RequestContextTest.class.getClassLoader(),
+              new Class<?>[] {type}, handler));
+    }
+
+    @Test
+    public void testParsedOnce() throws Exception {
+        CountingHandler reqHandler = new CountingHandler();
+        CountingHandler hdrHandler = new CountingHandler();
+        RequestContext rc = RequestContext.create(
+              proxy(HttpServletRequest.class, reqHandler),
+              proxy(HttpHeaders.class, hdrHandler));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("query", rc.getEndpointName());
+            assertEquals("10.0.0.1", rc.getClientIp());
+            assertEquals("127.0.0.1", rc.getRemoteAddr());
+            assertEquals("ObsPy", rc.getUserAgent());
+            assertEquals("nobody", rc.getAuthenticatedUsername());
+            assertTrue(rc.isAuthenticated());
+        }
+
+        assertEquals(1, reqHandler.count("getHeader:user-agent"));
+        assertEquals(1, reqHandler.count("getHeaders:x-forwarded-for"));
+        assertEquals(1, hdrHandler.count("getRequestHeader:authorization"));
+        assertEquals("4bf92f3577b34da6a3ce929d0e0e4736",
+              rc.getTrace().getTraceId());
+    }
+
+    @Test
+    public void testLazyValuesStable() throws Exception {
+        CountingHandler reqHandler = new CountingHandler();
+        RequestContext rc = RequestContext.create(
+              proxy(HttpServletRequest.class, reqHandler), null);
+
+        // not resolved until asked for
+        assertEquals(0, reqHandler.count("getRequestURL"));
+
+        String requestUrl = rc.getRequestUrl();
+        assertEquals("http://localhost/fdsnws/dataselect/1/query"
+              + "?net=IU&sta=ANMO", requestUrl);
+        String clientName = rc.getClientName();
+        assertNotNull(clientName);
+        for (int i = 0; i < 3; i++) {
+            assertSame(requestUrl, rc.getRequestUrl());
+            assertSame(clientName, rc.getClientName());
+        }
+        assertEquals(1, reqHandler.count("getRequestURL"));
+
+        // no headers, so no user and a new trace
+        assertNull(rc.getAuthenticatedUsername());
+        assertFalse(rc.isAuthenticated());
+        assertEquals(32, rc.getTrace().getTraceId().length());
+    }
+
+    @Test
+    public void testNoRequest() throws Exception {
+        RequestContext rc = RequestContext.create(null, null);
+
+        assertEquals(RequestContext.NO_ENDPOINT_NAME, rc.getEndpointName());
+        assertNull(rc.getRemoteAddr());
+        assertNull(rc.getClientIp());
+        assertNull(rc.getUserAgent());
+        assertNull(rc.getAuthenticatedUsername());
+        assertNull(rc.getClientName());
+        assertNull(rc.getRequestUrl());
+        assertFalse(rc.isAuthenticated());
+        assertNotNull(rc.getTrace());
+    }
+}
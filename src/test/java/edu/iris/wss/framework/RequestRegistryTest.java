@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import edu.iris.wss.framework.RequestRegistry.Phase;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RequestRegistryTest {
+
+    public RequestRegistryTest() {
+    }
+
+    @Test
+    public void testConcurrencyLimitAndRelease() throws Exception {
+        RequestRegistry registry = new RequestRegistry();
+        RequestContext rc = RequestContext.create(null, null);
+
+        RequestRegistry.Entry e1 = registry.tryRegister("ep1", "GET", rc, 2);
+        RequestRegistry.Entry e2 = registry.tryRegister("ep1", "GET", rc, 2);
+        assertNotNull(e1);
+        assertNotNull(e2);
+        assertNull(registry.tryRegister("ep1", "GET", rc, 2));
+        assertNotNull(registry.tryRegister("ep2", "GET", rc, 2));
+        assertEquals(3, registry.getInFlight());
+
+        e1.release();
+        e1.release();
+        assertEquals(1, registry.getInFlight("ep1"));
+        assertNull(registry.get(e1.id));
+        assertNotNull(registry.tryRegister("ep1", "GET", rc, 2));
+    }
+
+    @Test
+    public void testReleaseActionRunsOnce() throws Exception {
+        RequestRegistry registry = new RequestRegistry();
+        RequestRegistry.Entry entry = registry.tryRegister("ep1", "GET",
+              RequestContext.create(null, null), 0);
+        final AtomicInteger runs = new AtomicInteger(0);
+        entry.setReleaseAction(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        });
+
+        entry.release();
+        entry.release();
+        assertEquals(1, runs.get());
+        assertEquals(0, registry.getInFlight());
+    }
+
+    @Test
+    public void testEntryDetails() throws Exception {
+        RequestRegistry registry = new RequestRegistry();
+        RequestRegistry.Entry entry = registry.tryRegister("ep1", "POST",
+              RequestContext.create(null, null), 0);
+
+        assertEquals(Phase.RECEIVED, entry.getPhase());
+        assertEquals(-1, entry.getHandlerPid());
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < RequestRegistry.MAX_PARAMETERS_LENGTH * 2; i++) {
+            sb.append('x');
+        }
+        entry.setParameters(sb.toString());
+        assertEquals(RequestRegistry.MAX_PARAMETERS_LENGTH + 3,
+              entry.getParameters().length());
+
+        entry.addBytesShipped(100);
+        entry.addBytesShipped(23);
+        assertEquals(123, entry.getBytesShipped());
+        assertTrue(entry.toString().contains("bytesShipped: 123"));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        RequestRegistry registry = new RequestRegistry();
+        RequestRegistry.Entry entry = registry.tryRegister("ep1", "GET",
+              RequestContext.create(null, null), 0);
+
+        // nothing to cancel yet
+        assertFalse(entry.cancel());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        entry.setPhase(Phase.STREAMING);
+        entry.setCanceller(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(entry.cancel());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Phase.CANCELLING, entry.getPhase());
+
+        // only cancelled once, and later phases do not hide the cancel
+        assertFalse(entry.cancel());
+        entry.setPhase(Phase.FINISHING);
+        assertEquals(Phase.CANCELLING, entry.getPhase());
+    }
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import edu.iris.wss.framework.RequestTrace.Span;
+import edu.iris.wss.utils.TraceFileSink;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RequestTraceTest {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String PARENT_ID = "00f067aa0ba902b7";
+
+    public RequestTraceTest() {
+    }
+
+    @Test
+    public void testIncomingTraceparent() throws Exception {
+        RequestTrace trace = new RequestTrace("00-" + TRACE_ID + "-"
+              + PARENT_ID + "-01", System.nanoTime());
+
+        assertEquals(TRACE_ID, trace.getTraceId());
+        assertEquals(PARENT_ID, trace.getParentSpanId());
+        assertEquals(16, trace.getSpanId().length());
+        assertFalse(PARENT_ID.equals(trace.getSpanId()));
+        assertEquals("00-" + TRACE_ID + "-" + trace.getSpanId() + "-01",
+              trace.getTraceparent());
+    }
+
+    @Test
+    public void testInvalidTraceparent() throws Exception {
+        String[] invalid = {null, "", "garbage",
+              "00-" + TRACE_ID + "-" + PARENT_ID,
+              "00-00000000000000000000000000000000-" + PARENT_ID + "-01",
+              "00-" + TRACE_ID + "-0000000000000000-01",
+              "00-" + TRACE_ID.toUpperCase() + "-" + PARENT_ID + "-01",
+              "ff-" + TRACE_ID + "-" + PARENT_ID + "-01",
+              "00-" + TRACE_ID + "-" + PARENT_ID + "-01-extra"};
+        for (String value : invalid) {
+            assertFalse(value, RequestTrace.isValidTraceparent(value));
+            RequestTrace trace = new RequestTrace(value, System.nanoTime());
+            assertNull(trace.getParentSpanId());
+            assertEquals(32, trace.getTraceId().length());
+            assertFalse(TRACE_ID.equals(trace.getTraceId()));
+        }
+
+        // a later version may add fields
+        assertTrue(RequestTrace.isValidTraceparent("01-" + TRACE_ID + "-"
+              + PARENT_ID + "-01-extra"));
+    }
+
+    @Test
+    public void testSpans() throws Exception {
+        long start = System.nanoTime();
+        RequestTrace trace = new RequestTrace(null, start);
+
+        trace.record(Span.PROCESS_SPAWN, start + 1000000L, start + 3000000L);
+        assertEquals(2000000L, trace.getSpanNanos(Span.PROCESS_SPAWN));
+        assertEquals(-1L, trace.getSpanNanos(Span.STREAMING));
+
+        trace.start(Span.STREAMING);
+        assertFalse(trace.isRecorded(Span.STREAMING));
+        trace.end(Span.STREAMING);
+        assertTrue(trace.getSpanNanos(Span.STREAMING) >= 0);
+
+        String json = trace.appendJson(new StringBuilder(), "app", "ep\"1",
+              "GET", "127.0.0.1", 200, 5000000L).toString();
+        assertTrue(json, json.startsWith("{\"traceId\":\""
+              + trace.getTraceId() + "\""));
+        assertTrue(json, json.contains("\"endpoint\":\"ep\\\"1\""));
+        assertTrue(json, json.contains("\"durationUs\":5000,"));
+        assertTrue(json, json.contains(
+              "{\"name\":\"process_spawn\",\"startUs\":1000,\"durationUs\":2000}"));
+        assertTrue(json, json.contains("\"name\":\"streaming\""));
+        assertFalse(json, json.contains("first_byte"));
+        assertFalse(json, json.contains("parentSpanId"));
+        assertFalse(json, json.contains("\"stream\""));
+
+        StreamTiming timing = new StreamTiming(0L);
+        timing.addReadWait(1500000L);
+        timing.addWriteWait(2000000L);
+        timing.finish(4000000L);
+        trace.setStreamTiming(timing);
+        json = trace.appendJson(new StringBuilder(), "app", "ep1",
+              "GET", "127.0.0.1", 200, 5000000L).toString();
+        assertTrue(json, json.endsWith("],\"stream\":{\"bound\":\"client\","
+              + "\"readWaitUs\":1500,\"writeWaitUs\":2000,"
+              + "\"processingUs\":500}}"));
+    }
+
+    @Test
+    public void testFileSink() throws Exception {
+        File file = File.createTempFile("wss_trace_", ".json");
+        file.delete();
+        TraceFileSink sink = new TraceFileSink(file);
+        sink.start("RequestTraceTest");
+
+        RequestTrace trace = new RequestTrace(null, System.nanoTime());
+        // no sink, so nothing is written
+        trace.finish(200);
+
+        trace.setSink(sink, "app", "ep1", "GET", "127.0.0.1");
+        trace.start(Span.CONFIG_LOOKUP);
+        trace.end(Span.CONFIG_LOOKUP);
+        trace.finish(204);
+        trace.finish(500);
+        sink.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(),
+              StandardCharsets.UTF_8);
+        file.delete();
+
+        assertEquals(1, lines.size());
+        assertEquals(1, sink.getWrittenCount());
+        assertTrue(lines.get(0).contains("\"status\":204"));
+        assertTrue(lines.get(0).contains("\"name\":\"config_lookup\""));
+    }
+}
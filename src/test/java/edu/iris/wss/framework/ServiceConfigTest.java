@@ -157,6 +157,24 @@ public class ServiceConfigTest  {
         assertEquals(403, response.getStatus());
     }
 
+    @Test
+    public void testGet_wssrequests() throws Exception {
+        Client c = ClientBuilder.newClient();
+        WebTarget webTarget = c.target(BASE_URI);
+        Response response = webTarget.path("wssrequests").request().get();
+
+        assertEquals(200, response.getStatus());
+        assertEquals("text/plain", response.getMediaType().toString());
+
+        response = webTarget.path("wssrequests").queryParam("id", "999999")
+              .request().delete();
+        assertEquals(404, response.getStatus());
+
+        response = webTarget.path("wssrequests").queryParam("id", "abc")
+              .request().delete();
+        assertEquals(400, response.getStatus());
+    }
+
     @Test
     public void testMediaParameter1() throws Exception {
         Client c = ClientBuilder.newClient();
@@ -333,6 +351,7 @@ public class ServiceConfigTest  {
 
         sb.append("\n");
         sb.append("wssstatus.allowedIPs = 127.0.0.1/32").append("\n");
+        sb.append("wssrequests.allowedIPs = 127.0.0.1/32").append("\n");
         sb.append("whoami.allowedIPs = 0.0.0.0/32, ::0/128").append("\n");
         sb.append("\n");
 
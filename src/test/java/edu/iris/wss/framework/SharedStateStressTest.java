@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import edu.iris.wss.framework.AppConfigurator.LoggingMethod;
+import edu.iris.wss.framework.AppConfigurator.UsageFileFormat;
+import edu.iris.wss.utils.LoggerUtils;
+import edu.iris.wss.utils.UsageFileWriter;
+import edu.iris.wss.utils.UsagePublisherTest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.log4j.Level;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Stress tests for state shared by request threads, StatsKeeper, the
+ * AppContextListener and WssSingleton statics and the usage backends
+ * they hold.
+ *
+ * Threads are started together on a barrier and run for ROUNDS rounds
+ * so races are hit often, the assertions are on invariants which must
+ * hold for every interleaving, e.g. no count is lost and the name
+ * limit is never exceeded.
+ */
+public class SharedStateStressTest {
+    private static final int THREAD_COUNT = 8;
+    private static final int ROUNDS = 50;
+    private static final int OPS_PER_THREAD = 2000;
+    private static final long VISIBILITY_WAIT_MSEC = 10000;
+
+    private static final String[] ENDPOINTS = {"dataselect", "station", "event"};
+    private static final String[] METHODS = {"GET", "POST", "HEAD"};
+    private static final int[] STATUSES = {200, 204, 400, 404, 500};
+    private static final String[] FORMATS = {"miniseed", "text", "xml", null};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public SharedStateStressTest() {
+    }
+
+    /**
+     * Runs task on THREAD_COUNT threads started together, the first
+     * exception or assertion failure from any thread is thrown here.
+     */
+    private static void runTogether(final TaskBody task) throws Throwable {
+        final CyclicBarrier barrier = new CyclicBarrier(THREAD_COUNT);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            final int threadIndex = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                        task.run(threadIndex);
+                    } catch (Throwable th) {
+                        failure.compareAndSet(null, th);
+                    }
+                }
+            }, "stress-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private interface TaskBody {
+        void run(int threadIndex) throws Exception;
+    }
+
+    private static long sum(Map<?, Long> counts) {
+        long total = 0;
+        for (Long count : counts.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    @Test
+    public void testStatsKeeperCountsAreConsistent() throws Throwable {
+        final StatsKeeper stats = new StatsKeeper();
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        final AtomicReference<String> readerFailure = new AtomicReference<>();
+
+        // reads while the counts change, totals only increase
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long lastRequests = 0;
+                while (isRunning.get()) {
+                    long requests = stats.getGets() + stats.getPosts()
+                          + stats.getAuthGets() + stats.getAuthPosts();
+                    if (requests < lastRequests) {
+                        readerFailure.compareAndSet(null, "requests went from: "
+                              + lastRequests + " to: " + requests);
+                    }
+                    lastRequests = requests;
+                    if (stats.getHandlersInFlight() < 0) {
+                        readerFailure.compareAndSet(null,
+                              "negative handlers in flight");
+                    }
+                    stats.toHtmlString();
+                }
+            }
+        }, "stress-reader");
+        reader.start();
+
+        try {
+            for (int round = 0; round < ROUNDS / 10; round++) {
+                runTogether(new TaskBody() {
+                    @Override
+                    public void run(int threadIndex) {
+                        for (int j = 0; j < OPS_PER_THREAD; j++) {
+                            int k = threadIndex + j;
+                            String epName = ENDPOINTS[k % ENDPOINTS.length];
+                            stats.logRequest(epName, METHODS[k % METHODS.length],
+                                  k % 7 == 0);
+                            stats.logHandlerStart();
+                            stats.logResponse(epName,
+                                  STATUSES[k % STATUSES.length],
+                                  FORMATS[k % FORMATS.length]);
+                            stats.logShippedBytes(epName, k % 100);
+                            stats.logHandlerExit(k % 2);
+                        }
+                    }
+                });
+            }
+        } finally {
+            isRunning.set(false);
+            reader.join();
+        }
+        assertNull(readerFailure.get(), readerFailure.get());
+
+        long total = (long)(ROUNDS / 10) * THREAD_COUNT * OPS_PER_THREAD;
+        assertEquals(total, stats.getGets() + stats.getPosts()
+              + stats.getAuthGets() + stats.getAuthPosts());
+        assertEquals(total, sum(stats.getMethodCounts()));
+        assertEquals(total, sum(stats.getStatusCounts()));
+        assertEquals(total, sum(stats.getHandlerExitCodes()));
+        assertEquals(total, stats.getHandlersStarted());
+        assertEquals(0, stats.getHandlersInFlight());
+
+        long endpointRequests = 0;
+        long endpointStatuses = 0;
+        long endpointBytes = 0;
+        for (StatsKeeper.EndpointStats eps : stats.getEndpointStats().values()) {
+            endpointRequests += eps.requests.sum();
+            endpointStatuses += sum(StatsKeeper.sums(eps.statuses));
+            endpointBytes += eps.shippedBytes.sum();
+        }
+        assertEquals(total, endpointRequests);
+        assertEquals(total, endpointStatuses);
+        assertEquals(stats.getShippedBytes(), endpointBytes);
+    }
+
+    /**
+     * Every thread adds new names at the same time, when the maps are
+     * close to full they must still stop at MAX_NAMES names plus
+     * OTHER_NAME, and no count may be lost.
+     */
+    @Test
+    public void testStatsKeeperNameLimitUnderContention() throws Throwable {
+        for (int round = 0; round < ROUNDS; round++) {
+            final StatsKeeper stats = new StatsKeeper();
+            // nearly full, so the threads race for the last few names
+            final int preloaded = StatsKeeper.MAX_NAMES - THREAD_COUNT / 2;
+            for (int i = 0; i < preloaded; i++) {
+                stats.logRequest("pre" + i, "M" + i, false);
+                stats.logResponse("pre" + i, 200, "F" + i);
+            }
+
+            final int namesPerThread = 4;
+            runTogether(new TaskBody() {
+                @Override
+                public void run(int threadIndex) {
+                    for (int j = 0; j < namesPerThread; j++) {
+                        String name = "t" + threadIndex + "_" + j;
+                        stats.logRequest(name, name, false);
+                        stats.logResponse(name, 200, name);
+                    }
+                }
+            });
+
+            long total = preloaded + THREAD_COUNT * namesPerThread;
+            Map<String, StatsKeeper.EndpointStats> eps = stats.getEndpointStats();
+            assertTrue("endpoint names: " + eps.size(),
+                  eps.size() <= StatsKeeper.MAX_NAMES + 1);
+            assertTrue(stats.getMethodCounts().size()
+                  <= StatsKeeper.MAX_NAMES + 1);
+            assertTrue(stats.getFormatTypeCounts().size()
+                  <= StatsKeeper.MAX_NAMES + 1);
+
+            long requests = 0;
+            for (StatsKeeper.EndpointStats one : eps.values()) {
+                requests += one.requests.sum();
+            }
+            assertEquals(total, requests);
+            assertEquals(total, sum(stats.getMethodCounts()));
+            assertEquals(total, sum(stats.getFormatTypeCounts()));
+        }
+    }
+
+    /**
+     * globalConfigBase is set on the container thread which runs the
+     * listener and read when MyApplication is created on a request
+     * thread, the reader must see the write.
+     */
+    @Test
+    public void testGlobalConfigBaseIsVisible() throws Throwable {
+        String saved = AppContextListener.globalConfigBase;
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                final String expected = "stressConfigBase" + round;
+                AppContextListener.globalConfigBase = null;
+                final AtomicBoolean isSeen = new AtomicBoolean(false);
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // a plain field may be read once and never again
+                        while (!expected.equals(
+                              AppContextListener.globalConfigBase)) {
+                            // spin
+                        }
+                        isSeen.set(true);
+                    }
+                }, "stress-reader");
+                reader.setDaemon(true);
+                reader.start();
+                Thread.sleep(1);
+                AppContextListener.globalConfigBase = expected;
+                reader.join(VISIBILITY_WAIT_MSEC);
+                assertTrue("round: " + round, isSeen.get());
+            }
+        } finally {
+            AppContextListener.globalConfigBase = saved;
+        }
+    }
+
+    /**
+     * The usage file writer is replaced and removed, as at startup and
+     * shutdown, while request threads publish. A publish either fails
+     * or is written, so writes reported as done must equal the records
+     * the writers have.
+     */
+    @Test
+    public void testUsageFileWriterSwapWhilePublishing() throws Throwable {
+        UsageFileWriter saved = WssSingleton.usageFileWriter;
+        Level savedLevel = LoggerUtils.logger.getLevel();
+        // a failed write is logged as an error
+        LoggerUtils.logger.setLevel(Level.OFF);
+
+        final List<UsageFileWriter> writers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            UsageFileWriter writer = new UsageFileWriter(folder.newFolder(),
+                  "stress" + i, UsageFileFormat.BINARY, 1024L * 1024L * 1024L,
+                  1000);
+            writer.start();
+            writers.add(writer);
+        }
+        final WSUsageItem wsu = UsagePublisherTest.createItem();
+        final AtomicLong reported = new AtomicLong(0);
+
+        try {
+            for (int round = 0; round < ROUNDS / 10; round++) {
+                final AtomicLong publishersDone = new AtomicLong(0);
+                runTogether(new TaskBody() {
+                    @Override
+                    public void run(int threadIndex) {
+                        if (threadIndex == 0) {
+                            // swap until the publishers are done, null some
+                            // of the time, as after shutdown
+                            int j = 0;
+                            while (publishersDone.get() < THREAD_COUNT - 1) {
+                                int which = j++ % (writers.size() + 1);
+                                WssSingleton.usageFileWriter =
+                                      which == writers.size() ? null
+                                      : writers.get(which);
+                                Thread.yield();
+                            }
+                            return;
+                        }
+                        for (int j = 0; j < OPS_PER_THREAD; j++) {
+                            if (LoggerUtils.publishUsageItem(LoggingMethod.FILE,
+                                  Level.INFO, wsu, null)) {
+                                reported.incrementAndGet();
+                            }
+                        }
+                        publishersDone.incrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            WssSingleton.usageFileWriter = saved;
+            LoggerUtils.logger.setLevel(savedLevel);
+        }
+
+        long written = 0;
+        for (UsageFileWriter writer : writers) {
+            writer.close();
+            written += writer.getRecordCount();
+        }
+        assertTrue(reported.get() > 0);
+        assertEquals(reported.get(), written);
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StatsKeeperTest {
+    private static final int THREAD_COUNT = 8;
+    private static final int REQUESTS_PER_THREAD = 20000;
+
+    public StatsKeeperTest() {
+    }
+
+    @Test
+    public void testConcurrentCountsAreExact() throws Exception {
+        final StatsKeeper stats = new StatsKeeper();
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            final String epName = "ep" + (i % 2);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < REQUESTS_PER_THREAD; j++) {
+                        stats.logRequest(epName, "GET", false);
+                        stats.logResponse(epName, 200, "text");
+                        stats.logShippedBytes(epName, 10);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long total = (long)THREAD_COUNT * REQUESTS_PER_THREAD;
+        assertEquals(total, stats.getGets());
+        assertEquals(total * 10, stats.getShippedBytes());
+        assertEquals(Long.valueOf(total), stats.getStatusCounts().get(200));
+        assertEquals(Long.valueOf(total), stats.getMethodCounts().get("GET"));
+        assertEquals(Long.valueOf(total), stats.getFormatTypeCounts().get("text"));
+
+        Map<String, StatsKeeper.EndpointStats> eps = stats.getEndpointStats();
+        assertEquals(2, eps.size());
+        assertEquals(total / 2, eps.get("ep0").requests.sum());
+        assertEquals(total / 2 * 10, eps.get("ep1").shippedBytes.sum());
+    }
+
+    @Test
+    public void testPostsAndErrors() throws Exception {
+        StatsKeeper stats = new StatsKeeper();
+        stats.logRequest("query", "POST", true);
+        stats.logRequest("query", "POST", false);
+        stats.logRequest("query", "HEAD", true);
+        stats.logResponse("query", 400, null);
+
+        // authenticated requests are only counted as auth gets and posts
+        assertEquals(1, stats.getPosts());
+        assertEquals(1, stats.getAuthPosts());
+        assertEquals(0, stats.getGets());
+        assertEquals(1, stats.getAuthGets());
+        assertEquals(1, stats.getEndpointStats().get("query").errors.sum());
+        assertTrue(stats.getFormatTypeCounts().isEmpty());
+        assertTrue(stats.toHtmlString().contains("query"));
+    }
+
+    @Test
+    public void testNamesAreLimited() throws Exception {
+        StatsKeeper stats = new StatsKeeper();
+        for (int i = 0; i < StatsKeeper.MAX_NAMES * 2; i++) {
+            stats.logResponse("notAnEndpoint" + i, 404, null);
+        }
+        Map<String, StatsKeeper.EndpointStats> eps = stats.getEndpointStats();
+        assertEquals(StatsKeeper.MAX_NAMES + 1, eps.size());
+        assertEquals(StatsKeeper.MAX_NAMES,
+              eps.get(StatsKeeper.OTHER_NAME).statuses.get(404).sum());
+    }
+
+    @Test
+    public void testRollingRate() throws Exception {
+        RollingRate rate = new RollingRate();
+        long tickNanos = RollingRate.TICK_SECONDS * 1000000000L;
+        long start = rate.getLastTick();
+
+        rate.mark(RollingRate.TICK_SECONDS * 10);
+        rate.tickIfNecessary(start + tickNanos);
+        assertEquals(10.0, rate.getOneMinuteRate(), 0.001);
+        assertEquals(10.0, rate.getFifteenMinuteRate(), 0.001);
+
+        // one idle minute, the 1 minute rate drops to 1/e
+        rate.tickIfNecessary(start + 13 * tickNanos);
+        assertEquals(10.0 / Math.E, rate.getOneMinuteRate(), 0.001);
+        assertTrue(rate.getFiveMinuteRate() > rate.getOneMinuteRate());
+        assertTrue(rate.getFifteenMinuteRate() > rate.getFiveMinuteRate());
+    }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.framework;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StreamTimingTest {
+
+    public StreamTimingTest() {
+    }
+
+    @Test
+    public void testPartsAndBound() throws Exception {
+        StreamTiming timing = new StreamTiming(1000L);
+        timing.addReadWait(600L);
+        timing.addReadWait(100L);
+        timing.addWriteWait(200L);
+        timing.finish(2000L);
+        // a second finish does not move the end
+        timing.finish(5000L);
+
+        assertEquals(1000L, timing.getTotalNanos());
+        assertEquals(700L, timing.getReadWaitNanos());
+        assertEquals(200L, timing.getWriteWaitNanos());
+        assertEquals(100L, timing.getProcessingNanos());
+        assertEquals(StreamTiming.Bound.HANDLER, timing.getBound());
+    }
+
+    @Test
+    public void testClientAndProcessingBound() throws Exception {
+        StreamTiming client = new StreamTiming(0L);
+        client.addReadWait(100L);
+        client.addWriteWait(800L);
+        client.finish(1000L);
+        assertEquals(StreamTiming.Bound.CLIENT, client.getBound());
+
+        StreamTiming processing = new StreamTiming(0L);
+        processing.addReadWait(100L);
+        processing.addWriteWait(100L);
+        processing.finish(1000L);
+        assertEquals(StreamTiming.Bound.PROCESSING, processing.getBound());
+    }
+
+    @Test
+    public void testToString() throws Exception {
+        StreamTiming timing = new StreamTiming(0L);
+        timing.addReadWait(1500000L);
+        timing.addWriteWait(2000000L);
+        timing.finish(4000000L);
+        assertEquals("bound=CLIENT readWaitMsec=1.500 writeWaitMsec=2.000"
+              + " processingMsec=0.500", timing.toString());
+    }
+
+    @Test
+    public void testStatsKeeperTotals() throws Exception {
+        StatsKeeper stats = new StatsKeeper();
+        StreamTiming timing = new StreamTiming(0L);
+        timing.addReadWait(700L);
+        timing.addWriteWait(200L);
+        timing.finish(1000L);
+        stats.logStreamTiming("query", timing);
+        stats.logStreamTiming("query", timing);
+
+        StatsKeeper.EndpointStats eps = stats.getEndpointStats().get("query");
+        assertEquals(1400L, eps.readWaitNanos.sum());
+        assertEquals(400L, eps.writeWaitNanos.sum());
+        assertEquals(200L, eps.processingNanos.sum());
+        assertEquals(2L, eps.getBoundCount(StreamTiming.Bound.HANDLER));
+        assertEquals(0L, eps.getBoundCount(StreamTiming.Bound.CLIENT));
+        assertTrue(stats.toHtmlString().contains("Endpoint Streaming"));
+        StringBuilder sb = new StringBuilder();
+        OpenMetricsWriter.appendStats(sb, stats);
+        assertTrue(sb.toString().contains(
+              "wss_endpoint_streams_total{endpoint=\"query\",bound=\"handler\"} 2"));
+    }
+}
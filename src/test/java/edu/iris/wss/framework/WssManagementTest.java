@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.framework;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.RuntimeMBeanException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WssManagementTest {
+    private static final String EP_NAME = "mgmtEP";
+
+    public WssManagementTest() {
+    }
+
+    private WssSingleton createSingleton() throws Exception {
+        Properties props =
+              AppConfigurator_getters_Test.createInitialTestProperties(EP_NAME);
+        AppConfigurator appCfg = new AppConfigurator();
+        try {
+            appCfg.loadConfigurationParameters(props);
+        } catch (Exception ex) {
+            // the handler program is not needed for this test
+        }
+
+        WssSingleton sw = new WssSingleton();
+        sw.appConfig = appCfg;
+        return sw;
+    }
+
+    @Test
+    public void testLiveTuning() throws Exception {
+        WssSingleton sw = createSingleton();
+        WssManagement management = new WssManagement(sw);
+        management.register();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName epMBean = new ObjectName(WssManagement.DOMAIN
+                  + ":type=Endpoint,configBase="
+                  + ObjectName.quote(sw.getConfigFileBase())
+                  + ",endpoint=" + ObjectName.quote(EP_NAME));
+            assertTrue(management.getObjectNames().contains(epMBean));
+
+            server.setAttribute(epMBean, new Attribute("HandlerTimeout", 99));
+            assertEquals(99, sw.appConfig.getTimeoutSeconds(EP_NAME));
+
+            server.setAttribute(epMBean, new Attribute("UsageLogEnabled", false));
+            assertFalse(sw.appConfig.isUsageLogEnabled(EP_NAME));
+
+            server.setAttribute(epMBean, new Attribute("ConcurrencyLimit", 1));
+            assertEquals(1, sw.appConfig.getConcurrencyLimit(EP_NAME));
+
+            server.setAttribute(epMBean,
+                  new Attribute("SlowRequestThreshold", 2500));
+            assertEquals(2500, sw.appConfig.getSlowRequestThreshold(EP_NAME));
+
+            try {
+                server.setAttribute(epMBean, new Attribute("ConcurrencyLimit", -1));
+                fail("a negative limit should be rejected");
+            } catch (RuntimeMBeanException ex) {
+                assertTrue(ex.getCause() instanceof IllegalArgumentException);
+            }
+
+            RequestRegistry.Entry entry = sw.requestRegistry.tryRegister(
+                  EP_NAME, "GET", RequestContext.create(null, null),
+                  sw.appConfig.getConcurrencyLimit(EP_NAME));
+            assertNotNull(entry);
+            assertEquals(1, server.getAttribute(epMBean, "RequestsInFlight"));
+            assertNull(sw.requestRegistry.tryRegister(EP_NAME, "GET",
+                  RequestContext.create(null, null), 1));
+
+            String[] list = (String[])server.getAttribute(
+                  management.getObjectNames().get(0), "RequestsInFlightList");
+            assertEquals(1, list.length);
+
+            entry.release();
+            entry.release();
+            assertEquals(0, sw.requestRegistry.getInFlight(EP_NAME));
+
+            String[] cfg = (String[])server.getAttribute(epMBean, "Configuration");
+            boolean isFound = false;
+            for (String line : cfg) {
+                isFound |= line.equals(EP_NAME + ".handlerTimeout=99");
+            }
+            assertTrue(isFound);
+        } finally {
+            management.unregister();
+        }
+        assertTrue(management.getObjectNames().isEmpty());
+    }
+
+    @Test
+    public void testUnknownEndpoint() throws Exception {
+        WssSingleton sw = createSingleton();
+        try {
+            sw.appConfig.setTimeoutSeconds("notAnEndpoint", 10);
+            fail("an unknown endpoint should be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BoundedAsyncWriterTest {
+
+    public BoundedAsyncWriterTest() {
+    }
+
+    private static class ListWriter extends BoundedAsyncWriter<Integer> {
+        final List<Integer> items = new ArrayList<>();
+        final CountDownLatch isWriting = new CountDownLatch(1);
+        final CountDownLatch isReleased;
+        volatile String closeThreadName = null;
+        volatile int closeCount = 0;
+        volatile int itemsAtClose = -1;
+
+        ListWriter(int queueSize, boolean isBlocked) {
+            super("ListWriter", "wss-test-writer", queueSize, 16);
+            isReleased = new CountDownLatch(isBlocked ? 1 : 0);
+        }
+
+        @Override
+        protected void write(Integer item) {
+            isWriting.countDown();
+            try {
+                isReleased.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            items.add(item);
+        }
+
+        @Override
+        protected void close() {
+            closeCount++;
+            itemsAtClose = items.size();
+            closeThreadName = Thread.currentThread().getName();
+        }
+    }
+
+    @Test
+    public void testWriteThenClose() throws Exception {
+        ListWriter writer = new ListWriter(1000, false);
+        writer.start("BoundedAsyncWriterTest");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(writer.offer(i));
+        }
+        writer.stop();
+        // after stop, so dropped
+        assertFalse(writer.offer(100));
+
+        assertEquals(100, writer.getWrittenCount());
+        assertEquals(1, writer.getDroppedCount());
+        assertEquals(Integer.valueOf(99), writer.items.get(99));
+        // closed once, by the writer thread, after all were written
+        assertEquals(1, writer.closeCount);
+        assertEquals(100, writer.itemsAtClose);
+        assertEquals("wss-test-writer-BoundedAsyncWriterTest",
+              writer.closeThreadName);
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        ListWriter writer = new ListWriter(4, true);
+        writer.start("BoundedAsyncWriterTest");
+
+        // the first is taken by the writer thread, which then blocks
+        assertTrue(writer.offer(0));
+        assertTrue(writer.isWriting.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(writer.offer(i));
+        }
+        assertFalse(writer.offer(5));
+
+        writer.isReleased.countDown();
+        writer.stop();
+        assertEquals(5, writer.getWrittenCount());
+        assertEquals(1, writer.getDroppedCount());
+        assertEquals(1, writer.closeCount);
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class CaptureFileSinkTest {
+    private static final int REQUEST_COUNT = 300;
+    private static final String POST_BODY = "quality=B\nIU ANMO 00 BHZ"
+          + " 2010-02-27T06:30:00 2010-02-27T10:30:00\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public CaptureFileSinkTest() {
+    }
+
+    private File capture(File file, boolean isBodyKept) throws Exception {
+        CaptureFileSink sink = new CaptureFileSink(file, isBodyKept);
+        sink.start("CaptureFileSinkTest");
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            CaptureFileSink.Pending pending = sink.begin(startNanos);
+            pending.request.endpoint = "query";
+            if (i % 3 == 0) {
+                pending.request.method = "POST";
+                pending.request.contentType = "text/plain";
+                pending.request.body = POST_BODY
+                      .getBytes(StandardCharsets.UTF_8);
+            } else {
+                pending.request.method = "GET";
+                pending.request.query = "net=IU&sta=ANMO&cha=BH" + i;
+            }
+            pending.finish(i % 10 == 0 ? 204 : 200);
+            // only the first finish is written
+            pending.finish(500);
+        }
+        sink.stop();
+        assertEquals(REQUEST_COUNT, sink.getWrittenCount());
+        assertEquals(0, sink.getDroppedCount());
+        return sink.getFile();
+    }
+
+    private List<CaptureFormat.Request> read(File file) throws Exception {
+        List<CaptureFormat.Request> requests = new ArrayList<>();
+        try (InputStream in = new FileInputStream(file)) {
+            CaptureFormat.Decoder decoder = new CaptureFormat.Decoder(in);
+            CaptureFormat.Request request;
+            while ((request = decoder.next()) != null) {
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File file = capture(new File(folder.getRoot(), "capture.bin"), true);
+        List<CaptureFormat.Request> requests = read(file);
+
+        assertEquals(REQUEST_COUNT, requests.size());
+        long firstStart = requests.get(0).startMillis;
+        for (int i = 0; i < requests.size(); i++) {
+            CaptureFormat.Request request = requests.get(i);
+            assertEquals("query", request.endpoint);
+            assertEquals(i % 10 == 0 ? 204 : 200, request.status);
+            assertTrue(request.durationMicros >= 0);
+            // all have the same start, less clock jitter
+            assertTrue(Math.abs(request.startMillis - firstStart) <= 2);
+            assertTrue(request.isReplayable());
+            if (i % 3 == 0) {
+                assertTrue(request.isPost());
+                assertEquals("text/plain", request.contentType);
+                assertEquals(POST_BODY, new String(request.body,
+                      StandardCharsets.UTF_8));
+                assertNull(request.query);
+            } else {
+                assertEquals("GET", request.method);
+                assertEquals("net=IU&sta=ANMO&cha=BH" + i, request.query);
+                assertNull(request.body);
+            }
+        }
+        // dictionary strings and delta times keep a GET to a few bytes
+        // more than its query
+        assertTrue("size: " + file.length(), file.length() < REQUEST_COUNT * 40
+              + POST_BODY.length() * REQUEST_COUNT / 3);
+    }
+
+    @Test
+    public void testBodyHash() throws Exception {
+        File file = capture(new File(folder.getRoot(), "hashed.bin"), false);
+        List<CaptureFormat.Request> requests = read(file);
+
+        CaptureFormat.Request post = requests.get(0);
+        assertTrue(post.isPost());
+        assertFalse(post.isReplayable());
+        assertNull(post.body);
+        assertEquals(POST_BODY.length(), post.bodyLength);
+        assertArrayEquals(CaptureFormat.hash(POST_BODY.getBytes(
+              StandardCharsets.UTF_8)), post.bodyHash);
+        assertTrue(requests.get(1).isReplayable());
+    }
+
+    @Test
+    public void testFileSequence() throws Exception {
+        File file = new File(folder.getRoot(), "capture.bin");
+        File first = capture(file, true);
+        File second = capture(file, true);
+
+        assertEquals(file, first);
+        assertEquals("capture_001.bin", second.getName());
+        assertEquals(REQUEST_COUNT, read(second).size());
+    }
+
+    @Test
+    public void testReader() throws Exception {
+        File file = capture(new File(folder.getRoot(), "capture.bin"), false);
+        StringWriter out = new StringWriter();
+        try (InputStream in = new FileInputStream(file)) {
+            assertEquals(REQUEST_COUNT, CaptureFileReader.convert(in, out));
+        }
+        String[] lines = out.toString().split("\n");
+        assertEquals(REQUEST_COUNT, lines.length);
+
+        String[] post = lines[0].split("\t", -1);
+        assertEquals(CaptureFileReader.HEADER.split("\t").length, post.length);
+        assertEquals("204", post[2]);
+        assertEquals("POST", post[3]);
+        assertEquals(Integer.toString(POST_BODY.length()), post[7]);
+        assertEquals(64, post[8].length());
+
+        String[] get = lines[1].split("\t", -1);
+        assertEquals("GET", get[3]);
+        assertEquals("net=IU&sta=ANMO&cha=BH1", get[5]);
+        assertEquals("-1", get[7]);
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class NameResolverTest {
+
+    public NameResolverTest() {
+    }
+
+    @Before
+    public void setUp() {
+        NameResolver.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        NameResolver.shutdown();
+        NameResolver.setClientLookup(null, 0, 0);
+        NameResolver.clearCache();
+    }
+
+    /**
+     * Names are host-N, N counting lookups.
+     */
+    private static class CountingLookup implements NameResolver.ReverseLookup {
+        final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public String getName(String ip) {
+            return "host-" + count.incrementAndGet();
+        }
+    }
+
+    private static String waitForName(String ip, String name) throws Exception {
+        String value = null;
+        for (int i = 0; i < 500; i++) {
+            value = NameResolver.getClientName(ip);
+            if (name.equals(value)) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        return value;
+    }
+
+    @Test
+    public void testLoopback() throws Exception {
+        assertEquals(NameResolver.LOOPBACK_NAME,
+              NameResolver.getClientName("127.0.0.1"));
+        assertEquals(NameResolver.LOOPBACK_NAME,
+              NameResolver.getClientName("0:0:0:0:0:0:0:1"));
+    }
+
+    @Test
+    public void testFirstLookupReturnsIp() throws Exception {
+        // TEST-NET-1 address, a reverse lookup should not be answered
+        // before the first call returns
+        String ip = "192.0.2.17";
+        assertEquals(ip, NameResolver.getClientName(ip));
+
+        // still a usable value while the lookup is pending or after
+        // it has failed
+        assertNotNull(NameResolver.getClientName(ip));
+    }
+
+    @Test
+    public void testNullAndEmpty() throws Exception {
+        assertNull(NameResolver.getClientName(null));
+        assertEquals("", NameResolver.getClientName(""));
+    }
+
+    @Test
+    public void testHostnameIsCached() throws Exception {
+        String first = NameResolver.getHostname();
+        assertNotNull(first);
+        assertSame(first, NameResolver.getHostname());
+    }
+
+    @Test
+    public void testRestartAfterShutdown() throws Exception {
+        NameResolver.getClientName("192.0.2.18");
+        NameResolver.shutdown();
+        assertEquals("192.0.2.19", NameResolver.getClientName("192.0.2.19"));
+    }
+
+    @Test
+    public void testResolvedName() throws Exception {
+        CountingLookup lookup = new CountingLookup();
+        NameResolver.setClientLookup(lookup, 60000, 0);
+
+        String ip = "192.0.2.20";
+        assertEquals(ip, NameResolver.getClientName(ip));
+        assertEquals("host-1", waitForName(ip, "host-1"));
+
+        // cached, no more lookups
+        assertEquals("host-1", NameResolver.getClientName(ip));
+        assertEquals(1, lookup.count.get());
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        CountingLookup lookup = new CountingLookup();
+        NameResolver.setClientLookup(lookup, 200, 0);
+
+        String ip = "192.0.2.21";
+        NameResolver.getClientName(ip);
+        assertEquals("host-1", waitForName(ip, "host-1"));
+
+        Thread.sleep(300);
+        // expired, the old name is returned while it is looked up again
+        String value = NameResolver.getClientName(ip);
+        assertTrue(value, value.equals("host-1") || value.equals("host-2"));
+        assertEquals("host-2", waitForName(ip, "host-2"));
+    }
+
+    @Test
+    public void testSizeBound() throws Exception {
+        CountingLookup lookup = new CountingLookup();
+        NameResolver.setClientLookup(lookup, 60000, 100);
+
+        for (int i = 0; i < 1000; i++) {
+            String ip = "10.0." + (i / 250) + "." + (i % 250);
+            assertEquals(ip, NameResolver.getClientName(ip));
+            assertTrue("cached: " + NameResolver.getCachedCount(),
+                  NameResolver.getCachedCount() <= 101);
+            // the address which caused a trim is kept
+            assertTrue(ip, NameResolver.isCached(ip));
+        }
+    }
+}
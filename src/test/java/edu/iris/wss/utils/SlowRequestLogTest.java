@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+
+package edu.iris.wss.utils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SlowRequestLogTest {
+
+    public SlowRequestLogTest() {
+    }
+
+    private static SlowRequestLog.Record createRecord() {
+        SlowRequestLog.Record record = new SlowRequestLog.Record();
+        record.endpointName = "query";
+        record.traceId = "4bf92f3577b34da6a3ce929d0e0e4736";
+        record.clientIp = "127.0.0.1";
+        record.requestUrl = "http://localhost/query?net=IU";
+        record.thresholdMsec = 1000;
+        record.totalNanos = 1500000000L;
+        record.spawnNanos = 2500000L;
+        record.handlerExitCode = 0;
+        record.bytes = 4096;
+        return record;
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+        String msg = SlowRequestLog.format(createRecord());
+
+        assertTrue(msg, msg.startsWith("slow request  endpoint: query"));
+        assertTrue(msg, msg.contains("  totalMsec: 1500.000"));
+        assertTrue(msg, msg.contains("  spawnMsec: 2.500"));
+        // not streamed, so not known
+        assertTrue(msg, msg.contains("  blockedOnClientMsec: -"));
+        assertTrue(msg, msg.contains("  bound: -  handlerExitCode"));
+        assertTrue(msg, msg.contains("  bytes: 4096"));
+        assertTrue(msg, msg.endsWith("  stderrTail: "));
+    }
+
+    @Test
+    public void testFormatStderrTail() throws Exception {
+        SlowRequestLog.Record record = createRecord();
+        record.stderrTail = "line one\r\nline two\n";
+        String msg = SlowRequestLog.format(record);
+
+        assertTrue(msg, msg.endsWith("  stderrTail: line one | line two"));
+    }
+
+    @Test
+    public void testOfferAndStop() throws Exception {
+        SlowRequestLog slowRequestLog = new SlowRequestLog();
+
+        // not started
+        assertFalse(slowRequestLog.offer(createRecord()));
+        assertEquals(1, slowRequestLog.getDroppedCount());
+
+        slowRequestLog.start("SlowRequestLogTest");
+        for (int i = 0; i < 10; i++) {
+            assertTrue(slowRequestLog.offer(createRecord()));
+        }
+        slowRequestLog.stop();
+
+        assertEquals(10, slowRequestLog.getWrittenCount());
+        assertEquals(1, slowRequestLog.getDroppedCount());
+    }
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import edu.iris.wss.framework.AppConfigurator.UsageFileFormat;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class UsageFileWriterTest {
+    private static final int ITEM_COUNT = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public UsageFileWriterTest() {
+    }
+
+    private List<WSUsageItem> createItems() {
+        List<WSUsageItem> items = new ArrayList<>();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            WSUsageItem wsu = UsagePublisherTest.createItem();
+            wsu.setDataSize((long)i * 1000);
+            wsu.setUserAgent("agent-" + (i % 3));
+            items.add(wsu);
+        }
+        // nulls must survive the binary format
+        items.add(new WSUsageItem());
+        return items;
+    }
+
+    private String expectedText(List<WSUsageItem> items) {
+        StringBuilder sb = new StringBuilder();
+        for (WSUsageItem wsu : items) {
+            sb.append(LoggerUtils.makeUsageLogString(wsu)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private File writeItems(File dir, UsageFileFormat format,
+          List<WSUsageItem> items) throws Exception {
+        UsageFileWriter writer = new UsageFileWriter(dir, "test", format,
+              1024L * 1024L * 1024L, 50);
+        writer.start();
+        for (WSUsageItem wsu : items) {
+            writer.write(wsu);
+        }
+        File file = writer.getCurrentFile();
+        writer.close();
+        assertEquals(items.size(), writer.getRecordCount());
+        assertEquals(1, writer.getFilesStarted());
+        return file;
+    }
+
+    @Test
+    public void testTextFile() throws Exception {
+        List<WSUsageItem> items = createItems();
+        File file = writeItems(folder.newFolder("text"), UsageFileFormat.TEXT,
+              items);
+
+        assertTrue(file.getName().endsWith(UsageFileWriter.TEXT_SUFFIX));
+        String text = new String(Files.readAllBytes(file.toPath()),
+              StandardCharsets.UTF_8);
+        assertEquals(LoggerUtils.getUsageLogHeader() + "\n"
+              + expectedText(items), text);
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        List<WSUsageItem> items = createItems();
+        File textFile = writeItems(folder.newFolder("text"),
+              UsageFileFormat.TEXT, items);
+        File binFile = writeItems(folder.newFolder("bin"),
+              UsageFileFormat.BINARY, items);
+
+        assertTrue(binFile.getName().endsWith(UsageFileWriter.BINARY_SUFFIX));
+        StringWriter out = new StringWriter();
+        try (InputStream in = new FileInputStream(binFile)) {
+            assertEquals(items.size(), UsageFileReader.convert(in, out));
+        }
+        assertEquals(expectedText(items), out.toString());
+        assertTrue("binary: " + binFile.length() + "  text: "
+              + textFile.length(), binFile.length() < textFile.length());
+    }
+
+    @Test
+    public void testSizeRotation() throws Exception {
+        File dir = folder.newFolder("rotate");
+        UsageFileWriter writer = new UsageFileWriter(dir, "test",
+              UsageFileFormat.TEXT, 4096, 50);
+        writer.start();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            writer.write(UsagePublisherTest.createItem());
+        }
+        writer.close();
+
+        File[] files = dir.listFiles();
+        assertTrue(files.length > 1);
+        assertEquals(files.length, writer.getFilesStarted());
+        long lines = 0;
+        for (File file : files) {
+            lines += Files.readAllLines(file.toPath()).size() - 1;
+        }
+        assertEquals(ITEM_COUNT, lines);
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testWriteAfterClose() throws Exception {
+        UsageFileWriter writer = new UsageFileWriter(folder.newFolder("closed"),
+              "test", UsageFileFormat.TEXT, 4096, 50);
+        writer.start();
+        writer.close();
+        writer.write(UsagePublisherTest.createItem());
+    }
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import edu.iris.wss.framework.Util;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class UsageLogFormatterTest {
+
+    public UsageLogFormatterTest() {
+    }
+
+    @Test
+    public void testDatesMatchSimpleDateFormat() throws Exception {
+        SimpleDateFormat sdf = new SimpleDateFormat(Util.ISO_8601_ZULU_FORMAT);
+        sdf.setTimeZone(Util.UTZ_TZ);
+
+        char[] chars = new char[20];
+        // fixed seed, range is years 1900 through 2100
+        Random random = new Random(29L);
+        long min = -2208988800000L;
+        long max = 4102444800000L;
+        for (int i = 0; i < 100000; i++) {
+            long msec = min + (long) (random.nextDouble() * (max - min));
+            UsageLogFormatter.writeIsoDate(Math.floorDiv(msec, 1000L), chars);
+            assertEquals(sdf.format(new Date(msec)), new String(chars));
+        }
+
+        long[] edges = {0L, -1L, 951782400000L, 951868799999L, 1483228799000L,
+              1483228800000L, 4107542399000L};
+        for (long msec : edges) {
+            UsageLogFormatter.writeIsoDate(Math.floorDiv(msec, 1000L), chars);
+            assertEquals(sdf.format(new Date(msec)), new String(chars));
+        }
+    }
+
+    @Test
+    public void testNullFields() throws Exception {
+        WSUsageItem wsu = new WSUsageItem();
+        wsu.setApplication("app");
+
+        assertEquals("app|||||||||||||||||||", LoggerUtils.makeUsageLogString(wsu));
+    }
+
+    @Test
+    public void testBufferReuse() throws Exception {
+        UsageLogFormatter formatter = new UsageLogFormatter();
+        WSUsageItem wsu = new WSUsageItem();
+        wsu.setApplication("a");
+        wsu.setDataSize(12L);
+        wsu.setHttpCode(204);
+        wsu.setAccessDate(new Date(1490887550333L));
+        wsu.setMessagetype("usage");
+
+        String first = formatter.formatToString(wsu);
+        StringBuilder sb = formatter.format(wsu);
+        assertEquals(first, sb.toString());
+        assertSame(sb, formatter.format(wsu));
+        assertEquals("a||2017-03-30T15:25:50Z|||12||||204||||||||||usage", first);
+    }
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import edu.iris.wss.framework.AppConfigurator.LoggingMethod;
+import edu.iris.wss.framework.AppConfigurator.UsageOverflowPolicy;
+import java.util.Date;
+import org.apache.log4j.Level;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class UsagePublisherTest {
+
+    private static final int THREAD_COUNT = 4;
+    private static final int ITEMS_PER_THREAD = 500;
+
+    public UsagePublisherTest() {
+    }
+
+    public static WSUsageItem createItem() {
+        WSUsageItem wsu = new WSUsageItem();
+        wsu.setMessagetype("usage");
+        wsu.setApplication("UsagePublisherTest");
+        wsu.setHost("host");
+        wsu.setAccessDate(new Date());
+        wsu.setClientName("client");
+        wsu.setClientIp("192.0.2.1");
+        wsu.setDataSize(1024L);
+        wsu.setProcessTimeMsec(5L);
+        wsu.setHttpCode(200);
+        return wsu;
+    }
+
+    private void offerFromThreads(final UsagePublisher publisher)
+          throws Exception {
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < ITEMS_PER_THREAD; j++) {
+                        publisher.offer(Level.DEBUG, createItem(), null);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testBlockPublishesAll() throws Exception {
+        UsagePublisher publisher = new UsagePublisher(LoggingMethod.LOG4J, 8,
+              UsageOverflowPolicy.BLOCK);
+        publisher.start("testBlockPublishesAll");
+        offerFromThreads(publisher);
+        publisher.stop();
+
+        long total = THREAD_COUNT * ITEMS_PER_THREAD;
+        assertEquals(total, publisher.getQueuedCount());
+        assertEquals(total, publisher.getPublishedCount());
+        assertEquals(0, publisher.getDroppedCount());
+        assertEquals(0, publisher.getSpilledCount());
+        assertEquals(0, publisher.getQueueDepth());
+        assertTrue(publisher.getHighWaterMark() <= 8);
+    }
+
+    @Test
+    public void testDropOldestAccounting() throws Exception {
+        UsagePublisher publisher = new UsagePublisher(LoggingMethod.LOG4J, 2,
+              UsageOverflowPolicy.DROP_OLDEST);
+        publisher.start("testDropOldestAccounting");
+        offerFromThreads(publisher);
+        publisher.stop();
+
+        long total = THREAD_COUNT * ITEMS_PER_THREAD;
+        assertEquals(total, publisher.getQueuedCount());
+        assertEquals(total, publisher.getPublishedCount()
+              + publisher.getDroppedCount());
+        assertEquals(0, publisher.getQueueDepth());
+    }
+
+    @Test
+    public void testSpillAccounting() throws Exception {
+        UsagePublisher publisher = new UsagePublisher(LoggingMethod.LOG4J, 2,
+              UsageOverflowPolicy.SPILL);
+        publisher.start("testSpillAccounting");
+        offerFromThreads(publisher);
+        publisher.stop();
+
+        long total = THREAD_COUNT * ITEMS_PER_THREAD;
+        assertEquals(total, publisher.getQueuedCount()
+              + publisher.getSpilledCount());
+        assertEquals(publisher.getQueuedCount(),
+              publisher.getPublishedCount());
+    }
+
+    @Test
+    public void testOfferDuringStop() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final UsagePublisher publisher = new UsagePublisher(
+                  LoggingMethod.LOG4J, 8, UsageOverflowPolicy.BLOCK);
+            publisher.start("testOfferDuringStop");
+            Thread offerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        offerFromThreads(publisher);
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+            offerThread.start();
+            Thread.sleep(round % 5);
+            publisher.stop();
+            offerThread.join();
+
+            // queued before stop or published directly after, none left
+            assertEquals(THREAD_COUNT * ITEMS_PER_THREAD,
+                  publisher.getPublishedCount());
+            assertEquals(0, publisher.getQueueDepth());
+        }
+    }
+
+    @Test
+    public void testNotStartedPublishesOnCaller() throws Exception {
+        UsagePublisher publisher = new UsagePublisher(LoggingMethod.LOG4J, 4,
+              UsageOverflowPolicy.BLOCK);
+        publisher.offer(Level.DEBUG, createItem(), null);
+
+        assertEquals(0, publisher.getQueuedCount());
+        assertEquals(1, publisher.getPublishedCount());
+    }
+
+    @Test
+    public void testHoldUntilBackendReady() throws Exception {
+        UsagePublisher publisher = new UsagePublisher(LoggingMethod.LOG4J, 16,
+              UsageOverflowPolicy.BLOCK);
+        publisher.holdUntilBackendReady();
+        publisher.start("testHoldUntilBackendReady");
+        for (int i = 0; i < 10; i++) {
+            publisher.offer(Level.DEBUG, createItem(), null);
+        }
+        Thread.sleep(200);
+        assertFalse(publisher.isBackendReady());
+        assertEquals(0, publisher.getPublishedCount());
+        assertEquals(10, publisher.getQueueDepth());
+
+        publisher.setBackendReady();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (publisher.getPublishedCount() < 10
+              && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        publisher.stop();
+        assertEquals(10, publisher.getPublishedCount());
+        assertEquals(0, publisher.getQueueDepth());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() throws Exception {
+        new UsagePublisher(LoggingMethod.LOG4J, 0, UsageOverflowPolicy.BLOCK);
+    }
+}
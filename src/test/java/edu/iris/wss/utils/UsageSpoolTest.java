@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import edu.iris.wss.framework.AppConfigurator.LoggingMethod;
+import edu.iris.wss.utils.UsageItemCodec.UsageRecord;
+import java.io.File;
+import org.apache.log4j.Level;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class UsageSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public UsageSpoolTest() {
+    }
+
+    @Test
+    public void testCodecRoundTrip() throws Exception {
+        WSUsageItem wsu = UsagePublisherTest.createItem();
+        wsu.setNetwork("IU");
+        wsu.setExtra(null);
+
+        byte[] bytes = UsageItemCodec.encode(Level.ERROR, wsu, "jmsApp");
+        UsageRecord record = UsageItemCodec.decode(bytes);
+
+        assertEquals(Level.ERROR, record.level);
+        assertEquals("jmsApp", record.jmsAppName);
+        assertEquals(LoggerUtils.makeUsageLogString(wsu),
+              LoggerUtils.makeUsageLogString(record.item));
+    }
+
+    @Test
+    public void testBacklogSurvivesRestart() throws Exception {
+        File dir = folder.newFolder("restart");
+
+        // JMS without a webLogService, so every replay attempt fails
+        UsageSpool spool = new UsageSpool(dir, 64 * 1024, 1024 * 1024,
+              LoggingMethod.JMS);
+        spool.start("testBacklogSurvivesRestart");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(spool.append(Level.INFO, UsagePublisherTest.createItem(),
+                  null));
+        }
+        assertEquals(100, spool.getBacklog());
+        spool.stop();
+
+        UsageSpool reopened = new UsageSpool(dir, 64 * 1024, 1024 * 1024,
+              LoggingMethod.JMS);
+        reopened.start("testBacklogSurvivesRestart");
+        assertEquals(100, reopened.getBacklog());
+        assertTrue(reopened.hasBacklog());
+        reopened.stop();
+    }
+
+    @Test
+    public void testReplayDrainsInOrder() throws Exception {
+        File dir = folder.newFolder("replay");
+
+        UsageSpool spool = new UsageSpool(dir, 4096, 1024 * 1024,
+              LoggingMethod.LOG4J);
+        spool.start("testReplayDrainsInOrder");
+        int count = 200;
+        for (int i = 0; i < count; i++) {
+            spool.append(Level.DEBUG, UsagePublisherTest.createItem(), null);
+        }
+
+        long limit = System.currentTimeMillis() + 10000;
+        while (spool.hasBacklog() && System.currentTimeMillis() < limit) {
+            Thread.sleep(20);
+        }
+        spool.stop();
+
+        assertEquals(0, spool.getBacklog());
+        assertEquals(count, spool.getReplayedCount());
+        // replayed segments are deleted, only the one being written is left
+        assertEquals(1, spool.getSegmentCount());
+        assertEquals(1, dir.listFiles().length);
+    }
+
+    @Test
+    public void testPoisonRecordDeadLettered() throws Exception {
+        File dir = folder.newFolder("deadletter");
+
+        // no JMS service, so every replay fails
+        UsageSpool spool = new UsageSpool(dir, 4096, 1024 * 1024,
+              LoggingMethod.JMS);
+        spool.setReplayRetry(10, 20, 3);
+        spool.start("testPoisonRecordDeadLettered");
+        int count = 3;
+        for (int i = 0; i < count; i++) {
+            spool.append(Level.INFO, UsagePublisherTest.createItem(), null);
+        }
+
+        long limit = System.currentTimeMillis() + 10000;
+        while (spool.hasBacklog() && System.currentTimeMillis() < limit) {
+            Thread.sleep(20);
+        }
+        spool.stop();
+
+        assertEquals(0, spool.getBacklog());
+        assertEquals(count, spool.getDeadLetteredCount());
+        assertEquals(count * 3, spool.getReplayFailureCount());
+        assertEquals(0, spool.getReplayedCount());
+    }
+
+    @Test
+    public void testSizeCap() throws Exception {
+        File dir = folder.newFolder("cap");
+
+        UsageSpool spool = new UsageSpool(dir, 1024, 4096, LoggingMethod.JMS);
+        spool.start("testSizeCap");
+        int count = 200;
+        for (int i = 0; i < count; i++) {
+            spool.append(Level.INFO, UsagePublisherTest.createItem(), null);
+        }
+        spool.stop();
+
+        assertEquals(4, spool.getSegmentCount());
+        assertTrue(spool.getDroppedCount() > 0);
+        assertEquals(count, spool.getAppendedCount() + spool.getDroppedCount());
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IRIS DMC supported by the National Science Foundation.
+ *
+ * This file is part of the Web Service Shell (WSS).
+ *
+ * The WSS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * The WSS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * A copy of the GNU Lesser General Public License is available at
+ * <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package edu.iris.wss.utils;
+
+import edu.iris.dmc.logging.usage.WSUsageItem;
+import edu.iris.wss.framework.AppConfigurator.LoggingMethod;
+import java.util.Date;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WfstatAggregatorTest {
+
+    private static final int THREAD_COUNT = 4;
+    private static final int RECORDS_PER_THREAD = 1000;
+    private static final int CHANNEL_COUNT = 10;
+
+    public WfstatAggregatorTest() {
+    }
+
+    private static WSUsageItem createWfstat(String channel, long size,
+          long start, long end) {
+        WSUsageItem wsu = UsagePublisherTest.createItem();
+        wsu.setMessagetype(WfstatAggregator.WFSTAT_MESSAGE_TYPE);
+        wsu.setExtra("query");
+        wsu.setNetwork("IU");
+        wsu.setStation("ANMO");
+        wsu.setLocation("00");
+        wsu.setChannel(channel);
+        wsu.setQuality("M");
+        wsu.setDataSize(size);
+        wsu.setStartTime(new Date(start));
+        wsu.setEndTime(new Date(end));
+        return wsu;
+    }
+
+    @Test
+    public void testRollupSums() throws Exception {
+        WSUsageItem first = createWfstat("BHZ", 512, 5000, 6000);
+        WfstatAggregator.WfstatKey key = new WfstatAggregator.WfstatKey(first);
+        WfstatAggregator.Rollup rollup = new WfstatAggregator.Rollup(first);
+        rollup.merge(first);
+        rollup.merge(createWfstat("BHZ", 1024, 1000, 2000));
+        rollup.merge(createWfstat("BHZ", 2048, 3000, 9000));
+
+        WSUsageItem wsu = rollup.toUsageItem(key, new Date(0));
+        assertEquals(3584L, wsu.getDataSize().longValue());
+        assertEquals(15L, wsu.getProcessTimeMsec().longValue());
+        assertEquals(1000L, wsu.getStartTime().getTime());
+        assertEquals(9000L, wsu.getEndTime().getTime());
+        assertEquals("BHZ", wsu.getChannel());
+        assertEquals("wfstat", wsu.getMessagetype());
+    }
+
+    @Test
+    public void testKeyEquality() throws Exception {
+        WfstatAggregator.WfstatKey a = new WfstatAggregator.WfstatKey(
+              createWfstat("BHZ", 1, 0, 1));
+        WfstatAggregator.WfstatKey b = new WfstatAggregator.WfstatKey(
+              createWfstat("BHZ", 2, 5, 9));
+        WfstatAggregator.WfstatKey c = new WfstatAggregator.WfstatKey(
+              createWfstat("BHN", 1, 0, 1));
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(c));
+    }
+
+    @Test
+    public void testConcurrentMerge() throws Exception {
+        final WfstatAggregator aggregator = new WfstatAggregator(
+              "WfstatAggregatorTest", LoggingMethod.LOG4J, null, 60, false);
+
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < RECORDS_PER_THREAD; j++) {
+                        aggregator.add(createWfstat("C" + (j % CHANNEL_COUNT),
+                              10, j, j + 1));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(CHANNEL_COUNT, aggregator.getOpenKeyCount());
+        assertEquals(THREAD_COUNT * RECORDS_PER_THREAD,
+              aggregator.getRecordsMerged());
+        assertEquals(CHANNEL_COUNT, aggregator.flush());
+        assertEquals(0, aggregator.getOpenKeyCount());
+        assertEquals(0, aggregator.flush());
+        assertEquals(CHANNEL_COUNT, aggregator.getRollupsSent());
+    }
+
+    @Test
+    public void testAddAfterStop() throws Exception {
+        WfstatAggregator aggregator = new WfstatAggregator(
+              "WfstatAggregatorTest", LoggingMethod.LOG4J, null, null, 60,
+              false);
+        aggregator.start();
+        aggregator.add(createWfstat("BHZ", 10, 0, 1));
+        aggregator.stop();
+        assertEquals(1, aggregator.getRollupsSent());
+
+        // nothing is left in a window which will never be flushed
+        aggregator.add(createWfstat("BHZ", 10, 0, 1));
+        assertEquals(0, aggregator.getOpenKeyCount());
+        assertEquals(1, aggregator.getRecordsMerged());
+        assertEquals(1, aggregator.getSentAfterStop());
+    }
+}
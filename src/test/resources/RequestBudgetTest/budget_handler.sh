@@ -0,0 +1,30 @@
+#!/bin/sh
+
+# handler for RequestBudgetTest, writes --bytes zero bytes, or for
+# --format miniseed, budget.mseed from this directory, or exits with
+# --exitcode without writing data
+
+bytes=1024
+exitcode=0
+format=binary
+
+while [ $# -gt 0 ]; do
+  case "$1" in
+    --bytes) bytes=$2; shift ;;
+    --exitcode) exitcode=$2; shift ;;
+    --format) format=$2; shift ;;
+  esac
+  shift
+done
+
+if [ "${exitcode}" != "0" ]; then
+  exit "${exitcode}"
+fi
+
+if [ "${format}" = "miniseed" ]; then
+  cat "$(dirname "$0")/budget.mseed"
+elif [ "${format}" = "text" ]; then
+  head -c "${bytes}" /dev/zero | tr '\0' 'a'
+else
+  head -c "${bytes}" /dev/zero
+fi